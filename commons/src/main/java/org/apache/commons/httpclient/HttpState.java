@@ -37,7 +37,7 @@ import java.util.Map;
 import java.util.List;
 import java.util.Iterator;
 import java.util.SortedMap; // <- IA/HERITRIX CHANGE
-import java.util.TreeMap;   // <- IA/HERITRIX CHANGE
+import java.util.concurrent.ConcurrentSkipListMap; // <- IA/HERITRIX CHANGE
 
 import org.apache.commons.httpclient.cookie.CookieSpec;
 import org.apache.commons.httpclient.cookie.CookiePolicy;
@@ -90,8 +90,10 @@ public class HttpState {
 //    private ArrayList cookiesArrayList = new ArrayList();
     /**
      * SortedMap of {@link Cookie cookies} that this HTTP state contains.
+     * Must be safe for concurrent use: cookie methods do not synchronize,
+     * so that many threads may share one state without contention.
      */
-    private SortedMap cookiesMap = new TreeMap();
+    private volatile SortedMap cookiesMap = new ConcurrentSkipListMap();
 // END IA/HERITRIX CHANGES
 
     private boolean preemptive = false;
@@ -133,7 +135,7 @@ public class HttpState {
      * @see #addCookies(Cookie[])
      * 
      */
-    public synchronized void addCookie(Cookie cookie) {
+    public void addCookie(Cookie cookie) { // <- IA/HERITRIX CHANGE: unsynchronized
         LOG.trace("enter HttpState.addCookie(Cookie)");
 
 // BEGIN IA/HERITRIX CHANGES
@@ -174,7 +176,7 @@ public class HttpState {
      * 
      * 
      */
-    public synchronized void addCookies(Cookie[] cookies) {
+    public void addCookies(Cookie[] cookies) { // <- IA/HERITRIX CHANGE: unsynchronized
         LOG.trace("enter HttpState.addCookies(Cookie[])");
 
         if (cookies != null) {
@@ -220,22 +222,23 @@ public class HttpState {
      * Returns a sorted map of {@link Cookie cookies} that this HTTP
      * state currently contains.
      * 
-     * Any operations on this map should be synchronized with respect 
-     * to this HttpState instance.
+     * The map is safe for concurrent use; operations on it need not be
+     * synchronized.
      * 
      * @return sorter map of {@link Cookie cookies}
      */
-    public synchronized SortedMap getCookiesMap() {
+    public SortedMap getCookiesMap() {
         return cookiesMap;
     }
     
     /**
      * Replace the standard sorted map with an external implemenations 
      * (such as one backed by persistent store, like BDB's StoredSortedMap.)
+     * The map must be safe for concurrent use.
      * 
      * @param map alternate sorted map to use to store cookies
      */
-    public synchronized void setCookiesMap(SortedMap map) {
+    public void setCookiesMap(SortedMap map) {
         this.cookiesMap = map;
     }
 // END IA/HERITRIX ADDITIONS
@@ -194,6 +194,9 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable {
     private Map<String,DatabasePlusConfig> databases =
         new ConcurrentHashMap<String,DatabasePlusConfig>();
 
+    private Map<String,BdbStringIdTable> idTables =
+        new ConcurrentHashMap<String,BdbStringIdTable>();
+
     private transient Thread shutdownHook;
     
     public BdbModule() {
@@ -272,6 +275,7 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable {
     }
     
     public void closeDatabase(String name) {
+        idTables.remove(name);
         DatabasePlusConfig dpc = databases.remove(name);
         if (dpc == null) {
             LOGGER.warning("No such database: " + name);
@@ -418,6 +422,30 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable {
         return oic; 
     }
     
+    /**
+     * Get a StringIdTable, backed by a BDB Database of the given name. If
+     * 'usePriorData' is true, names (and their IDs) already in the
+     * database are restored; otherwise start with an empty table. 
+     * 
+     * @param dbName
+     * @param usePriorData
+     * @return
+     * @throws DatabaseException
+     */
+    public synchronized BdbStringIdTable getStringIdTable(String dbName,
+            boolean usePriorData) throws DatabaseException {
+        BdbStringIdTable table = idTables.get(dbName);
+        if (table != null) {
+            return table;
+        }
+        BdbConfig config = new BdbConfig();
+        config.setAllowCreate(true);
+        table = new BdbStringIdTable(
+                openDatabase(dbName, config, usePriorData));
+        idTables.put(dbName, table);
+        return table;
+    }
+
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
     }
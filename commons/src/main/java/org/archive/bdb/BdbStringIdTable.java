@@ -0,0 +1,78 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.bdb;
+
+import org.archive.util.StringIdTable;
+
+import com.sleepycat.bind.tuple.IntegerBinding;
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+
+/**
+ * StringIdTable which writes each name, keyed by its ID, to a BDB
+ * Database as it is added, so that IDs survive checkpoint/resume. All
+ * names are also held in memory; the Database is only read when opened.
+ *
+ * @see BdbModule#getStringIdTable(String, boolean)
+ */
+public class BdbStringIdTable extends StringIdTable {
+    protected Database db;
+
+    /**
+     * Create a table over the given Database, restoring any names
+     * it already holds.
+     *
+     * @param db
+     * @throws DatabaseException
+     */
+    public BdbStringIdTable(Database db) throws DatabaseException {
+        this.db = db;
+        DatabaseEntry key = new DatabaseEntry();
+        DatabaseEntry value = new DatabaseEntry();
+        Cursor cursor = db.openCursor(null, null);
+        try {
+            while (cursor.getNext(key, value, LockMode.READ_UNCOMMITTED)
+                    == OperationStatus.SUCCESS) {
+                restore(IntegerBinding.entryToInt(key),
+                        StringBinding.entryToString(value));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void added(int id, String name) {
+        DatabaseEntry key = new DatabaseEntry();
+        IntegerBinding.intToEntry(id, key);
+        DatabaseEntry value = new DatabaseEntry();
+        StringBinding.stringToEntry(name, value);
+        try {
+            db.put(null, key, value);
+        } catch (DatabaseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
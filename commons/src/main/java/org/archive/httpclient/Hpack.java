@@ -0,0 +1,500 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.httpclient.Header;
+
+/**
+ * HPACK header compression for HTTP/2 (RFC 7541): an {@link Encoder} and
+ * a {@link Decoder}, each keeping the dynamic table of one direction of
+ * one connection. Header names and values are treated as ISO-8859-1.
+ *
+ * @version $Date$, $Revision$
+ */
+public class Hpack {
+    /** default (and, for our decoder, maximum) dynamic table size */
+    public static final int DEFAULT_TABLE_SIZE = 4096;
+
+    /** per-entry overhead counted against the table size */
+    static final int ENTRY_OVERHEAD = 32;
+
+    /** the static table (RFC 7541 Appendix A); index 0 unused */
+    static final Header[] STATIC_TABLE = {
+        null,
+        new Header(":authority", ""),
+        new Header(":method", "GET"),
+        new Header(":method", "POST"),
+        new Header(":path", "/"),
+        new Header(":path", "/index.html"),
+        new Header(":scheme", "http"),
+        new Header(":scheme", "https"),
+        new Header(":status", "200"),
+        new Header(":status", "204"),
+        new Header(":status", "206"),
+        new Header(":status", "304"),
+        new Header(":status", "400"),
+        new Header(":status", "404"),
+        new Header(":status", "500"),
+        new Header("accept-charset", ""),
+        new Header("accept-encoding", "gzip, deflate"),
+        new Header("accept-language", ""),
+        new Header("accept-ranges", ""),
+        new Header("accept", ""),
+        new Header("access-control-allow-origin", ""),
+        new Header("age", ""),
+        new Header("allow", ""),
+        new Header("authorization", ""),
+        new Header("cache-control", ""),
+        new Header("content-disposition", ""),
+        new Header("content-encoding", ""),
+        new Header("content-language", ""),
+        new Header("content-length", ""),
+        new Header("content-location", ""),
+        new Header("content-range", ""),
+        new Header("content-type", ""),
+        new Header("cookie", ""),
+        new Header("date", ""),
+        new Header("etag", ""),
+        new Header("expect", ""),
+        new Header("expires", ""),
+        new Header("from", ""),
+        new Header("host", ""),
+        new Header("if-match", ""),
+        new Header("if-modified-since", ""),
+        new Header("if-none-match", ""),
+        new Header("if-range", ""),
+        new Header("if-unmodified-since", ""),
+        new Header("last-modified", ""),
+        new Header("link", ""),
+        new Header("location", ""),
+        new Header("max-forwards", ""),
+        new Header("proxy-authenticate", ""),
+        new Header("proxy-authorization", ""),
+        new Header("range", ""),
+        new Header("referer", ""),
+        new Header("refresh", ""),
+        new Header("retry-after", ""),
+        new Header("server", ""),
+        new Header("set-cookie", ""),
+        new Header("strict-transport-security", ""),
+        new Header("transfer-encoding", ""),
+        new Header("user-agent", ""),
+        new Header("vary", ""),
+        new Header("via", ""),
+        new Header("www-authenticate", ""),
+    };
+
+    /**
+     * Huffman code lengths of symbols 0-255 and EOS (RFC 7541 Appendix
+     * B). The code is canonical, so the codes follow from the lengths.
+     */
+    static final int[] HUFFMAN_LENGTHS = {
+        13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+        28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+        6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+        5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+        13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+        15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+        6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+        20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+        24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+        22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+        21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+        26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+        19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+        20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+        26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+        30,
+    };
+
+    static final int EOS = 256;
+
+    /** Huffman codes, right-aligned, by symbol */
+    static final int[] HUFFMAN_CODES = new int[HUFFMAN_LENGTHS.length];
+
+    /**
+     * Huffman decoding tree: node n's children are at 2n (0 bit) and
+     * 2n+1 (1 bit), holding the child node, or -1-symbol at a leaf.
+     */
+    static final int[] HUFFMAN_TREE;
+
+    static {
+        // assign canonical codes: by length, then by symbol
+        int code = 0;
+        int nodes = 1;
+        int[] tree = new int[2 * 2 * HUFFMAN_LENGTHS.length];
+        for (int length = 1; length <= 30; length++) {
+            for (int sym = 0; sym < HUFFMAN_LENGTHS.length; sym++) {
+                if (HUFFMAN_LENGTHS[sym] != length) {
+                    continue;
+                }
+                HUFFMAN_CODES[sym] = code;
+                int node = 0;
+                for (int bit = length - 1; bit > 0; bit--) {
+                    int slot = 2 * node + ((code >>> bit) & 1);
+                    if (tree[slot] == 0) {
+                        tree[slot] = nodes++;
+                    }
+                    node = tree[slot];
+                }
+                tree[2 * node + (code & 1)] = -1 - sym;
+                code++;
+            }
+            code <<= 1;
+        }
+        HUFFMAN_TREE = tree;
+    }
+
+    /**
+     * A dynamic table: most recent entry first.
+     */
+    static class DynamicTable {
+        LinkedList<Header> entries = new LinkedList<Header>();
+        int size = 0;
+        int maxSize = DEFAULT_TABLE_SIZE;
+
+        static int sizeOf(Header h) {
+            return h.getName().length() + h.getValue().length()
+                + ENTRY_OVERHEAD;
+        }
+
+        void add(Header h) {
+            entries.addFirst(h);
+            size += sizeOf(h);
+            evict();
+        }
+
+        void setMaxSize(int max) {
+            maxSize = max;
+            evict();
+        }
+
+        void evict() {
+            while (size > maxSize && !entries.isEmpty()) {
+                size -= sizeOf(entries.removeLast());
+            }
+        }
+
+        /** @return entry at the given (combined, 1-based) index */
+        Header get(int index) throws IOException {
+            if (index > 0 && index < STATIC_TABLE.length) {
+                return STATIC_TABLE[index];
+            }
+            int dynamic = index - STATIC_TABLE.length;
+            if (dynamic < 0 || dynamic >= entries.size()) {
+                throw new IOException("HPACK index out of range: " + index);
+            }
+            return entries.get(dynamic);
+        }
+    }
+
+    /**
+     * Decodes header blocks received on one connection.
+     */
+    public static class Decoder {
+        protected DynamicTable table = new DynamicTable();
+        /** largest table size the encoder may choose */
+        protected int maxTableSize;
+
+        public Decoder() {
+            this(DEFAULT_TABLE_SIZE);
+        }
+
+        public Decoder(int maxTableSize) {
+            this.maxTableSize = maxTableSize;
+            table.setMaxSize(maxTableSize);
+        }
+
+        /**
+         * Decode a complete header block.
+         *
+         * @param block header block bytes
+         * @param off offset of block
+         * @param len length of block
+         * @return headers, in order
+         * @throws IOException if the block is malformed (a connection
+         * error: the decoder is no longer usable)
+         */
+        public List<Header> decode(byte[] block, int off, int len)
+        throws IOException {
+            List<Header> headers = new ArrayList<Header>();
+            int[] pos = { off };
+            int end = off + len;
+            while (pos[0] < end) {
+                int b = block[pos[0]] & 0xff;
+                if ((b & 0x80) != 0) {
+                    // indexed header field
+                    int index = readInt(block, pos, end, 7);
+                    if (index == 0) {
+                        throw new IOException("HPACK index 0");
+                    }
+                    headers.add(table.get(index));
+                } else if ((b & 0xc0) == 0x40) {
+                    // literal with incremental indexing
+                    Header h = readLiteral(block, pos, end, 6);
+                    table.add(h);
+                    headers.add(h);
+                } else if ((b & 0xe0) == 0x20) {
+                    // dynamic table size update
+                    int size = readInt(block, pos, end, 5);
+                    if (size > maxTableSize) {
+                        throw new IOException("HPACK table size too large: "
+                                + size);
+                    }
+                    table.setMaxSize(size);
+                } else {
+                    // literal without indexing, or never indexed
+                    headers.add(readLiteral(block, pos, end, 4));
+                }
+            }
+            return headers;
+        }
+
+        protected Header readLiteral(byte[] block, int[] pos, int end,
+                int prefix) throws IOException {
+            int index = readInt(block, pos, end, prefix);
+            String name = (index == 0)
+                ? readString(block, pos, end)
+                : table.get(index).getName();
+            return new Header(name, readString(block, pos, end));
+        }
+    }
+
+    /**
+     * Encodes header blocks to be sent on one connection. Headers are
+     * added to the dynamic table, so that those repeated on later
+     * requests (user-agent, from, accept...) shrink to a byte or two;
+     * credentials and cookies are never indexed.
+     */
+    public static class Encoder {
+        protected DynamicTable table = new DynamicTable();
+        /** table size to announce at the start of the next block */
+        protected int pendingSizeUpdate = -1;
+
+        /**
+         * Note the decoder's table size limit (its
+         * SETTINGS_HEADER_TABLE_SIZE).
+         *
+         * @param max decoder's limit
+         */
+        public void setMaxTableSize(int max) {
+            int size = Math.min(max, DEFAULT_TABLE_SIZE);
+            if (size != table.maxSize) {
+                table.setMaxSize(size);
+                pendingSizeUpdate = size;
+            }
+        }
+
+        /**
+         * Encode the given headers as a complete header block. Blocks must
+         * be sent in the order encoded.
+         *
+         * @param headers headers, with lowercase names
+         * @return header block
+         */
+        public byte[] encode(List<Header> headers) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (pendingSizeUpdate >= 0) {
+                writeInt(out, 0x20, 5, pendingSizeUpdate);
+                pendingSizeUpdate = -1;
+            }
+            for (Header h : headers) {
+                encode(out, h);
+            }
+            return out.toByteArray();
+        }
+
+        protected void encode(ByteArrayOutputStream out, Header h) {
+            int nameIndex = 0;
+            int index = 1;
+            for (int i = 1; i < STATIC_TABLE.length; i++, index++) {
+                if (STATIC_TABLE[i].getName().equals(h.getName())) {
+                    if (STATIC_TABLE[i].getValue().equals(h.getValue())) {
+                        writeInt(out, 0x80, 7, index);
+                        return;
+                    }
+                    if (nameIndex == 0) {
+                        nameIndex = index;
+                    }
+                }
+            }
+            for (Header entry : table.entries) {
+                if (entry.getName().equals(h.getName())) {
+                    if (entry.getValue().equals(h.getValue())) {
+                        writeInt(out, 0x80, 7, index);
+                        return;
+                    }
+                    if (nameIndex == 0) {
+                        nameIndex = index;
+                    }
+                }
+                index++;
+            }
+            if (isSensitive(h.getName())) {
+                // literal never indexed
+                writeInt(out, 0x10, 4, nameIndex);
+            } else {
+                // literal with incremental indexing
+                writeInt(out, 0x40, 6, nameIndex);
+                table.add(new Header(h.getName(), h.getValue()));
+            }
+            if (nameIndex == 0) {
+                writeString(out, h.getName());
+            }
+            writeString(out, h.getValue());
+        }
+
+        protected boolean isSensitive(String name) {
+            return name.equals("authorization") || name.equals("cookie")
+                || name.equals("proxy-authorization");
+        }
+    }
+
+    static int readInt(byte[] block, int[] pos, int end, int prefix)
+    throws IOException {
+        int mask = (1 << prefix) - 1;
+        int value = block[pos[0]++] & mask;
+        if (value < mask) {
+            return value;
+        }
+        int shift = 0;
+        int b;
+        do {
+            if (pos[0] >= end || shift > 21) {
+                throw new IOException("bad HPACK integer");
+            }
+            b = block[pos[0]++] & 0xff;
+            value += (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static String readString(byte[] block, int[] pos, int end)
+    throws IOException {
+        if (pos[0] >= end) {
+            throw new IOException("truncated HPACK string");
+        }
+        boolean huffman = (block[pos[0]] & 0x80) != 0;
+        int length = readInt(block, pos, end, 7);
+        if (length > end - pos[0]) {
+            throw new IOException("truncated HPACK string");
+        }
+        int start = pos[0];
+        pos[0] += length;
+        if (huffman) {
+            return huffmanDecode(block, start, length);
+        }
+        return new String(block, start, length, "ISO-8859-1");
+    }
+
+    static String huffmanDecode(byte[] block, int off, int len)
+    throws IOException {
+        StringBuilder sb = new StringBuilder(len * 8 / 5);
+        int node = 0;
+        int depth = 0;
+        boolean allOnes = true;
+        for (int i = off; i < off + len; i++) {
+            int b = block[i] & 0xff;
+            for (int bit = 7; bit >= 0; bit--) {
+                int one = (b >>> bit) & 1;
+                int next = HUFFMAN_TREE[2 * node + one];
+                allOnes &= (one == 1);
+                depth++;
+                if (next < 0) {
+                    int sym = -1 - next;
+                    if (sym == EOS) {
+                        throw new IOException("HPACK EOS in string");
+                    }
+                    sb.append((char) sym);
+                    node = 0;
+                    depth = 0;
+                    allOnes = true;
+                } else if (next == 0) {
+                    throw new IOException("bad HPACK Huffman code");
+                } else {
+                    node = next;
+                }
+            }
+        }
+        // padding must be a short prefix of EOS, i.e. all ones
+        if (depth > 7 || !allOnes) {
+            throw new IOException("bad HPACK Huffman padding");
+        }
+        return sb.toString();
+    }
+
+    static void writeInt(ByteArrayOutputStream out, int flags, int prefix,
+            int value) {
+        int mask = (1 << prefix) - 1;
+        if (value < mask) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | mask);
+        value -= mask;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Write the given string, Huffman-coded if that is shorter.
+     */
+    static void writeString(ByteArrayOutputStream out, String s) {
+        long bits = 0;
+        for (int i = 0; i < s.length(); i++) {
+            bits += HUFFMAN_LENGTHS[s.charAt(i) & 0xff];
+        }
+        int huffmanLength = (int) ((bits + 7) / 8);
+        if (huffmanLength >= s.length()) {
+            writeInt(out, 0x00, 7, s.length());
+            for (int i = 0; i < s.length(); i++) {
+                out.write(s.charAt(i));
+            }
+            return;
+        }
+        writeInt(out, 0x80, 7, huffmanLength);
+        long buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int sym = s.charAt(i) & 0xff;
+            buffer = (buffer << HUFFMAN_LENGTHS[sym]) | HUFFMAN_CODES[sym];
+            buffered += HUFFMAN_LENGTHS[sym];
+            while (buffered >= 8) {
+                buffered -= 8;
+                out.write((int) (buffer >>> buffered));
+            }
+        }
+        if (buffered > 0) {
+            // pad with the most significant bits of EOS (all ones)
+            out.write((int) ((buffer << (8 - buffered))
+                    | (0xff >>> buffered)));
+        }
+    }
+}
@@ -0,0 +1,965 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.httpclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.Header;
+
+/**
+ * Client side of one HTTP/2 connection (RFC 7540), multiplexing up to
+ * maxStreams concurrent request/response {@link Stream}s. A daemon
+ * thread reads all incoming frames; request frames are written by the
+ * threads using the streams.
+ *
+ * <p>The reader never waits for those writers, which may be blocked on
+ * a full socket until the server reads: the frames it answers with
+ * (SETTINGS and PING acknowledgements, WINDOW_UPDATEs) are queued, and
+ * written by whichever thread holds the write lock before it lets go,
+ * or by the reader itself if none does.
+ *
+ * <p>Server push is disabled, and priorities are not used. Each stream
+ * may buffer up to STREAM_WINDOW unread response bytes.
+ *
+ * @version $Date$, $Revision$
+ */
+public class Http2Connection {
+    private static final Logger logger =
+        Logger.getLogger(Http2Connection.class.getName());
+
+    public static final byte[] PREFACE;
+    static {
+        try {
+            PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes("US-ASCII");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    static final int ERROR_NONE = 0x0;
+    static final int ERROR_PROTOCOL = 0x1;
+    static final int ERROR_FLOW_CONTROL = 0x3;
+    static final int ERROR_FRAME_SIZE = 0x6;
+    static final int ERROR_CANCEL = 0x8;
+
+    /** default frame size and window, before SETTINGS say otherwise */
+    static final int DEFAULT_FRAME_SIZE = 16384;
+    static final int DEFAULT_WINDOW = 65535;
+
+    /** receive window offered for each stream */
+    static final int STREAM_WINDOW = 1 << 20;
+    /** receive window offered for the connection as a whole */
+    static final int CONNECTION_WINDOW = 1 << 24;
+
+    protected Socket socket;
+    protected DataInputStream in;
+    protected OutputStream out;
+    protected Hpack.Encoder encoder = new Hpack.Encoder();
+    protected Hpack.Decoder decoder = new Hpack.Decoder();
+
+    /** largest number of streams this client opens at once */
+    protected int maxStreams;
+    /** largest number of streams the server allows at once */
+    protected int peerMaxStreams = Integer.MAX_VALUE;
+    /** streams reserved and not yet closed */
+    protected int activeStreams = 0;
+
+    protected Map<Integer,Stream> streams =
+        new ConcurrentHashMap<Integer,Stream>();
+    /** id for next stream to send headers; guarded by writeLock */
+    protected int nextStreamId = 1;
+
+    /** guards writes to out, and the encoder */
+    protected ReentrantLock writeLock = new ReentrantLock();
+    /** frames awaiting the write lock; guarded by itself */
+    protected LinkedList<byte[]> controlFrames = new LinkedList<byte[]>();
+
+    protected int peerInitialWindow = DEFAULT_WINDOW;
+    protected volatile int peerMaxFrameSize = DEFAULT_FRAME_SIZE;
+    /** applied to the encoder by the next thread to send headers */
+    protected volatile int peerHeaderTableSize = Hpack.DEFAULT_TABLE_SIZE;
+    /** bytes this side may send before a WINDOW_UPDATE */
+    protected long sendWindow = DEFAULT_WINDOW;
+    /** bytes received not yet returned by a connection WINDOW_UPDATE */
+    protected int unacknowledged = 0;
+
+    protected volatile boolean goingAway = false;
+    /** no new streams; close once the last one closes */
+    protected volatile boolean retired = false;
+    protected volatile IOException failure = null;
+    protected volatile long lastFrameTime = System.currentTimeMillis();
+    protected volatile long lastUsedTime = System.currentTimeMillis();
+
+    protected Thread reader;
+
+    /**
+     * @param socket connected socket on which HTTP/2 was negotiated (or
+     * is known to be spoken)
+     * @param maxStreams largest number of concurrent streams to open
+     */
+    public Http2Connection(Socket socket, int maxStreams) {
+        this.socket = socket;
+        this.maxStreams = maxStreams;
+    }
+
+    /**
+     * Send the connection preface and settings, and start reading.
+     *
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        this.in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream(), 16384));
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 16384);
+        // reads are done by the reader thread, which waits indefinitely
+        socket.setSoTimeout(0);
+        ByteArrayOutputStream settings = new ByteArrayOutputStream();
+        writeSetting(settings, SETTINGS_ENABLE_PUSH, 0);
+        writeSetting(settings, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW);
+        writeLock.lock();
+        try {
+            out.write(PREFACE);
+            writeFrame(SETTINGS, 0, 0, settings.toByteArray());
+            writeFrame(WINDOW_UPDATE, 0, 0,
+                    int32(CONNECTION_WINDOW - DEFAULT_WINDOW));
+        } finally {
+            unlockWrites();
+        }
+        reader = new Thread("http2Reader-" + socket.getInetAddress() + ":"
+                + socket.getPort()) {
+            public void run() {
+                readFrames();
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * @return whether new streams may be opened on this connection
+     */
+    public boolean isUsable() {
+        return failure == null && !goingAway && !retired
+            && nextStreamId < Integer.MAX_VALUE - 2;
+    }
+
+    /**
+     * Open no new streams, and close the connection once those open
+     * are closed.
+     */
+    public void retire() {
+        boolean idle;
+        synchronized (this) {
+            retired = true;
+            idle = activeStreams == 0;
+            notifyAll();
+        }
+        if (idle) {
+            close();
+        }
+    }
+
+    /**
+     * @return number of streams reserved and not yet closed
+     */
+    public synchronized int getActiveStreams() {
+        return activeStreams;
+    }
+
+    /**
+     * @return time of last stream opened or closed
+     */
+    public long getLastUsedTime() {
+        return lastUsedTime;
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * Reserve a stream, waiting for one of the maxStreams (or the
+     * server's limit, if lower) to close if necessary.
+     *
+     * @param timeoutMs longest wait
+     * @return the new stream
+     * @throws IOException if the connection fails or closes, or no stream
+     * became available in time
+     */
+    public Stream newStream(long timeoutMs) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            while (activeStreams >= Math.min(maxStreams, peerMaxStreams)) {
+                checkUsable();
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new SocketTimeoutException(
+                            "no HTTP/2 stream available in " + timeoutMs
+                            + "ms");
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+            }
+            checkUsable();
+            activeStreams++;
+        }
+        lastUsedTime = System.currentTimeMillis();
+        return new Stream();
+    }
+
+    protected void checkUsable() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (!isUsable()) {
+            throw new IOException("HTTP/2 connection going away");
+        }
+    }
+
+    protected void release(Stream stream) {
+        boolean close;
+        synchronized (this) {
+            if (stream.id > 0) {
+                streams.remove(stream.id);
+            }
+            activeStreams--;
+            lastUsedTime = System.currentTimeMillis();
+            close = retired && activeStreams == 0;
+            notifyAll();
+        }
+        if (close) {
+            close();
+        }
+    }
+
+    /**
+     * Close the connection, failing any open streams.
+     */
+    public void close() {
+        fail(new IOException("HTTP/2 connection closed"));
+    }
+
+    protected void fail(IOException e) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+            notifyAll();
+        }
+        for (Stream stream : new ArrayList<Stream>(streams.values())) {
+            stream.fail(e);
+        }
+        try {
+            socket.close();
+        } catch (IOException ioe) {
+            // ignore
+        }
+    }
+
+    /**
+     * Fail the connection after a protocol violation by the server.
+     */
+    protected void protocolError(int code, String message) {
+        try {
+            byte[] payload = new byte[8];
+            System.arraycopy(int32(nextStreamId), 0, payload, 0, 4);
+            System.arraycopy(int32(code), 0, payload, 4, 4);
+            sendControl(GOAWAY, 0, 0, payload);
+        } catch (IOException e) {
+            // failing anyway
+        }
+        fail(new IOException("HTTP/2 protocol error: " + message));
+    }
+
+    protected void readFrames() {
+        try {
+            byte[] header = new byte[9];
+            while (true) {
+                in.readFully(header);
+                lastFrameTime = System.currentTimeMillis();
+                int length = ((header[0] & 0xff) << 16)
+                    | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+                int type = header[3] & 0xff;
+                int flags = header[4] & 0xff;
+                int streamId = readInt(header, 5) & 0x7fffffff;
+                if (length > DEFAULT_FRAME_SIZE) {
+                    protocolError(ERROR_FRAME_SIZE, "frame of " + length);
+                    return;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (!handleFrame(type, flags, streamId, payload)) {
+                    return;
+                }
+            }
+        } catch (EOFException e) {
+            fail(new IOException("HTTP/2 connection closed by server"));
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "HTTP/2 reader failed", e);
+            fail(new IOException(e.toString()));
+        }
+    }
+
+    /** header block fragments awaiting CONTINUATION */
+    protected ByteArrayOutputStream pendingBlock = null;
+    protected int pendingStreamId;
+    protected boolean pendingEndStream;
+
+    /**
+     * @return false if the connection is to be abandoned
+     */
+    protected boolean handleFrame(int type, int flags, int streamId,
+            byte[] payload) throws IOException {
+        if (pendingBlock != null
+                && (type != CONTINUATION || streamId != pendingStreamId)) {
+            protocolError(ERROR_PROTOCOL, "expected CONTINUATION");
+            return false;
+        }
+        switch (type) {
+        case DATA:
+            return handleData(flags, streamId, payload);
+        case HEADERS:
+            int start = 0;
+            int end = payload.length;
+            if ((flags & FLAG_PADDED) != 0) {
+                start++;
+                end -= payload.length > 0 ? payload[0] & 0xff : 0;
+            }
+            if ((flags & FLAG_PRIORITY) != 0) {
+                start += 5;
+            }
+            if (start > end) {
+                protocolError(ERROR_PROTOCOL, "bad HEADERS padding");
+                return false;
+            }
+            pendingBlock = new ByteArrayOutputStream();
+            pendingBlock.write(payload, start, end - start);
+            pendingStreamId = streamId;
+            pendingEndStream = (flags & FLAG_END_STREAM) != 0;
+            if ((flags & FLAG_END_HEADERS) != 0) {
+                return headerBlockComplete();
+            }
+            return true;
+        case CONTINUATION:
+            if (pendingBlock == null) {
+                protocolError(ERROR_PROTOCOL, "unexpected CONTINUATION");
+                return false;
+            }
+            pendingBlock.write(payload);
+            if ((flags & FLAG_END_HEADERS) != 0) {
+                return headerBlockComplete();
+            }
+            return true;
+        case RST_STREAM:
+            Stream reset = streams.get(streamId);
+            if (reset != null) {
+                reset.fail(new IOException("HTTP/2 stream reset, error "
+                        + (payload.length >= 4 ? readInt(payload, 0) : -1)));
+            }
+            return true;
+        case SETTINGS:
+            if ((flags & FLAG_ACK) == 0) {
+                applySettings(payload);
+                sendControl(SETTINGS, FLAG_ACK, 0, new byte[0]);
+            }
+            return true;
+        case PING:
+            if ((flags & FLAG_ACK) == 0) {
+                sendControl(PING, FLAG_ACK, 0, payload);
+            }
+            return true;
+        case GOAWAY:
+            int lastStreamId = readInt(payload, 0) & 0x7fffffff;
+            goingAway = true;
+            for (Stream stream : new ArrayList<Stream>(streams.values())) {
+                if (stream.id > lastStreamId) {
+                    stream.fail(new IOException(
+                            "HTTP/2 stream refused by GOAWAY"));
+                }
+            }
+            synchronized (this) {
+                notifyAll();
+            }
+            return true;
+        case WINDOW_UPDATE:
+            int increment = readInt(payload, 0) & 0x7fffffff;
+            if (streamId == 0) {
+                synchronized (this) {
+                    sendWindow += increment;
+                    notifyAll();
+                }
+            } else {
+                Stream updated = streams.get(streamId);
+                if (updated != null) {
+                    synchronized (this) {
+                        updated.sendWindow += increment;
+                        notifyAll();
+                    }
+                }
+            }
+            return true;
+        case PUSH_PROMISE:
+            protocolError(ERROR_PROTOCOL, "push was disabled");
+            return false;
+        default:
+            // PRIORITY, and unknown types, are ignored
+            return true;
+        }
+    }
+
+    protected boolean handleData(int flags, int streamId, byte[] payload)
+    throws IOException {
+        int start = 0;
+        int end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            start++;
+            end -= payload.length > 0 ? payload[0] & 0xff : 0;
+            if (start > end) {
+                protocolError(ERROR_PROTOCOL, "bad DATA padding");
+                return false;
+            }
+        }
+        Stream stream = streams.get(streamId);
+        if (stream != null) {
+            if (!stream.received(payload, start, end - start,
+                    payload.length, (flags & FLAG_END_STREAM) != 0)) {
+                protocolError(ERROR_FLOW_CONTROL, "stream window exceeded");
+                return false;
+            }
+        }
+        // all received bytes count against the connection window,
+        // returned as soon as the frame is taken
+        unacknowledged += payload.length;
+        if (unacknowledged >= CONNECTION_WINDOW / 2) {
+            sendControl(WINDOW_UPDATE, 0, 0, int32(unacknowledged));
+            unacknowledged = 0;
+        }
+        return true;
+    }
+
+    protected boolean headerBlockComplete() throws IOException {
+        byte[] block = pendingBlock.toByteArray();
+        pendingBlock = null;
+        // every block must be decoded, to keep HPACK state in step
+        List<Header> headers = decoder.decode(block, 0, block.length);
+        Stream stream = streams.get(pendingStreamId);
+        if (stream != null) {
+            stream.receivedHeaders(headers, pendingEndStream);
+        }
+        return true;
+    }
+
+    protected void applySettings(byte[] payload) {
+        for (int i = 0; i + 6 <= payload.length; i += 6) {
+            int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+            int value = readInt(payload, i + 2);
+            switch (id) {
+            case SETTINGS_HEADER_TABLE_SIZE:
+                peerHeaderTableSize = value;
+                break;
+            case SETTINGS_MAX_CONCURRENT_STREAMS:
+                synchronized (this) {
+                    peerMaxStreams = value;
+                    notifyAll();
+                }
+                break;
+            case SETTINGS_INITIAL_WINDOW_SIZE:
+                synchronized (this) {
+                    int delta = value - peerInitialWindow;
+                    peerInitialWindow = value;
+                    for (Stream stream : streams.values()) {
+                        stream.sendWindow += delta;
+                    }
+                    notifyAll();
+                }
+                break;
+            case SETTINGS_MAX_FRAME_SIZE:
+                peerMaxFrameSize = value;
+                break;
+            default:
+                // ignore others
+            }
+        }
+    }
+
+    /**
+     * Write any queued control frames, flush, and release the write lock;
+     * then write any frames queued meanwhile, if no other thread has the
+     * lock to do so.
+     */
+    protected void unlockWrites() throws IOException {
+        try {
+            writeControlFrames();
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+        flushControlFrames();
+    }
+
+    /**
+     * Send a frame without waiting for other writers: it is queued, and
+     * written now only if the write lock is free. Otherwise the thread
+     * holding the lock writes it before releasing the lock.
+     */
+    protected void sendControl(int type, int flags, int streamId,
+            byte[] payload) throws IOException {
+        byte[] frame = new byte[9 + payload.length];
+        frame[0] = (byte) (payload.length >>> 16);
+        frame[1] = (byte) (payload.length >>> 8);
+        frame[2] = (byte) payload.length;
+        frame[3] = (byte) type;
+        frame[4] = (byte) flags;
+        System.arraycopy(int32(streamId), 0, frame, 5, 4);
+        System.arraycopy(payload, 0, frame, 9, payload.length);
+        synchronized (controlFrames) {
+            controlFrames.add(frame);
+        }
+        flushControlFrames();
+    }
+
+    /**
+     * Write queued control frames, unless another thread holds the write
+     * lock (and so will write them).
+     */
+    protected void flushControlFrames() throws IOException {
+        while (hasControlFrames() && writeLock.tryLock()) {
+            try {
+                writeControlFrames();
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    protected boolean hasControlFrames() {
+        synchronized (controlFrames) {
+            return !controlFrames.isEmpty();
+        }
+    }
+
+    /**
+     * Write queued control frames; caller must hold the write lock.
+     */
+    protected void writeControlFrames() throws IOException {
+        while (true) {
+            byte[] frame;
+            synchronized (controlFrames) {
+                frame = controlFrames.poll();
+            }
+            if (frame == null) {
+                return;
+            }
+            out.write(frame);
+        }
+    }
+
+    /**
+     * Write a frame; caller must hold the write lock.
+     */
+    protected void writeFrame(int type, int flags, int streamId,
+            byte[] payload) throws IOException {
+        writeFrame(type, flags, streamId, payload, 0, payload.length);
+    }
+
+    protected void writeFrame(int type, int flags, int streamId,
+            byte[] payload, int off, int len) throws IOException {
+        out.write(len >>> 16);
+        out.write(len >>> 8);
+        out.write(len);
+        out.write(type);
+        out.write(flags);
+        out.write(int32(streamId));
+        out.write(payload, off, len);
+    }
+
+    protected static void writeSetting(ByteArrayOutputStream out, int id,
+            int value) {
+        out.write(id >>> 8);
+        out.write(id);
+        byte[] v = int32(value);
+        out.write(v, 0, 4);
+    }
+
+    protected static byte[] int32(int i) {
+        return new byte[] {
+            (byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i
+        };
+    }
+
+    protected static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+            | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    /**
+     * One request/response exchange on this connection.
+     */
+    public class Stream {
+        /** assigned when headers are sent */
+        protected int id = 0;
+        protected long sendWindow;
+        protected List<Header> responseHeaders = null;
+        protected LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+        protected int chunkPos = 0;
+        protected int buffered = 0;
+        /** bytes read, not yet returned by a stream WINDOW_UPDATE */
+        protected int consumed = 0;
+        protected boolean remoteEnded = false;
+        protected boolean localEnded = false;
+        protected IOException error = null;
+        protected boolean closed = false;
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Send the request headers, with lowercase names, pseudo-headers
+         * first.
+         *
+         * @param headers request headers
+         * @param endStream whether no request body follows
+         * @throws IOException
+         */
+        public void sendHeaders(List<Header> headers, boolean endStream)
+        throws IOException {
+            checkUsable();
+            writeLock.lock();
+            try {
+                // ids must be used in increasing order, so are assigned
+                // in the same lock that sends them
+                id = nextStreamId;
+                nextStreamId += 2;
+                synchronized (Http2Connection.this) {
+                    sendWindow = peerInitialWindow;
+                }
+                streams.put(id, this);
+                encoder.setMaxTableSize(peerHeaderTableSize);
+                byte[] block = encoder.encode(headers);
+                int max = peerMaxFrameSize;
+                int off = 0;
+                do {
+                    int len = Math.min(max, block.length - off);
+                    boolean last = off + len >= block.length;
+                    int flags = (last ? FLAG_END_HEADERS : 0)
+                        | (endStream && off == 0 ? FLAG_END_STREAM : 0);
+                    writeFrame(off == 0 ? HEADERS : CONTINUATION, flags, id,
+                            block, off, len);
+                    off += len;
+                } while (off < block.length);
+            } finally {
+                unlockWrites();
+            }
+            localEnded = endStream;
+        }
+
+        /**
+         * Send request body bytes, waiting for flow-control window.
+         *
+         * @param timeoutMs longest wait for window without hearing from
+         * the server (0 for no limit)
+         * @throws IOException
+         */
+        public void sendData(byte[] b, int off, int len, boolean endStream,
+                int timeoutMs) throws IOException {
+            do {
+                int chunk;
+                synchronized (Http2Connection.this) {
+                    long deadline = deadline(timeoutMs);
+                    while (Http2Connection.this.sendWindow <= 0
+                            || this.sendWindow <= 0) {
+                        checkFailed();
+                        await(deadline, timeoutMs);
+                    }
+                    checkFailed();
+                    // take no more window than one frame will use
+                    chunk = (int) Math.min(Math.min(len, peerMaxFrameSize),
+                            Math.min(Http2Connection.this.sendWindow,
+                                    this.sendWindow));
+                    Http2Connection.this.sendWindow -= chunk;
+                    this.sendWindow -= chunk;
+                }
+                writeLock.lock();
+                try {
+                    boolean last = chunk == len;
+                    writeFrame(DATA, last && endStream ? FLAG_END_STREAM : 0,
+                            id, b, off, chunk);
+                } finally {
+                    unlockWrites();
+                }
+                off += chunk;
+                len -= chunk;
+            } while (len > 0);
+            localEnded = endStream;
+        }
+
+        protected void checkFailed() throws IOException {
+            synchronized (Http2Connection.this) {
+                if (error != null) {
+                    throw error;
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        }
+
+        /**
+         * Wait for the response's (final, non-1xx) headers.
+         *
+         * @param timeoutMs longest wait without hearing from the server
+         * @return response headers, starting with ':status'
+         * @throws IOException
+         */
+        public List<Header> awaitResponseHeaders(int timeoutMs)
+        throws IOException {
+            long deadline = deadline(timeoutMs);
+            synchronized (Http2Connection.this) {
+                while (responseHeaders == null) {
+                    checkFailed();
+                    if (remoteEnded) {
+                        throw new IOException("HTTP/2 stream ended "
+                                + "without response headers");
+                    }
+                    await(deadline, timeoutMs);
+                }
+                return responseHeaders;
+            }
+        }
+
+        protected long deadline(int timeoutMs) {
+            return timeoutMs > 0
+                ? System.currentTimeMillis() + timeoutMs : Long.MAX_VALUE;
+        }
+
+        /**
+         * Wait for the connection to make progress; caller holds the
+         * connection lock.
+         *
+         * @param deadline time by which this stream must progress
+         * @param timeoutMs the timeout that set the deadline
+         */
+        protected void await(long deadline, int timeoutMs)
+        throws IOException {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                if (System.currentTimeMillis() - lastFrameTime
+                        >= timeoutMs) {
+                    // nothing heard at all: give up on the connection
+                    fail(new SocketTimeoutException(
+                            "HTTP/2 connection silent for " + timeoutMs
+                            + "ms"));
+                }
+                throw new SocketTimeoutException("HTTP/2 stream read "
+                        + "timed out after " + timeoutMs + "ms");
+            }
+            try {
+                Http2Connection.this.wait(
+                        deadline == Long.MAX_VALUE ? 0 : wait);
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+        }
+
+        /**
+         * Read response body bytes.
+         *
+         * @return bytes read, or -1 at end of response
+         * @throws IOException
+         */
+        public int read(byte[] b, int off, int len, int timeoutMs)
+        throws IOException {
+            int n;
+            int update;
+            long deadline = deadline(timeoutMs);
+            synchronized (Http2Connection.this) {
+                while (buffered == 0) {
+                    if (remoteEnded) {
+                        return -1;
+                    }
+                    checkFailed();
+                    await(deadline, timeoutMs);
+                }
+                n = 0;
+                while (n < len && !chunks.isEmpty()) {
+                    byte[] chunk = chunks.getFirst();
+                    int take = Math.min(len - n, chunk.length - chunkPos);
+                    System.arraycopy(chunk, chunkPos, b, off + n, take);
+                    n += take;
+                    chunkPos += take;
+                    if (chunkPos == chunk.length) {
+                        chunks.removeFirst();
+                        chunkPos = 0;
+                    }
+                }
+                buffered -= n;
+                consumed += n;
+                if (consumed < STREAM_WINDOW / 2 || remoteEnded) {
+                    return n;
+                }
+                update = consumed;
+                consumed = 0;
+            }
+            sendControl(WINDOW_UPDATE, 0, id, int32(update));
+            return n;
+        }
+
+        /**
+         * @return response bytes readable without waiting
+         */
+        public int available() {
+            synchronized (Http2Connection.this) {
+                return buffered;
+            }
+        }
+
+        /**
+         * @return whether the response was fully received
+         */
+        public boolean isComplete() {
+            synchronized (Http2Connection.this) {
+                return remoteEnded && error == null;
+            }
+        }
+
+        protected void receivedHeaders(List<Header> headers,
+                boolean endStream) {
+            synchronized (Http2Connection.this) {
+                if (responseHeaders == null) {
+                    String status = headers.isEmpty()
+                        ? "" : headers.get(0).getValue();
+                    if (!status.startsWith("1")) {
+                        responseHeaders = headers;
+                    }
+                }
+                // later blocks are trailers, ignored
+                if (endStream) {
+                    remoteEnded = true;
+                }
+                Http2Connection.this.notifyAll();
+            }
+        }
+
+        /**
+         * @return false if the stream's receive window was exceeded
+         */
+        protected boolean received(byte[] payload, int off, int len,
+                int frameLength, boolean endStream) {
+            synchronized (Http2Connection.this) {
+                // unread and unacknowledged bytes fill the window
+                if (buffered + consumed + frameLength > STREAM_WINDOW) {
+                    return false;
+                }
+                if (!closed && len > 0) {
+                    byte[] chunk = new byte[len];
+                    System.arraycopy(payload, off, chunk, 0, len);
+                    chunks.add(chunk);
+                    buffered += len;
+                }
+                // padding is returned to the window straight away
+                consumed += frameLength - len;
+                if (endStream) {
+                    remoteEnded = true;
+                }
+                Http2Connection.this.notifyAll();
+                return true;
+            }
+        }
+
+        protected void fail(IOException e) {
+            synchronized (Http2Connection.this) {
+                if (error == null && !(remoteEnded && localEnded)) {
+                    error = e;
+                }
+                Http2Connection.this.notifyAll();
+            }
+        }
+
+        /**
+         * Release the stream, cancelling it if incomplete.
+         */
+        public void close() {
+            boolean cancel;
+            synchronized (Http2Connection.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                cancel = id > 0 && error == null
+                    && !(remoteEnded && localEnded);
+                chunks.clear();
+                buffered = 0;
+            }
+            if (cancel && failure == null) {
+                try {
+                    sendControl(RST_STREAM, 0, id, int32(ERROR_CANCEL));
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+            release(this);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.httpclient;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Keeps one {@link Http2Connection} per server (scheme, host and port),
+ * handing out {@link Http2StreamSocket}s multiplexed over it, at most
+ * maxStreamsPerServer at once.
+ *
+ * <p>HTTPS connections use HTTP/2 when the server selects it by ALPN;
+ * ALPN is offered only where the running JVM supports it (Java 9, or
+ * 8u252, and later). Plain HTTP connections use HTTP/2 only when
+ * priorKnowledge says all servers speak it.
+ *
+ * <p>Each connection has a daemon thread reading from it, so the pool
+ * holds a thread per server connected. Connections unused for
+ * idleTimeoutMs are closed; beyond maxConnections, idle connections
+ * are closed as soon as another opens, least recently used first.
+ * Connections with requests in progress are never closed early, so
+ * there may be more than maxConnections (and threads) only while more
+ * servers than that are being fetched from at once.
+ *
+ * @version $Date$, $Revision$
+ */
+public class Http2ConnectionPool {
+    private static final Logger logger =
+        Logger.getLogger(Http2ConnectionPool.class.getName());
+
+    public static final String H2 = "h2";
+
+    protected static Method setApplicationProtocols;
+    protected static Method getApplicationProtocol;
+    static {
+        try {
+            setApplicationProtocols = SSLParameters.class.getMethod(
+                    "setApplicationProtocols", String[].class);
+            getApplicationProtocol =
+                SSLSocket.class.getMethod("getApplicationProtocol");
+        } catch (NoSuchMethodException e) {
+            logger.info("no ALPN support in this JVM; HTTPS will use "
+                    + "HTTP/1.x only");
+        }
+    }
+
+    protected int maxStreamsPerServer = 6;
+    public int getMaxStreamsPerServer() {
+        return maxStreamsPerServer;
+    }
+    public void setMaxStreamsPerServer(int max) {
+        this.maxStreamsPerServer = max;
+    }
+
+    protected int maxConnections = 100;
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+    public void setMaxConnections(int max) {
+        this.maxConnections = max;
+    }
+
+    protected boolean priorKnowledge = false;
+    public boolean isPriorKnowledge() {
+        return priorKnowledge;
+    }
+    public void setPriorKnowledge(boolean priorKnowledge) {
+        this.priorKnowledge = priorKnowledge;
+    }
+
+    protected long idleTimeoutMs = 60 * 1000;
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+    public void setIdleTimeoutMs(long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    protected ConcurrentMap<String,Http2Connection> connections =
+        new ConcurrentHashMap<String,Http2Connection>();
+
+    protected AtomicLong connectionsOpened = new AtomicLong();
+    protected AtomicLong streamsOpened = new AtomicLong();
+
+    protected static String key(String scheme, String host, int port) {
+        return scheme + "://" + host + ":" + port;
+    }
+
+    /**
+     * @return whether ALPN can be offered on TLS connections
+     */
+    public static boolean isAlpnAvailable() {
+        return setApplicationProtocols != null;
+    }
+
+    /**
+     * Offer HTTP/2, then HTTP/1.1, by ALPN on a socket not yet
+     * handshaken, if the JVM allows.
+     *
+     * @param socket unconnected TLS socket
+     */
+    public static void offerAlpn(SSLSocket socket) {
+        if (!isAlpnAvailable()) {
+            return;
+        }
+        try {
+            SSLParameters params = socket.getSSLParameters();
+            setApplicationProtocols.invoke(params,
+                    new Object[] {new String[] {H2, "http/1.1"}});
+            socket.setSSLParameters(params);
+        } catch (Exception e) {
+            logger.log(Level.FINE, "unable to offer ALPN", e);
+        }
+    }
+
+    /**
+     * @param socket handshaken TLS socket
+     * @return whether the server selected HTTP/2 by ALPN
+     */
+    public static boolean isH2Negotiated(SSLSocket socket) {
+        if (!isAlpnAvailable()) {
+            return false;
+        }
+        try {
+            return H2.equals(getApplicationProtocol.invoke(socket));
+        } catch (Exception e) {
+            logger.log(Level.FINE, "unable to read ALPN result", e);
+            return false;
+        }
+    }
+
+    /**
+     * Open a stream on an existing connection to the given server.
+     *
+     * @param scheme 'http' or 'https'
+     * @param host server host
+     * @param port server port
+     * @param timeoutMs longest wait for a free stream
+     * @return socket for one exchange, or null if there is no usable
+     * connection to the server
+     * @throws IOException
+     */
+    public Socket existingStream(String scheme, String host, int port,
+            int timeoutMs) throws IOException {
+        String key = key(scheme, host, port);
+        Http2Connection connection = connections.get(key);
+        if (connection == null) {
+            return null;
+        }
+        if (!connection.isUsable() || isIdleExpired(connection)) {
+            connections.remove(key, connection);
+            connection.retire();
+            return null;
+        }
+        return stream(connection, scheme, host, port, timeoutMs);
+    }
+
+    /**
+     * Start HTTP/2 on a newly connected socket, and open a stream on it.
+     *
+     * @param scheme 'http' or 'https'
+     * @param host server host
+     * @param port server port
+     * @param socket connected (and for https, handshaken) socket
+     * @param timeoutMs longest wait for a free stream
+     * @return socket for one exchange
+     * @throws IOException
+     */
+    public Socket newStream(String scheme, String host, int port,
+            Socket socket, int timeoutMs) throws IOException {
+        Http2Connection connection =
+            new Http2Connection(socket, maxStreamsPerServer);
+        connection.start();
+        connectionsOpened.incrementAndGet();
+        String key = key(scheme, host, port);
+        Http2Connection previous = connections.put(key, connection);
+        if (previous != null && previous != connection) {
+            // lost a race to connect; let the other drain
+            previous.retire();
+        }
+        // the new connection's stream keeps it from being closed here
+        Socket stream = stream(connection, scheme, host, port, timeoutMs);
+        if (connections.size() > maxConnections) {
+            closeIdleOverLimit();
+        }
+        return stream;
+    }
+
+    protected Socket stream(Http2Connection connection, String scheme,
+            String host, int port, int timeoutMs) throws IOException {
+        Http2Connection.Stream stream = connection.newStream(timeoutMs);
+        streamsOpened.incrementAndGet();
+        boolean defaultPort = ("https".equals(scheme) && port == 443)
+            || ("http".equals(scheme) && port == 80);
+        return new Http2StreamSocket(connection, stream, scheme,
+                defaultPort ? host : host + ":" + port);
+    }
+
+    protected boolean isIdleExpired(Http2Connection connection) {
+        return connection.getActiveStreams() == 0
+            && System.currentTimeMillis() - connection.getLastUsedTime()
+                > idleTimeoutMs;
+    }
+
+    protected volatile long lastIdleCheck = System.currentTimeMillis();
+
+    /**
+     * Close idle connections, if not done in the last idleTimeoutMs.
+     */
+    public void maybeCloseIdle() {
+        long now = System.currentTimeMillis();
+        if (now - lastIdleCheck > idleTimeoutMs) {
+            lastIdleCheck = now;
+            closeIdle();
+        }
+    }
+
+    /**
+     * Close connections with no open streams idle over idleTimeoutMs.
+     */
+    public void closeIdle() {
+        for (Map.Entry<String,Http2Connection> entry
+                : new ArrayList<Map.Entry<String,Http2Connection>>(
+                        connections.entrySet())) {
+            Http2Connection connection = entry.getValue();
+            if (!connection.isUsable() || isIdleExpired(connection)) {
+                connections.remove(entry.getKey(), connection);
+                connection.retire();
+            }
+        }
+    }
+
+    /**
+     * Close connections with no open streams, least recently used first,
+     * until no more than maxConnections remain or none are idle.
+     */
+    protected void closeIdleOverLimit() {
+        while (connections.size() > maxConnections) {
+            Map.Entry<String,Http2Connection> eldest = null;
+            long eldestUse = Long.MAX_VALUE;
+            for (Map.Entry<String,Http2Connection> entry
+                    : connections.entrySet()) {
+                Http2Connection connection = entry.getValue();
+                long used = connection.getLastUsedTime();
+                if (connection.getActiveStreams() == 0 && used < eldestUse) {
+                    eldest = entry;
+                    eldestUse = used;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            if (connections.remove(eldest.getKey(), eldest.getValue())) {
+                eldest.getValue().retire();
+            }
+        }
+    }
+
+    /**
+     * Close all connections.
+     */
+    public void closeAll() {
+        for (Http2Connection connection : connections.values()) {
+            connection.close();
+        }
+        connections.clear();
+    }
+
+    /** @return number of HTTP/2 connections opened */
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    /** @return number of HTTP/2 streams opened */
+    public long getStreamsOpened() {
+        return streamsOpened.get();
+    }
+
+    /** @return number of HTTP/2 connections currently pooled */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+}
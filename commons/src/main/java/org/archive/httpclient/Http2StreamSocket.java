@@ -0,0 +1,330 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.httpclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpStatus;
+
+/**
+ * A Socket carrying one HTTP/1.x exchange over one stream of an
+ * {@link Http2Connection}, so that HttpClient (and the Recorder, wrapping
+ * the streams HttpConnection takes from it) can use HTTP/2 unchanged.
+ *
+ * <p>The request written is translated to HEADERS (and, given a
+ * Content-Length, DATA) frames. The response read is rendered as an
+ * 'HTTP/2.0' status line and the decoded header fields, followed by the
+ * DATA frames' payload, exactly as sent, up to end of stream.
+ *
+ * @version $Date$, $Revision$
+ */
+public class Http2StreamSocket extends Socket {
+    /** request headers not carried over HTTP/2 (RFC 7540 8.1.2.2) */
+    protected static final Set<String> CONNECTION_HEADERS =
+        new HashSet<String>(Arrays.asList(new String[] {
+            "connection", "keep-alive", "proxy-connection",
+            "transfer-encoding", "upgrade", "host", "te"}));
+
+    /** CR LF CR LF */
+    protected static final int BLANK_LINE = 0x0d0a0d0a;
+
+    protected Http2Connection connection;
+    protected Http2Connection.Stream stream;
+    protected String scheme;
+    protected String authority;
+    protected int soTimeout = 0;
+    protected boolean closed = false;
+
+    protected OutputStream requestStream = new RequestOutputStream();
+    protected InputStream responseStream = new ResponseInputStream();
+
+    /**
+     * @param connection connection carrying the stream
+     * @param stream newly reserved stream
+     * @param scheme 'http' or 'https'
+     * @param authority host[:port] to send when no Host header is given
+     */
+    public Http2StreamSocket(Http2Connection connection,
+            Http2Connection.Stream stream, String scheme, String authority) {
+        this.connection = connection;
+        this.stream = stream;
+        this.scheme = scheme;
+        this.authority = authority;
+    }
+
+    public InputStream getInputStream() {
+        return responseStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return requestStream;
+    }
+
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            stream.close();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean isConnected() {
+        return true;
+    }
+
+    public void setSoTimeout(int timeout) {
+        this.soTimeout = timeout;
+    }
+
+    public int getSoTimeout() {
+        return soTimeout;
+    }
+
+    // socket options apply to the shared connection, not one stream
+
+    public void setTcpNoDelay(boolean on) {
+    }
+
+    public void setSoLinger(boolean on, int linger) {
+    }
+
+    public void setSendBufferSize(int size) {
+    }
+
+    public void setReceiveBufferSize(int size) {
+    }
+
+    public int getSendBufferSize() {
+        return Http2Connection.DEFAULT_FRAME_SIZE;
+    }
+
+    public int getReceiveBufferSize() {
+        return Http2Connection.DEFAULT_FRAME_SIZE;
+    }
+
+    public void shutdownInput() {
+    }
+
+    public void shutdownOutput() {
+    }
+
+    public InetAddress getInetAddress() {
+        return connection.getSocket().getInetAddress();
+    }
+
+    public int getPort() {
+        return connection.getSocket().getPort();
+    }
+
+    public InetAddress getLocalAddress() {
+        return connection.getSocket().getLocalAddress();
+    }
+
+    public int getLocalPort() {
+        return connection.getSocket().getLocalPort();
+    }
+
+    public SocketAddress getRemoteSocketAddress() {
+        return connection.getSocket().getRemoteSocketAddress();
+    }
+
+    public String toString() {
+        return "Http2StreamSocket[stream " + stream.getId() + " of "
+            + connection.getSocket() + "]";
+    }
+
+    /**
+     * Translate the HTTP/1.x request header block to HTTP/2 headers.
+     *
+     * @param head request line and headers, ending with an empty line
+     * @return content length of the request body (0 if none)
+     * @throws IOException if the request cannot be translated
+     */
+    protected long sendRequestHead(String head) throws IOException {
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length < 2) {
+            throw new IOException("bad request line: " + lines[0]);
+        }
+        String path = requestLine[1];
+        String hostHeader = null;
+        long contentLength = 0;
+        List<Header> headers = new ArrayList<Header>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase();
+            String value = lines[i].substring(colon + 1).trim();
+            if (name.equals("host")) {
+                hostHeader = value;
+            } else if (name.equals("transfer-encoding")) {
+                throw new IOException("cannot send " + value
+                        + " request body over HTTP/2");
+            } else if (name.equals("content-length")) {
+                contentLength = Long.parseLong(value);
+            }
+            if (!CONNECTION_HEADERS.contains(name)) {
+                headers.add(new Header(name, value));
+            }
+        }
+        List<Header> pseudo = new ArrayList<Header>();
+        pseudo.add(new Header(":method", requestLine[0]));
+        pseudo.add(new Header(":scheme", scheme));
+        pseudo.add(new Header(":authority",
+                hostHeader != null ? hostHeader : authority));
+        pseudo.add(new Header(":path", path));
+        pseudo.addAll(headers);
+        stream.sendHeaders(pseudo, contentLength == 0);
+        return contentLength;
+    }
+
+    /**
+     * Render the response headers as an HTTP/1.x header block.
+     */
+    protected static byte[] renderResponseHead(List<Header> headers)
+    throws IOException {
+        StringBuilder sb = new StringBuilder();
+        String status = null;
+        for (Header h : headers) {
+            if (h.getName().equals(":status")) {
+                status = h.getValue();
+            }
+        }
+        if (status == null) {
+            throw new IOException("HTTP/2 response without :status");
+        }
+        sb.append("HTTP/2.0 ").append(status);
+        try {
+            String reason = HttpStatus.getStatusText(Integer.parseInt(status));
+            if (reason != null) {
+                sb.append(' ').append(reason);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("bad HTTP/2 :status " + status);
+        }
+        sb.append("\r\n");
+        for (Header h : headers) {
+            if (!h.getName().startsWith(":")) {
+                sb.append(h.getName()).append(": ").append(h.getValue())
+                    .append("\r\n");
+            }
+        }
+        sb.append("\r\n");
+        return sb.toString().getBytes("ISO-8859-1");
+    }
+
+    protected class RequestOutputStream extends OutputStream {
+        protected ByteArrayOutputStream head = new ByteArrayOutputStream();
+        /** last four bytes of head, to spot its end */
+        protected int last4 = 0;
+        protected boolean headSent = false;
+        protected long bodyRemaining = 0;
+
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!headSent) {
+                // find end of header block, possibly spanning writes
+                int i = off;
+                while (i < off + len && last4 != BLANK_LINE) {
+                    head.write(b[i]);
+                    last4 = (last4 << 8) | (b[i] & 0xff);
+                    i++;
+                }
+                if (last4 != BLANK_LINE) {
+                    return;
+                }
+                headSent = true;
+                bodyRemaining = sendRequestHead(head.toString("ISO-8859-1"));
+                len -= i - off;
+                off = i;
+            }
+            if (len == 0) {
+                return;
+            }
+            if (len > bodyRemaining) {
+                throw new IOException("request body exceeds Content-Length");
+            }
+            bodyRemaining -= len;
+            stream.sendData(b, off, len, bodyRemaining == 0, soTimeout);
+        }
+    }
+
+    protected class ResponseInputStream extends InputStream {
+        protected byte[] head = null;
+        protected int headPos = 0;
+
+        protected void ensureHead() throws IOException {
+            if (head == null) {
+                head = renderResponseHead(
+                        stream.awaitResponseHeaders(soTimeout));
+            }
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            ensureHead();
+            if (headPos < head.length) {
+                int n = Math.min(len, head.length - headPos);
+                System.arraycopy(head, headPos, b, off, n);
+                headPos += n;
+                return n;
+            }
+            return stream.read(b, off, len, soTimeout);
+        }
+
+        public int available() {
+            if (head == null) {
+                return 0;
+            }
+            return (head.length - headPos) + stream.available();
+        }
+
+        public void close() {
+            // the socket's close releases the stream
+        }
+    }
+}
@@ -35,6 +35,7 @@ import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.text.NumberFormat;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -62,12 +63,19 @@ public class GenericReplayCharSequence implements ReplayCharSequence {
      *
      * <p>This define is also used as suffix for the file that holds the
      * decodings.  The name of the file that holds the decoding is the name
-     * of the backing file w/ this encoding for a suffix.
+     * of the backing file, then a number unique to the instance, w/ this
+     * encoding for a suffix.
      *
      * <p>See <a ref="http://java.sun.com/j2se/1.4.2/docs/guide/intl/encoding.doc.html">Encoding</a>.
      */
     private static final String WRITE_ENCODING = "UTF-16BE";
 
+    /**
+     * Distinguishes the decoded files of instances replaying the same
+     * backing file, as when several extractors run at once.
+     */
+    private static final AtomicLong decodedFileSerial = new AtomicLong();
+
     private static final long MAP_MAX_BYTES = 64 * 1024 * 1024; // 64M
     
     /**
@@ -231,7 +239,8 @@ public class GenericReplayCharSequence implements ReplayCharSequence {
      * file <code>backingFilename</code> from encoding <code>encoding</code> to
      * encoding <code>WRITE_ENCODING</code> and saves as
      * <code>this.decodedFile</code>, which is named <code>backingFilename
-     * + "." + WRITE_ENCODING</code>.
+     * + "." + serial + "." + WRITE_ENCODING</code>, so that no other
+     * instance will overwrite or delete it.
      * 
      * @throws IOException
      */
@@ -241,7 +250,8 @@ public class GenericReplayCharSequence implements ReplayCharSequence {
         BufferedReader reader = new BufferedReader(new InputStreamReader(
                 inStream, encoding));
 
-        this.decodedFile = new File(backingFilename + "." + WRITE_ENCODING);
+        this.decodedFile = new File(backingFilename + "."
+                + decodedFileSerial.incrementAndGet() + "." + WRITE_ENCODING);
 
         logger.fine("decodeToFile: backingFilename=" + backingFilename
                 + " encoding=" + encoding + " decodedFile=" + decodedFile);
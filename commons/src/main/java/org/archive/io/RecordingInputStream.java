@@ -29,6 +29,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.IOUtils;
+import org.archive.util.TokenBucket;
 
 
 /**
@@ -365,4 +366,14 @@ public class RecordingInputStream
     public void setLimits(long hardMax, long timeoutMs, long maxRateKBps) {
         recordingOutputStream.setLimits(hardMax, timeoutMs, maxRateKBps);
     }
+
+    /**
+     *  Set limits to be enforced by internal recording-out, recording also
+     *  within the given (possibly shared) bandwidth
+     */
+    public void setLimits(long hardMax, long timeoutMs, long maxRateKBps,
+            TokenBucket bandwidth) {
+        recordingOutputStream.setLimits(hardMax, timeoutMs, maxRateKBps,
+                bandwidth);
+    }
 }
@@ -29,6 +29,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.archive.util.TokenBucket;
 
 /**
  * An output stream that records all writes to wrapped output
@@ -122,8 +123,15 @@ public class RecordingOutputStream extends OutputStream {
     protected long maxLength = Long.MAX_VALUE;
     /** maximum time to record before throwing exception */ 
     protected long timeoutMs = Long.MAX_VALUE;
-    /** maximum rate to record (adds delays to hit target rate) */ 
-    protected long maxRateBytesPerMs = Long.MAX_VALUE;
+    /** bandwidth to record within (adds delays to hit target rate): a 
+     * bucket of this stream's own if it has a maximum rate, else any shared
+     * bandwidth bucket given */ 
+    protected TokenBucket rateLimit = null;
+    /** position through which bytes have been charged to rateLimit */
+    protected long chargedPosition = 0;
+    /** bytes to gather, when recording byte by byte, before charging 
+     * rateLimit */
+    protected static final long CHARGE_QUANTUM = 4096;
     /** time recording begins for timeout, rate calculations */ 
     protected long startTime = Long.MAX_VALUE;
     
@@ -185,6 +193,7 @@ public class RecordingOutputStream extends OutputStream {
         this.position = 0;
         this.markPosition = 0;
         this.maxPosition = 0; 
+        this.chargedPosition = 0;
         this.size = 0;
         this.contentBeginMark = -1;
         // ensure recording turned on
@@ -237,13 +246,23 @@ public class RecordingOutputStream extends OutputStream {
         if (this.out != null) {
             this.out.write(b, off, len);
         }
-        checkLimits();
+        checkLimits(1);
     }
     
     /**
      * Check any enforced limits. 
      */
     protected void checkLimits() throws RecorderIOException {
+        checkLimits(CHARGE_QUANTUM);
+    }
+
+    /**
+     * Check any enforced limits, charging bytes recorded against the rate
+     * limit if at least the given number are due.
+     * 
+     * @param minCharge least number of bytes worth charging
+     */
+    protected void checkLimits(long minCharge) throws RecorderIOException {
         // too much material before finding end of headers? 
         if (contentBeginMark<0) {
             // no mark yet
@@ -261,15 +280,15 @@ public class RecordingOutputStream extends OutputStream {
         if(duration>timeoutMs) {
             throw new RecorderTimeoutException(); 
         }
-        // need to throttle reading to hit max configured rate? 
-        if(position/duration > maxRateBytesPerMs) {
-            long desiredDuration = position / maxRateBytesPerMs;
+        // need to throttle reading to hit max configured rate(s)? 
+        if(rateLimit != null && position-chargedPosition >= minCharge) {
             try {
-                Thread.sleep(desiredDuration-duration);
+                rateLimit.chargeAndPause(position-chargedPosition);
             } catch (InterruptedException e) {
                 logger.log(Level.WARNING,
                         "bandwidth throttling sleep interrupted", e);
             } 
+            chargedPosition = position;
         }
     }
 
@@ -366,6 +385,11 @@ public class RecordingOutputStream extends OutputStream {
 
     public void closeRecorder() throws IOException {
         recording = false;
+        if (rateLimit != null && position > chargedPosition) {
+            // charge the remainder, for later fetches to pay for
+            rateLimit.charge(position - chargedPosition);
+            chargedPosition = position;
+        }
         closeDiskStream(); // if any
         // This setting of size is important.  Its passed to ReplayInputStream
         // on creation.  It uses it to know EOS.
@@ -529,6 +553,17 @@ public class RecordingOutputStream extends OutputStream {
                     startOffset,
                     characterEncoding);
         }
+        else if (WindowedReplayCharSequence.isSupported(characterEncoding)) {
+            logger.fine("using WindowedReplayCharSequence");
+            // raw data overflows to disk; decode lazily from mapped file
+            ReplayInputStream ris = getReplayInputStream(startOffset);
+            ReplayCharSequence rcs = new WindowedReplayCharSequence(
+                    ris,
+                    this.backingFilename,
+                    characterEncoding);
+            ris.close();
+            return rcs;
+        }
         else {
             logger.fine("using GenericReplayCharSequence");
             // raw data overflows to disk; use temp file
@@ -583,9 +618,25 @@ public class RecordingOutputStream extends OutputStream {
      * @param rateKBps
      */
     public void setLimits(long length, long milliseconds, long rateKBps) {
+        setLimits(length, milliseconds, rateKBps, null);
+    }
+
+    /**
+     * Set limits on length, time, and rate to enforce, recording also
+     * within the given (possibly shared) bandwidth.
+     * 
+     * @param length
+     * @param milliseconds
+     * @param rateKBps
+     * @param bandwidth bucket to charge, or null
+     */
+    public void setLimits(long length, long milliseconds, long rateKBps,
+            TokenBucket bandwidth) {
         maxLength = (length>0) ? length : Long.MAX_VALUE;
         timeoutMs = (milliseconds>0) ? milliseconds : Long.MAX_VALUE;
-        maxRateBytesPerMs = (rateKBps>0) ? rateKBps*1024/1000 : Long.MAX_VALUE;
+        rateLimit = (rateKBps>0)
+            ? new TokenBucket("fetch", bandwidth, rateKBps*1024, 0)
+            : bandwidth;
     }
     
     /**
@@ -594,7 +645,7 @@ public class RecordingOutputStream extends OutputStream {
     public void resetLimits() {
         maxLength = Long.MAX_VALUE;
         timeoutMs = Long.MAX_VALUE;
-        maxRateBytesPerMs = Long.MAX_VALUE;
+        rateLimit = null;
     }
     
     /**
@@ -22,6 +22,9 @@ package org.archive.io;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 
 /**
@@ -34,7 +37,11 @@ import java.io.OutputStream;
  */
 public class ReplayInputStream extends SeekInputStream
 {
+    /** buffer size for copying from the backing file through the heap */
+    protected static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
     private BufferedSeekInputStream diskStream;
+    private File backingFile;
     private byte[] buffer;
     private long position;
 
@@ -89,8 +96,9 @@ public class ReplayInputStream extends SeekInputStream
         this.buffer = buffer;
         this.size = size;
         if (size > buffer.length) {
+            this.backingFile = new File(backingFilename);
             RandomAccessInputStream rais = new RandomAccessInputStream(
-                    new File(backingFilename));
+                    backingFile);
             diskStream = new BufferedSeekInputStream(rais, 4096);
         }
     }
@@ -156,6 +164,67 @@ public class ReplayInputStream extends SeekInputStream
         }
     }
     
+    /**
+     * Copy up to count bytes, from the current position, to the given
+     * stream. The part held in memory is written from the recording
+     * buffer itself. Given a channel onto the stream's destination, the
+     * part in the backing file goes there by FileChannel.transferTo,
+     * never entering the heap; otherwise it is read straight from the file
+     * in large blocks.
+     *
+     * @param os stream to write to
+     * @param channel channel writing where os does (used only after os is
+     * flushed), or null
+     * @param count most bytes to copy
+     * @return bytes copied
+     * @throws IOException
+     */
+    public long readTo(OutputStream os, WritableByteChannel channel,
+            long count) throws IOException {
+        long start = position;
+        long end = position + Math.min(count, size - position);
+        if (position < buffer.length && position < end) {
+            int n = (int) (Math.min(end, buffer.length) - position);
+            os.write(buffer, (int) position, n);
+            position += n;
+        }
+        if (position < end) {
+            RandomAccessFile raf = new RandomAccessFile(backingFile, "r");
+            try {
+                long filePosition = position - buffer.length;
+                long remaining = end - position;
+                if (channel != null) {
+                    os.flush();
+                    FileChannel source = raf.getChannel();
+                    while (remaining > 0) {
+                        long n = source.transferTo(filePosition, remaining,
+                                channel);
+                        if (n <= 0) {
+                            throw new IOException("backing file "
+                                    + backingFile + " shorter than recording");
+                        }
+                        filePosition += n;
+                        remaining -= n;
+                    }
+                } else {
+                    byte[] buf = new byte[(int) Math.min(remaining,
+                            TRANSFER_BUFFER_SIZE)];
+                    raf.seek(filePosition);
+                    while (remaining > 0) {
+                        int n = (int) Math.min(remaining, buf.length);
+                        raf.readFully(buf, 0, n);
+                        os.write(buf, 0, n);
+                        remaining -= n;
+                    }
+                }
+            } finally {
+                raf.close();
+            }
+            position(end);
+        }
+        return end - start;
+    }
+
     /*
      * Like 'readFullyTo', but only reads the header-part.
      * Starts from the beginning each time it is called.
@@ -0,0 +1,406 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import org.archive.util.FileUtils;
+
+/**
+ * Log Handler which writes to its file asynchronously: logging threads
+ * format their records, then pass the lines through a fixed-size ring
+ * buffer to a single writer thread, which encodes them in batches into
+ * a reusable buffer and writes that with large sequential writes.
+ * Logging threads never wait on each other, or on file I/O, unless the
+ * ring is full.
+ *
+ * Records are formatted on the logging thread, as log parameters (such
+ * as CrawlURIs) may change as soon as logging returns; the Formatter
+ * must therefore be safe for concurrent use.
+ *
+ * Like {@link GenerationFileHandler}, supports rotating the current file
+ * to an archival name, continuing under the original name; here the
+ * same handler continues, with no records lost or misplaced across the
+ * rotation.
+ */
+public class RingBufferFileHandler extends Handler {
+    /** longest a waiting thread parks before rechecking */
+    protected static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    protected LinkedList<String> filenameSeries = new LinkedList<String>();
+    protected boolean shouldManifest;
+
+    /** formatted lines, by sequence number modulo capacity */
+    protected final AtomicReferenceArray<String> ring;
+    protected final int mask;
+    /** next sequence number to be claimed by a logging thread */
+    protected final AtomicLong claimed = new AtomicLong();
+    /** next sequence number to be taken by the writer thread */
+    protected volatile long consumed = 0;
+    /** sequence number up to which all lines are written to the file */
+    protected volatile long written = 0;
+    /** true while the writer thread is, or is about to be, parked */
+    protected volatile boolean writerIdle = false;
+    protected volatile boolean flushRequested = false;
+    protected volatile boolean closed = false;
+
+    /** longest unwritten lines are held awaiting more, when idle; 0: none */
+    protected volatile long flushIntervalMs = 1000;
+    /**
+     * shortest time between forcing written data to disk; 0: only on
+     * rotation and close
+     */
+    protected volatile long syncIntervalMs = 0;
+
+    /** guards file/channel against concurrent write and rotation */
+    protected final Object fileLock = new Object();
+    protected FileOutputStream out;
+    protected FileChannel channel;
+    protected long lastSync;
+
+    protected final CharsetEncoder encoder;
+    protected final ByteBuffer batch;
+    protected long batchStarted;
+    protected final Thread writer;
+
+    /**
+     * Constructor.
+     *
+     * @param filename file to write
+     * @param append whether to add to any existing file
+     * @param shouldManifest
+     * @param capacity lines which may be awaiting the writer; rounded up
+     * to a power of 2
+     * @param batchBytes size of buffer for writes
+     * @throws IOException
+     */
+    public RingBufferFileHandler(String filename, boolean append,
+            boolean shouldManifest, int capacity, int batchBytes)
+    throws IOException {
+        filenameSeries.addFirst(filename);
+        this.shouldManifest = shouldManifest;
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.ring = new AtomicReferenceArray<String>(size);
+        this.mask = size - 1;
+        this.batch = ByteBuffer.allocate(Math.max(batchBytes, 1024));
+        this.encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        open(filename, append);
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "RingBufferFileHandler " + new File(filename).getName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Constructor-helper that rather than clobbering any existing
+     * file, moves it aside with a timestamp suffix.
+     */
+    public static RingBufferFileHandler makeNew(String filename,
+            boolean shouldManifest, int capacity, int batchBytes)
+    throws IOException {
+        FileUtils.moveAsideIfExists(new File(filename));
+        return new RingBufferFileHandler(filename, false, shouldManifest,
+                capacity, batchBytes);
+    }
+
+    /**
+     * @return Returns the filenameSeries: current file first, then
+     * rotated files, latest first.
+     */
+    public List<String> getFilenameSeries() {
+        return filenameSeries;
+    }
+
+    /**
+     * @return True if should manifest.
+     */
+    public boolean shouldManifest() {
+        return this.shouldManifest;
+    }
+
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    public long getSyncIntervalMs() {
+        return syncIntervalMs;
+    }
+    public void setSyncIntervalMs(long syncIntervalMs) {
+        this.syncIntervalMs = syncIntervalMs;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        String line;
+        try {
+            line = getFormatter().format(record);
+        } catch (Exception e) {
+            reportError(null, e, ErrorManager.FORMAT_FAILURE);
+            return;
+        }
+        if (closed) {
+            reportError("handler closed", null, ErrorManager.WRITE_FAILURE);
+            return;
+        }
+        long seq = claimed.getAndIncrement();
+        while (seq - consumed > mask) {
+            // ring full: wait for writer to take older lines
+            if (!writer.isAlive()) {
+                reportError("writer stopped", null,
+                        ErrorManager.WRITE_FAILURE);
+                return;
+            }
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        ring.set((int) seq & mask, line);
+        if (writerIdle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Write all lines logged before this call, waiting until done.
+     */
+    @Override
+    public void flush() {
+        awaitWritten(claimed.get());
+    }
+
+    protected void awaitWritten(long target) {
+        while (written < target && writer.isAlive()) {
+            flushRequested = true;
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * Move the current file to a new filename with the storeSuffix in place
+     * of the activeSuffix; continuing logging to a new file under the
+     * original filename. Lines logged before rotation begins go to the
+     * moved file.
+     *
+     * @param storeSuffix Suffix to put in place of <code>activeSuffix</code>
+     * @param activeSuffix Suffix to replace with <code>storeSuffix</code>.
+     * @throws IOException
+     */
+    public void rotate(String storeSuffix, String activeSuffix)
+    throws IOException {
+        flush();
+        synchronized (fileLock) {
+            String filename = (String) filenameSeries.getFirst();
+            if (!filename.endsWith(activeSuffix)) {
+                throw new FileNotFoundException("Active file does not have" +
+                    " expected suffix");
+            }
+            String storeFilename = filename.substring(0,
+                 filename.length() - activeSuffix.length()) +
+                 storeSuffix;
+            closeFile();
+            File activeFile = new File(filename);
+            File storeFile = new File(storeFilename);
+            FileUtils.moveAsideIfExists(storeFile);
+            if (!activeFile.renameTo(storeFile)) {
+                open(filename, true);
+                throw new IOException("Unable to move " + filename + " to " +
+                    storeFilename);
+            }
+            filenameSeries.add(1, storeFilename);
+            open(filename, false);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (fileLock) {
+            try {
+                closeFile();
+            } catch (IOException e) {
+                reportError(null, e, ErrorManager.CLOSE_FAILURE);
+            }
+        }
+    }
+
+    protected void open(String filename, boolean append)
+    throws FileNotFoundException {
+        out = new FileOutputStream(filename, append);
+        channel = out.getChannel();
+        lastSync = System.currentTimeMillis();
+    }
+
+    protected void closeFile() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+        } finally {
+            out.close();
+            channel = null;
+            out = null;
+        }
+    }
+
+    /**
+     * Writer thread: take lines in sequence, encoding them into the batch
+     * buffer, and write the buffer when it fills, or when the ring empties
+     * (after flushIntervalMs, or at once if flush was requested).
+     */
+    protected void writeLoop() {
+        while (true) {
+            long next = consumed;
+            int index = (int) next & mask;
+            String line = ring.get(index);
+            if (line != null) {
+                ring.set(index, null);
+                consumed = next + 1;
+                append(line, next);
+                continue;
+            }
+            if (claimed.get() > next) {
+                // line claimed, not yet set
+                Thread.yield();
+                continue;
+            }
+            // ring empty
+            if (batch.position() > 0
+                    && (closed || flushRequested || flushIntervalMs == 0
+                        || System.currentTimeMillis() - batchStarted
+                            >= flushIntervalMs)) {
+                writeBatch(next);
+                continue;
+            }
+            if (written == next) {
+                flushRequested = false;
+            }
+            if (closed) {
+                break;
+            }
+            writerIdle = true;
+            if (ring.get(index) == null && !closed && !flushRequested) {
+                LockSupport.parkNanos(batch.position() > 0
+                        ? TimeUnit.MILLISECONDS.toNanos(flushIntervalMs)
+                        : PARK_NANOS * 100);
+            }
+            writerIdle = false;
+        }
+    }
+
+    /**
+     * Add a line to the batch buffer, first writing out the buffer if the
+     * line may not fit: so that files are only written, and so rotated,
+     * at line boundaries.
+     *
+     * @param line
+     * @param seq line's sequence number
+     */
+    protected void append(String line, long seq) {
+        int maxBytes = (int) Math.ceil(line.length() 
+                * (double) encoder.maxBytesPerChar());
+        if (maxBytes > batch.remaining() && batch.position() > 0) {
+            writeBatch(seq);
+        }
+        if (maxBytes > batch.capacity()) {
+            // oversized line: write alone
+            try {
+                write(encoder.encode(CharBuffer.wrap(line)), seq + 1);
+            } catch (CharacterCodingException e) {
+                reportError(null, e, ErrorManager.FORMAT_FAILURE);
+            }
+            return;
+        }
+        if (batch.position() == 0) {
+            batchStarted = System.currentTimeMillis();
+        }
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(line), batch, true);
+        encoder.flush(batch);
+    }
+
+    /**
+     * Write out the batch buffer, after which all lines before 'upTo' are
+     * written.
+     */
+    protected void writeBatch(long upTo) {
+        batch.flip();
+        write(batch, upTo);
+        batch.clear();
+    }
+
+    protected void write(ByteBuffer bytes, long upTo) {
+        synchronized (fileLock) {
+            try {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                long now = System.currentTimeMillis();
+                if (syncIntervalMs > 0 && now - lastSync >= syncIntervalMs) {
+                    channel.force(false);
+                    lastSync = now;
+                }
+            } catch (IOException e) {
+                reportError(null, e, ErrorManager.WRITE_FAILURE);
+            } catch (RuntimeException e) {
+                reportError(null, e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+        written = upTo;
+    }
+}
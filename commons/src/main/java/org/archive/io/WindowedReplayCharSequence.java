@@ -0,0 +1,491 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.io;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.util.DevUtils;
+
+/**
+ * (Replay)CharSequence view on recorded streams in multibyte encodings,
+ * decoded lazily a window at a time directly from the recording's
+ * in-memory prefix and memory-mapped backing file.
+ *
+ * <p>Unlike {@link GenericReplayCharSequence}, no decoded copy of the
+ * content is ever written to disk. Instead a sparse index of
+ * (character offset, byte offset) checkpoints, one per window, is built
+ * on demand as far as the highest character yet requested. A request for
+ * any character then decodes only the window beginning at the nearest
+ * preceding checkpoint.
+ *
+ * <p>Restarting decoding at a checkpoint is only safe for charsets whose
+ * decoders carry no state between characters; see
+ * {@link #isSupported(String)}. Stateful encodings (ISO-2022-*, BOM-sniffing
+ * UTF-16, etc.) must still use {@link GenericReplayCharSequence}.
+ *
+ * <p>Decoded windows are immutable once published, and the index is
+ * extended under this instance's lock, so several threads may read one
+ * instance concurrently (for example, several extractors scanning the
+ * same document).
+ *
+ * <p>Call {@link #close()} on this class when done to clean up resources.
+ */
+public class WindowedReplayCharSequence implements ReplayCharSequence {
+
+    protected static Logger logger = Logger
+            .getLogger(WindowedReplayCharSequence.class.getName());
+
+    /**
+     * Charsets (by canonical name) whose decoders are stateless, and so may
+     * safely be restarted at any character boundary.
+     */
+    protected static final Set<String> STATELESS_CHARSETS =
+        new HashSet<String>(Arrays.asList(new String[] {
+            "UTF-8", "UTF-16BE", "UTF-16LE", "UTF-32BE", "UTF-32LE",
+            "Shift_JIS", "windows-31j", "EUC-JP", "EUC-KR", "x-windows-949",
+            "GBK", "GB2312", "GB18030", "Big5", "Big5-HKSCS", "x-windows-950",
+            "x-EUC-TW"}));
+
+    /** default number of characters decoded (and indexed) per window */
+    protected static final int DEFAULT_WINDOW_CHARS = 16 * 1024;
+
+    /** default span of backing file covered by a single memory map */
+    protected static final int DEFAULT_MAP_STRIDE_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Extra bytes mapped beyond each stride, so that a character straddling
+     * the end of one map can be decoded whole. Must be at least the maximum
+     * byte length of a character in any supported charset.
+     */
+    protected static final int MAP_OVERLAP_BYTES = 16;
+
+    /** number of decoded windows kept for reuse */
+    protected static final int WINDOW_CACHE_SLOTS = 8;
+
+    /**
+     * An immutable run of decoded characters.
+     */
+    protected static class Window {
+        final int start;
+        final char[] chars;
+        Window(int start, char[] chars) {
+            this.start = start;
+            this.chars = chars;
+        }
+        boolean contains(int index) {
+            return index >= start && index - start < chars.length;
+        }
+    }
+
+    /**
+     * A read-only span of the logical content bytes, starting at
+     * <code>start</code>, plus up to MAP_OVERLAP_BYTES following bytes.
+     */
+    protected static class Segment {
+        final long start;
+        final ByteBuffer bytes;
+        Segment(long start, ByteBuffer bytes) {
+            this.start = start;
+            this.bytes = bytes;
+        }
+    }
+
+    protected Charset charset;
+    protected int windowChars;
+    protected int mapStrideBytes;
+
+    /** total content bytes, in-memory prefix plus file portion */
+    protected long totalBytes;
+
+    /** content bytes (possibly zero) held in the recorder's memory buffer */
+    protected Segment prefixSegment;
+    protected int prefixLength;
+
+    /** offset in backing file of first content byte */
+    protected long fileBase;
+    protected long fileLength;
+    protected FileInputStream backingFileIn = null;
+    protected FileChannel backingFileChannel = null;
+    protected Segment[] fileSegments;
+
+    /** character offset at which each indexed window begins */
+    protected int[] checkpointChars = new int[64];
+    /** byte offset at which each indexed window begins */
+    protected long[] checkpointBytes = new long[64];
+    /** count of valid checkpoints; the last begins a not-yet-indexed window
+     * unless the index is complete, in which case it marks the end */
+    protected int checkpoints = 1;
+    protected boolean indexComplete = false;
+    protected CharBuffer indexScratch;
+    protected CharsetDecoder indexDecoder;
+
+    /** content length in characters; valid only once index complete */
+    protected int length = -1;
+
+    protected AtomicReferenceArray<Window> windows =
+        new AtomicReferenceArray<Window>(WINDOW_CACHE_SLOTS);
+
+    /**
+     * Test whether the named charset can be decoded by this class.
+     *
+     * @param charsetName charset name or alias
+     * @return true if decoding in that charset is stateless
+     */
+    public static boolean isSupported(String charsetName) {
+        try {
+            return STATELESS_CHARSETS.contains(
+                    Charset.forName(charsetName).name());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param contentReplayInputStream inputStream of content, positioned
+     * at the first byte to be presented as character content
+     * @param backingFilename Path to backing file with content in excess of
+     * what's in the stream's in-memory buffer.
+     * @param charsetName Encoding to use; must pass
+     * {@link #isSupported(String)}.
+     *
+     * @throws IOException
+     */
+    public WindowedReplayCharSequence(
+            ReplayInputStream contentReplayInputStream, String backingFilename,
+            String charsetName) throws IOException {
+        this(contentReplayInputStream, backingFilename, charsetName,
+                DEFAULT_WINDOW_CHARS, DEFAULT_MAP_STRIDE_BYTES);
+    }
+
+    /**
+     * Constructor allowing window and map sizes to be set (for tests).
+     */
+    protected WindowedReplayCharSequence(
+            ReplayInputStream contentReplayInputStream, String backingFilename,
+            String charsetName, int windowChars, int mapStrideBytes)
+    throws IOException {
+        super();
+        logger.fine("new WindowedReplayCharSequence() characterEncoding="
+                + charsetName + " backingFilename=" + backingFilename);
+        if(!isSupported(charsetName)) {
+            throw new IllegalArgumentException(
+                    "not a stateless charset: "+charsetName);
+        }
+        this.charset = Charset.forName(charsetName);
+        this.windowChars = windowChars;
+        this.mapStrideBytes = mapStrideBytes;
+
+        byte[] buffer = contentReplayInputStream.getBuffer();
+        long start = contentReplayInputStream.position();
+        long size = contentReplayInputStream.getSize();
+
+        this.prefixLength = (int) Math.max(0,
+                Math.min(buffer.length, size) - start);
+        this.fileBase = Math.max(0, start - buffer.length);
+        this.fileLength = Math.max(0, size - buffer.length - fileBase);
+        this.totalBytes = prefixLength + fileLength;
+
+        if (fileLength > 0) {
+            this.backingFileIn = new FileInputStream(backingFilename);
+            this.backingFileChannel = backingFileIn.getChannel();
+            this.fileSegments = new Segment[
+                (int) ((fileLength + mapStrideBytes - 1) / mapStrideBytes)];
+        }
+
+        // prefix segment: in-memory content plus leading file overlap
+        int overlap = (int) Math.min(MAP_OVERLAP_BYTES, fileLength);
+        byte[] prefixBytes = new byte[prefixLength + overlap];
+        System.arraycopy(buffer, (int) Math.min(start, buffer.length),
+                prefixBytes, 0, prefixLength);
+        if (overlap > 0) {
+            ByteBuffer tail = ByteBuffer.wrap(prefixBytes, prefixLength, overlap);
+            long pos = fileBase;
+            while (tail.hasRemaining()) {
+                if (backingFileChannel.read(tail, pos) < 0) {
+                    throw new IOException("backing file shorter than expected: "
+                            + backingFilename);
+                }
+                pos = fileBase + tail.position() - prefixLength;
+            }
+        }
+        this.prefixSegment = new Segment(0,
+                ByteBuffer.wrap(prefixBytes).asReadOnlyBuffer());
+
+        this.checkpointChars[0] = 0;
+        this.checkpointBytes[0] = 0;
+    }
+
+    /**
+     * Return the segment owning the given logical byte offset, mapping the
+     * relevant region of the backing file if necessary.
+     */
+    protected Segment segmentFor(long byteOffset) throws IOException {
+        if (byteOffset < prefixLength) {
+            return prefixSegment;
+        }
+        int k = (int) ((byteOffset - prefixLength) / mapStrideBytes);
+        synchronized (this) {
+            if (fileSegments[k] == null) {
+                long mapOffset = (long) k * mapStrideBytes;
+                long mapSize = Math.min(
+                        mapStrideBytes + MAP_OVERLAP_BYTES,
+                        fileLength - mapOffset);
+                logger.fine("mapping fileOffset="
+                        + NumberFormat.getInstance().format(fileBase + mapOffset)
+                        + " mapSize=" + NumberFormat.getInstance().format(mapSize));
+                try {
+                    fileSegments[k] = new Segment(prefixLength + mapOffset,
+                            backingFileChannel.map(FileChannel.MapMode.READ_ONLY,
+                                fileBase + mapOffset, mapSize).asReadOnlyBuffer());
+                } catch (IOException e) {
+                    DevUtils.logger.log(Level.SEVERE,
+                            " backingFileChannel.map() mapOffset=" + mapOffset
+                                    + " mapSize=" + mapSize + "\n"
+                                    + DevUtils.extraInfo(), e);
+                    throw e;
+                }
+            }
+            return fileSegments[k];
+        }
+    }
+
+    /**
+     * Decode characters into <code>out</code>, starting at the given logical
+     * byte offset (which must begin a character), until <code>out</code> is
+     * full or the content is exhausted.
+     *
+     * @return logical byte offset just past the last decoded character
+     * @throws IOException
+     */
+    protected long decode(CharsetDecoder decoder, long byteOffset,
+            CharBuffer out) throws IOException {
+        decoder.reset();
+        while (out.hasRemaining() && byteOffset < totalBytes) {
+            Segment seg = segmentFor(byteOffset);
+            ByteBuffer in = seg.bytes.duplicate();
+            in.position((int) (byteOffset - seg.start));
+            boolean endOfInput = seg.start + in.limit() >= totalBytes;
+            CoderResult result = decoder.decode(in, out, endOfInput);
+            long reached = seg.start + in.position();
+            if (endOfInput && result.isUnderflow()) {
+                decoder.flush(out);
+                return reached;
+            }
+            if (result.isOverflow()) {
+                return reached;
+            }
+            if (reached == byteOffset) {
+                // underflow without progress: overlap too small for charset
+                throw new IOException("unable to decode "+charset
+                        + " at byte offset " + byteOffset);
+            }
+            byteOffset = reached;
+        }
+        return byteOffset;
+    }
+
+    protected CharsetDecoder newDecoder() {
+        // same replacement behavior as InputStreamReader
+        return charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Extend the sparse index until it covers the given character index
+     * or the end of content, whichever comes first.
+     */
+    protected synchronized void ensureIndexed(int index) {
+        if (indexComplete || index < checkpointChars[checkpoints - 1]) {
+            return;
+        }
+        if (indexScratch == null) {
+            indexScratch = CharBuffer.allocate(windowChars);
+            indexDecoder = newDecoder();
+        }
+        try {
+            while (!indexComplete && index >= checkpointChars[checkpoints - 1]) {
+                int startChar = checkpointChars[checkpoints - 1];
+                long startByte = checkpointBytes[checkpoints - 1];
+                indexScratch.clear();
+                long endByte = decode(indexDecoder, startByte, indexScratch);
+                long endChar = (long) startChar + indexScratch.position();
+                if (endChar > Integer.MAX_VALUE) {
+                    logger.warning("input stream is longer than Integer.MAX_VALUE="
+                            + NumberFormat.getInstance().format(Integer.MAX_VALUE)
+                            + " characters -- only first "
+                            + NumberFormat.getInstance().format(Integer.MAX_VALUE)
+                            + " are accessible through this WindowedReplayCharSequence");
+                    endChar = Integer.MAX_VALUE;
+                }
+                if (endChar > startChar) {
+                    addCheckpoint((int) endChar, endByte);
+                }
+                if (endByte >= totalBytes || endChar == startChar
+                        || endChar == Integer.MAX_VALUE) {
+                    indexComplete = true;
+                    length = checkpointChars[checkpoints - 1];
+                    indexScratch = null;
+                    indexDecoder = null;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected void addCheckpoint(int charOffset, long byteOffset) {
+        if (checkpoints == checkpointChars.length) {
+            checkpointChars = Arrays.copyOf(checkpointChars, checkpoints * 2);
+            checkpointBytes = Arrays.copyOf(checkpointBytes, checkpoints * 2);
+        }
+        checkpointChars[checkpoints] = charOffset;
+        checkpointBytes[checkpoints] = byteOffset;
+        checkpoints++;
+    }
+
+    /**
+     * Get (decoding if necessary) the window containing the given index.
+     */
+    protected Window windowFor(int index) {
+        int n;
+        int start;
+        int end;
+        long startByte;
+        synchronized (this) {
+            ensureIndexed(index);
+            if (indexComplete && index >= length) {
+                throw new IndexOutOfBoundsException("index=" + index
+                        + " - should be between 0 and length()=" + length);
+            }
+            n = Arrays.binarySearch(checkpointChars, 0, checkpoints, index);
+            if (n < 0) {
+                n = -n - 2; // insertion point less one
+            }
+            start = checkpointChars[n];
+            end = checkpointChars[n + 1];
+            startByte = checkpointBytes[n];
+        }
+        Window w = windows.get(n % WINDOW_CACHE_SLOTS);
+        if (w != null && w.start == start) {
+            return w;
+        }
+        CharBuffer out = CharBuffer.allocate(end - start);
+        try {
+            decode(newDecoder(), startByte, out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (out.hasRemaining()) {
+            throw new RuntimeException("window decoded short: expected "
+                    + (end - start) + " chars got " + out.position());
+        }
+        w = new Window(start, out.array());
+        windows.set(n % WINDOW_CACHE_SLOTS, w);
+        return w;
+    }
+
+    /**
+     * Get character at passed absolute position.
+     * @param index Index into content
+     * @return Character at offset <code>index</code>.
+     */
+    public char charAt(int index) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("index=" + index
+                    + " - should not be negative");
+        }
+        // windows are almost always exactly windowChars long, so try the
+        // cache slot that would hold the window if so
+        Window w = windows.get((index / windowChars) % WINDOW_CACHE_SLOTS);
+        if (w == null || !w.contains(index)) {
+            w = windowFor(index);
+        }
+        return w.chars[index - w.start];
+    }
+
+    public int length() {
+        ensureIndexed(Integer.MAX_VALUE);
+        return length;
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return new CharSubSequence(this, start, end);
+    }
+
+    public void close() throws IOException {
+        logger.fine("closing");
+        if (this.backingFileChannel != null && this.backingFileChannel.isOpen()) {
+            this.backingFileChannel.close();
+        }
+        if (backingFileIn != null) {
+            backingFileIn.close();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#finalize()
+     */
+    protected void finalize() throws Throwable {
+        super.finalize();
+        close();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder(this.length());
+        sb.append(this);
+        return sb.toString();
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.io.ReplayCharSequence#getDecodeExceptionCount()
+     */
+    public long getDecodeExceptionCount() {
+        // malformed input is silently replaced, as by InputStreamReader
+        return 0;
+    }
+
+    /* (non-Javadoc)
+     * @see org.archive.io.ReplayCharSequence#getCodingException()
+     */
+    public CharacterCodingException getCodingException() {
+        return null;
+    }
+}
@@ -26,6 +26,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Iterator;
@@ -437,6 +438,10 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
      */
     protected void copyFrom(final InputStream is, final long recordLength,
             boolean enforceLength) throws IOException {
+        if (is instanceof ReplayInputStream) {
+            copyFrom((ReplayInputStream) is, recordLength, enforceLength);
+            return;
+        }
         int read = scratchbuffer.length;
         long tot = 0;
         while ((tot < recordLength)
@@ -454,6 +459,32 @@ public abstract class WriterPoolMember implements ArchiveFileConstants {
         }
     }
 
+    /**
+     * Copy bytes from a recording to the target file/stream being written.
+     * When writing uncompressed to a file, the part of the recording in its
+     * backing file is copied file to file, without passing through the
+     * heap.
+     * 
+     * @param ris recording to copy bytes from, from its current position
+     * @param recordLength expected number of bytes to copy
+     * @param enforceLength whether to throw an exception if too many/too
+     * few bytes are available from the recording
+     * @throws IOException
+     */
+    protected void copyFrom(final ReplayInputStream ris,
+            final long recordLength, boolean enforceLength)
+    throws IOException {
+        long available = ris.remaining();
+        WritableByteChannel channel = (this.compressed || this.fos == null)
+            ? null : this.fos.getChannel();
+        ris.readTo(this.out, channel, recordLength);
+        if (enforceLength && available != recordLength) {
+            // throw exception if desired for read vs. declared mismatches
+            throw new IOException("Read " + available + " but expected "
+                    + recordLength);
+        }
+    }
+
     public void close() throws IOException {
         if (this.out == null) {
             return;
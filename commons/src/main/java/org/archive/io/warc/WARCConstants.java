@@ -201,6 +201,11 @@ public interface WARCConstants extends ArchiveFileConstants {
     public static final String HEADER_KEY_FILENAME = "WARC-Filename";
     public static final String HEADER_KEY_ETAG = "WARC-Etag";
     public static final String HEADER_KEY_LAST_MODIFIED = "WARC-Last-Modified";
+    public static final String HEADER_KEY_REFERS_TO = "WARC-Refers-To";
+    public static final String HEADER_KEY_REFERS_TO_TARGET_URI =
+        "WARC-Refers-To-Target-URI";
+    public static final String HEADER_KEY_REFERS_TO_DATE =
+        "WARC-Refers-To-Date";
     
     public static final String PROFILE_REVISIT_IDENTICAL_DIGEST = 
         "http://netpreserve.org/warc/1.0/revisit/identical-payload-digest";
@@ -22,17 +22,27 @@ package org.archive.io.warc;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
 
 import org.archive.io.ArchiveRecord;
 import org.archive.io.ArchiveRecordHeader;
+import org.archive.io.RecordingInputStream;
+import org.archive.io.ReplayInputStream;
 import org.archive.io.UTF8Bytes;
 import org.archive.io.WriterPoolMember;
 import org.archive.io.warc.WARCConstants;
@@ -451,4 +461,56 @@ extends TmpDirTestCase implements WARCConstants {
 			assertTrue(totalRead > 0);
 		}
 	}
+
+    public void testWriteFromRecording() throws Exception {
+        // more than the recording buffer, so partly from its backing file
+        byte[] content = new byte[100 * 1024 + 17];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31 + (i >>> 8));
+        }
+        RecordingInputStream ris = new RecordingInputStream(1024, new File(
+                getTmpDir(), "testWriteFromRecording").getAbsolutePath());
+        ris.open(new ByteArrayInputStream(content));
+        ris.readFullyOrUntil(0);
+        ris.close();
+        for (boolean compress : new boolean[] {false, true}) {
+            WARCWriter w = createWARCWriter("testWriteFromRecording", compress);
+            ReplayInputStream replay = ris.getReplayInputStream();
+            w.writeResourceRecord(SOME_URL, ArchiveUtils.get14DigitDate(),
+                "application/octet-stream", null, replay, content.length);
+            assertEquals(0, replay.remaining());
+            replay.close();
+            // a record after it lands where it should
+            writeRecord(w, SOME_URL, "text/plain", 5, getBaos("after"));
+            w.close();
+
+            File f = w.getFile();
+            if (compress) {
+                // check the members decompress to the same records
+                File plain = new File(getTmpDir(),
+                    "testWriteFromRecording" + DOT_WARC_FILE_EXTENSION);
+                InputStream in = new GZIPInputStream(new FileInputStream(f));
+                OutputStream out = new FileOutputStream(plain);
+                IOUtils.copy(in, out);
+                in.close();
+                out.close();
+                f = plain;
+            }
+            WARCReader r = WARCReaderFactory.get(f);
+            List<byte[]> bodies = new ArrayList<byte[]>();
+            for (Iterator<ArchiveRecord> i = r.iterator(); i.hasNext();) {
+                ArchiveRecord ar = i.next();
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                ar.dump(baos);
+                ar.close();
+                bodies.add(baos.toByteArray());
+            }
+            // warcinfo, then the two records
+            assertEquals(3, bodies.size());
+            assertTrue("content mismatch, compress " + compress,
+                Arrays.equals(content, bodies.get(1)));
+            assertEquals("after", new String(bodies.get(2)));
+            r.close();
+        }
+    }
 }
\ No newline at end of file
@@ -53,6 +53,11 @@ import com.esotericsoftware.kryo.serialize.StringSerializer;
  * and this class as a string rather than have the parent class rerun its
  * calculation everytime.
  *
+ * <p>A UURI may be made 'compact' (see {@link #compact()}), keeping only
+ * its escaped string form plus a small table of component offsets in place
+ * of the parent class's separate component arrays. Components are cut 
+ * back out of the string when next needed.
+ *
  * @author gojomo
  * @author stack
  *
@@ -106,6 +111,28 @@ implements CharSequence, Serializable, CustomSerialization {
      * Cache of this uuri in SURT format
      */
     private transient String surtForm = null;
+
+    /**
+     * When compact, start and end offsets into cachedEscapedURI of each 
+     * component (start -1 if component absent); otherwise null.
+     */
+    private transient short[] compactOffsets = null;
+    
+    private static final int AUTHORITY = 0;
+    private static final int USERINFO = 1;
+    private static final int HOST = 2;
+    private static final int OPAQUE = 3;
+    private static final int PATH = 4;
+    private static final int QUERY = 5;
+    private static final int COMPONENT_COUNT = 6;
+    
+    /**
+     * Whether UURIs from UURIFactory and from deserialization are made 
+     * compact. Initially set from system property 
+     * 'org.archive.net.UURI.compact'. 
+     */
+    private static boolean compactByDefault = 
+        Boolean.getBoolean(UURI.class.getName() + ".compact");
     
     // Technically, underscores are disallowed in the domainlabel
     // portion of hostname according to rfc2396 but we'll be more
@@ -141,7 +168,8 @@ implements CharSequence, Serializable, CustomSerialization {
      * @throws org.apache.commons.httpclient.URIException
      */
     protected UURI(UURI base, UURI relative) throws URIException {
-        super(base, relative);
+        // parent constructor reads component arrays directly
+        super(inflated(base), inflated(relative));
         normalize();
     }
 
@@ -156,6 +184,146 @@ implements CharSequence, Serializable, CustomSerialization {
         normalize();
     }
 
+    public static boolean isCompactByDefault() {
+        return compactByDefault;
+    }
+
+    public static void setCompactByDefault(boolean compact) {
+        compactByDefault = compact;
+    }
+
+    /**
+     * Release the parent class's component arrays, keeping only the 
+     * escaped string form of this UURI and the offsets of each component
+     * within it. Components are restored, without reparsing, by any 
+     * method needing them (other than the commonly-used toString(), 
+     * getEscapedURI(), getScheme(), getHost() and getAuthority()).
+     * 
+     * Should be called before the UURI is shared between threads. URIs 
+     * with fragments, or too long for short offsets, are left as is.
+     * 
+     * @return this UURI
+     */
+    public synchronized UURI compact() {
+        if (compactOffsets != null || _uri == null || _fragment != null
+                || _uri.length > Short.MAX_VALUE) {
+            return this;
+        }
+        hashCode(); // cache, as computed from _uri
+        String uri = toCustomString();
+        short[] offsets = new short[COMPONENT_COUNT * 2];
+        int authorityEnd = locate(uri, _authority, 0, offsets, AUTHORITY);
+        int authorityStart = Math.max(offsets[AUTHORITY * 2], 0);
+        int userinfoEnd = locate(uri, _userinfo, authorityStart,
+                offsets, USERINFO);
+        int hostFrom = (_userinfo == null) ? authorityStart : userinfoEnd;
+        int hostEnd = locate(uri, _host, hostFrom, offsets, HOST);
+        int opaqueEnd = locate(uri, _opaque, authorityEnd, offsets, OPAQUE);
+        int pathEnd = locate(uri, _path, authorityEnd, offsets, PATH);
+        int queryEnd = locate(uri, _query, Math.max(opaqueEnd, pathEnd),
+                offsets, QUERY);
+        if (authorityEnd < 0 || userinfoEnd < 0 || hostEnd < 0 
+                || opaqueEnd < 0 || pathEnd < 0 || queryEnd < 0) {
+            // unexpected layout; stay uncompacted
+            return this;
+        }
+        compactOffsets = offsets;
+        _uri = null;
+        _authority = null;
+        _userinfo = null;
+        _host = null;
+        _opaque = null;
+        _path = null;
+        _query = null;
+        return this;
+    }
+    
+    /**
+     * @return true if compact
+     */
+    public synchronized boolean isCompact() {
+        return compactOffsets != null;
+    }
+    
+    /**
+     * Find the given component in the URI string, noting its offsets. 
+     * 
+     * @return offset after component; from if component null; -1 if
+     * component not found
+     */
+    private static int locate(String uri, char[] component, int from, 
+            short[] offsets, int which) {
+        if (component == null) {
+            offsets[which * 2] = -1;
+            return from;
+        }
+        if (from < 0) {
+            return -1;
+        }
+        int limit = uri.length() - component.length;
+        for (int i = Math.max(from, 0); i <= limit; i++) {
+            int j = 0;
+            while (j < component.length 
+                    && uri.charAt(i + j) == component[j]) {
+                j++;
+            }
+            if (j == component.length) {
+                offsets[which * 2] = (short) i;
+                offsets[which * 2 + 1] = (short) (i + j);
+                return i + j;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * @return the given component, cut from the compact string form, or 
+     * null if absent
+     */
+    private char[] component(int which) {
+        int start = compactOffsets[which * 2];
+        if (start < 0) {
+            return null;
+        }
+        int end = compactOffsets[which * 2 + 1];
+        char[] chars = new char[end - start];
+        cachedEscapedURI.getChars(start, end, chars, 0);
+        return chars;
+    }
+    
+    private boolean hasComponent(int which) {
+        return compactOffsets[which * 2] >= 0;
+    }
+    
+    private static UURI inflated(UURI uuri) {
+        uuri.inflate();
+        return uuri;
+    }
+
+    /**
+     * If compact, restore the parent class's component arrays. 
+     */
+    protected synchronized void inflate() {
+        if (compactOffsets == null) {
+            return;
+        }
+        _uri = cachedEscapedURI.toCharArray();
+        _authority = component(AUTHORITY);
+        _userinfo = component(USERINFO);
+        if (compactOffsets[HOST * 2] == compactOffsets[AUTHORITY * 2]
+                && compactOffsets[HOST * 2 + 1] 
+                        == compactOffsets[AUTHORITY * 2 + 1]) {
+            // as shared by LaxURI.parseAuthority
+            _host = _authority;
+        } else {
+            _host = component(HOST);
+        }
+        _opaque = component(OPAQUE);
+        _path = component(PATH);
+        _query = component(QUERY);
+        compactOffsets = null;
+    }
+
     /**
      * @param uri URI as string that is resolved relative to this UURI.
      * @return UURI that uses this UURI as base.
@@ -206,6 +374,13 @@ implements CharSequence, Serializable, CustomSerialization {
             return false;
         }
         UURI another = (UURI) obj;
+        if ((isCompact() || another.isCompact()) 
+                && this._fragment == null && another._fragment == null) {
+            // without fragments, same components iff same string
+            return getEscapedURI().equals(another.getEscapedURI());
+        }
+        inflate();
+        another.inflate();
         // scheme
         if (!equals(this._scheme, another._scheme)) {
             return false;
@@ -304,7 +479,13 @@ implements CharSequence, Serializable, CustomSerialization {
         if (this.cachedHost == null) {
             // If this._host is null, 3.0 httpclient throws
             // illegalargumentexception.  Don't go there.
-            if (this._host != null) {
+            if (this.compactOffsets != null) {
+                if (hasComponent(HOST)) {
+                    this.cachedHost = org.apache.commons.httpclient.URI
+                        .decode(component(HOST), getProtocolCharset());
+                    coalesceHostAuthorityStrings();
+                }
+            } else if (this._host != null) {
             	this.cachedHost = super.getHost();
                 coalesceHostAuthorityStrings();
             }
@@ -458,6 +639,9 @@ implements CharSequence, Serializable, CustomSerialization {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
+        if (compactByDefault) {
+            compact();
+        }
     }
 
     private void writeObject(ObjectOutputStream stream) throws IOException {
@@ -467,5 +651,231 @@ implements CharSequence, Serializable, CustomSerialization {
     private void readObject(ObjectInputStream stream) throws IOException,
     ClassNotFoundException {
         parseUriReference(stream.readUTF(),true);
+        if (compactByDefault) {
+            compact();
+        }
+    }
+
+    //
+    // Overrides of parent methods using component arrays, restoring them
+    // first if compact
+    //
+    
+    @Override
+    public synchronized String getAuthority() throws URIException {
+        if (compactOffsets != null) {
+            return hasComponent(AUTHORITY) 
+                ? org.apache.commons.httpclient.URI.decode(
+                        component(AUTHORITY), getProtocolCharset())
+                : null;
+        }
+        return super.getAuthority();
+    }
+
+    @Override
+    public synchronized boolean hasAuthority() {
+        if (compactOffsets != null) {
+            return hasComponent(AUTHORITY) || _is_net_path;
+        }
+        return super.hasAuthority();
+    }
+
+    @Override
+    public synchronized boolean hasQuery() {
+        if (compactOffsets != null) {
+            return hasComponent(QUERY);
+        }
+        return super.hasQuery();
+    }
+
+    @Override
+    public synchronized boolean hasUserinfo() {
+        if (compactOffsets != null) {
+            return hasComponent(USERINFO);
+        }
+        return super.hasUserinfo();
+    }
+
+    @Override
+    public boolean isNetPath() {
+        inflate();
+        return super.isNetPath();
+    }
+
+    @Override
+    public char[] getRawAuthority() {
+        inflate();
+        return super.getRawAuthority();
+    }
+
+    @Override
+    public String getEscapedAuthority() {
+        inflate();
+        return super.getEscapedAuthority();
+    }
+
+    @Override
+    public char[] getRawUserinfo() {
+        inflate();
+        return super.getRawUserinfo();
+    }
+
+    @Override
+    public String getEscapedUserinfo() {
+        inflate();
+        return super.getEscapedUserinfo();
+    }
+
+    @Override
+    public String getUserinfo() throws URIException {
+        inflate();
+        return super.getUserinfo();
+    }
+
+    @Override
+    public char[] getRawHost() {
+        inflate();
+        return super.getRawHost();
+    }
+
+    @Override
+    public char[] getRawCurrentHierPath() throws URIException {
+        inflate();
+        return super.getRawCurrentHierPath();
+    }
+
+    @Override
+    public char[] getRawPath() {
+        inflate();
+        return super.getRawPath();
+    }
+
+    @Override
+    public char[] getRawName() {
+        inflate();
+        return super.getRawName();
+    }
+
+    @Override
+    public char[] getRawPathQuery() {
+        inflate();
+        return super.getRawPathQuery();
+    }
+
+    @Override
+    public char[] getRawQuery() {
+        inflate();
+        return super.getRawQuery();
+    }
+
+    @Override
+    public String getEscapedQuery() {
+        inflate();
+        return super.getEscapedQuery();
+    }
+
+    @Override
+    public String getQuery() throws URIException {
+        inflate();
+        return super.getQuery();
+    }
+
+    @Override
+    public char[] getRawURI() {
+        inflate();
+        return super.getRawURI();
+    }
+
+    @Override
+    public char[] getRawURIReference() {
+        inflate();
+        return super.getRawURIReference();
+    }
+
+    @Override
+    public String getURI() throws URIException {
+        inflate();
+        return super.getURI();
+    }
+
+    @Override
+    public void setRawAuthority(char[] escapedAuthority) 
+    throws URIException, NullPointerException {
+        inflate();
+        super.setRawAuthority(escapedAuthority);
+    }
+
+    @Override
+    public void setEscapedAuthority(String escapedAuthority) 
+    throws URIException {
+        inflate();
+        super.setEscapedAuthority(escapedAuthority);
+    }
+
+    @Override
+    public void setRawPath(char[] escapedPath) throws URIException {
+        inflate();
+        super.setRawPath(escapedPath);
+    }
+
+    @Override
+    public void setEscapedPath(String escapedPath) throws URIException {
+        inflate();
+        super.setEscapedPath(escapedPath);
+    }
+
+    @Override
+    public void setPath(String path) throws URIException {
+        inflate();
+        super.setPath(path);
+    }
+
+    @Override
+    public void setRawQuery(char[] escapedQuery) throws URIException {
+        inflate();
+        super.setRawQuery(escapedQuery);
+    }
+
+    @Override
+    public void setEscapedQuery(String escapedQuery) throws URIException {
+        inflate();
+        super.setEscapedQuery(escapedQuery);
+    }
+
+    @Override
+    public void setQuery(String query) throws URIException {
+        inflate();
+        super.setQuery(query);
+    }
+
+    @Override
+    public void setRawFragment(char[] escapedFragment) throws URIException {
+        inflate();
+        super.setRawFragment(escapedFragment);
+    }
+
+    @Override
+    public void setEscapedFragment(String escapedFragment) 
+    throws URIException {
+        inflate();
+        super.setEscapedFragment(escapedFragment);
+    }
+
+    @Override
+    public void setFragment(String fragment) throws URIException {
+        inflate();
+        super.setFragment(fragment);
+    }
+
+    @Override
+    public void normalize() throws URIException {
+        inflate();
+        super.normalize();
+    }
+
+    @Override
+    public synchronized Object clone() throws CloneNotSupportedException {
+        inflate();
+        return super.clone();
     }
 }
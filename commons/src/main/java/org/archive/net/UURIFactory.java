@@ -26,12 +26,10 @@ import java.io.UnsupportedEncodingException;
 import java.util.BitSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.httpclient.URI;
 import org.apache.commons.httpclient.URIException;
-import org.archive.util.TextUtils;
 
 
 /**
@@ -189,30 +187,6 @@ public class UURIFactory extends URI {
     public static final String URI_HEX_ENCODING =
         "^[^%]*%[\\p{XDigit}][\\p{XDigit}].*";
     
-    /**
-     * Authority port number regex.
-     */
-    final static Pattern PORTREGEX = Pattern.compile("(.*:)([0-9]+)$");
-    
-    /**
-     * Characters we'll accept in the domain label part of a URI
-     * authority: ASCII letters-digits-hyphen (LDH) plus underscore,
-     * with single intervening '.' characters.
-     * 
-     * (We accept '_' because DNS servers have tolerated for many
-     * years counter to spec; we also accept dash patterns and ACE
-     * prefixes that will be rejected by IDN-punycoding attempt.)
-     */
-    final static String ACCEPTABLE_ASCII_DOMAIN =
-        "^(?:[a-zA-Z0-9_-]++(?:\\.)?)++$";
-    
-    /**
-     * Pattern that looks for case of three or more slashes after the 
-     * scheme.  If found, we replace them with two only as mozilla does.
-     */
-    final static Pattern HTTP_SCHEME_SLASHES =
-        Pattern.compile("^(https?://)/+(.*)");
-    
     /**
      * Pattern that looks for case of two or more slashes in a path.
      */
@@ -316,6 +290,9 @@ public class UURIFactory extends URI {
            throw new URIException("Created (escaped) uuri > " +
               UURI.MAX_URL_LENGTH +": "+uuri.toString());
         }
+        if (UURI.isCompactByDefault()) {
+            uuri.compact();
+        }
         return uuri;
     }
     
@@ -327,6 +304,10 @@ public class UURIFactory extends URI {
      * wilds.  Its does all the escaping we want; its output can always be
      * assumed to be 'escaped' (though perhaps to a laxer standard than the 
      * vanilla HttpClient URI class or official specs might suggest). 
+     * 
+     * Components are found by a hand-written scan equivalent to the 
+     * RFC2396REGEX split (see comment above); an already-clean URI passes 
+     * through without copying until the final reassembly. 
      *
      * @param uri URI as string.
      * @param base May be null.
@@ -348,54 +329,48 @@ public class UURIFactory extends URI {
                 ": " + uri);
         }
         
-        // Replace nbsp with normal spaces (so that they get stripped if at
-        // ends, or encoded if in middle)
-        if (uri.indexOf(NBSP) >= 0) {
-            uri = TextUtils.replaceAll(NBSP, uri, SPACE);
-        }
-        
-        // Get rid of any trailing spaces or new-lines. 
-        uri = uri.trim();
+        // Replace nbsp, trim, convert backslashes, remove stray TAB/CR/LF, 
+        // collapse extra slashes after http(s) scheme, escape whitespace
+        uri = cleanup(uri);
         
-        // IE actually converts backslashes to slashes rather than to %5C.
-        // Since URIs that have backslashes usually work only with IE, we will
-        // convert backslashes to slashes as well.
-        // TODO: Maybe we can first convert backslashes by specs and than by IE
-        // so that we fetch both versions.
-        if (uri.indexOf(BACKSLASH) >= 0) {
-            uri = TextUtils.replaceAll(BACKSLASH_PATTERN, uri, SLASH);
+        // For further processing, get uri elements; equivalent to the
+        // RFC2396REGEX groups noted for each. 
+        int len = uri.length();
+        int sspStart = schemeEnd(uri);
+        String uriScheme = null;                                 // group 2
+        if (sspStart > 0) {
+            uriScheme = uri.substring(0, sspStart).toLowerCase();
+            sspStart++; // past ':'
         }
-        
-        // Remove stray TAB/CR/LF
-        uri = TextUtils.replaceAll(STRAY_SPACING, uri, EMPTY_STRING);
-        
-        // Test for the case of more than two slashes after the http(s) scheme.
-        // Replace with two slashes as mozilla does if found.
-        // See [ 788219 ] URI Syntax Errors stop page parsing.
-//        Matcher matcher = HTTP_SCHEME_SLASHES.matcher(uri);
-        Matcher matcher = TextUtils.getMatcher(HTTP_SCHEME_SLASHES.pattern(), uri);
-        if (matcher.matches()) {
-            uri = matcher.group(1) + matcher.group(2);
-        }
-        TextUtils.recycleMatcher(matcher); 
-
-        // now, minimally escape any whitespace
-        uri = escapeWhitespace(uri);
-        
-        // For further processing, get uri elements.  See the RFC2396REGEX
-        // comment above for explanation of group indices used in the below.
-//        matcher = RFC2396REGEX.matcher(uri);
-        matcher = TextUtils.getMatcher(RFC2396REGEX.pattern(), uri);
-        if (!matcher.matches()) {
+        int sspEnd = uri.indexOf('#', sspStart);
+        if (sspEnd < 0) {
+            sspEnd = len;
+        } else if (indexOfLineTerminator(uri, sspEnd + 1, len) >= 0) {
+            // regex '.' would not match across, so fragment would not parse
             throw new URIException("Failed parse of " + uri);
         }
-        String uriScheme = checkUriElementAndLowerCase(matcher.group(2));
-        String uriSchemeSpecificPart = checkUriElement(matcher.group(3));
-        String uriAuthority = checkUriElement(matcher.group(5));
-        String uriPath = checkUriElement(matcher.group(6));
-        String uriQuery = checkUriElement(matcher.group(8));
-        // UNUSED String uriFragment = checkUriElement(matcher.group(10));
-        TextUtils.recycleMatcher(matcher); matcher = null;
+        String uriSchemeSpecificPart = 
+            checkUriElement(uri.substring(sspStart, sspEnd));    // group 3
+        int pathStart = sspStart;
+        String uriAuthority = null;                              // group 5
+        if (uri.startsWith("//", sspStart)) {
+            pathStart = sspStart + 2;
+            while (pathStart < sspEnd && uri.charAt(pathStart) != '/'
+                    && uri.charAt(pathStart) != '?') {
+                pathStart++;
+            }
+            uriAuthority = 
+                checkUriElement(uri.substring(sspStart + 2, pathStart));
+        }
+        int queryStart = uri.indexOf('?', pathStart);
+        if (queryStart < 0 || queryStart > sspEnd) {
+            queryStart = sspEnd;
+        }
+        String uriPath =
+            checkUriElement(uri.substring(pathStart, queryStart));  // group 6
+        String uriQuery = (queryStart < sspEnd) 
+            ? checkUriElement(uri.substring(queryStart + 1, sspEnd)) // group 8
+            : null;
         
         // Test if relative URI. If so, need a base to resolve against.
         if (uriScheme == null || uriScheme.length() <= 0) {
@@ -416,8 +391,7 @@ public class UURIFactory extends URI {
                 uriSchemeSpecificPart.startsWith(SLASH)) {
             if (uriPath != null) {
                 // Eliminate '..' if its first thing in the path.  IE does this.
-                uriPath = TextUtils.replaceFirst(SLASHDOTDOTSLASH, uriPath,
-                    SLASH);
+                uriPath = stripLeadingSlashDotDots(uriPath);
             }
             // Ensure root URLs end with '/': browsers always send "/"
             // on the request-line, so we should consider "http://host"
@@ -489,6 +463,168 @@ public class UURIFactory extends URI {
         return s.toString();
     }
     
+    /**
+     * Apply, in order, the character-level fixups preceding the split into
+     * components: replace nbsp with normal spaces (so that they get 
+     * stripped if at ends, or encoded if in middle); trim; convert 
+     * backslashes to slashes (as IE does, rather than to %5C); remove stray
+     * TAB/CR/LF; replace more than two slashes after an http(s) scheme with
+     * two, as mozilla does (see [ 788219 ] URI Syntax Errors stop page 
+     * parsing); minimally escape any remaining whitespace.
+     * 
+     * @param uri URI string
+     * @return cleaned URI string; the same instance if no change was needed
+     */
+    protected String cleanup(String uri) {
+        int len = uri.length();
+        int i = 0;
+        // fast path: scan while nothing needs changing
+        for (; i < len; i++) {
+            char c = uri.charAt(i);
+            if (c <= ' ' || c == '\\' || (c >= 0x7F && needsCleanup(c))) {
+                break;
+            }
+        }
+        if (i == len) {
+            return collapseSchemeSlashes(uri);
+        }
+        
+        // trim, treating nbsp as the space it becomes
+        int start = 0;
+        int end = len;
+        while (start < end && isTrimmed(uri.charAt(start))) {
+            start++;
+        }
+        while (end > start && isTrimmed(uri.charAt(end - 1))) {
+            end--;
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        boolean hasWhitespace = false; 
+        for (int j = start; j < end; j++) {
+            char c = uri.charAt(j);
+            switch (c) {
+                case '\n': case '\r': case '\t':
+                    continue;
+                case '\\':
+                    c = '/';
+                    break;
+                case '\u00A0':
+                    c = ' ';
+                    break;
+            }
+            hasWhitespace |= Character.isWhitespace(c);
+            sb.append(c);
+        }
+        String cleaned = collapseSchemeSlashes(sb.toString());
+        return hasWhitespace ? escapeWhitespace(cleaned) : cleaned;
+    }
+
+    /**
+     * @param c non-ASCII character
+     * @return true if character is changed by cleanup()
+     */
+    private static boolean needsCleanup(char c) {
+        return c == '\u00A0' || Character.isWhitespace(c);
+    }
+    
+    /**
+     * @param c character
+     * @return true if character is removed by String.trim() (once nbsp 
+     * has been replaced by space)
+     */
+    private static boolean isTrimmed(char c) {
+        return c <= ' ' || c == '\u00A0';
+    }
+
+    /**
+     * If uri begins "http://" or "https://" followed by more slashes, remove
+     * the extras. Applied only if no line-terminator follows (as the 
+     * equivalent regex's '.' would not match it). 
+     * 
+     * @param uri URI string
+     * @return uri with extra slashes removed, if any
+     */
+    private static String collapseSchemeSlashes(String uri) {
+        int slashesStart;
+        if (uri.startsWith("http://")) {
+            slashesStart = 7;
+        } else if (uri.startsWith("https://")) {
+            slashesStart = 8;
+        } else {
+            return uri;
+        }
+        int slashesEnd = slashesStart;
+        while (slashesEnd < uri.length() && uri.charAt(slashesEnd) == '/') {
+            slashesEnd++;
+        }
+        if (slashesEnd == slashesStart 
+                || indexOfLineTerminator(uri, slashesEnd, uri.length()) >= 0) {
+            return uri;
+        }
+        return uri.substring(0, slashesStart) + uri.substring(slashesEnd);
+    }
+
+    /**
+     * @param uri URI string
+     * @return index of the colon ending the scheme, if the URI begins with a
+     * legal scheme followed by colon; otherwise 0
+     */
+    private static int schemeEnd(String uri) {
+        int len = uri.length();
+        if (len == 0 || !isAsciiLetter(uri.charAt(0))) {
+            return 0;
+        }
+        for (int i = 1; i < len; i++) {
+            char c = uri.charAt(i);
+            if (c == COLON) {
+                return i;
+            }
+            if (!(isAsciiLetter(c) || isAsciiDigit(c) || c == '+'
+                    || c == '-' || c == '.')) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+    
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+    
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * @return index of first regex line terminator (one not matched by 
+     * '.') in the given range, or -1 if none
+     */
+    private static int indexOfLineTerminator(String str, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = str.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+                    || c == '\u2029') {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Replace any run of '/../' segments beginning the path with a single
+     * '/'. (Only directly-repeated segments, as in '/..//../', form a run.)
+     * 
+     * @param path path beginning with '/'
+     * @return path with leading '/../' segments removed
+     */
+    private static String stripLeadingSlashDotDots(String path) {
+        int i = 0;
+        while (path.startsWith("/../", i)) {
+            i += 4;
+        }
+        return (i == 0) ? path : SLASH + path.substring(i);
+    }
+    
     /**
      * If http(s) scheme, check scheme specific part begins '//'.
      * @throws URIException 
@@ -581,13 +717,16 @@ public class UURIFactory extends URI {
     private String fixupDomainlabel(String label)
     throws URIException {
         
+        if (isPlainAsciiDomain(label)) {
+            // IDN-punycoding would leave unchanged
+            return label.toLowerCase();
+        }
+        
         // apply IDN-punycoding, as necessary
         try {
-            // TODO: optimize: only apply when necessary, or
-            // keep cache of recent encodings
             label = IDNA.toASCII(label);
         } catch (IDNAException e) {
-            if(TextUtils.matches(ACCEPTABLE_ASCII_DOMAIN,label)) {
+            if(isAcceptableAsciiDomain(label)) {
                 // domain name has ACE prefix, leading/trailing dash, or 
                 // underscore -- but is still a name we wish to tolerate;
                 // simply continue
@@ -605,6 +744,66 @@ public class UURIFactory extends URI {
         return label;
     }
     
+    /**
+     * Whether the given domain consists only of dot-separated labels of 
+     * 1 to 63 ASCII letters, digits and hyphens, not beginning or ending 
+     * with hyphen: the names IDNA.toASCII() returns unchanged.
+     * 
+     * @param domain domain to check
+     * @return true if domain is plain ASCII
+     */
+    private static boolean isPlainAsciiDomain(String domain) {
+        int labelStart = 0;
+        int len = domain.length();
+        for (int i = 0; i <= len; i++) {
+            char c = (i < len) ? domain.charAt(i) : '.';
+            if (c == '.') {
+                int labelLength = i - labelStart;
+                if (labelLength < 1 || labelLength > 63
+                        || domain.charAt(labelStart) == '-'
+                        || domain.charAt(i - 1) == '-') {
+                    return false;
+                }
+                labelStart = i + 1;
+            } else if (!(isAsciiLetter(c) || isAsciiDigit(c) || c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Whether the given domain consists of ASCII letters, digits, 
+     * hyphens and underscores, with single intervening (or trailing) '.' 
+     * characters. 
+     * 
+     * (We accept '_' because DNS servers have tolerated for many
+     * years counter to spec; we also accept dash patterns and ACE
+     * prefixes that will be rejected by IDN-punycoding attempt.)
+     * 
+     * @param domain domain to check
+     * @return true if domain is acceptable
+     */
+    private static boolean isAcceptableAsciiDomain(String domain) {
+        if (domain.length() == 0) {
+            return false;
+        }
+        char previous = '.';
+        for (int i = 0; i < domain.length(); i++) {
+            char c = domain.charAt(i);
+            if (c == '.') {
+                if (previous == '.') {
+                    return false;
+                }
+            } else if (!(isAsciiLetter(c) || isAsciiDigit(c) || c == '-' 
+                    || c == '_')) {
+                return false;
+            }
+            previous = c;
+        }
+        return true;
+    }
+    
     /**
      * Ensure that there all characters needing escaping
      * in the passed-in String are escaped. Stray '%' characters
@@ -705,33 +904,40 @@ public class UURIFactory extends URI {
      */
     private String checkPort(String uriAuthority)
     throws URIException {
-//        Matcher m = PORTREGEX.matcher(uriAuthority);
-        Matcher m = TextUtils.getMatcher(PORTREGEX.pattern(), uriAuthority);
-        if (m.matches()) {
-            String no = m.group(2);
-            if (no != null && no.length() > 0) {
-                // First check if the port has leading zeros
-                // as in '0080'.  Strip them if it has and
-                // then reconstitute the uriAuthority.  Be careful
-                // of cases where port is '0' or '000'.
-                while (no.charAt(0) == '0' && no.length() > 1) {
-                    no = no.substring(1);
-                }
-                uriAuthority = m.group(1) + no;
-                // Now makesure the number is legit.
-                int portNo = 0;
-                try {
-                    portNo = Integer.parseInt(no);
-                } catch (NumberFormatException nfe) {
-                    // just catch and leave portNo at illegal 0
-                }
-                if (portNo <= 0 || portNo > 65535) {
-                    throw new URIException("Port out of bounds: " +
-                        uriAuthority);
-                }
+        int colon = uriAuthority.lastIndexOf(COLON);
+        if (colon < 0 || colon == uriAuthority.length() - 1 
+                || indexOfLineTerminator(uriAuthority, 0, colon) >= 0) {
+            return uriAuthority;
+        }
+        int digitsStart = colon + 1;
+        for (int i = digitsStart; i < uriAuthority.length(); i++) {
+            if (!isAsciiDigit(uriAuthority.charAt(i))) {
+                return uriAuthority;
             }
         }
-        TextUtils.recycleMatcher(m); 
+        // First check if the port has leading zeros
+        // as in '0080'.  Strip them if it has and
+        // then reconstitute the uriAuthority.  Be careful
+        // of cases where port is '0' or '000'.
+        while (uriAuthority.charAt(digitsStart) == '0' 
+                && digitsStart < uriAuthority.length() - 1) {
+            digitsStart++;
+        }
+        String no = uriAuthority.substring(digitsStart);
+        if (digitsStart > colon + 1) {
+            uriAuthority = uriAuthority.substring(0, colon + 1) + no;
+        }
+        // Now makesure the number is legit.
+        int portNo = 0;
+        try {
+            portNo = Integer.parseInt(no);
+        } catch (NumberFormatException nfe) {
+            // just catch and leave portNo at illegal 0
+        }
+        if (portNo <= 0 || portNo > 65535) {
+            throw new URIException("Port out of bounds: " +
+                uriAuthority);
+        }
         return uriAuthority;
     }
 
@@ -0,0 +1,440 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A Bloom filter whose probes for any one key all fall within a single
+ * 512-bit (cache-line-sized) block, so that a lookup costs one cache miss
+ * rather than one per hash function, as with {@link BloomFilter64bit}.
+ *
+ * <p>Each key is hashed once, 4 chars at a time, to 64 bits: the upper
+ * half chooses the block, and the whole seeds the generation of in-block
+ * bit positions. Neither add() nor contains() allocates. Hashing is
+ * fixed rather than randomly weighted, so a filter's bits may be saved
+ * and later loaded into another filter of the same dimensions.
+ *
+ * <p>Confining probes to a block raises the false-positive rate over an
+ * unblocked filter of the same size, as blocks fill unevenly, so filters
+ * are made larger to compensate. {@link #getFalsePositiveRate()} measures
+ * the actual fill of (a sample of) blocks rather than assuming even fill.
+ *
+ * <p>Bits may live on the Java heap, in direct (off-heap) buffers, or in
+ * a memory-mapped scratch file.
+ *
+ * <p>Like BloomFilter64bit, this class is not safe for concurrent
+ * updates.
+ */
+public class BlockedBloomFilter implements BloomFilter {
+    /** longs per 512-bit block */
+    protected static final int BLOCK_LONGS = 8;
+    protected static final int BLOCK_BITS = BLOCK_LONGS * 64;
+    /** longs per storage chunk (128MiB), a whole number of blocks */
+    protected static final int CHUNK_POWER_OF_TWO = 24;
+    protected static final int CHUNK_LONGS = 1 << CHUNK_POWER_OF_TWO;
+    protected static final int CHUNK_MASK = CHUNK_LONGS - 1;
+    /** most blocks addressable by the 32-bit block hash */
+    protected static final long MAX_BLOCKS = 1L << 32;
+    protected static final int SAVE_MAGIC = 0x42424c4d; // 'BBLM'
+    protected static final int SAVE_VERSION = 1;
+    /** blocks examined to estimate the false-positive rate */
+    protected static final int FILL_SAMPLE_BLOCKS = 4096;
+
+    protected static final long M = 0xc6a4a7935bd1e995L;
+    protected static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    /** 9-bit in-block positions taken from each 64 mixed bits */
+    protected static final int PROBES_PER_LONG = 7;
+    protected static final long SEED = 0x2545f4914f6cdd1dL;
+
+    /** where bits are kept */
+    public enum Storage { HEAP, DIRECT, MAPPED }
+
+    protected final long expectedInserts;
+    protected final int d;
+    protected final long blocks;
+    protected final Storage storage;
+    /** bits, when on the heap */
+    protected long[][] heap;
+    /** bits, when in direct or mapped buffers */
+    protected LongBuffer[] buffers;
+
+    /** keys added, counting only those that set some new bit */
+    protected long size;
+    /** bits set */
+    protected long bitsSet;
+
+    /**
+     * Create a filter on the heap.
+     *
+     * @param n expected number of keys
+     * @param d bits set per key
+     */
+    public BlockedBloomFilter(long n, int d) {
+        this(n, d, Storage.HEAP, null);
+    }
+
+    /**
+     * Create a filter sized for about the same false-positive rate, when
+     * holding <var>n</var> keys, as a {@link BloomFilter64bit}: 
+     * 2<sup>-<var>d</var></sup>. (See {@link #bitsPerKey(int)}.)
+     *
+     * @param n expected number of keys
+     * @param d bits set per key
+     * @param storage where to keep the bits
+     * @param mapFile scratch file, for MAPPED storage; any prior
+     * contents are discarded
+     * @throws IllegalStateException if the file can't be mapped
+     */
+    public BlockedBloomFilter(long n, int d, Storage storage, File mapFile) {
+        if (d < 1 || d > BLOCK_BITS) {
+            throw new IllegalArgumentException("bad hash count " + d);
+        }
+        this.expectedInserts = n;
+        this.d = d;
+        this.storage = storage;
+        long bits = (long) Math.ceil(n * bitsPerKey(d));
+        this.blocks = Math.max(1, (bits + BLOCK_BITS - 1) / BLOCK_BITS);
+        if (blocks > MAX_BLOCKS) {
+            throw new IllegalArgumentException("This filter would require "
+                    + blocks + " blocks, more than the maximum of 2^32");
+        }
+        long longs = blocks * BLOCK_LONGS;
+        int chunks = (int) ((longs + CHUNK_LONGS - 1) / CHUNK_LONGS);
+        if (storage == Storage.HEAP) {
+            heap = new long[chunks][];
+            for (int i = 0; i < chunks; i++) {
+                heap[i] = new long[chunkLength(longs, i)];
+            }
+        } else if (storage == Storage.DIRECT) {
+            buffers = new LongBuffer[chunks];
+            for (int i = 0; i < chunks; i++) {
+                buffers[i] = ByteBuffer.allocateDirect(
+                        chunkLength(longs, i) * 8)
+                        .order(ByteOrder.nativeOrder()).asLongBuffer();
+            }
+        } else {
+            try {
+                buffers = map(mapFile, longs, chunks);
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                        "unable to map bloom file " + mapFile, e);
+            }
+        }
+    }
+
+    /**
+     * Find the bits per key at which a full filter's expected 
+     * false-positive rate is no more than the 2<sup>-<var>d</var></sup> of
+     * an unblocked filter: blocks' fill varies as a Poisson distribution 
+     * of keys, so this is some 5% (for d=8) to 55% (d=24) more than the 
+     * unblocked <var>d</var>/ln 2.
+     * 
+     * @param d bits set per key
+     * @return bits per expected key
+     */
+    protected static double bitsPerKey(int d) {
+        double goal = Math.pow(2, -d);
+        double bitsPerKey = d / Math.log(2);
+        while (expectedFalsePositiveRate(bitsPerKey, d) > goal) {
+            bitsPerKey *= 1.01;
+        }
+        return bitsPerKey;
+    }
+
+    /**
+     * @param bitsPerKey
+     * @param d bits set per key
+     * @return false-positive rate when full, averaged over blocks holding
+     * a Poisson-distributed number of keys
+     */
+    protected static double expectedFalsePositiveRate(double bitsPerKey,
+            int d) {
+        double keysPerBlock = BLOCK_BITS / bitsPerKey;
+        double p = Math.exp(-keysPerBlock);
+        double rate = 0;
+        for (int j = 0; j < 4 * keysPerBlock + 50; j++) {
+            if (j > 0) {
+                p *= keysPerBlock / j;
+            }
+            double unset = Math.pow(1 - 1.0 / BLOCK_BITS, (double) d * j);
+            rate += p * Math.pow(1 - unset, d);
+        }
+        return rate;
+    }
+
+    protected static int chunkLength(long longs, int chunk) {
+        return (int) Math.min(CHUNK_LONGS,
+                longs - ((long) chunk << CHUNK_POWER_OF_TWO));
+    }
+
+    protected static LongBuffer[] map(File file, long longs, int chunks)
+    throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // drop any earlier bits; extending leaves zeros
+            raf.setLength(0);
+            raf.setLength(longs * 8);
+            FileChannel channel = raf.getChannel();
+            LongBuffer[] mapped = new LongBuffer[chunks];
+            for (int i = 0; i < chunks; i++) {
+                mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        ((long) i << CHUNK_POWER_OF_TWO) * 8,
+                        chunkLength(longs, i) * 8L)
+                        .order(ByteOrder.nativeOrder()).asLongBuffer();
+            }
+            return mapped;
+        } finally {
+            // mappings remain valid after close
+            raf.close();
+        }
+    }
+
+    /**
+     * Hash a key to 64 bits, 4 chars (one long) per step, with the
+     * mixing of MurmurHash64A.
+     *
+     * @param s key
+     * @return 64-bit hash
+     */
+    protected static long hash(CharSequence s) {
+        int len = s.length();
+        long h = SEED ^ (len * M);
+        int i = 0;
+        for (int end = len & ~3; i < end; i += 4) {
+            long k = s.charAt(i)
+                | ((long) s.charAt(i + 1) << 16)
+                | ((long) s.charAt(i + 2) << 32)
+                | ((long) s.charAt(i + 3) << 48);
+            k *= M;
+            k ^= k >>> 47;
+            k *= M;
+            h ^= k;
+            h *= M;
+        }
+        if (i < len) {
+            long k = 0;
+            for (int shift = 0; i < len; i++, shift += 16) {
+                k |= (long) s.charAt(i) << shift;
+            }
+            h ^= k;
+            h *= M;
+        }
+        h ^= h >>> 47;
+        h *= M;
+        h ^= h >>> 47;
+        return h;
+    }
+
+    /**
+     * SplitMix64's finalizer: every output bit depends on every input bit.
+     */
+    protected static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @param h key hash
+     * @return index of first long of the key's block
+     */
+    protected long blockStart(long h) {
+        // map the upper 32 bits onto [0,blocks) without division
+        return (((h >>> 32) * blocks) >>> 32) * BLOCK_LONGS;
+    }
+
+    protected long word(long index) {
+        int chunk = (int) (index >>> CHUNK_POWER_OF_TWO);
+        int offset = (int) (index & CHUNK_MASK);
+        if (heap != null) {
+            return heap[chunk][offset];
+        }
+        return buffers[chunk].get(offset);
+    }
+
+    protected void setWord(long index, long value) {
+        int chunk = (int) (index >>> CHUNK_POWER_OF_TWO);
+        int offset = (int) (index & CHUNK_MASK);
+        if (heap != null) {
+            heap[chunk][offset] = value;
+        } else {
+            buffers[chunk].put(offset, value);
+        }
+    }
+
+    public boolean contains(CharSequence s) {
+        long h = hash(s);
+        long start = blockStart(h);
+        long state = h;
+        long bits = 0;
+        for (int i = 0; i < d; i++) {
+            if (i % PROBES_PER_LONG == 0) {
+                state += GOLDEN_GAMMA;
+                bits = mix(state);
+            }
+            int bit = (int) (bits >>> (i % PROBES_PER_LONG * 9)) & 511;
+            if ((word(start + (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean add(CharSequence s) {
+        long h = hash(s);
+        long start = blockStart(h);
+        long state = h;
+        long bits = 0;
+        boolean added = false;
+        for (int i = 0; i < d; i++) {
+            if (i % PROBES_PER_LONG == 0) {
+                state += GOLDEN_GAMMA;
+                bits = mix(state);
+            }
+            int bit = (int) (bits >>> (i % PROBES_PER_LONG * 9)) & 511;
+            long index = start + (bit >>> 6);
+            long w = word(index);
+            long mask = 1L << bit;
+            if ((w & mask) == 0) {
+                setWord(index, w | mask);
+                bitsSet++;
+                added = true;
+            }
+        }
+        if (added) {
+            size++;
+        }
+        return added;
+    }
+
+    public int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return keys added, without the int limit of {@link #size()}
+     */
+    public long getAddedCount() {
+        return size;
+    }
+
+    public long getBitsSet() {
+        return bitsSet;
+    }
+
+    public long getBitCount() {
+        return blocks * BLOCK_BITS;
+    }
+
+    public long getSizeBytes() {
+        return blocks * BLOCK_LONGS * 8;
+    }
+
+    public long getExpectedInserts() {
+        return expectedInserts;
+    }
+
+    public long getHashCount() {
+        return d;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public boolean getBit(long bitIndex) {
+        return (word(bitIndex >>> 6) & (1L << bitIndex)) != 0;
+    }
+
+    /**
+     * Estimate the chance that contains() is wrongly true for a key never
+     * added, from the fill of evenly-spaced sample blocks.
+     */
+    public double getFalsePositiveRate() {
+        long step = Math.max(1, blocks / FILL_SAMPLE_BLOCKS);
+        double sum = 0;
+        long sampled = 0;
+        for (long block = 0; block < blocks; block += step) {
+            int set = 0;
+            long start = block * BLOCK_LONGS;
+            for (int i = 0; i < BLOCK_LONGS; i++) {
+                set += Long.bitCount(word(start + i));
+            }
+            sum += Math.pow((double) set / BLOCK_BITS, d);
+            sampled++;
+        }
+        return sum / sampled;
+    }
+
+    /**
+     * Write counts and bits, for later {@link #load(DataInputStream)}
+     * into a filter of the same dimensions.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void save(DataOutputStream out) throws IOException {
+        out.writeInt(SAVE_MAGIC);
+        out.writeInt(SAVE_VERSION);
+        out.writeLong(blocks);
+        out.writeInt(d);
+        out.writeLong(size);
+        out.writeLong(bitsSet);
+        long longs = blocks * BLOCK_LONGS;
+        for (long i = 0; i < longs; i++) {
+            out.writeLong(word(i));
+        }
+    }
+
+    /**
+     * Replace this filter's counts and bits with those saved by
+     * {@link #save(DataOutputStream)}.
+     *
+     * @param in
+     * @throws IOException if the saved filter's dimensions differ
+     */
+    public void load(DataInputStream in) throws IOException {
+        if (in.readInt() != SAVE_MAGIC || in.readInt() != SAVE_VERSION) {
+            throw new IOException("not a saved BlockedBloomFilter");
+        }
+        long savedBlocks = in.readLong();
+        int savedD = in.readInt();
+        if (savedBlocks != blocks || savedD != d) {
+            throw new IOException("saved filter has " + savedBlocks
+                    + " blocks and " + savedD + " hashes, not " + blocks
+                    + " and " + d);
+        }
+        size = in.readLong();
+        bitsSet = in.readLong();
+        long longs = blocks * BLOCK_LONGS;
+        for (long i = 0; i < longs; i++) {
+            setWord(i, in.readLong());
+        }
+    }
+}
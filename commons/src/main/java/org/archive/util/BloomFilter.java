@@ -79,6 +79,14 @@ public interface BloomFilter {
      * @return long count of hash functions
      */
     public abstract long getHashCount(); 
+
+    /**
+     * Estimate the chance, at the filter's current fill, that 
+     * contains() is true for an item never added. 
+     * 
+     * @return false-positive probability, 0.0 to 1.0
+     */
+    public abstract double getFalsePositiveRate();
     
     // public for white-box unit testing
     public boolean getBit(long bitIndex);
@@ -332,4 +332,12 @@ public class BloomFilter64bit implements Serializable, BloomFilter {
     public long getHashCount() {
         return d;
     }
+
+    /**
+     * Theoretical rate for <var>size</var> items evenly spread over 
+     * <var>m</var> bits: (1 - e<sup>-<var>d</var> size/<var>m</var></sup>)<sup><var>d</var></sup>.
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) d * size / m), d);
+    }
 }
@@ -0,0 +1,259 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded BlockingQueue for handing items from producers to many
+ * consumers without a shared lock: items are kept in a non-blocking
+ * ConcurrentLinkedQueue, slots are reserved by compare-and-set on a count,
+ * and only threads that find nothing to take (or no room to put) park,
+ * to be unparked one at a time as items (or room) arrive.
+ *
+ * <p>Unlike a fair ArrayBlockingQueue, waiting consumers are not served
+ * in strict arrival order. The capacity may be changed at any time; if
+ * lowered below the current size, no items are put until enough are
+ * taken.
+ *
+ * @version $Date$, $Revision$
+ */
+public class HandoffQueue<E> extends AbstractQueue<E>
+implements BlockingQueue<E> {
+    protected ConcurrentLinkedQueue<E> items =
+        new ConcurrentLinkedQueue<E>();
+    /** items added or reserved, and not yet taken */
+    protected AtomicInteger count = new AtomicInteger();
+    protected volatile int capacity;
+
+    /** threads parked waiting for an item */
+    protected ConcurrentLinkedQueue<Thread> takers =
+        new ConcurrentLinkedQueue<Thread>();
+    /** threads parked waiting for room */
+    protected ConcurrentLinkedQueue<Thread> putters =
+        new ConcurrentLinkedQueue<Thread>();
+
+    /**
+     * @param capacity maximum items held
+     */
+    public HandoffQueue(int capacity) {
+        setCapacity(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int previous = this.capacity;
+        this.capacity = capacity;
+        if (capacity > previous) {
+            signal(putters);
+        }
+    }
+
+    protected static void signal(ConcurrentLinkedQueue<Thread> waiters) {
+        Thread waiter = waiters.peek();
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        int c;
+        do {
+            c = count.get();
+            if (c >= capacity) {
+                return false;
+            }
+        } while (!count.compareAndSet(c, c + 1));
+        items.add(e);
+        signal(takers);
+        return true;
+    }
+
+    public E poll() {
+        E e = items.poll();
+        if (e != null) {
+            count.decrementAndGet();
+            signal(putters);
+        }
+        return e;
+    }
+
+    public E peek() {
+        return items.peek();
+    }
+
+    public void put(E e) throws InterruptedException {
+        offer(e, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    public boolean offer(E e, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if (offer(e)) {
+            return true;
+        }
+        long deadline = deadline(timeout, unit);
+        Thread current = Thread.currentThread();
+        putters.add(current);
+        try {
+            while (!offer(e)) {
+                if (!park(deadline)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            putters.remove(current);
+            // pass on any signal this thread may have absorbed
+            if (count.get() < capacity) {
+                signal(putters);
+            }
+        }
+    }
+
+    public E take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E e = poll();
+        if (e != null) {
+            return e;
+        }
+        long deadline = deadline(timeout, unit);
+        Thread current = Thread.currentThread();
+        takers.add(current);
+        try {
+            while ((e = poll()) == null) {
+                if (!park(deadline)) {
+                    return null;
+                }
+            }
+            return e;
+        } finally {
+            takers.remove(current);
+            // pass on any signal this thread may have absorbed
+            if (!items.isEmpty()) {
+                signal(takers);
+            }
+        }
+    }
+
+    /**
+     * @return System.nanoTime() to wait until, or Long.MAX_VALUE for
+     * no limit
+     */
+    protected static long deadline(long timeout, TimeUnit unit) {
+        long nanos = unit.toNanos(timeout);
+        if (nanos == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return System.nanoTime() + nanos;
+    }
+
+    /**
+     * Park the current thread until unparked, the deadline passes, or
+     * (spuriously) otherwise.
+     *
+     * @return false if the deadline has passed
+     * @throws InterruptedException if the thread is interrupted
+     */
+    protected boolean park(long deadline) throws InterruptedException {
+        if (deadline == Long.MAX_VALUE) {
+            LockSupport.park(this);
+        } else {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return true;
+    }
+
+    public int size() {
+        return count.get();
+    }
+
+    public int remainingCapacity() {
+        return Math.max(capacity - count.get(), 0);
+    }
+
+    public boolean remove(Object o) {
+        if (items.remove(o)) {
+            count.decrementAndGet();
+            signal(putters);
+            return true;
+        }
+        return false;
+    }
+
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return weakly consistent iterator, not supporting remove()
+     */
+    public Iterator<E> iterator() {
+        final Iterator<E> iter = items.iterator();
+        return new Iterator<E>() {
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+            public E next() {
+                return iter.next();
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
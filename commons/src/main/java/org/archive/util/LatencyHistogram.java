@@ -0,0 +1,251 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations, in nanoseconds, in log-linear buckets (as in
+ * HdrHistogram): each power-of-two range is split into 16 equal
+ * sub-buckets, so any recorded value is reported to within about 6%.
+ * Values beyond about 68 seconds all land in the last bucket, though the
+ * exact maximum is kept.
+ *
+ * <p>Recording takes no locks and writes no shared memory: each thread
+ * records into its own counters, allocated on its first {@link #record},
+ * which only it updates. {@link #snapshot()} sums all threads' counters;
+ * a snapshot taken while others record may miss their latest values,
+ * but never sees torn ones.
+ */
+public class LatencyHistogram {
+    protected static final int SUB_BUCKET_BITS = 4;
+    protected static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    protected static final int MAX_EXPONENT = 35;
+    /** largest value given its own bucket */
+    public static final long MAX_TRACKED = (1L << (MAX_EXPONENT + 1)) - 1;
+    protected static final int BUCKETS =
+        (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    /* per-thread slots after the buckets */
+    protected static final int COUNT = BUCKETS;
+    protected static final int TOTAL = BUCKETS + 1;
+    protected static final int MAX = BUCKETS + 2;
+    protected static final int SLOTS = BUCKETS + 3;
+
+    protected final List<AtomicLongArray> recorders =
+        new CopyOnWriteArrayList<AtomicLongArray>();
+    protected final ThreadLocal<AtomicLongArray> recorder =
+        new ThreadLocal<AtomicLongArray>() {
+            protected AtomicLongArray initialValue() {
+                AtomicLongArray counts = new AtomicLongArray(SLOTS);
+                recorders.add(counts);
+                return counts;
+            }
+        };
+
+    /** calls to {@link #isSampled(int)} by each thread since its last sample */
+    protected final ThreadLocal<int[]> unsampled =
+        new ThreadLocal<int[]>() {
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+
+    /**
+     * Decide whether to time the current call: true for every Nth call
+     * by each thread. Independent of what is being timed (unlike, say, a
+     * URI's ordinal, which not all URIs yet have), and taking no locks.
+     *
+     * @param interval N; 0 or less never samples, 1 samples every call
+     * @return whether to time this call
+     */
+    public boolean isSampled(int interval) {
+        if (interval <= 0) {
+            return false;
+        }
+        int[] count = unsampled.get();
+        if (++count[0] < interval) {
+            return false;
+        }
+        count[0] = 0;
+        return true;
+    }
+
+    /**
+     * Record one duration.
+     *
+     * @param nanos duration in nanoseconds; negative values count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        AtomicLongArray counts = recorder.get();
+        // only this thread writes these slots, so a plain read and ordered
+        // write suffice
+        int bucket = bucketFor(nanos);
+        counts.lazySet(bucket, counts.get(bucket) + 1);
+        counts.lazySet(TOTAL, counts.get(TOTAL) + nanos);
+        if (nanos > counts.get(MAX)) {
+            counts.lazySet(MAX, nanos);
+        }
+        counts.lazySet(COUNT, counts.get(COUNT) + 1);
+    }
+
+    /**
+     * Record the time since the given {@link System#nanoTime()} reading.
+     *
+     * @param startNanos earlier System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return merged totals of all threads' recordings so far
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        long total = 0;
+        long max = 0;
+        for (AtomicLongArray r : recorders) {
+            count += r.get(COUNT);
+            total += r.get(TOTAL);
+            max = Math.max(max, r.get(MAX));
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += r.get(i);
+            }
+        }
+        return new Snapshot(counts, count, total, max);
+    }
+
+    protected static int bucketFor(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        if (value > MAX_TRACKED) {
+            return BUCKETS - 1;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @param bucket
+     * @return largest value recorded into the given bucket
+     */
+    protected static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Immutable merged view of a histogram at one moment.
+     */
+    public static class Snapshot {
+        protected final long[] counts;
+        protected final long count;
+        protected final long total;
+        protected final long max;
+
+        protected Snapshot(long[] counts, long count, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /** @return sum of all recorded durations, in nanoseconds */
+        public long getTotal() {
+            return total;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * @param percentile 0.0 to 100.0
+         * @return value (to bucket precision) at or below which the given
+         * percent of recorded values fall, never more than the maximum
+         */
+        public long getValueAtPercentile(double percentile) {
+            long recorded = 0;
+            for (long c : counts) {
+                recorded += c;
+            }
+            if (recorded == 0) {
+                return 0;
+            }
+            long wanted = (long) Math.ceil(
+                    Math.min(percentile, 100.0) / 100.0 * recorded);
+            wanted = Math.max(wanted, 1);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= wanted) {
+                    return Math.min(highestValueIn(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return one-line summary: count, then mean, median, 90th, 99th,
+         * 99.9th percentile and maximum in milliseconds
+         */
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(count);
+            sb.append(" mean ").append(ms((long) getMean()));
+            sb.append(" p50 ").append(ms(getValueAtPercentile(50)));
+            sb.append(" p90 ").append(ms(getValueAtPercentile(90)));
+            sb.append(" p99 ").append(ms(getValueAtPercentile(99)));
+            sb.append(" p99.9 ").append(ms(getValueAtPercentile(99.9)));
+            sb.append(" max ").append(ms(max));
+            return sb.toString();
+        }
+
+        /**
+         * @param nanos
+         * @return nanoseconds as milliseconds with three decimal places
+         */
+        public static String ms(long nanos) {
+            return ArchiveUtils.doubleToString(nanos / 1000000d, 3);
+        }
+    }
+}
@@ -19,6 +19,7 @@
 
 package org.archive.util;
 
+import java.util.BitSet;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
@@ -91,19 +92,39 @@ public class LongToIntConsistentHash {
      * @return
      */
     public int bucketFor(long longHash, int upTo) {
+        return bucketFor(longHash, upTo, null);
+    }
+
+    /**
+     * Return the proper integer bucket-number for the given long hash,
+     * up to the given integer boundary (exclusive), skipping excluded
+     * buckets. Hashes that would fall to an excluded bucket spread over
+     * the others; all other hashes are unaffected by the exclusion.
+     * 
+     * @param longHash
+     * @param upTo
+     * @param excluded buckets to skip, or null
+     * @return bucket number
+     * @throws IllegalArgumentException if all buckets are excluded
+     */
+    public int bucketFor(long longHash, int upTo, BitSet excluded) {
+        if (excluded != null && excluded.nextClearBit(0) >= upTo) {
+            throw new IllegalArgumentException("all buckets excluded");
+        }
         installReplicasUpTo(upTo); 
         
         NavigableMap<Long, Integer> tailMap = circle.tailMap(longHash, true);
         Map.Entry<Long,Integer> match = null;
         for(Map.Entry<Long,Integer> candidate : tailMap.entrySet()) {
-            if(candidate.getValue() < upTo) {
+            if(candidate.getValue() < upTo 
+                    && (excluded == null || !excluded.get(candidate.getValue()))) {
                 match = candidate; 
                 break;
             }
         }
         
         if (match == null) {
-            return bucketFor(Long.MIN_VALUE,upTo);
+            return bucketFor(Long.MIN_VALUE,upTo,excluded);
         } 
         return match.getValue();
     }
@@ -19,6 +19,7 @@
  
 package org.archive.util;
 
+import java.io.Serializable;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -31,7 +32,9 @@ import java.util.concurrent.ConcurrentHashMap;
  * @param <V>
  */
 public class ObjectIdentityMemCache<V> 
-implements ObjectIdentityCache<String,V> {
+implements ObjectIdentityCache<String,V>, Serializable {
+    private static final long serialVersionUID = 1L;
+
     ConcurrentHashMap<String, V> map; 
     
     public ObjectIdentityMemCache() {
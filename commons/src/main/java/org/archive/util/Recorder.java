@@ -23,8 +23,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import org.archive.io.RecordingInputStream;
 import org.archive.io.RecordingOutputStream;
@@ -41,6 +45,13 @@ import org.archive.io.ReplayInputStream;
  * Call {@link #markContentBegin()} to demarc the transition between HTTP
  * header and body.
  *
+ * If the body was sent compressed (see {@link #setContentEncoding(String)}),
+ * the recording keeps the raw compressed bytes, while
+ * {@link #getReplayCharSequence()} and {@link #getContentReplayInputStream()}
+ * offer the decoded content: decoded on first demand, streaming through a 
+ * third recording (spilling to disk like the others), and cut off at
+ * limits guarding against 'decompression bombs'.
+ *
  * @author gojomo
  */
 public class Recorder {
@@ -70,11 +81,36 @@ public class Recorder {
     */
     private static final String RECORDING_INPUT_STREAM_SUFFIX = ".ris";
 
+    /**
+     * Backing file decoded content suffix.
+     */
+    private static final String DECODED_SUFFIX = ".decoded";
+
     /**
      * Response character encoding.
      */
     private String characterEncoding = null;
 
+    /**
+     * Response content (transfer-compression) encoding, if any.
+     */
+    private String contentEncoding = null;
+
+    /** default most bytes decoded from compressed content */
+    public static final long DEFAULT_MAX_DECODED_LENGTH = 64 * 1024 * 1024;
+    /** default most bytes decoded per compressed byte */
+    public static final int DEFAULT_MAX_DECODING_RATIO = 200;
+
+    private long maxDecodedLength = DEFAULT_MAX_DECODED_LENGTH;
+    private int maxDecodingRatio = DEFAULT_MAX_DECODING_RATIO;
+
+    /** size of decoded recording's in-memory buffer */
+    private int decodedBufferSize;
+    /** decoded content, once demanded */
+    private RecordingOutputStream decoded = null;
+    private boolean decodedComplete = false;
+    private boolean decodedTruncated = false;
+
    
     /**
      * Create an HttpRecorder.
@@ -107,6 +143,7 @@ public class Recorder {
             this.backingFileBasename + RECORDING_INPUT_STREAM_SUFFIX);
         this.ros = new RecordingOutputStream(outBufferSize,
             this.backingFileBasename + RECORDING_OUTPUT_STREAM_SUFFIX);
+        this.decodedBufferSize = inBufferSize;
     }
 
     /**
@@ -141,6 +178,9 @@ public class Recorder {
     public InputStream inputWrap(InputStream is) 
     throws IOException {
         logger.fine(Thread.currentThread().getName() + " wrapping input");
+        this.contentEncoding = null;
+        this.decodedComplete = false;
+        this.decodedTruncated = false;
         this.ris.open(is);
         return this.ris;
     }
@@ -237,6 +277,7 @@ public class Recorder {
         this.close();
         this.delete(this.backingFileBasename + RECORDING_OUTPUT_STREAM_SUFFIX);
         this.delete(this.backingFileBasename + RECORDING_INPUT_STREAM_SUFFIX);
+        this.delete(this.backingFileBasename + DECODED_SUFFIX);
     }
 
     /**
@@ -290,10 +331,172 @@ public class Recorder {
      * @throws IOException
      */
     public ReplayCharSequence getReplayCharSequence() throws IOException {
+        if (isContentEncoded()) {
+            return getDecoded().getReplayCharSequence(this.characterEncoding);
+        }
         return getRecordedInput().
             getReplayCharSequence(this.characterEncoding);
     }
-    
+
+    /**
+     * @return A replay input stream of the content (after any headers), 
+     * decoded if it was compressed. Call close when done.
+     * @throws IOException
+     */
+    public ReplayInputStream getContentReplayInputStream() throws IOException {
+        if (isContentEncoded()) {
+            return getDecoded().getContentReplayInputStream();
+        }
+        return getRecordedInput().getContentReplayInputStream();
+    }
+
+    /**
+     * @param contentEncoding the compression applied to the recorded 
+     * content, as named by an HTTP Content-Encoding header ('gzip', 
+     * 'deflate'...); null or 'identity' if none. Reset by each 
+     * {@link #inputWrap(InputStream)}.
+     */
+    public void setContentEncoding(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+        this.decodedComplete = false;
+    }
+
+    public String getContentEncoding() {
+        return this.contentEncoding;
+    }
+
+    /**
+     * @return whether content is recorded compressed, in an encoding 
+     * that can be decoded
+     */
+    public boolean isContentEncoded() {
+        return isDecodable(this.contentEncoding);
+    }
+
+    /**
+     * @param contentEncoding HTTP Content-Encoding value
+     * @return whether content in the given encoding can be decoded
+     */
+    public static boolean isDecodable(String contentEncoding) {
+        if (contentEncoding == null) {
+            return false;
+        }
+        String enc = contentEncoding.trim().toLowerCase();
+        return enc.equals("gzip") || enc.equals("x-gzip") 
+            || enc.equals("deflate");
+    }
+
+    /**
+     * Set the limits on decoding compressed content: decoded content
+     * beyond either limit is dropped (see {@link #isDecodedTruncated()}).
+     * 
+     * @param maxLength most decoded bytes
+     * @param maxRatio most decoded bytes per recorded (compressed) byte
+     */
+    public void setDecodingLimits(long maxLength, int maxRatio) {
+        this.maxDecodedLength = maxLength;
+        this.maxDecodingRatio = maxRatio;
+    }
+
+    /**
+     * @return whether decoded content was cut short by the decoding limits
+     * (valid once decoded content has been requested)
+     */
+    public synchronized boolean isDecodedTruncated() {
+        return this.decodedTruncated;
+    }
+
+    /**
+     * Decode the recorded content into the decoded recording, if not 
+     * already done for this recording. Synchronized, as extractors running
+     * in parallel may all demand decoded content at once: the first 
+     * decodes, others wait for and share its result.
+     */
+    protected synchronized RecordingOutputStream getDecoded() 
+    throws IOException {
+        if (this.decoded == null) {
+            this.decoded = new RecordingOutputStream(this.decodedBufferSize,
+                    this.backingFileBasename + DECODED_SUFFIX);
+        }
+        if (this.decodedComplete) {
+            return this.decoded;
+        }
+        long raw = getResponseContentLength();
+        long limit = Math.min(this.maxDecodedLength, 
+                Math.max(raw, 1) * this.maxDecodingRatio);
+        this.decodedTruncated = false;
+        this.decoded.open();
+        this.decoded.markContentBegin();
+        ReplayInputStream content = 
+            getRecordedInput().getContentReplayInputStream();
+        InputStream in = null;
+        try {
+            in = decoding(content);
+            byte[] buf = new byte[16 * 1024];
+            long total = 0;
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                if (total + read > limit) {
+                    this.decoded.write(buf, 0, (int) (limit - total));
+                    this.decodedTruncated = true;
+                    logger.warning("decoded content of "
+                            + this.backingFileBasename + " cut off at " 
+                            + limit + " bytes (" + raw + " recorded)");
+                    break;
+                }
+                this.decoded.write(buf, 0, read);
+                total += read;
+            }
+        } catch (IOException e) {
+            // corrupt or truncated compressed content: offer what decoded
+            logger.log(Level.FINE, "problem decoding " + this.contentEncoding
+                    + " content", e);
+        } finally {
+            if (in != null) {
+                in.close();
+            } else {
+                content.close();
+            }
+            this.decoded.close();
+        }
+        this.decodedComplete = true;
+        return this.decoded;
+    }
+
+    /**
+     * Open a decoding stream over compressed content. For 'deflate', 
+     * which some servers send as raw deflate data rather than the zlib
+     * format HTTP specifies, the first bytes are checked for a zlib header.
+     * 
+     * @param content compressed content
+     * @return stream of decoded content
+     * @throws IOException
+     */
+    protected InputStream decoding(InputStream content) throws IOException {
+        String enc = this.contentEncoding.trim().toLowerCase();
+        if (!enc.equals("deflate")) {
+            return new GZIPInputStream(content);
+        }
+        PushbackInputStream in = new PushbackInputStream(content, 2);
+        int cmf = in.read();
+        int flg = (cmf == -1) ? -1 : in.read();
+        if (flg != -1) {
+            in.unread(flg);
+        }
+        if (cmf != -1) {
+            in.unread(cmf);
+        }
+        boolean zlib = flg != -1 && (cmf & 0x0f) == 8 
+            && ((cmf << 8) | flg) % 31 == 0;
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(in, inflater) {
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
     /**
      * @return A replay input stream.
      * @throws IOException
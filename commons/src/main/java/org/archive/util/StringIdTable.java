@@ -0,0 +1,350 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Dictionary assigning dense int IDs (0, 1, 2, ...) to strings, in order
+ * of first appearance, for use as compact keys in place of strings which
+ * recur across many structures (such as host names and server
+ * authorities). IDs are never reassigned or removed.
+ *
+ * Names are kept packed, one byte per character for ASCII, in large
+ * shared byte arrays; the per-name overhead is about 20 bytes, against
+ * several times that for a String in a HashMap. Lookups compare the
+ * given CharSequence against packed bytes directly, without allocation.
+ *
+ * Lookups of present names, and of names by ID, are lock-free; adding
+ * names is synchronized. Subclasses may persist names as they are added,
+ * by overriding {@link #added(int, String)}, and restore them with
+ * {@link #restore(int, String)}.
+ */
+public class StringIdTable {
+    /** ID returned for absent names */
+    public static final int NONE = -1;
+
+    /** IDs per chunk of the per-ID arrays */
+    protected static final int ID_CHUNK_BITS = 16;
+    protected static final int ID_CHUNK_SIZE = 1 << ID_CHUNK_BITS;
+    protected static final int ID_CHUNK_MASK = ID_CHUNK_SIZE - 1;
+    /** bytes per chunk of packed names; also the longest name accepted */
+    protected static final int POOL_CHUNK_SIZE = 1 << 20;
+
+    /** packed names: each a 3-byte length then encoded chars */
+    protected volatile byte[][] pool = new byte[1][];
+    /** per ID, position of name: pool chunk << 32 | offset */
+    protected volatile long[][] locations = new long[1][];
+    /** per ID, hash of name (String.hashCode) */
+    protected volatile int[][] hashes = new int[1][];
+    /** open-addressing hash table of ID+1, 0 marking empty slots */
+    protected volatile AtomicIntegerArray slots = new AtomicIntegerArray(1024);
+
+    protected volatile int size = 0;
+    /** next free byte in pool's last chunk */
+    protected int poolOffset = POOL_CHUNK_SIZE;
+
+    public StringIdTable() {
+    }
+
+    /**
+     * @return number of names (and so, one more than the highest ID)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the ID of the given name, if present.
+     *
+     * @param name
+     * @return ID, or NONE if not present
+     */
+    public int get(CharSequence name) {
+        return find(slots, name, hash(name));
+    }
+
+    /**
+     * Get the ID of the given name, adding it if not present.
+     *
+     * @param name
+     * @return ID
+     */
+    public int intern(CharSequence name) {
+        int hash = hash(name);
+        int id = find(slots, name, hash);
+        if (id != NONE) {
+            return id;
+        }
+        synchronized (this) {
+            id = find(slots, name, hash);
+            if (id != NONE) {
+                return id;
+            }
+            id = size;
+            added(id, name.toString());
+            append(id, name, hash);
+            return id;
+        }
+    }
+
+    /**
+     * Get the name with the given ID.
+     *
+     * @param id
+     * @return name
+     * @throws IndexOutOfBoundsException if no such ID
+     */
+    public String getName(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("no id " + id);
+        }
+        long location = locations[id >>> ID_CHUNK_BITS][id & ID_CHUNK_MASK];
+        byte[] chunk = pool[(int) (location >>> 32)];
+        int offset = (int) location;
+        int length = readLength(chunk, offset);
+        offset += 3;
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            int b = chunk[offset++] & 0xff;
+            if (b < 0x80) {
+                sb.append((char) b);
+            } else if (b < 0xe0) {
+                sb.append((char) (((b & 0x1f) << 6)
+                        | (chunk[offset++] & 0x3f)));
+            } else {
+                int b2 = chunk[offset++] & 0x3f;
+                sb.append((char) (((b & 0x0f) << 12) | (b2 << 6)
+                        | (chunk[offset++] & 0x3f)));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Called, holding this table's lock, when a name is about to be added,
+     * before it is visible to lookups. Does nothing by default.
+     *
+     * @param id ID being assigned
+     * @param name name being added
+     */
+    protected void added(int id, String name) {
+    }
+
+    /**
+     * Re-add a name previously added (as when loading a persisted table),
+     * without calling {@link #added(int, String)}. Names must be restored
+     * in ID order, before any others are added.
+     *
+     * @param id ID name previously had; must equal size()
+     * @param name
+     */
+    protected synchronized void restore(int id, String name) {
+        if (id != size) {
+            throw new IllegalStateException("restoring id " + id
+                    + " out of order; expected " + size);
+        }
+        append(id, name, hash(name));
+    }
+
+    /**
+     * Store name as the given (next) ID and make it visible. Caller must
+     * hold this table's lock.
+     */
+    protected void append(int id, CharSequence name, int hash) {
+        int encodedLength = 3;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            encodedLength += (c < 0x80) ? 1 : (c < 0x800) ? 2 : 3;
+        }
+        if (encodedLength > POOL_CHUNK_SIZE) {
+            throw new IllegalArgumentException("name too long: "
+                    + name.length() + " chars");
+        }
+        // pack name
+        if (poolOffset + encodedLength > POOL_CHUNK_SIZE) {
+            byte[][] newPool = grow(pool, pool[pool.length - 1] == null
+                    ? pool.length : pool.length + 1);
+            newPool[newPool.length - 1] = new byte[POOL_CHUNK_SIZE];
+            pool = newPool;
+            poolOffset = 0;
+        }
+        int chunkIndex = pool.length - 1;
+        byte[] chunk = pool[chunkIndex];
+        int start = poolOffset;
+        int offset = start;
+        int length = name.length();
+        chunk[offset++] = (byte) (length >>> 16);
+        chunk[offset++] = (byte) (length >>> 8);
+        chunk[offset++] = (byte) length;
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            if (c < 0x80) {
+                chunk[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                chunk[offset++] = (byte) (0xc0 | (c >> 6));
+                chunk[offset++] = (byte) (0x80 | (c & 0x3f));
+            } else {
+                chunk[offset++] = (byte) (0xe0 | (c >> 12));
+                chunk[offset++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                chunk[offset++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        poolOffset = offset;
+
+        // record location and hash
+        int idChunk = id >>> ID_CHUNK_BITS;
+        if (idChunk >= locations.length || locations[idChunk] == null) {
+            long[][] newLocations = locations;
+            int[][] newHashes = hashes;
+            if (idChunk >= locations.length) {
+                newLocations = new long[idChunk * 2][];
+                System.arraycopy(locations, 0, newLocations, 0,
+                        locations.length);
+                newHashes = new int[idChunk * 2][];
+                System.arraycopy(hashes, 0, newHashes, 0, hashes.length);
+            }
+            newLocations[idChunk] = new long[ID_CHUNK_SIZE];
+            newHashes[idChunk] = new int[ID_CHUNK_SIZE];
+            locations = newLocations;
+            hashes = newHashes;
+        }
+        locations[idChunk][id & ID_CHUNK_MASK] =
+            ((long) chunkIndex << 32) | start;
+        hashes[idChunk][id & ID_CHUNK_MASK] = hash;
+
+        // publish: by ID first, so IDs found by name are always valid
+        if ((id + 1) * 2 > slots.length()) {
+            rehash(slots.length() * 2);
+        }
+        size = id + 1;
+        insert(slots, id, hash);
+    }
+
+    protected static byte[][] grow(byte[][] array, int length) {
+        byte[][] grown = new byte[length][];
+        System.arraycopy(array, 0, grown, 0, Math.min(length, array.length));
+        return grown;
+    }
+
+    /**
+     * Replace the hash table with a larger one holding all current IDs.
+     * Lookups concurrently probing the old table still find all IDs
+     * present before the rehash.
+     */
+    protected void rehash(int capacity) {
+        AtomicIntegerArray newSlots = new AtomicIntegerArray(capacity);
+        for (int id = 0; id < size; id++) {
+            insert(newSlots, id, hashes[id >>> ID_CHUNK_BITS][id & ID_CHUNK_MASK]);
+        }
+        slots = newSlots;
+    }
+
+    protected static void insert(AtomicIntegerArray table, int id, int hash) {
+        int mask = table.length() - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            if (table.get(i) == 0) {
+                table.set(i, id + 1);
+                return;
+            }
+        }
+    }
+
+    protected int find(AtomicIntegerArray table, CharSequence name, int hash) {
+        int mask = table.length() - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            int entry = table.get(i);
+            if (entry == 0) {
+                return NONE;
+            }
+            int id = entry - 1;
+            int idChunk = id >>> ID_CHUNK_BITS;
+            if (hashes[idChunk][id & ID_CHUNK_MASK] == hash
+                    && nameEquals(locations[idChunk][id & ID_CHUNK_MASK],
+                            name)) {
+                return id;
+            }
+        }
+    }
+
+    protected boolean nameEquals(long location, CharSequence name) {
+        byte[] chunk = pool[(int) (location >>> 32)];
+        int offset = (int) location;
+        int length = name.length();
+        if (readLength(chunk, offset) != length) {
+            return false;
+        }
+        offset += 3;
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            int b = chunk[offset++] & 0xff;
+            if (c < 0x80) {
+                if (b != c) {
+                    return false;
+                }
+                continue;
+            }
+            char decoded;
+            if (b < 0x80) {
+                return false;
+            } else if (b < 0xe0) {
+                decoded = (char) (((b & 0x1f) << 6)
+                        | (chunk[offset++] & 0x3f));
+            } else {
+                int b2 = chunk[offset++] & 0x3f;
+                decoded = (char) (((b & 0x0f) << 12) | (b2 << 6)
+                        | (chunk[offset++] & 0x3f));
+            }
+            if (decoded != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static int readLength(byte[] chunk, int offset) {
+        return ((chunk[offset] & 0xff) << 16)
+            | ((chunk[offset + 1] & 0xff) << 8)
+            | (chunk[offset + 2] & 0xff);
+    }
+
+    /**
+     * @return String.hashCode() of name, reusing a String's cached value
+     */
+    protected static int hash(CharSequence name) {
+        if (name instanceof String) {
+            return name.hashCode();
+        }
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + name.charAt(i);
+        }
+        return h;
+    }
+
+    /**
+     * Spread hash bits, as String hashes of similar names differ mostly
+     * in low bits.
+     */
+    protected static int spread(int h) {
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Items each due at a wake time, held in a hierarchical timing wheel:
+ * levels of 256 slots each, the first of tickMs each, each further level's
+ * slots spanning a whole turn of the level below. Adding an item, and
+ * waking it when due, are O(1) (plus one move down per level), however
+ * many items are waiting. Items are never woken before their wake time,
+ * but may be up to a tick late.
+ *
+ * <p>Items due beyond the wheel's span, or added while maxInMemory items
+ * are already held, go to an overflow SortedMap (keyed by wake time, and
+ * so needing to allow duplicate keys), typically a BDB-backed
+ * StoredSortedMap. Overflow is read back in bulk, in wake-time order,
+ * once per turn of the first level, or sooner if an item put in overflow
+ * is due sooner: everything due before the next such read, and more of
+ * what falls within the wheel's span if there is room.
+ *
+ * <p>For checkpointing, {@link #spillAll()} moves every item held in
+ * memory into the overflow map.
+ *
+ * @version $Date$, $Revision$
+ */
+public class TimingWheel<T> {
+    public static final int SLOT_BITS = 8;
+    public static final int SLOTS = 1 << SLOT_BITS;
+    protected static final int MASK = SLOTS - 1;
+
+    protected static class Entry<T> {
+        long wakeTime;
+        T item;
+        Entry(long wakeTime, T item) {
+            this.wakeTime = wakeTime;
+            this.item = item;
+        }
+    }
+
+    protected long tickMs;
+    protected int levels;
+    /** ticks spanned by all levels */
+    protected long spanTicks;
+    /** slot lists, created as needed, by level then slot */
+    protected List<Entry<T>>[][] wheel;
+    /** items held in each level */
+    protected int[] levelCounts;
+    /** items due but not yet collected */
+    protected List<Entry<T>> ready = new ArrayList<Entry<T>>();
+    /** last tick woken; everything due by its end is in ready */
+    protected long currentTick;
+
+    protected int inMemoryCount = 0;
+    protected int maxInMemory;
+
+    protected SortedMap<Long,T> overflow;
+    protected int overflowCount;
+    protected long nextReloadTick;
+
+    /**
+     * @param tickMs resolution of wake times, in ms
+     * @param levels number of levels held in memory, each spanning 256
+     * times as long as the one below
+     * @param overflow map, allowing duplicate keys, to hold items beyond
+     * the wheel's span or memory limit; null to hold all in memory
+     * @param maxInMemory items to hold in memory before using overflow
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMs, int levels, SortedMap<Long,T> overflow,
+            int maxInMemory) {
+        if (tickMs <= 0 || levels <= 0 || SLOT_BITS * levels > 62) {
+            throw new IllegalArgumentException("bad tickMs or levels");
+        }
+        this.tickMs = tickMs;
+        this.levels = levels;
+        this.spanTicks = 1L << (SLOT_BITS * levels);
+        this.wheel = new List[levels][SLOTS];
+        this.levelCounts = new int[levels];
+        this.overflow = overflow;
+        this.overflowCount = overflow == null ? 0 : overflow.size();
+        this.maxInMemory = maxInMemory;
+        this.currentTick = System.currentTimeMillis() / tickMs;
+        this.nextReloadTick = currentTick;
+    }
+
+    /**
+     * @return first tick at whose end the wake time has passed
+     */
+    protected long tickFor(long wakeTime) {
+        if (wakeTime <= 0) {
+            return 0;
+        }
+        return (wakeTime + tickMs - 1) / tickMs;
+    }
+
+    /**
+     * Add an item, to be woken at the given time.
+     *
+     * @param item item to add
+     * @param wakeTime time (in ms, as System.currentTimeMillis()) at
+     * which the item is due
+     */
+    public synchronized void add(T item, long wakeTime) {
+        long tick = tickFor(wakeTime);
+        if (overflow != null && tick > currentTick
+                && (tick - currentTick >= spanTicks
+                        || inMemoryCount >= maxInMemory)) {
+            overflow.put(wakeTime, item);
+            overflowCount++;
+            // read back by when due, if that is before the next reload
+            nextReloadTick = Math.min(nextReloadTick, tick);
+            return;
+        }
+        inMemoryCount++;
+        place(new Entry<T>(wakeTime, item));
+    }
+
+    /**
+     * Put an entry held in memory in its slot (or ready, if due).
+     */
+    protected void place(Entry<T> entry) {
+        long tick = tickFor(entry.wakeTime);
+        if (tick <= currentTick) {
+            ready.add(entry);
+            return;
+        }
+        long delta = tick - currentTick;
+        int level = 0;
+        while (level < levels - 1
+                && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((tick >>> (SLOT_BITS * level)) & MASK);
+        List<Entry<T>> list = wheel[level][slot];
+        if (list == null) {
+            list = new ArrayList<Entry<T>>();
+            wheel[level][slot] = list;
+        }
+        list.add(entry);
+        levelCounts[level]++;
+    }
+
+    /**
+     * Collect all items due by the given time.
+     *
+     * @param now current time, in ms
+     * @param due collection to receive due items
+     * @return number of items collected
+     */
+    public synchronized int advance(long now, Collection<? super T> due) {
+        long nowTick = now / tickMs;
+        if (inMemoryCount == ready.size()) {
+            // nothing in the wheel to turn past
+            currentTick = Math.max(currentTick, nowTick);
+        }
+        while (currentTick < nowTick) {
+            if (levelCounts[0] == 0) {
+                // skip straight to where the next level might move down
+                long boundary = (currentTick / SLOTS + 1) * SLOTS;
+                if (boundary > nowTick) {
+                    currentTick = nowTick;
+                    break;
+                }
+                currentTick = boundary;
+            } else {
+                currentTick++;
+            }
+            turnTo(currentTick);
+        }
+        if (overflowCount > 0 && nowTick >= nextReloadTick) {
+            reload(nowTick);
+        }
+        int count = ready.size();
+        if (count == 0) {
+            return 0;
+        }
+        for (Entry<T> entry : ready) {
+            due.add(entry.item);
+        }
+        ready.clear();
+        inMemoryCount -= count;
+        return count;
+    }
+
+    /**
+     * Move items down from higher levels whose slots now begin, then
+     * make ready the first level's slot for the given tick.
+     */
+    protected void turnTo(long tick) {
+        for (int level = levels - 1; level > 0; level--) {
+            if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0
+                    && levelCounts[level] > 0) {
+                int slot = (int) ((tick >>> (SLOT_BITS * level)) & MASK);
+                List<Entry<T>> list = wheel[level][slot];
+                if (list != null && !list.isEmpty()) {
+                    wheel[level][slot] = null;
+                    levelCounts[level] -= list.size();
+                    for (Entry<T> entry : list) {
+                        place(entry);
+                    }
+                }
+            }
+        }
+        if (levelCounts[0] > 0) {
+            int slot = (int) (tick & MASK);
+            List<Entry<T>> list = wheel[0][slot];
+            if (list != null && !list.isEmpty()) {
+                wheel[0][slot] = null;
+                levelCounts[0] -= list.size();
+                for (Entry<T> entry : list) {
+                    place(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read back from overflow everything due before the next reload, and
+     * (while there is room) more due within the wheel's span.
+     */
+    protected void reload(long nowTick) {
+        nextReloadTick = nowTick + SLOTS;
+        long mustLoadBefore = nextReloadTick * tickMs;
+        long spanEnd = (currentTick + spanTicks) * tickMs;
+        Iterator<Map.Entry<Long,T>> iter =
+            overflow.headMap(spanEnd).entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Long,T> e = iter.next();
+            long wakeTime = e.getKey();
+            if (wakeTime >= mustLoadBefore && inMemoryCount >= maxInMemory) {
+                break;
+            }
+            T item = e.getValue();
+            iter.remove();
+            overflowCount--;
+            inMemoryCount++;
+            place(new Entry<T>(wakeTime, item));
+        }
+    }
+
+    /**
+     * @return earliest time (in ms) at which {@link #advance} might
+     * collect anything, or Long.MAX_VALUE if nothing is held. May be
+     * early, never late.
+     */
+    public synchronized long getNextCheckTime() {
+        if (!ready.isEmpty()) {
+            return currentTick * tickMs;
+        }
+        long next = Long.MAX_VALUE;
+        if (levelCounts[0] > 0) {
+            for (int i = 1; i <= SLOTS; i++) {
+                List<Entry<T>> list =
+                    wheel[0][(int) ((currentTick + i) & MASK)];
+                if (list != null && !list.isEmpty()) {
+                    next = (currentTick + i) * tickMs;
+                    break;
+                }
+            }
+        }
+        for (int level = 1; level < levels; level++) {
+            if (levelCounts[level] > 0) {
+                long levelTicks = 1L << (SLOT_BITS * level);
+                long boundary = (currentTick / levelTicks + 1) * levelTicks;
+                next = Math.min(next, boundary * tickMs);
+            }
+        }
+        if (overflowCount > 0) {
+            next = Math.min(next, nextReloadTick * tickMs);
+        }
+        return next;
+    }
+
+    /**
+     * Move every item held in memory to overflow, as before a checkpoint
+     * of the overflow map. Does nothing if there is no overflow map.
+     */
+    public synchronized void spillAll() {
+        if (overflow == null) {
+            return;
+        }
+        for (Entry<T> entry : removeAllInMemory()) {
+            overflow.put(entry.wakeTime, entry.item);
+            overflowCount++;
+            // read back by when due, if that is before the next reload
+            nextReloadTick = Math.min(nextReloadTick,
+                    tickFor(entry.wakeTime));
+        }
+    }
+
+    protected List<Entry<T>> removeAllInMemory() {
+        List<Entry<T>> all = new ArrayList<Entry<T>>(inMemoryCount);
+        all.addAll(ready);
+        ready.clear();
+        for (int level = 0; level < levels; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                if (wheel[level][slot] != null) {
+                    all.addAll(wheel[level][slot]);
+                    wheel[level][slot] = null;
+                }
+            }
+            levelCounts[level] = 0;
+        }
+        inMemoryCount = 0;
+        return all;
+    }
+
+    /**
+     * Remove all items, whether due or not.
+     *
+     * @param all collection to receive all items
+     * @return number of items removed
+     */
+    public synchronized int drainAll(Collection<? super T> all) {
+        int count = 0;
+        for (Entry<T> entry : removeAllInMemory()) {
+            all.add(entry.item);
+            count++;
+        }
+        if (overflowCount > 0) {
+            Iterator<T> iter = overflow.values().iterator();
+            while (iter.hasNext()) {
+                all.add(iter.next());
+                iter.remove();
+                count++;
+            }
+            overflowCount = 0;
+        }
+        return count;
+    }
+
+    /**
+     * @return items held in memory, in no particular order
+     */
+    public synchronized List<T> getInMemory() {
+        List<T> items = new ArrayList<T>(inMemoryCount);
+        for (Entry<T> entry : ready) {
+            items.add(entry.item);
+        }
+        for (int level = 0; level < levels; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                if (wheel[level][slot] != null) {
+                    for (Entry<T> entry : wheel[level][slot]) {
+                        items.add(entry.item);
+                    }
+                }
+            }
+        }
+        return items;
+    }
+
+    /** @return number of items held, in memory or overflow */
+    public synchronized int size() {
+        return inMemoryCount + overflowCount;
+    }
+
+    /** @return number of items held in memory */
+    public synchronized int getInMemoryCount() {
+        return inMemoryCount;
+    }
+
+    /** @return number of items held in overflow */
+    public synchronized int getOverflowCount() {
+        return overflowCount;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bandwidth budget, in bytes per second, shared by any number of
+ * threads, and nested within its parent's budget (if any).
+ *
+ * <p>Bytes are charged after they are transferred; the charge says how
+ * long the caller must then pause so that this bucket, and all its
+ * ancestors, stay within their rates. Each bucket keeps only the time
+ * through which its rate has been 'paid' (a virtual-scheduling token
+ * bucket), advanced by compare-and-set, so charging never blocks. A
+ * bucket may run ahead of its rate by up to burstMs of traffic.
+ *
+ * <p>Rates may be changed at any time, taking effect with the next
+ * charge.
+ *
+ * @version $Date$, $Revision$
+ */
+public class TokenBucket {
+    protected String name;
+    protected TokenBucket parent;
+
+    /** nanoseconds to send one byte; 0 for no limit */
+    protected volatile double nanosPerByte = 0;
+    /** nanoseconds of traffic allowed ahead of the rate */
+    protected volatile long burstNanos = 0;
+    protected volatile long bytesPerSecond = 0;
+
+    /** time (System.nanoTime()) through which charges are paid */
+    protected AtomicLong paidThrough = new AtomicLong();
+
+    protected AtomicLong bytes = new AtomicLong();
+    protected AtomicLong delayedNanos = new AtomicLong();
+
+    // rate measurement, updated only when read
+    protected long sampleTime = System.nanoTime();
+    protected long sampleBytes = 0;
+    protected long measuredBytesPerSecond = 0;
+
+    /**
+     * @param name name, for reports
+     * @param parent enclosing budget, or null
+     * @param bytesPerSecond rate, or 0 for no limit
+     * @param burstMs traffic allowed ahead of the rate, in ms
+     */
+    public TokenBucket(String name, TokenBucket parent, long bytesPerSecond,
+            long burstMs) {
+        this.name = name;
+        this.parent = parent;
+        setRate(bytesPerSecond, burstMs);
+    }
+
+    /**
+     * Change the rate. Pauses already imposed stand, but new charges
+     * begin afresh at the new rate.
+     *
+     * @param bytesPerSecond rate, or 0 for no limit
+     * @param burstMs traffic allowed ahead of the rate, in ms
+     */
+    public void setRate(long bytesPerSecond, long burstMs) {
+        this.bytesPerSecond = Math.max(bytesPerSecond, 0);
+        this.burstNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(burstMs, 0));
+        this.nanosPerByte = bytesPerSecond > 0
+            ? (double) TimeUnit.SECONDS.toNanos(1) / bytesPerSecond : 0;
+        paidThrough.set(System.nanoTime());
+    }
+
+    /**
+     * Charge transferred bytes against this bucket and its ancestors.
+     *
+     * @param count bytes transferred
+     * @return nanoseconds the caller should pause to stay within all
+     * rates (0 if none)
+     */
+    public long charge(long count) {
+        if (count <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long delay = 0;
+        for (TokenBucket b = this; b != null; b = b.parent) {
+            delay = Math.max(delay, b.chargeOne(count, now));
+        }
+        return delay;
+    }
+
+    protected long chargeOne(long count, long now) {
+        bytes.addAndGet(count);
+        double perByte = nanosPerByte;
+        if (perByte == 0) {
+            return 0;
+        }
+        long cost = (long) (count * perByte);
+        long paid;
+        long next;
+        do {
+            paid = paidThrough.get();
+            // unused time is not banked beyond the burst allowance
+            next = Math.max(paid, now) + cost;
+        } while (!paidThrough.compareAndSet(paid, next));
+        long delay = next - now - burstNanos;
+        if (delay > 0) {
+            delayedNanos.addAndGet(delay);
+            return delay;
+        }
+        return 0;
+    }
+
+    /**
+     * Charge transferred bytes, and pause as needed.
+     *
+     * @param count bytes transferred
+     * @throws InterruptedException
+     */
+    public void chargeAndPause(long count) throws InterruptedException {
+        long delay = charge(count);
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public TokenBucket getParent() {
+        return parent;
+    }
+
+    /** @return rate limit, or 0 if none */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /** @return all bytes charged */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /** @return total pause imposed on chargers, in ms */
+    public long getDelayedMs() {
+        return TimeUnit.NANOSECONDS.toMillis(delayedNanos.get());
+    }
+
+    /**
+     * @return bytes per second charged since the previous measurement
+     * (if at least a second ago; otherwise, that measurement)
+     */
+    public synchronized long getMeasuredBytesPerSecond() {
+        long now = System.nanoTime();
+        long elapsed = now - sampleTime;
+        if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+            long total = bytes.get();
+            measuredBytesPerSecond = (long) ((total - sampleBytes)
+                    * (double) TimeUnit.SECONDS.toNanos(1) / elapsed);
+            sampleBytes = total;
+            sampleTime = now;
+        }
+        return measuredBytesPerSecond;
+    }
+
+    /**
+     * @return measured rate as a fraction of the limit, or 0 if there is
+     * no limit
+     */
+    public float getUtilization() {
+        long limit = bytesPerSecond;
+        return limit > 0 ? (float) getMeasuredBytesPerSecond() / limit : 0;
+    }
+
+    public String toString() {
+        return "TokenBucket[" + name + "]";
+    }
+}
@@ -114,10 +114,75 @@ public class UriUtils {
         if(TextUtils.matches("\\d+\\.\\d+", candidate)) {
             return false; 
         }
-        return true; 
+        return true;
     }
-    
-    
+
+    /**
+     * Same test as {@link #isLikelyUri(CharSequence)}, applied to the
+     * range [start,end) of the given sequence without copying it out or
+     * matching regular expressions.
+     *
+     * @param cs sequence containing candidate
+     * @param start candidate start
+     * @param end candidate end
+     * @return true if candidate is a likely URI
+     */
+    public static boolean isLikelyUri(CharSequence cs, int start, int end) {
+        // naive test
+        boolean dotOrSlash = false;
+        for (int i = start; i < end; i++) {
+            char c = cs.charAt(i);
+            if (c == '<' || c == '>' || c == ' ' || c == '\t' || c == '\n'
+                    || c == '\u000B' || c == '\f' || c == '\r') {
+                return false;
+            }
+            if (c == '.' || c == '/') {
+                dotOrSlash = true;
+            }
+        }
+        if (!dotOrSlash || cs.charAt(end - 1) == '.') {
+            return false;
+        }
+        // eliminate common false-positives: by blacklist
+        for (String s : NAIVE_URI_EXCEPTIONS) {
+            if (regionEquals(s, cs, start, end)) {
+                return false;
+            }
+        }
+        // ...and simple numbers
+        return !isDecimalNumber(cs, start, end);
+    }
+
+    protected static boolean regionEquals(String s, CharSequence cs,
+            int start, int end) {
+        if (s.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i - start) != cs.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if range matches \d+\.\d+
+     */
+    protected static boolean isDecimalNumber(CharSequence cs, int start,
+            int end) {
+        int dot = -1;
+        for (int i = start; i < end; i++) {
+            char c = cs.charAt(i);
+            if (c == '.' && dot < 0) {
+                dot = i;
+            } else if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return dot > start && dot < end - 1;
+    }
+
     /**
      * Perform additional fixup of likely-URI Strings
      * 
@@ -0,0 +1,140 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.httpclient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.Header;
+
+/**
+ * Tests of {@link Hpack} against the examples of RFC 7541 Appendix C.
+ */
+public class HpackTest extends TestCase {
+
+    protected static byte[] hex(String s) {
+        s = s.replace(" ", "");
+        byte[] b = new byte[s.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+        }
+        return b;
+    }
+
+    protected static String hex(byte[] b) {
+        StringBuilder sb = new StringBuilder();
+        for (byte x : b) {
+            sb.append(String.format("%02x", x & 0xff));
+        }
+        return sb.toString();
+    }
+
+    protected static List<Header> headers(String... namesAndValues) {
+        List<Header> headers = new ArrayList<Header>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.add(new Header(namesAndValues[i], namesAndValues[i + 1]));
+        }
+        return headers;
+    }
+
+    protected static void assertHeaders(List<Header> expected,
+            List<Header> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getName(), actual.get(i).getName());
+            assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+        }
+    }
+
+    public void testHuffman() throws IOException {
+        String[][] examples = {
+            {"www.example.com", "f1e3c2e5f23a6ba0ab90f4ff"},
+            {"no-cache", "a8eb10649cbf"},
+            {"custom-key", "25a849e95ba97d7f"},
+            {"custom-value", "25a849e95bb8e8b4bf"},
+        };
+        for (String[] example : examples) {
+            byte[] coded = hex(example[1]);
+            assertEquals(example[0],
+                    Hpack.huffmanDecode(coded, 0, coded.length));
+        }
+        // padding longer than 7 bits, or not all ones, is an error
+        try {
+            byte[] coded = hex("a8eb10649cbfff");
+            Hpack.huffmanDecode(coded, 0, coded.length);
+            fail("accepted overlong padding");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /** RFC 7541 C.4: requests with Huffman coding */
+    public void testRequestExamples() throws IOException {
+        List<List<Header>> requests = new ArrayList<List<Header>>();
+        requests.add(headers(":method", "GET", ":scheme", "http",
+                ":path", "/", ":authority", "www.example.com"));
+        requests.add(headers(":method", "GET", ":scheme", "http",
+                ":path", "/", ":authority", "www.example.com",
+                "cache-control", "no-cache"));
+        requests.add(headers(":method", "GET", ":scheme", "https",
+                ":path", "/index.html", ":authority", "www.example.com",
+                "custom-key", "custom-value"));
+        String[] blocks = {
+            "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+            "828684be5886a8eb10649cbf",
+            "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+        };
+
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder();
+        for (int i = 0; i < blocks.length; i++) {
+            byte[] block = encoder.encode(requests.get(i));
+            assertEquals(blocks[i], hex(block));
+            assertHeaders(requests.get(i),
+                    decoder.decode(block, 0, block.length));
+        }
+    }
+
+    public void testTableEviction() throws IOException {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        Hpack.Decoder decoder = new Hpack.Decoder();
+        encoder.setMaxTableSize(256);
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longValue.append('x');
+        }
+        for (int i = 0; i < 20; i++) {
+            List<Header> headers = headers(":status", "200",
+                    "x-request", "r" + i, "x-long", longValue.toString() + i,
+                    "cookie", "session=" + i);
+            byte[] block = encoder.encode(headers);
+            assertHeaders(headers, decoder.decode(block, 0, block.length));
+            assertTrue(encoder.table.size <= 256);
+            assertEquals(encoder.table.size, decoder.table.size);
+        }
+        // credentials and cookies are never entered in the tables
+        for (Header h : decoder.table.entries) {
+            assertFalse(h.getName().equals("cookie"));
+        }
+    }
+}
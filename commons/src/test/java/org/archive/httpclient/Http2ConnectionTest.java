@@ -0,0 +1,702 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.httpclient;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.commons.io.IOUtils;
+import org.archive.util.Recorder;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests of {@link Http2Connection}, through HttpClient, against a minimal
+ * HTTP/2 (prior knowledge, cleartext) server.
+ */
+public class Http2ConnectionTest extends TmpDirTestCase {
+    static final int BIG = 3 * 1024 * 1024;
+
+    protected TestServer server;
+    protected Http2ConnectionPool pool;
+    protected HttpClient http;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new TestServer();
+        server.start();
+        pool = new Http2ConnectionPool();
+        pool.setPriorKnowledge(true);
+        pool.setMaxStreamsPerServer(3);
+        Protocol.registerProtocol("http", new Protocol("http",
+                new PoolSocketFactory(pool), 80));
+        SingleHttpConnectionManager cm = new SingleHttpConnectionManager();
+        cm.getParams().setConnectionTimeout(5000);
+        cm.getParams().setSoTimeout(5000);
+        http = new HttpClient(cm);
+    }
+
+    protected void tearDown() throws Exception {
+        Protocol.unregisterProtocol("http");
+        pool.closeAll();
+        server.close();
+        super.tearDown();
+    }
+
+    protected String url(String path) {
+        return "http://127.0.0.1:" + server.getPort() + path;
+    }
+
+    /**
+     * Fetch the given path, recording it.
+     *
+     * @return recorded response, headers and body
+     */
+    protected byte[] fetch(String path, String name) throws IOException {
+        return fetchUrl(url(path), name);
+    }
+
+    protected byte[] fetchUrl(String url, String name) throws IOException {
+        Recorder recorder = new Recorder(getTmpDir(), name, 1024, 1024);
+        Recorder.setHttpRecorder(recorder);
+        HttpRecorderGetMethod method =
+            new HttpRecorderGetMethod(url, recorder);
+        try {
+            int status = http.executeMethod(method);
+            assertEquals(200, status);
+            IOUtils.copy(method.getResponseBodyAsStream(),
+                    new ByteArrayOutputStream());
+        } finally {
+            method.releaseConnection();
+            recorder.close();
+            Recorder.setHttpRecorder(null);
+        }
+        ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+        IOUtils.copy(recorder.getReplayInputStream(), recorded);
+        recorder.cleanup();
+        return recorded.toByteArray();
+    }
+
+    public void testGet() throws IOException {
+        String recorded = new String(fetch("/a", "testGet"), "ISO-8859-1");
+        assertTrue(recorded, recorded.startsWith("HTTP/2.0 200 OK\r\n"));
+        assertTrue(recorded, recorded.contains("\r\ncontent-type: text/plain\r\n"));
+        assertTrue(recorded, recorded.endsWith("\r\n\r\nbody of /a"));
+        assertEquals("GET", server.requests.get("/a").get(":method"));
+        assertEquals("127.0.0.1:" + server.getPort(),
+                server.requests.get("/a").get(":authority"));
+
+        // a second request reuses the connection
+        fetch("/b", "testGet");
+        assertEquals(1, pool.getConnectionsOpened());
+        assertEquals(2, pool.getStreamsOpened());
+        assertEquals(1, server.connections);
+    }
+
+    public void testConcurrentStreams() throws Exception {
+        // open the connection first, so all threads share it
+        fetch("/first", "testConcurrentStreams");
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            final int n = i;
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        String recorded = new String(fetch("/slow" + n,
+                                "testConcurrentStreams" + n), "ISO-8859-1");
+                        assertTrue(recorded.endsWith("body of /slow" + n));
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            };
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(1, server.connections);
+        assertTrue("max open " + server.maxOpenStreams,
+                server.maxOpenStreams > 1 && server.maxOpenStreams <= 3);
+    }
+
+    public void testFlowControl() throws IOException {
+        // more than the stream and initial connection windows
+        byte[] recorded = fetch("/big", "testFlowControl");
+        assertTrue(recorded.length > BIG);
+        byte[] body = new byte[BIG];
+        System.arraycopy(recorded, recorded.length - BIG, body, 0, BIG);
+        assertTrue(Arrays.equals(TestServer.bigBody(), body));
+    }
+
+    /**
+     * Request bodies over a frame long are sent in frames, each charged to
+     * the send windows only for what it carries, so no window is lost.
+     */
+    public void testPostBody() throws Exception {
+        byte[] body = new byte[100 * 1024 + 7];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i * 7);
+        }
+        for (int i = 0; i < 3; i++) {
+            PostMethod method = new PostMethod(url("/post" + i));
+            method.setRequestEntity(new ByteArrayRequestEntity(body));
+            try {
+                assertEquals(200, http.executeMethod(method));
+                assertEquals("body of /post" + i,
+                        method.getResponseBodyAsString());
+            } finally {
+                method.releaseConnection();
+            }
+            assertTrue(Arrays.equals(body, server.bodies.get("/post" + i)));
+            assertEquals("POST",
+                    server.requests.get("/post" + i).get(":method"));
+        }
+        assertEquals(1, pool.getConnectionsOpened());
+        // the server has returned all it was sent
+        Http2Connection connection =
+            pool.connections.values().iterator().next();
+        synchronized (connection) {
+            assertEquals(Http2Connection.DEFAULT_WINDOW,
+                    connection.sendWindow);
+        }
+    }
+
+    /**
+     * Idle connections beyond maxConnections are closed as others open.
+     */
+    public void testMaxConnections() throws Exception {
+        pool.setMaxConnections(1);
+        TestServer other = new TestServer();
+        other.start();
+        try {
+            fetch("/a", "testMaxConnections");
+            Http2Connection first =
+                pool.connections.values().iterator().next();
+            fetchUrl("http://127.0.0.1:" + other.getPort() + "/b",
+                    "testMaxConnections");
+            assertEquals(2, pool.getConnectionsOpened());
+            assertEquals(1, pool.getConnectionCount());
+            assertNotNull("least recently used not closed", first.failure);
+            assertTrue(pool.connections.containsKey(
+                    Http2ConnectionPool.key("http", "127.0.0.1",
+                            other.getPort())));
+        } finally {
+            other.close();
+        }
+    }
+
+    /**
+     * While a request body write is stuck on a full socket, the reader
+     * goes on taking frames, queueing its answers: here the server reads
+     * nothing more until it has sent a whole response, and PINGed.
+     */
+    public void testReaderNotBlockedByWriter() throws Exception {
+        ServerSocket listener = new ServerSocket();
+        listener.setReceiveBufferSize(8192);
+        listener.bind(new InetSocketAddress("127.0.0.1", 0));
+        Socket client = new Socket();
+        client.setSendBufferSize(8192);
+        client.setReceiveBufferSize(8192);
+        client.connect(listener.getLocalSocketAddress(), 5000);
+        final Socket accepted = listener.accept();
+        listener.close();
+        accepted.setSendBufferSize(8192);
+        accepted.setSoTimeout(10000);
+        final Http2Connection connection = new Http2Connection(client, 1);
+        try {
+            DataInputStream in =
+                new DataInputStream(accepted.getInputStream());
+            final OutputStream out = accepted.getOutputStream();
+            connection.start();
+            byte[] preface = new byte[Http2Connection.PREFACE.length];
+            in.readFully(preface);
+            // windows so large only the socket holds the body back
+            ByteArrayOutputStream settings = new ByteArrayOutputStream();
+            Http2Connection.writeSetting(settings,
+                    Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE,
+                    Integer.MAX_VALUE);
+            writeFrame(out, Http2Connection.SETTINGS, 0, 0,
+                    settings.toByteArray());
+            writeFrame(out, Http2Connection.WINDOW_UPDATE, 0, 0,
+                    Http2Connection.int32(
+                            Integer.MAX_VALUE - Http2Connection.DEFAULT_WINDOW));
+            while (readFrame(in) != Http2Connection.SETTINGS
+                    + (Http2Connection.FLAG_ACK << 8)) {
+                // client preface frames
+            }
+
+            final Http2Connection.Stream stream = connection.newStream(5000);
+            final Throwable[] failure = new Throwable[1];
+            Thread writer = new Thread() {
+                public void run() {
+                    try {
+                        List<Header> headers = new ArrayList<Header>();
+                        headers.add(new Header(":method", "POST"));
+                        headers.add(new Header(":scheme", "http"));
+                        headers.add(new Header(":path", "/post"));
+                        headers.add(new Header(":authority", "127.0.0.1"));
+                        stream.sendHeaders(headers, false);
+                        byte[] body = new byte[BIG];
+                        stream.sendData(body, 0, body.length, true, 0);
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            writer.setDaemon(true);
+            writer.start();
+            // let the writer fill the socket
+            Thread.sleep(500);
+
+            final int frames = 32;
+            Thread responder = new Thread() {
+                public void run() {
+                    try {
+                        writeFrame(out, Http2Connection.PING, 0, 0,
+                                new byte[8]);
+                        List<Header> headers = new ArrayList<Header>();
+                        headers.add(new Header(":status", "200"));
+                        writeFrame(out, Http2Connection.HEADERS,
+                                Http2Connection.FLAG_END_HEADERS, 1,
+                                new Hpack.Encoder().encode(headers));
+                        byte[] chunk =
+                            new byte[Http2Connection.DEFAULT_FRAME_SIZE];
+                        for (int i = 1; i <= frames; i++) {
+                            writeFrame(out, Http2Connection.DATA, i == frames
+                                    ? Http2Connection.FLAG_END_STREAM : 0,
+                                    1, chunk);
+                        }
+                    } catch (IOException e) {
+                        // fails the test below
+                    }
+                }
+            };
+            responder.setDaemon(true);
+            responder.start();
+            responder.join(5000);
+            assertFalse("reader stopped reading", responder.isAlive());
+
+            // now read the body, and the PING's answer, sent with it
+            boolean pingAcked = false;
+            while (true) {
+                int frame = readFrame(in);
+                if (frame == Http2Connection.PING
+                        + (Http2Connection.FLAG_ACK << 8)) {
+                    pingAcked = true;
+                } else if (frame == Http2Connection.DATA
+                        + (Http2Connection.FLAG_END_STREAM << 8)) {
+                    break;
+                }
+            }
+            // written at latest as the writer lets go of the lock
+            if (!pingAcked) {
+                assertEquals(Http2Connection.PING
+                        + (Http2Connection.FLAG_ACK << 8), readFrame(in));
+            }
+            writer.join(5000);
+            assertFalse(writer.isAlive());
+            assertNull(failure[0]);
+            assertEquals("200",
+                    stream.awaitResponseHeaders(5000).get(0).getValue());
+            long received = 0;
+            byte[] buf = new byte[8192];
+            for (int n; (n = stream.read(buf, 0, buf.length, 5000)) >= 0; ) {
+                received += n;
+            }
+            assertEquals(frames * Http2Connection.DEFAULT_FRAME_SIZE,
+                    received);
+        } finally {
+            connection.close();
+            accepted.close();
+        }
+    }
+
+    static void writeFrame(OutputStream out, int type, int flags,
+            int streamId, byte[] payload) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(payload.length >>> 16);
+        frame.write(payload.length >>> 8);
+        frame.write(payload.length);
+        frame.write(type);
+        frame.write(flags);
+        frame.write(Http2Connection.int32(streamId));
+        frame.write(payload);
+        out.write(frame.toByteArray());
+        out.flush();
+    }
+
+    /**
+     * Read one frame.
+     *
+     * @return its type, plus its flags shifted left 8 bits
+     */
+    static int readFrame(DataInputStream in) throws IOException {
+        byte[] header = new byte[9];
+        in.readFully(header);
+        int length = ((header[0] & 0xff) << 16)
+            | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+        in.readFully(new byte[length]);
+        return (header[3] & 0xff) + ((header[4] & 0xff) << 8);
+    }
+
+    /**
+     * Creates sockets as FetchHTTP's factories do, given prior knowledge.
+     */
+    static class PoolSocketFactory implements ProtocolSocketFactory {
+        Http2ConnectionPool pool;
+
+        PoolSocketFactory(Http2ConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        public Socket createSocket(String host, int port) throws IOException {
+            return createSocket(host, port, null, 0, null);
+        }
+
+        public Socket createSocket(String host, int port,
+                InetAddress localAddress, int localPort) throws IOException {
+            return createSocket(host, port, localAddress, localPort, null);
+        }
+
+        public Socket createSocket(String host, int port,
+                InetAddress localAddress, int localPort,
+                HttpConnectionParams params) throws IOException {
+            Socket socket = pool.existingStream("http", host, port, 5000);
+            if (socket != null) {
+                return socket;
+            }
+            Socket plain = new Socket();
+            plain.connect(new InetSocketAddress(host, port), 5000);
+            return pool.newStream("http", host, port, plain, 5000);
+        }
+    }
+
+    /**
+     * Answers GETs on each stream with 'body of [path]', after a pause
+     * for paths starting '/slow', or with BIG bytes for '/big'; sends DATA
+     * only as the client's flow control windows allow.
+     */
+    static class TestServer extends Thread {
+        ServerSocket serverSocket;
+        int connections = 0;
+        int openStreams = 0;
+        int maxOpenStreams = 0;
+        Map<String,Map<String,String>> requests =
+            new HashMap<String,Map<String,String>>();
+        Map<String,byte[]> bodies = new HashMap<String,byte[]>();
+        List<Socket> sockets = new ArrayList<Socket>();
+
+        TestServer() throws IOException {
+            serverSocket = new ServerSocket(0, 50,
+                    InetAddress.getByName("127.0.0.1"));
+            setDaemon(true);
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        static byte[] bigBody() {
+            byte[] body = new byte[BIG];
+            for (int i = 0; i < BIG; i++) {
+                body[i] = (byte) (i * 31 + (i >>> 10));
+            }
+            return body;
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+            synchronized (sockets) {
+                for (Socket s : sockets) {
+                    s.close();
+                }
+            }
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    synchronized (this) {
+                        connections++;
+                    }
+                    synchronized (sockets) {
+                        sockets.add(socket);
+                    }
+                    new Thread() {
+                        public void run() {
+                            try {
+                                new ServerConnection(socket).serve();
+                            } catch (IOException e) {
+                                // closed
+                            }
+                        }
+                    }.start();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        class ServerConnection {
+            Socket socket;
+            DataInputStream in;
+            OutputStream out;
+            Hpack.Decoder decoder = new Hpack.Decoder();
+            Hpack.Encoder encoder = new Hpack.Encoder();
+            long connectionWindow = Http2Connection.DEFAULT_WINDOW;
+            long initialWindow = Http2Connection.DEFAULT_WINDOW;
+            Map<Integer,long[]> streamWindows = new HashMap<Integer,long[]>();
+            Map<Integer,String> requestPaths = new HashMap<Integer,String>();
+            Map<Integer,ByteArrayOutputStream> requestBodies =
+                new HashMap<Integer,ByteArrayOutputStream>();
+
+            ServerConnection(Socket socket) throws IOException {
+                this.socket = socket;
+                this.in = new DataInputStream(socket.getInputStream());
+                this.out = new BufferedOutputStream(socket.getOutputStream());
+            }
+
+            void serve() throws IOException {
+                byte[] preface = new byte[Http2Connection.PREFACE.length];
+                in.readFully(preface);
+                assertTrue(Arrays.equals(Http2Connection.PREFACE, preface));
+                writeFrame(Http2Connection.SETTINGS, 0, 0, new byte[0]);
+                byte[] header = new byte[9];
+                ByteArrayOutputStream block = null;
+                boolean endStream = false;
+                while (true) {
+                    in.readFully(header);
+                    int length = ((header[0] & 0xff) << 16)
+                        | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+                    int type = header[3] & 0xff;
+                    int flags = header[4] & 0xff;
+                    int streamId = Http2Connection.readInt(header, 5);
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    switch (type) {
+                    case Http2Connection.SETTINGS:
+                        if ((flags & Http2Connection.FLAG_ACK) == 0) {
+                            settings(payload);
+                            writeFrame(Http2Connection.SETTINGS,
+                                    Http2Connection.FLAG_ACK, 0, new byte[0]);
+                        }
+                        break;
+                    case Http2Connection.WINDOW_UPDATE:
+                        windowUpdate(streamId,
+                                Http2Connection.readInt(payload, 0));
+                        break;
+                    case Http2Connection.HEADERS:
+                    case Http2Connection.CONTINUATION:
+                        if (block == null) {
+                            block = new ByteArrayOutputStream();
+                            endStream = 
+                                (flags & Http2Connection.FLAG_END_STREAM) != 0;
+                        }
+                        block.write(payload);
+                        if ((flags & Http2Connection.FLAG_END_HEADERS) != 0) {
+                            byte[] b = block.toByteArray();
+                            block = null;
+                            request(streamId, decoder.decode(b, 0, b.length),
+                                    endStream);
+                        }
+                        break;
+                    case Http2Connection.DATA:
+                        data(streamId, payload,
+                                (flags & Http2Connection.FLAG_END_STREAM) != 0);
+                        break;
+                    default:
+                        // RST_STREAM and others need no answer here
+                    }
+                }
+            }
+
+            synchronized void settings(byte[] payload) {
+                for (int i = 0; i + 6 <= payload.length; i += 6) {
+                    int id = ((payload[i] & 0xff) << 8)
+                        | (payload[i + 1] & 0xff);
+                    if (id == Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE) {
+                        initialWindow =
+                            Http2Connection.readInt(payload, i + 2);
+                    }
+                }
+            }
+
+            synchronized void windowUpdate(int streamId, int increment) {
+                if (streamId == 0) {
+                    connectionWindow += increment;
+                } else if (streamWindows.containsKey(streamId)) {
+                    streamWindows.get(streamId)[0] += increment;
+                }
+                notifyAll();
+            }
+
+            void request(final int streamId, List<Header> headers,
+                    boolean endStream) {
+                final Map<String,String> request =
+                    new HashMap<String,String>();
+                for (Header h : headers) {
+                    request.put(h.getName(), h.getValue());
+                }
+                final String path = request.get(":path");
+                synchronized (TestServer.this) {
+                    requests.put(path, request);
+                    openStreams++;
+                    maxOpenStreams = Math.max(maxOpenStreams, openStreams);
+                }
+                synchronized (this) {
+                    streamWindows.put(streamId, new long[] {initialWindow});
+                    if (!endStream) {
+                        requestPaths.put(streamId, path);
+                        requestBodies.put(streamId,
+                                new ByteArrayOutputStream());
+                        return;
+                    }
+                }
+                startResponse(streamId, path);
+            }
+
+            /**
+             * Take request body bytes, at once returning the window they
+             * used, and respond once the body is complete.
+             */
+            void data(int streamId, byte[] payload, boolean endStream)
+            throws IOException {
+                String path;
+                synchronized (this) {
+                    requestBodies.get(streamId).write(payload);
+                    path = requestPaths.get(streamId);
+                    if (endStream) {
+                        synchronized (TestServer.this) {
+                            bodies.put(path,
+                                    requestBodies.remove(streamId).toByteArray());
+                        }
+                    }
+                }
+                if (payload.length > 0) {
+                    writeFrame(Http2Connection.WINDOW_UPDATE, 0, 0,
+                            Http2Connection.int32(payload.length));
+                    writeFrame(Http2Connection.WINDOW_UPDATE, 0, streamId,
+                            Http2Connection.int32(payload.length));
+                }
+                if (endStream) {
+                    startResponse(streamId, path);
+                }
+            }
+
+            void startResponse(final int streamId, final String path) {
+                new Thread() {
+                    public void run() {
+                        try {
+                            respond(streamId, path);
+                        } catch (Exception e) {
+                            // client went away
+                        }
+                    }
+                }.start();
+            }
+
+            void respond(int streamId, String path) throws Exception {
+                if (path.startsWith("/slow")) {
+                    Thread.sleep(200);
+                }
+                byte[] body = path.equals("/big") ? bigBody()
+                        : ("body of " + path).getBytes("ISO-8859-1");
+                List<Header> headers = new ArrayList<Header>();
+                headers.add(new Header(":status", "200"));
+                headers.add(new Header("content-type", "text/plain"));
+                headers.add(new Header("content-length",
+                        Integer.toString(body.length)));
+                synchronized (TestServer.this) {
+                    // stream done, from the client's view, once all is sent
+                    openStreams--;
+                }
+                synchronized (out) {
+                    writeFrame(Http2Connection.HEADERS,
+                            Http2Connection.FLAG_END_HEADERS, streamId,
+                            encoder.encode(headers));
+                }
+                int pos = 0;
+                while (pos < body.length) {
+                    int n;
+                    synchronized (this) {
+                        long[] streamWindow = streamWindows.get(streamId);
+                        while (connectionWindow <= 0 || streamWindow[0] <= 0) {
+                            wait(5000);
+                        }
+                        n = (int) Math.min(Math.min(connectionWindow,
+                                streamWindow[0]), Math.min(
+                                Http2Connection.DEFAULT_FRAME_SIZE,
+                                body.length - pos));
+                        connectionWindow -= n;
+                        streamWindow[0] -= n;
+                    }
+                    pos += n;
+                    writeFrame(Http2Connection.DATA, pos == body.length
+                            ? Http2Connection.FLAG_END_STREAM : 0,
+                            streamId, body, pos - n, n);
+                }
+            }
+
+            void writeFrame(int type, int flags, int streamId, byte[] payload)
+            throws IOException {
+                writeFrame(type, flags, streamId, payload, 0, payload.length);
+            }
+
+            void writeFrame(int type, int flags, int streamId, byte[] payload,
+                    int off, int len) throws IOException {
+                synchronized (out) {
+                    out.write(len >>> 16);
+                    out.write(len >>> 8);
+                    out.write(len);
+                    out.write(type);
+                    out.write(flags);
+                    out.write(Http2Connection.int32(streamId));
+                    out.write(payload, off, len);
+                    out.flush();
+                }
+            }
+        }
+    }
+}
@@ -19,6 +19,8 @@
 
 package org.archive.io;
 
+import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.Date;
@@ -256,6 +258,123 @@ public class ReplayCharSequenceTest extends TmpDirTestCase
         }
     }
     
+    /**
+     * Sequences decoding the same recording each to a file, as extractors
+     * running at once may, must neither share nor delete each other's.
+     */
+    public void testGenericReplayCharSequencesOfOneRecording()
+    throws IOException {
+        String fileContent = "Some file content \u00e9\u4e2d. ";
+        byte [] buffer = fileContent.getBytes("UTF-16BE");
+        String baseName = "testGenericReplayCharSequencesOfOneRecording.txt";
+        // any left by an earlier, failed run
+        for (File stale : decodedFiles(baseName)) {
+            stale.delete();
+        }
+        RecordingOutputStream ros = writeTestStream(buffer, 1, baseName, 3);
+        String expectedContent =
+            fileContent + fileContent + fileContent + fileContent;
+        // BOM-sniffing UTF-16 is stateful, so decoded to a file
+        ReplayCharSequence first = ros.getReplayCharSequence("UTF-16");
+        ReplayCharSequence second = ros.getReplayCharSequence("UTF-16");
+        assertTrue(first instanceof GenericReplayCharSequence);
+        assertEquals(2, decodedFiles(baseName).length);
+        first.close();
+        assertEquals(1, decodedFiles(baseName).length);
+        assertEquals("Strings don't match", expectedContent,
+                second.toString());
+        second.close();
+        assertEquals(0, decodedFiles(baseName).length);
+    }
+
+    protected File[] decodedFiles(final String baseName) {
+        return getTmpDir().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(baseName + ".")
+                    && name.endsWith(".UTF-16BE");
+            }
+        });
+    }
+
+    public void testWindowedReplayCharSequenceBoundaries() throws IOException {
+        // mix of 1-, 2-, 3- and 4-byte UTF-8 characters, so that windows and
+        // memory maps both end mid-character somewhere
+        String fileContent = "a\u00e9\u65e5\ud834\udd1e-";
+        byte[] buffer = fileContent.getBytes("UTF-8");
+        final int REPS = 500;
+        StringBuilder sb = new StringBuilder(REPS * fileContent.length());
+        for (int i = 0; i < REPS; i++) {
+            sb.append(fileContent);
+        }
+        String expected = sb.toString();
+        RecordingOutputStream ros = writeTestStream(
+                buffer,3,
+                "testWindowedReplayCharSequenceBoundaries.txt",REPS-3);
+        ReplayInputStream ris = ros.getReplayInputStream(0);
+        WindowedReplayCharSequence rcs = new WindowedReplayCharSequence(ris,
+                FileUtils.maybeRelative(getTmpDir(),
+                    "testWindowedReplayCharSequenceBoundaries.txt")
+                    .getAbsolutePath(),
+                "UTF-8", 7, 101);
+        ris.close();
+        try {
+            // backwards first, so windows are decoded out of order
+            for (int i = expected.length() - 1; i >= 0; i--) {
+                assertEquals("Characters don't match (index=" + i + ")",
+                        expected.charAt(i), rcs.charAt(i));
+            }
+            assertEquals("Strings don't match", expected, rcs.toString());
+        } finally {
+            rcs.close();
+        }
+    }
+
+    public void testWindowedReplayCharSequenceConcurrentReaders()
+    throws Exception {
+        String fileContent = "Some \u00fcnicode file content. ";
+        byte[] buffer = fileContent.getBytes("UTF-8");
+        final int REPS = 2000;
+        RecordingOutputStream ros = writeTestStream(
+                buffer,1,
+                "testWindowedReplayCharSequenceConcurrentReaders.txt",REPS-1);
+        ReplayInputStream ris = ros.getReplayInputStream(0);
+        final WindowedReplayCharSequence rcs = new WindowedReplayCharSequence(
+                ris, FileUtils.maybeRelative(getTmpDir(),
+                    "testWindowedReplayCharSequenceConcurrentReaders.txt")
+                    .getAbsolutePath(),
+                "UTF-8", 64, 4096);
+        ris.close();
+        final String pattern = fileContent;
+        final Throwable[] failure = new Throwable[1];
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            final int offset = t * 1000;
+            readers[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < rcs.length(); i++) {
+                            int index = (i + offset) % rcs.length();
+                            assertEquals(
+                                pattern.charAt(index % pattern.length()),
+                                rcs.charAt(index));
+                        }
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        rcs.close();
+        if (failure[0] != null) {
+            fail("concurrent reader failed: " + failure[0]);
+        }
+        assertEquals("wrong length", REPS * fileContent.length(), rcs.length());
+    }
+
     public void xestHugeReplayCharSequence() throws IOException {
         String fileContent = "01234567890123456789";
         String characterEncoding = "ascii";
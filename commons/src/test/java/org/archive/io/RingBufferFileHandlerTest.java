@@ -0,0 +1,137 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests for {@link RingBufferFileHandler}.
+ */
+public class RingBufferFileHandlerTest extends TmpDirTestCase {
+
+    static class LineFormatter extends Formatter {
+        public String format(LogRecord record) {
+            return record.getMessage() + "\n";
+        }
+    }
+
+    protected File dir;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File(getTmpDir(), "RingBufferFileHandlerTest");
+        FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    protected RingBufferFileHandler makeHandler(File log, int capacity,
+            int batchBytes) throws IOException {
+        RingBufferFileHandler handler = RingBufferFileHandler.makeNew(
+                log.getAbsolutePath(), true, capacity, batchBytes);
+        handler.setFormatter(new LineFormatter());
+        return handler;
+    }
+
+    public void testFlushAndClose() throws IOException {
+        File log = new File(dir, "simple.log");
+        RingBufferFileHandler handler = makeHandler(log, 16, 1024);
+        handler.publish(new LogRecord(Level.INFO, "first"));
+        handler.publish(new LogRecord(Level.INFO, "second"));
+        handler.flush();
+        assertEquals("first\nsecond\n", FileUtils.readFileToString(log));
+        // longer than the write buffer
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            longLine.append((char) ('a' + i % 26));
+        }
+        handler.publish(new LogRecord(Level.INFO, longLine.toString()));
+        handler.publish(new LogRecord(Level.INFO, "third"));
+        handler.close();
+        String expected = "first\nsecond\n" + longLine + "\nthird\n";
+        assertEquals(expected, FileUtils.readFileToString(log));
+        // logging after close is not written
+        handler.publish(new LogRecord(Level.INFO, "late"));
+        assertEquals(expected, FileUtils.readFileToString(log));
+    }
+
+    /**
+     * Many threads logging through a small ring, with writes split across
+     * many batches, and rotations meanwhile: every line must appear exactly
+     * once across the files, in each thread's order.
+     */
+    @SuppressWarnings("unchecked")
+    public void testConcurrentWithRotation() throws Exception {
+        File log = new File(dir, "busy.log");
+        final RingBufferFileHandler handler = makeHandler(log, 64, 1024);
+        handler.setFlushIntervalMs(0);
+        final int threads = 6;
+        final int lines = 20000;
+        Thread[] loggers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            loggers[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < lines; i++) {
+                        handler.publish(new LogRecord(Level.INFO,
+                                thread + " " + i + " padding-padding-padding"));
+                    }
+                }
+            };
+            loggers[t].start();
+        }
+        for (int r = 0; r < 5; r++) {
+            Thread.sleep(10);
+            handler.rotate("." + r, "");
+        }
+        for (Thread logger : loggers) {
+            logger.join();
+        }
+        handler.close();
+
+        List<String> series = handler.getFilenameSeries();
+        assertEquals(6, series.size());
+        List<String> all = new ArrayList<String>();
+        // oldest file first
+        for (int i = series.size() - 1; i >= 0; i--) {
+            all.addAll(FileUtils.readLines(new File(series.get(i))));
+        }
+        assertEquals(threads * lines, all.size());
+        int[] next = new int[threads];
+        for (String line : all) {
+            String[] parts = line.split(" ");
+            int thread = Integer.parseInt(parts[0]);
+            assertEquals(line, next[thread], Integer.parseInt(parts[1]));
+            next[thread]++;
+        }
+    }
+}
@@ -19,9 +19,13 @@
 package org.archive.net;
 
 import java.net.URISyntaxException;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.httpclient.URIException;
+import org.apache.commons.lang.SerializationUtils;
+
 public class UURITest extends TestCase {
     public void testHasScheme() {
         assertTrue(UURI.hasScheme("http://www.archive.org"));
@@ -41,4 +45,69 @@ public class UURITest extends TestCase {
             UURI.parseFilename("rsync://archive.org/tmp/one.two/" +
                     filename)); 
     }
+    
+    static final String[] COMPACT_SAMPLES = {
+        "http://www.archive.org/index.html",
+        "http://user:pw@www.example.com:8080/a/b.html?x=1&y=%20",
+        "https://www.example.com/",
+        "http://www.example.com/path?",
+        "ftp://ftp.example.com/pub/file.txt",
+        "dns:www.example.com",
+        "mailto:someone@example.com",
+        "http://127.0.0.1:8080/x",
+        "http://www.example.com/%E2%82%AC/caf%C3%A9?q=%C3%A9",
+    };
+
+    public void testCompact() throws Exception {
+        for (String sample : COMPACT_SAMPLES) {
+            UURI full = UURIFactory.getInstance(sample);
+            UURI compact = UURIFactory.getInstance(sample).compact();
+            assertTrue(sample, compact.isCompact());
+            // accessors not needing inflation
+            assertEquals(full.toString(), compact.toString());
+            assertEquals(full.getScheme(), compact.getScheme());
+            assertEquals(full.getHost(), compact.getHost());
+            assertEquals(full.getAuthority(), compact.getAuthority());
+            assertEquals(full.getAuthorityMinusUserinfo(), 
+                    compact.getAuthorityMinusUserinfo());
+            assertEquals(full.hasAuthority(), compact.hasAuthority());
+            assertEquals(full.hasQuery(), compact.hasQuery());
+            assertEquals(full.hasUserinfo(), compact.hasUserinfo());
+            assertEquals(full.getPort(), compact.getPort());
+            assertEquals(full.hashCode(), compact.hashCode());
+            assertEquals(full, compact);
+            assertTrue(sample, compact.isCompact());
+            // accessors restoring components
+            assertEquals(full.getPath(), compact.getPath());
+            assertFalse(compact.isCompact());
+            assertEquals(full.getEscapedQuery(), compact.getEscapedQuery());
+            assertEquals(full.getUserinfo(), compact.getUserinfo());
+            assertTrue(Arrays.equals(full.getRawURI(), compact.getRawURI()));
+            assertEquals(full.getCurrentHierPath(), 
+                    compact.getCurrentHierPath());
+            assertEquals(full.getReferencedHost(), 
+                    compact.getReferencedHost());
+            assertEquals(full, compact);
+        }
+    }
+
+    public void testCompactBaseAndDefault() throws URIException {
+        UURI base = UURIFactory.getInstance(
+                "http://www.example.com/a/b/c.html?q").compact();
+        assertEquals("http://www.example.com/a/d.html",
+                UURIFactory.getInstance(base, "../d.html").toString());
+        
+        boolean previous = UURI.isCompactByDefault();
+        UURI.setCompactByDefault(true);
+        try {
+            UURI uuri = UURIFactory.getInstance("http://www.example.com/x");
+            assertTrue(uuri.isCompact());
+            UURI copy = (UURI) SerializationUtils.clone(uuri);
+            assertTrue(copy.isCompact());
+            assertEquals(uuri, copy);
+            assertEquals("/x", copy.getPath());
+        } finally {
+            UURI.setCompactByDefault(previous);
+        }
+    }
 }
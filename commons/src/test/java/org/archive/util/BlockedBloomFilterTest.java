@@ -0,0 +1,82 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.Random;
+
+/**
+ * BlockedBloomFilter tests: the shared BloomFilterTest trials, plus
+ * alternate storage and save/load.
+ */
+public class BlockedBloomFilterTest extends BloomFilterTest {
+    @Override
+    BloomFilter createBloom(long n, int d, Random weightsGenerator) {
+        return new BlockedBloomFilter(n, d);
+    }
+
+    public void testStorageAndSaveLoad() throws Exception {
+        BlockedBloomFilter heap = new BlockedBloomFilter(100000, 16);
+        BlockedBloomFilter direct = new BlockedBloomFilter(100000, 16,
+                BlockedBloomFilter.Storage.DIRECT, null);
+        File mapFile = new File(TmpDirTestCase.tmpDir(), "blocked.bloom");
+        BlockedBloomFilter mapped = new BlockedBloomFilter(100000, 16,
+                BlockedBloomFilter.Storage.MAPPED, mapFile);
+        assertEquals(heap.getSizeBytes(), mapFile.length());
+        for (int i = 0; i < 50000; i++) {
+            String str = "http://www.example.com/" + i;
+            boolean added = heap.add(str);
+            assertEquals(added, direct.add(str));
+            assertEquals(added, mapped.add(str));
+        }
+        assertEquals(heap.getBitsSet(), direct.getBitsSet());
+        assertEquals(heap.getBitsSet(), mapped.getBitsSet());
+        double fpr = heap.getFalsePositiveRate();
+        assertTrue("false-positive estimate " + fpr, fpr > 0 && fpr < 1e-3);
+
+        ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        heap.save(new DataOutputStream(saved));
+        BlockedBloomFilter restored = new BlockedBloomFilter(100000, 16,
+                BlockedBloomFilter.Storage.DIRECT, null);
+        restored.load(new DataInputStream(
+                new ByteArrayInputStream(saved.toByteArray())));
+        assertEquals(heap.size(), restored.size());
+        for (int i = 0; i < 50000; i++) {
+            assertTrue(restored.contains("http://www.example.com/" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            String str = "http://www.example.org/" + i;
+            assertEquals(heap.contains(str), restored.contains(str));
+            assertEquals(heap.contains(str), mapped.contains(str));
+        }
+
+        try {
+            new BlockedBloomFilter(100001, 17).load(new DataInputStream(
+                    new ByteArrayInputStream(saved.toByteArray())));
+            fail("loaded into filter of other dimensions");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link HandoffQueue}.
+ */
+public class HandoffQueueTest extends TestCase {
+
+    public void testCapacity() throws InterruptedException {
+        HandoffQueue<String> queue = new HandoffQueue<String>(2);
+        assertTrue(queue.offer("a"));
+        assertTrue(queue.offer("b"));
+        assertFalse(queue.offer("c"));
+        assertFalse(queue.offer("c", 10, TimeUnit.MILLISECONDS));
+        assertEquals(2, queue.size());
+        assertEquals(0, queue.remainingCapacity());
+
+        queue.setCapacity(3);
+        assertTrue(queue.offer("c"));
+        queue.setCapacity(1);
+        assertEquals(0, queue.remainingCapacity());
+        assertFalse(queue.offer("d"));
+
+        assertEquals("a", queue.poll());
+        assertEquals("b", queue.take());
+        assertFalse(queue.offer("d"));
+        assertEquals("c", queue.poll());
+        assertTrue(queue.offer("d"));
+        assertEquals("d", queue.poll());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.size());
+    }
+
+    public void testBlockedPutResumes() throws InterruptedException {
+        final HandoffQueue<String> queue = new HandoffQueue<String>(1);
+        queue.put("a");
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread() {
+            public void run() {
+                try {
+                    queue.put("b");
+                    done.countDown();
+                } catch (InterruptedException e) {
+                    // test will fail
+                }
+            }
+        }.start();
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        assertEquals("a", queue.take());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("b", queue.take());
+    }
+
+    public void testInterruptedTake() {
+        HandoffQueue<String> queue = new HandoffQueue<String>(1);
+        Thread.currentThread().interrupt();
+        try {
+            queue.take();
+            fail("take not interrupted");
+        } catch (InterruptedException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Many consumers and producers, through a small queue; every item
+     * must arrive exactly once, with no consumer left waiting.
+     */
+    public void testManyThreads() throws InterruptedException {
+        final HandoffQueue<Long> queue = new HandoffQueue<Long>(4);
+        final int producers = 4;
+        final int consumers = 32;
+        final int perProducer = 20000;
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong received = new AtomicLong();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < consumers; i++) {
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        while (true) {
+                            long item = queue.take();
+                            if (item < 0) {
+                                return;
+                            }
+                            sum.addAndGet(item);
+                            received.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        // test will fail
+                    }
+                }
+            });
+        }
+        for (int i = 0; i < producers; i++) {
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        for (long n = 1; n <= perProducer; n++) {
+                            queue.put(n);
+                        }
+                    } catch (InterruptedException e) {
+                        // test will fail
+                    }
+                }
+            });
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads.subList(consumers, threads.size())) {
+            t.join(60 * 1000);
+        }
+        for (int i = 0; i < consumers; i++) {
+            queue.put(-1L);
+        }
+        for (Thread t : threads.subList(0, consumers)) {
+            t.join(60 * 1000);
+            assertFalse("consumer stuck", t.isAlive());
+        }
+        assertEquals((long) producers * perProducer, received.get());
+        assertEquals((long) producers * perProducer * (perProducer + 1) / 2,
+                sum.get());
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import junit.framework.TestCase;
+
+import org.archive.util.LatencyHistogram.Snapshot;
+
+/**
+ * Tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testBuckets() {
+        for (long v = 0; v < 100000; v++) {
+            int bucket = LatencyHistogram.bucketFor(v);
+            assertTrue(v <= LatencyHistogram.highestValueIn(bucket));
+            if (bucket > 0) {
+                assertTrue(v > LatencyHistogram.highestValueIn(bucket - 1));
+            }
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1,
+                LatencyHistogram.bucketFor(LatencyHistogram.MAX_TRACKED));
+        assertEquals(LatencyHistogram.BUCKETS - 1,
+                LatencyHistogram.bucketFor(Long.MAX_VALUE));
+        assertEquals(LatencyHistogram.MAX_TRACKED, LatencyHistogram
+                .highestValueIn(LatencyHistogram.BUCKETS - 1));
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.snapshot().getValueAtPercentile(99));
+        for (long v = 1; v <= 1000; v++) {
+            histogram.record(v * 1000);
+        }
+        histogram.record(-5);
+        Snapshot snapshot = histogram.snapshot();
+        assertEquals(1001, snapshot.getCount());
+        assertEquals(1000000, snapshot.getMax());
+        assertEquals(500500000, snapshot.getTotal());
+        assertEquals(0, snapshot.getValueAtPercentile(0));
+        assertWithin(500000, snapshot.getValueAtPercentile(50));
+        assertWithin(990000, snapshot.getValueAtPercentile(99));
+        assertEquals(1000000, snapshot.getValueAtPercentile(100));
+    }
+
+    protected void assertWithin(long expected, long actual) {
+        assertTrue(actual + " not near " + expected,
+                Math.abs(actual - expected) <= expected / 16);
+    }
+
+    public void testThreadsMerged() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long value = (t + 1) * 1000000L;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(value);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Snapshot snapshot = histogram.snapshot();
+        assertEquals(40000, snapshot.getCount());
+        assertEquals(4000000, snapshot.getMax());
+        assertEquals(2500000.0, snapshot.getMean());
+        assertWithin(2000000, snapshot.getValueAtPercentile(50));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.archive.io.ReplayCharSequence;
+
+/**
+ * Tests of {@link Recorder}'s decoded views of compressed content.
+ */
+public class RecorderTest extends TmpDirTestCase {
+    protected static final String HEADER =
+        "HTTP/1.1 200 OK\r\nContent-Encoding: x\r\n\r\n";
+
+    protected Recorder record(byte[] body) throws IOException {
+        Recorder rec = new Recorder(getTmpDir(), "RecorderTest", 1024, 1024);
+        InputStream in = rec.inputWrap(new ByteArrayInputStream(
+                concat(HEADER.getBytes("US-ASCII"), body)));
+        byte[] header = new byte[HEADER.length()];
+        new DataInputStream(in).readFully(header);
+        rec.markContentBegin();
+        IOUtils.copy(in, new ByteArrayOutputStream());
+        rec.close();
+        rec.setCharacterEncoding("UTF-8");
+        return rec;
+    }
+
+    protected static byte[] concat(byte[] a, byte[] b) {
+        byte[] both = new byte[a.length + b.length];
+        System.arraycopy(a, 0, both, 0, a.length);
+        System.arraycopy(b, 0, both, a.length, b.length);
+        return both;
+    }
+
+    protected static byte[] compress(String text, OutputStream out,
+            ByteArrayOutputStream bytes) throws IOException {
+        out.write(text.getBytes("UTF-8"));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    protected static String text(int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append("<a href='/page").append(i).append("'>link</a>\n");
+        }
+        return sb.substring(0, length);
+    }
+
+    protected void assertDecoded(String expected, Recorder rec)
+    throws IOException {
+        ReplayCharSequence cs = rec.getReplayCharSequence();
+        try {
+            assertEquals(expected, cs.toString());
+        } finally {
+            cs.close();
+        }
+        InputStream content = rec.getContentReplayInputStream();
+        try {
+            assertEquals(expected, IOUtils.toString(content, "UTF-8"));
+        } finally {
+            content.close();
+        }
+    }
+
+    public void testGzipAndDeflate() throws IOException {
+        // larger than the buffers, so both recordings spill to disk
+        String html = text(50000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] gzipped = compress(html, new GZIPOutputStream(bytes), bytes);
+        Recorder rec = record(gzipped);
+        assertEquals(gzipped.length, rec.getResponseContentLength());
+        rec.setContentEncoding("gzip");
+        assertTrue(rec.isContentEncoded());
+        assertDecoded(html, rec);
+        assertFalse(rec.isDecodedTruncated());
+        // raw recording untouched
+        assertEquals(gzipped.length, rec.getResponseContentLength());
+        rec.cleanup();
+
+        bytes = new ByteArrayOutputStream();
+        rec = record(compress(html, new DeflaterOutputStream(bytes), bytes));
+        rec.setContentEncoding("deflate");
+        assertDecoded(html, rec);
+        rec.cleanup();
+
+        // raw deflate, as some servers send
+        bytes = new ByteArrayOutputStream();
+        rec = record(compress(html, new DeflaterOutputStream(bytes,
+                new Deflater(Deflater.DEFAULT_COMPRESSION, true)), bytes));
+        rec.setContentEncoding("Deflate");
+        assertDecoded(html, rec);
+        rec.cleanup();
+
+        // unencoded (or unknown encoding) content replays as recorded
+        rec = record(html.getBytes("UTF-8"));
+        rec.setContentEncoding("br");
+        assertFalse(rec.isContentEncoded());
+        assertDecoded(html, rec);
+        rec.cleanup();
+    }
+
+    /**
+     * Extractors running in parallel may demand decoded content at once;
+     * it must be decoded once, and all must see it whole.
+     */
+    public void testConcurrentDecoding() throws Exception {
+        final String html = text(200000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Recorder rec =
+            record(compress(html, new GZIPOutputStream(bytes), bytes));
+        rec.setContentEncoding("gzip");
+        final Throwable[] failures = new Throwable[8];
+        Thread[] threads = new Thread[failures.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        assertDecoded(html, rec);
+                    } catch (Throwable t) {
+                        failures[n] = t;
+                    }
+                }
+            };
+            threads[i].setDaemon(true);
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join(60 * 1000);
+            assertFalse("decoding stuck", t.isAlive());
+        }
+        for (Throwable t : failures) {
+            if (t != null) {
+                throw new Exception(t);
+            }
+        }
+        rec.cleanup();
+    }
+
+    public void testDecodingLimits() throws IOException {
+        String zeros = new String(new char[1000000]).replace('\0', '0');
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] bomb = compress(zeros, new GZIPOutputStream(bytes), bytes);
+        Recorder rec = record(bomb);
+        rec.setDecodingLimits(Long.MAX_VALUE, 100);
+        rec.setContentEncoding("gzip");
+        assertDecoded(zeros.substring(0, bomb.length * 100), rec);
+        assertTrue(rec.isDecodedTruncated());
+
+        rec.setDecodingLimits(5000, 10000);
+        rec.setContentEncoding("gzip");
+        assertDecoded(zeros.substring(0, 5000), rec);
+
+        // a new recording forgets the encoding
+        rec.inputWrap(new ByteArrayInputStream(new byte[0])).close();
+        assertNull(rec.getContentEncoding());
+        rec.cleanup();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.bdb.BdbStringIdTable;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+
+/**
+ * Tests for {@link StringIdTable} and {@link BdbStringIdTable}.
+ */
+public class StringIdTableTest extends TmpDirTestCase {
+
+    public void testIds() {
+        StringIdTable table = new StringIdTable();
+        assertEquals(StringIdTable.NONE, table.get("example.com"));
+        assertEquals(0, table.intern("example.com"));
+        assertEquals(1, table.intern("example.com:8080"));
+        assertEquals(0, table.intern(new StringBuilder("example.com")));
+        assertEquals(1, table.get(new StringBuilder("example.com:8080")));
+        assertEquals(StringIdTable.NONE, table.get("example.co"));
+        assertEquals(StringIdTable.NONE, table.get("example.com:808"));
+        assertEquals(2, table.size());
+        assertEquals("example.com:8080", table.getName(1));
+        try {
+            table.getName(2);
+            fail("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testNonAscii() {
+        StringIdTable table = new StringIdTable();
+        String[] names = {"", "bücher.de", "例え.jp",
+                "\u0080߿ࠀ￿", "dns:"};
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(i, table.intern(names[i]));
+        }
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(names[i], table.getName(i));
+            assertEquals(i, table.get(names[i]));
+        }
+        // same length and hash-neighbours, differing only past ASCII
+        assertEquals(StringIdTable.NONE, table.get("býcher.de"));
+    }
+
+    public void testGrowth() {
+        StringIdTable table = new StringIdTable();
+        // enough for several pool and ID chunks, and many rehashes
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            padding.append('x');
+        }
+        int count = 150 * 1000;
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, table.intern("host" + i + padding + ".org"));
+        }
+        assertEquals(count, table.size());
+        for (int i = 0; i < count; i += 7) {
+            assertEquals(i, table.get("host" + i + padding + ".org"));
+            assertEquals("host" + i + padding + ".org", table.getName(i));
+        }
+    }
+
+    public void testConcurrentIntern() throws Exception {
+        final StringIdTable table = new StringIdTable();
+        final int names = 20000;
+        final int[][] seen = new int[4][names];
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[seen.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int[] ids = seen[t];
+            final int offset = t * 997;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < names; i++) {
+                        int n = (i + offset) % names;
+                        ids[n] = table.intern("h" + n);
+                        if (!table.getName(ids[n]).equals("h" + n)) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(names, table.size());
+        for (int i = 0; i < names; i++) {
+            for (int t = 1; t < seen.length; t++) {
+                assertEquals(seen[0][i], seen[t][i]);
+            }
+        }
+    }
+
+    public void testBdbPersistence() throws Exception {
+        File envDir = new File(getTmpDir(), "StringIdTableTest");
+        FileUtils.deleteDirectory(envDir);
+        envDir.mkdirs();
+        EnhancedEnvironment env = EnhancedEnvironment.getTestEnvironment(envDir);
+        DatabaseConfig config = new DatabaseConfig();
+        config.setAllowCreate(true);
+        config.setDeferredWrite(true);
+        try {
+            Database db = env.openDatabase(null, "ids", config);
+            StringIdTable table = new BdbStringIdTable(db);
+            for (int i = 0; i < 1000; i++) {
+                table.intern("host" + i);
+            }
+            db.close();
+
+            db = env.openDatabase(null, "ids", config);
+            table = new BdbStringIdTable(db);
+            assertEquals(1000, table.size());
+            assertEquals(999, table.get("host999"));
+            assertEquals("host123", table.getName(123));
+            assertEquals(1000, table.intern("host1000"));
+            db.close();
+        } finally {
+            env.close();
+            FileUtils.deleteDirectory(envDir);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link TimingWheel}.
+ */
+public class TimingWheelTest extends TestCase {
+
+    public void testWakesInOrderNeverEarly() {
+        TimingWheel<Long> wheel = new TimingWheel<Long>(10, 3, null, 1000);
+        long start = System.currentTimeMillis();
+        Random random = new Random(0);
+        List<Long> wakeTimes = new ArrayList<Long>();
+        for (int i = 0; i < 5000; i++) {
+            // from already due to over 2 hours out, past the first two levels
+            long wakeTime = start - 1000 + random.nextInt(8 * 1000 * 1000);
+            wakeTimes.add(wakeTime);
+            wheel.add(wakeTime, wakeTime);
+        }
+        assertEquals(5000, wheel.size());
+
+        int woken = 0;
+        List<Long> due = new ArrayList<Long>();
+        for (long now = start; now < start + 8 * 1000 * 1000; now += 997) {
+            due.clear();
+            woken += wheel.advance(now, due);
+            for (long wakeTime : due) {
+                assertTrue("woken early", wakeTime <= now);
+                // woken within a tick of the previous advance
+                assertTrue("woken late", wakeTime > now - 997 - 10
+                        || wakeTime < start);
+            }
+            long next = wheel.getNextCheckTime();
+            if (wheel.size() > 0) {
+                // no later than the end of the first tick due
+                long min = minimum(wakeTimes, now);
+                assertTrue("next check " + next + " after " + min,
+                        next <= (min + 9) / 10 * 10);
+            }
+        }
+        due.clear();
+        woken += wheel.advance(start + 9 * 1000 * 1000, due);
+        assertEquals(5000, woken);
+        assertEquals(0, wheel.size());
+        assertEquals(Long.MAX_VALUE, wheel.getNextCheckTime());
+    }
+
+    protected long minimum(List<Long> wakeTimes, long after) {
+        long min = Long.MAX_VALUE;
+        for (long t : wakeTimes) {
+            if (t > after && t < min) {
+                min = t;
+            }
+        }
+        return min;
+    }
+
+    public void testOverflow() {
+        TreeMap<Long,String> overflow = new TreeMap<Long,String>();
+        TimingWheel<String> wheel =
+            new TimingWheel<String>(10, 1, overflow, 2);
+        long now = System.currentTimeMillis();
+        // within the 2.56s span, in memory
+        wheel.add("a", now + 100);
+        wheel.add("b", now + 200);
+        // over the memory limit
+        wheel.add("c", now + 300);
+        // beyond the span
+        wheel.add("d", now + 60 * 1000);
+        assertEquals(2, wheel.getInMemoryCount());
+        assertEquals(2, wheel.getOverflowCount());
+        assertEquals(2, overflow.size());
+
+        List<String> due = new ArrayList<String>();
+        wheel.advance(now + 350, due);
+        assertEquals("[a, b, c]", sorted(due));
+        assertEquals(1, overflow.size());
+
+        due.clear();
+        wheel.advance(now + 30 * 1000, due);
+        assertTrue(due.isEmpty());
+        due.clear();
+        wheel.advance(now + 60 * 1000 + 10, due);
+        assertEquals("[d]", due.toString());
+        assertEquals(0, wheel.size());
+    }
+
+    public void testSpillAndDrain() {
+        TreeMap<Long,String> overflow = new TreeMap<Long,String>();
+        TimingWheel<String> wheel =
+            new TimingWheel<String>(10, 2, overflow, 100);
+        long now = System.currentTimeMillis();
+        wheel.add("a", now + 100);
+        wheel.add("b", now + 10 * 1000);
+        wheel.spillAll();
+        assertEquals(0, wheel.getInMemoryCount());
+        assertEquals(2, overflow.size());
+
+        // as on recovery from a checkpoint
+        wheel = new TimingWheel<String>(10, 2, overflow, 100);
+        assertEquals(2, wheel.size());
+        List<String> due = new ArrayList<String>();
+        wheel.advance(now + 150, due);
+        assertEquals("[a]", due.toString());
+        due.clear();
+        assertEquals(1, wheel.drainAll(due));
+        assertEquals("[b]", due.toString());
+        assertEquals(0, wheel.size());
+        assertTrue(overflow.isEmpty());
+    }
+
+    /**
+     * Items put in overflow after a reload, whether over the memory limit
+     * or spilled, are read back when due, not at the next routine reload
+     * (up to a turn of the first level later).
+     */
+    public void testOverflowReadBackWhenDue() {
+        TreeMap<Long,String> overflow = new TreeMap<Long,String>();
+        long now = System.currentTimeMillis();
+        TimingWheel<String> wheel =
+            new TimingWheel<String>(10, 1, overflow, 1);
+        wheel.add("a", now + 2000);
+        // beyond the span, prompting a reload at the first advance
+        wheel.add("far", now + 60 * 1000);
+        List<String> due = new ArrayList<String>();
+        wheel.advance(now, due);
+        assertTrue(due.isEmpty());
+
+        // over the memory limit, due well before the next routine reload
+        wheel.add("b", now + 100);
+        assertEquals(2, wheel.getOverflowCount());
+        assertTrue(wheel.getNextCheckTime() <= now + 110);
+        wheel.advance(now + 110, due);
+        assertEquals("[b]", due.toString());
+
+        // spilled, as at a checkpoint, then crawling on
+        due.clear();
+        wheel.spillAll();
+        assertEquals(2, wheel.getOverflowCount());
+        wheel.advance(now + 1000, due);
+        assertTrue(due.isEmpty());
+        wheel.advance(now + 2010, due);
+        assertEquals("[a]", due.toString());
+        assertEquals(1, wheel.size());
+    }
+
+    protected String sorted(List<String> items) {
+        List<String> copy = new ArrayList<String>(items);
+        java.util.Collections.sort(copy);
+        return copy.toString();
+    }
+}
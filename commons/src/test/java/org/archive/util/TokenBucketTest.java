@@ -0,0 +1,95 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link TokenBucket}.
+ */
+public class TokenBucketTest extends TestCase {
+    static final long MB = 1024 * 1024;
+    static final long SECOND = 1000L * 1000 * 1000;
+
+    public void testNested() {
+        TokenBucket parent = new TokenBucket("parent", null, MB, 0);
+        TokenBucket child = new TokenBucket("child", parent, 0, 0);
+        // the parent's rate governs
+        long delay = child.charge(MB);
+        assertTrue("delay " + delay,
+                delay > SECOND * 9 / 10 && delay <= SECOND);
+        assertEquals(MB, child.getBytes());
+        assertEquals(MB, parent.getBytes());
+
+        // as does a slower child's
+        parent.setRate(0, 0);
+        child.setRate(MB / 4, 0);
+        delay = child.charge(MB);
+        assertTrue("delay " + delay,
+                delay > SECOND * 39 / 10 && delay <= SECOND * 4);
+        assertEquals(2 * MB, parent.getBytes());
+    }
+
+    public void testBurstAndReconfiguration() {
+        TokenBucket bucket = new TokenBucket("bucket", null, MB, 1000);
+        // half a second of traffic is within the burst allowance...
+        assertEquals(0, bucket.charge(MB / 2));
+        // ...a further second's is not
+        long delay = bucket.charge(MB);
+        assertTrue("delay " + delay,
+                delay > SECOND * 4 / 10 && delay <= SECOND / 2);
+        // lifting the limit ends pauses
+        bucket.setRate(0, 1000);
+        assertEquals(0, bucket.charge(10 * MB));
+        assertTrue(bucket.getDelayedMs() > 400);
+    }
+
+    public void testSharedRate() throws InterruptedException {
+        final TokenBucket bucket = new TokenBucket("shared", null, 2 * MB, 0);
+        final long perThread = MB / 4;
+        long start = System.currentTimeMillis();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        for (long sent = 0; sent < perThread; sent += 4096) {
+                            bucket.chargeAndPause(4096);
+                        }
+                    } catch (InterruptedException e) {
+                        // ends test thread
+                    }
+                }
+            };
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        // 1MB at 2MB/sec, across all threads
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed " + elapsed, elapsed >= 450 && elapsed < 3000);
+        assertEquals(MB, bucket.getBytes());
+    }
+}
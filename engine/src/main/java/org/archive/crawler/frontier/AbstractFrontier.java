@@ -72,6 +72,8 @@ import org.archive.modules.seeds.SeedModule;
 import org.archive.spring.HasKeyedProperties;
 import org.archive.spring.KeyedProperties;
 import org.archive.util.ArchiveUtils;
+import org.archive.util.HandoffQueue;
+import org.archive.util.LatencyHistogram;
 import org.archive.util.iterator.LineReadingIterator;
 import org.archive.util.iterator.RegexLineIterator;
 import org.json.JSONException;
@@ -135,6 +137,54 @@ public abstract class AbstractFrontier
         kp.put("recoveryLogEnabled",enabled);
     }
 
+    /**
+     * Whether the recovery log is written in the compact binary format
+     * (frontier.recover.bin), rather than as gzipped text lines
+     * (frontier.recover.gz). Binary logs may be exported to text with 
+     * FrontierJournalExport. Off by default: tools such as zcat, grep and
+     * RecoveryLogMapper read only the text log.
+     */
+    {
+        setBinaryRecoveryLog(false);
+    }
+    public boolean getBinaryRecoveryLog() {
+        return (Boolean) kp.get("binaryRecoveryLog");
+    }
+    public void setBinaryRecoveryLog(boolean binary) {
+        kp.put("binaryRecoveryLog",binary);
+    }
+
+    /**
+     * Time every Nth call (counted per thread) of {@link #next()} and 
+     * {@link #finished(CrawlURI)}, for the latencies report. 0 (the default)
+     * disables timing.
+     */
+    {
+        setLatencySampleInterval(0);
+    }
+    public int getLatencySampleInterval() {
+        return (Integer) kp.get("latencySampleInterval");
+    }
+    public void setLatencySampleInterval(int interval) {
+        kp.put("latencySampleInterval",interval);
+    }
+
+    protected LatencyHistogram nextLatency = new LatencyHistogram();
+    /**
+     * @return time sampled next() calls waited for, and took to find, 
+     * a URI
+     */
+    public LatencyHistogram getNextLatency() {
+        return nextLatency;
+    }
+    protected LatencyHistogram finishedLatency = new LatencyHistogram();
+    /**
+     * @return time sampled finished() calls took to return to the caller
+     */
+    public LatencyHistogram getFinishedLatency() {
+        return finishedLatency;
+    }
+
     {
         setMaxOutlinks(6000);
     }
@@ -164,7 +214,21 @@ public abstract class AbstractFrontier
         this.inbound = inbound;
     }
 
-    /** outbound URIs */ 
+    /**
+     * URIs to keep waiting on the default outbound queue per ToeThread;
+     * its capacity follows the number of ToeThreads as it changes.
+     */
+    {
+        setOutboundPerToe(4);
+    }
+    public int getOutboundPerToe() {
+        return (Integer) kp.get("outboundPerToe");
+    }
+    public void setOutboundPerToe(int perToe) {
+        kp.put("outboundPerToe", perToe);
+    }
+
+    /** outbound URIs; by default a {@link HandoffQueue} */ 
     protected BlockingQueue<CrawlURI> outbound;
     public BlockingQueue<CrawlURI> getOutbound() {
         return outbound;
@@ -296,11 +360,19 @@ public abstract class AbstractFrontier
     protected InEvent NOOP = new InEvent() { public void process() {} };
     
     /** 
-     * lock to allow holding all worker ToeThreads from taking URIs already
-     * on the outbound queue; they acquire read permission before take()ing;
-     * frontier can acquire write permission to hold threads */
-    protected ReentrantReadWriteLock outboundLock = 
-        new ReentrantReadWriteLock(true);
+     * whether all worker ToeThreads are held from taking URIs already
+     * on the outbound queue; they check it (a volatile read) before
+     * take()ing, and only while it is set wait on outboundGate */
+    protected volatile boolean outboundHeld = false;
+    protected final Object outboundGate = new Object();
+
+    /** nanoseconds ToeThreads have spent in next() waiting for a URI */
+    protected AtomicLong toeWaitNanos = new AtomicLong(0);
+    /** nanoseconds the manager thread has spent waiting, while running,
+     * for inbound events or outbound room */
+    protected AtomicLong managerWaitNanos = new AtomicLong(0);
+    /** when the outbound capacity was last matched to the toe count */
+    protected long lastOutboundSizing = 0;
     
     
     /**
@@ -342,7 +414,7 @@ public abstract class AbstractFrontier
         }
         
         if(outbound==null) {
-            outbound = new ArrayBlockingQueue<CrawlURI>(200, true);
+            outbound = new HandoffQueue<CrawlURI>(targetOutboundCapacity());
         }
         if(inbound==null) {
             inbound = new ArrayBlockingQueue<InEvent>(4000, true);
@@ -367,10 +439,8 @@ public abstract class AbstractFrontier
                 try {
                     switch (targetState) {
                     case RUN:
-                        // enable outbound takes if previously locked
-                        while(outboundLock.isWriteLockedByCurrentThread()) {
-                            outboundLock.writeLock().unlock();
-                        }
+                        // enable outbound takes if previously held
+                        releaseOutbound();
                         reachedState(State.RUN);
                         // fill to-do 'on-deck' queue
                         fillOutbound();
@@ -387,7 +457,7 @@ public abstract class AbstractFrontier
                     case PAUSE:
                         // pausing
                         // prevent all outbound takes
-                        outboundLock.writeLock().lock();
+                        holdOutbound();
                         // process all inbound
                         while (targetState == State.PAUSE) {
                             if (outbound.size() == getInProcessCount()) {
@@ -404,7 +474,7 @@ public abstract class AbstractFrontier
                         break;
                     case FINISH:
                         // prevent all outbound takes
-                        outboundLock.writeLock().lock();
+                        holdOutbound();
                         // process all inbound
                         while (outbound.size() != getInProcessCount()) {
                             // continue to process discovered and finished URIs
@@ -432,9 +502,7 @@ public abstract class AbstractFrontier
         
         // try to leave in safely restartable state: 
         targetState = State.PAUSE;
-        while(outboundLock.isWriteLockedByCurrentThread()) {
-            outboundLock.writeLock().unlock();
-        }
+        releaseOutbound();
         //TODO: ensure all other structures are cleanly reset on restart
         
         logger.log(Level.FINE,"ending frontier mgr thread");
@@ -456,10 +524,13 @@ public abstract class AbstractFrontier
      * @throws InterruptedException
      */
     protected void fillOutbound() throws InterruptedException {
+        resizeOutbound();
         while (outbound.remainingCapacity() > 0) {
             CrawlURI crawlable = findEligibleURI();
             if (crawlable != null) {
+                long start = System.nanoTime();
                 outbound.put(crawlable);
+                managerWaitNanos.addAndGet(System.nanoTime() - start);
             } else {
                 break;
             }
@@ -485,8 +556,10 @@ public abstract class AbstractFrontier
         }
         if(batch==0) {
             // always do at least one timed try
+            long start = System.nanoTime();
             InEvent ev = inbound.poll(getMaxInWait(),
                     TimeUnit.MILLISECONDS);
+            managerWaitNanos.addAndGet(System.nanoTime() - start);
             if (ev != null) {
                 synchronized(this) {
                     ev.process();
@@ -495,6 +568,74 @@ public abstract class AbstractFrontier
         }
     }
 
+    /**
+     * Outbound capacity suited to the current number of ToeThreads.
+     */
+    protected int targetOutboundCapacity() {
+        int toes = controller.getToeCount();
+        if (toes <= 0) {
+            toes = controller.getMaxToeThreads();
+        }
+        return Math.max(toes, 1) * Math.max(getOutboundPerToe(), 1);
+    }
+
+    /**
+     * Match the capacity of the default outbound queue to the current
+     * number of ToeThreads; checked at most once a second, as counting
+     * threads is not free.
+     */
+    @SuppressWarnings("unchecked")
+    protected void resizeOutbound() {
+        if (!(outbound instanceof HandoffQueue<?>)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastOutboundSizing < 1000) {
+            return;
+        }
+        lastOutboundSizing = now;
+        HandoffQueue<CrawlURI> handoff = (HandoffQueue<CrawlURI>) outbound;
+        int target = targetOutboundCapacity();
+        if (handoff.getCapacity() != target) {
+            handoff.setCapacity(target);
+        }
+    }
+
+    /**
+     * Hold all ToeThreads from taking outbound URIs.
+     */
+    protected void holdOutbound() {
+        outboundHeld = true;
+    }
+
+    /**
+     * Let ToeThreads take outbound URIs again.
+     */
+    protected void releaseOutbound() {
+        if (outboundHeld) {
+            synchronized (outboundGate) {
+                outboundHeld = false;
+                outboundGate.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return total time ToeThreads have waited in next(), for a hold
+     * to lift or a URI to become available, in ms
+     */
+    public long getToeWaitMs() {
+        return TimeUnit.NANOSECONDS.toMillis(toeWaitNanos.get());
+    }
+
+    /**
+     * @return total time the manager thread has waited while running,
+     * for inbound events or outbound room, in ms
+     */
+    public long getManagerWaitMs() {
+        return TimeUnit.NANOSECONDS.toMillis(managerWaitNanos.get());
+    }
+
     /**
      * The given state has been reached; if it is a new state, generate
      * a notification to the CrawlController. 
@@ -512,10 +653,26 @@ public abstract class AbstractFrontier
      * @see org.archive.crawler.framework.Frontier#next()
      */
     public CrawlURI next() throws InterruptedException {
+        boolean timed = nextLatency.isSampled(getLatencySampleInterval());
+        long start = timed ? System.nanoTime() : 0;
+        CrawlURI retval = nextOutbound();
+        if (timed) {
+            nextLatency.recordSince(start);
+        }
+        return retval;
+    }
+    
+    protected CrawlURI nextOutbound() throws InterruptedException {
+        long start = 0;
         // perhaps hold without taking ready outbound items
-        outboundLock.readLock().lockInterruptibly();
-        outboundLock.readLock().unlock();
-        
+        if (outboundHeld) {
+            start = System.nanoTime();
+            synchronized (outboundGate) {
+                while (outboundHeld) {
+                    outboundGate.wait();
+                }
+            }
+        }
         
         CrawlURI retval = outbound.poll();
         while(retval==null) {
@@ -527,9 +684,15 @@ public abstract class AbstractFrontier
             } else {
                 // or if nothing ready, wait for other threads to fill for us
                 // (no busy spin) 
+                if (start == 0) {
+                    start = System.nanoTime();
+                }
                 retval = outbound.take();
             } 
         }
+        if (start != 0) {
+            toeWaitNanos.addAndGet(System.nanoTime() - start);
+        }
         
 //      // TODO: consider if following necessary for maintaining throughput
 //        if(outbound.size()<=1) {
@@ -644,14 +807,25 @@ public abstract class AbstractFrontier
      * @see org.archive.crawler.framework.Frontier#finished(org.archive.modules.CrawlURI)
      */
     public void finished(CrawlURI curi) {
-        enqueueOrDo(new Finish(curi));
+        if (finishedLatency.isSampled(getLatencySampleInterval())) {
+            long start = System.nanoTime();
+            enqueueOrDo(new Finish(curi));
+            finishedLatency.recordSince(start);
+        } else {
+            enqueueOrDo(new Finish(curi));
+        }
     }
     
     private void initJournal(String logsDisk) throws IOException {
         if (logsDisk != null) {
             String logsPath = logsDisk + File.separatorChar;
-            this.recover = new FrontierJournal(logsPath,
-                    FrontierJournal.LOGNAME_RECOVER);
+            if (getBinaryRecoveryLog()) {
+                this.recover = new BinaryFrontierJournal(logsPath,
+                        BinaryFrontierJournal.LOGNAME_RECOVER_BINARY);
+            } else {
+                this.recover = new FrontierJournal(logsPath,
+                        FrontierJournal.LOGNAME_RECOVER);
+            }
         }
     }
 
@@ -960,7 +1134,8 @@ public abstract class AbstractFrontier
      * Only imports URIs if their first tag field matches the acceptTags 
      * pattern.
      * 
-     * @param source File recovery log file to use (may be .gz compressed)
+     * @param source File recovery log file to use (may be .gz compressed,
+     * or a binary recovery log)
      * @param applyScope whether to apply crawl scope to URIs
      * @param includeOnly whether to only add to included filter, not schedule
      * @param forceFetch whether to force fetching, even if already seen 
@@ -973,6 +1148,10 @@ public abstract class AbstractFrontier
     public long importRecoverFormat(File source, boolean applyScope, 
             boolean includeOnly, boolean forceFetch, String acceptTags) 
     throws IOException {
+        if (BinaryFrontierJournal.isBinaryJournal(source)) {
+            return importBinaryRecoverFormat(source, applyScope, includeOnly,
+                    forceFetch, acceptTags);
+        }
         DecideRule scope = (applyScope) ? getScope() : null;
         FrontierJournal newJournal = getFrontierJournal();
         Matcher m = Pattern.compile(acceptTags).matcher(""); 
@@ -1031,6 +1210,68 @@ public abstract class AbstractFrontier
         return lineCount;
     }
     
+    /**
+     * As {@link #importRecoverFormat(File, boolean, boolean, boolean, String)},
+     * for a binary recovery log: records are matched by their text-log tag.
+     */
+    protected long importBinaryRecoverFormat(File source, boolean applyScope, 
+            boolean includeOnly, boolean forceFetch, String acceptTags) 
+    throws IOException {
+        DecideRule scope = (applyScope) ? getScope() : null;
+        FrontierJournal newJournal = getFrontierJournal();
+        Matcher m = Pattern.compile(acceptTags).matcher(""); 
+        BinaryFrontierJournal.Reader reader = 
+            new BinaryFrontierJournal.Reader(source);
+        long recordCount = 0;
+        try {
+            for (BinaryFrontierJournal.BlockInfo block : reader.getBlocks()) {
+                for (BinaryFrontierJournal.Record record : reader.read(block)) {
+                    recordCount++;
+                    if (record.getTag() == null 
+                            || !m.reset(record.getTag()).matches()) {
+                        continue;
+                    }
+                    try {
+                        CrawlURI curi = record.toCrawlURI();
+                        if(scope!=null) {
+                            sheetOverlaysManager.applyOverlaysTo(curi);
+                            try {
+                                KeyedProperties.loadOverridesFrom(curi);
+                                if(!scope.accepts(curi)) {
+                                    // skip out-of-scope URIs if so configured
+                                    continue;
+                                }
+                            } finally {
+                                KeyedProperties.clearOverridesFrom(curi); 
+                            }
+                        }
+                        if(includeOnly) {
+                            considerIncluded(curi);
+                            newJournal.included(curi);
+                        } else {
+                            curi.setForceFetch(forceFetch);
+                            schedule(curi);
+                            newJournal.added(curi);
+                        }
+                    } catch (URIException e) {
+                        logger.log(Level.WARNING,"Problem record: "
+                                + record.toTextLine(), e);
+                    }
+                }
+                if((recordCount/PROGRESS_INTERVAL) != 
+                        (recordCount-block.getRecords())/PROGRESS_INTERVAL) {
+                    logger.info(
+                            "at record " + recordCount + (includeOnly?" (include-only)":"")
+                            + " alreadyIncluded count = " +
+                            discoveredUriCount());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return recordCount;
+    }
+    
     /* (non-Javadoc)
      * @see org.archive.crawler.framework.Frontier#importURIs(java.util.Map)
      */
@@ -19,9 +19,6 @@
 package org.archive.crawler.frontier;
 
 import java.util.Queue;
-import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.concurrent.DelayQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,6 +34,7 @@ import org.archive.checkpointing.Checkpointable;
 import org.archive.modules.CrawlURI;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.Supplier;
+import org.archive.util.TimingWheel;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.springframework.beans.factory.BeanNameAware;
@@ -60,9 +58,9 @@ implements Checkpointable, BeanNameAware {
 
     /** 
      * All 'inactive' queues, not yet in active rotation.
-     * Linked-list of keys for the queues.
+     * Linked-lists of keys for the queues, by precedence.
      */
-    protected SortedMap<Integer,Queue<String>> inactiveQueuesByPrecedence;
+    protected InactiveQueues inactiveQueues;
 
     /**
      * 'retired' queues, no longer considered for activation.
@@ -93,11 +91,11 @@ implements Checkpointable, BeanNameAware {
     }
 
     /* (non-Javadoc)
-     * @see org.archive.crawler.frontier.WorkQueueFrontier#getInactiveQueuesByPrecedence()
+     * @see org.archive.crawler.frontier.WorkQueueFrontier#getInactiveQueues()
      */
     @Override
-    SortedMap<Integer, Queue<String>> getInactiveQueuesByPrecedence() {
-        return inactiveQueuesByPrecedence;
+    InactiveQueues getInactiveQueues() {
+        return inactiveQueues;
     }
 
     /* (non-Javadoc)
@@ -227,6 +225,8 @@ implements Checkpointable, BeanNameAware {
         // An explicit sync on the any deferred write dbs is needed to make the
         // db recoverable. Sync'ing the environment doesn't work.
         this.pendingUris.sync();
+        // future URIs held in memory are otherwise lost on recovery
+        futureUriWheel.spillAll();
         // object caches will be sync()d by BdbModule
         
         JSONObject json = new JSONObject();
@@ -287,7 +287,7 @@ implements Checkpointable, BeanNameAware {
             // restore WorkQueues to internal management queues
             for (String key : allQueues.keySet()) {
                 WorkQueue q = allQueues.get(key);
-                q.getOnInactiveQueues().clear();
+                q.clearOnInactiveQueues();
                 if(q.isRetired()) {
                     getRetiredQueues().add(key); 
                 } else {
@@ -303,18 +303,21 @@ implements Checkpointable, BeanNameAware {
         // readyClassQueues may grow in size without bound
         readyClassQueues = new LinkedBlockingQueue<String>();
 
-        inactiveQueuesByPrecedence = new TreeMap<Integer,Queue<String>>();
+        inactiveQueues = new InactiveQueues(this);
         
         retiredQueues = bdb.getStoredQueue("retiredQueues", String.class, false);
 
-        // primary snoozed queues
-        snoozedClassQueues = new DelayQueue<DelayedWorkQueue>();
-        // just in case: overflow for extreme situations
+        // snoozed queues: near-term in memory, overflow on disk
         snoozedOverflow = bdb.getStoredMap(
                 "snoozedOverflow", Long.class, DelayedWorkQueue.class, true, false);
+        snoozedClassQueues = new TimingWheel<DelayedWorkQueue>(
+                SNOOZE_TICK_MS, 2, snoozedOverflow, MAX_SNOOZED_IN_MEMORY);
             
+        // future URIs likewise; all on disk as of any checkpoint
         this.futureUris = bdb.getStoredMap(
                 "futureUris", Long.class, CrawlURI.class, true, recoveryCheckpoint!=null);
+        futureUriWheel = new TimingWheel<CrawlURI>(
+                FUTURE_URI_TICK_MS, 2, futureUris, MAX_FUTURE_URIS_IN_MEMORY);
         
         // initialize master map in which other queues live
         this.pendingUris = createMultipleWorkQueues();
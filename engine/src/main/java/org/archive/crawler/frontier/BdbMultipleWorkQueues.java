@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -319,6 +320,42 @@ public class BdbMultipleWorkQueues {
     }
 
 
+    /**
+     * Get the item following the given (already gotten) item, within the
+     * queue beginning at the given origin key. 
+     * 
+     * @param origin key prefix of the queue
+     * @param previous item gotten earlier from the same queue
+     * @return following CrawlURI, or null if none
+     * @throws DatabaseException
+     */
+    public CrawlURI getAfter(byte[] origin, CrawlURI previous)
+    throws DatabaseException {
+        byte[] previousKey = ((DatabaseEntry)previous.getHolderKey()).getData();
+        DatabaseEntry key = new DatabaseEntry(previousKey.clone());
+        DatabaseEntry result = new DatabaseEntry();
+        Cursor cursor = null;
+        try {
+            cursor = this.pendingUrisDB.openCursor(null, null);
+            OperationStatus status = cursor.getSearchKeyRange(key, result, null);
+            if (status == OperationStatus.SUCCESS
+                    && Arrays.equals(key.getData(), previousKey)) {
+                status = cursor.getNext(key, result, null);
+            }
+            if (status != OperationStatus.SUCCESS
+                    || !ArchiveUtils.startsWith(key.getData(), origin)) {
+                return null;
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        CrawlURI curi = (CrawlURI) crawlUriBinding.entryToObject(result);
+        curi.setHolderKey(key);
+        return curi;
+    }
+
     /**
      * Put the given CrawlURI in at the appropriate place. 
      * 
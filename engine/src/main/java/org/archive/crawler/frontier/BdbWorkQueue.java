@@ -91,6 +91,17 @@ implements Serializable {
         }
     }
 
+    @Override
+    protected CrawlURI peekItemAfter(final WorkQueueFrontier frontier,
+            CrawlURI previous) throws IOException {
+        try {
+            return ((BdbFrontier) frontier).getWorkQueues().getAfter(
+                    origin, previous);
+        } catch (DatabaseException e) {
+            throw new IOException(e);
+        }
+    }
+
     protected CrawlURI peekItem(final WorkQueueFrontier frontier)
     throws IOException {
         final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
@@ -0,0 +1,955 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import it.unimi.dsi.mg4j.util.MutableString;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.checkpointing.Checkpoint;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.FileUtils;
+
+/**
+ * FrontierJournal writing a compact binary format, in place of gzipped
+ * text lines.
+ *
+ * Each event becomes a record, numbered by a journal-wide sequence
+ * number. Logging threads encode their records without holding any
+ * lock, then only briefly lock to copy them into the current block;
+ * full blocks (and, after a quiet interval, partial ones) are compressed
+ * and written by a separate writer thread.
+ *
+ * File format: int FILE_MAGIC, int FORMAT_VERSION, then blocks, each:
+ * int BLOCK_MAGIC, long sequence number of first record, int record
+ * count, long timestamp (ms), int raw length, int stored length, int
+ * CRC32 of stored bytes, then the stored bytes: the records, deflated
+ * (or raw, if stored length equals raw length). Each record is a type
+ * byte then the URI, and for adds, successes and failures also the
+ * path-from-seed and via; each string a varint char count then chars,
+ * packed as 1-3 bytes each.
+ *
+ * Blocks are self-contained, so readers may decode them in parallel
+ * (see {@link FrontierJournalImporter}); a truncated or corrupt final
+ * block, as after a crash, ends the journal. Journals may be exported
+ * to the text format with
+ * {@link org.archive.crawler.util.FrontierJournalExport}.
+ */
+public class BinaryFrontierJournal extends FrontierJournal {
+    private static final Logger LOGGER = Logger.getLogger(
+            BinaryFrontierJournal.class.getName());
+
+    public static final String LOGNAME_RECOVER_BINARY = "frontier.recover.bin";
+
+    public static final int FILE_MAGIC = 0x48464a00; // "HFJ\0"
+    public static final int FORMAT_VERSION = 1;
+    public static final int BLOCK_MAGIC = 0x424c4b21; // "BLK!"
+    protected static final int FILE_HEADER_BYTES = 8;
+    protected static final int BLOCK_HEADER_BYTES = 36;
+
+    /** record types, indexing TAGS */
+    public static final byte ADD = 0;
+    public static final byte EMIT = 1;
+    public static final byte INCLUDE = 2;
+    public static final byte DISREGARD = 3;
+    public static final byte REENQUEUED = 4;
+    public static final byte SUCCESS = 5;
+    public static final byte FAILURE = 6;
+    /** any other line, kept verbatim */
+    public static final byte TEXT = 7;
+
+    /** text-journal tags of the record types */
+    protected static final String[] TAGS = {F_ADD, F_EMIT, F_INCLUDE,
+        F_DISREGARD, F_REENQUEUED, F_SUCCESS, F_FAILURE};
+
+    public static final int DEFAULT_BLOCK_BYTES = 256 * 1024;
+
+    /** blocks awaiting the writer before loggers wait */
+    protected static final int PENDING_BLOCKS = 4;
+
+    /** marks end of blocks to the writer thread */
+    protected static final Block CLOSE = new Block(0, -1);
+
+    /**
+     * A block of encoded records.
+     */
+    protected static class Block {
+        byte[] bytes;
+        int length = 0;
+        final long firstSeq;
+        int records = 0;
+        final long started = System.currentTimeMillis();
+
+        Block(int capacity, long firstSeq) {
+            this.bytes = new byte[capacity];
+            this.firstSeq = firstSeq;
+        }
+
+        void append(RecordEncoder record) {
+            if (length + record.length > bytes.length) {
+                // single record larger than a block
+                byte[] grown = new byte[length + record.length];
+                System.arraycopy(bytes, 0, grown, 0, length);
+                bytes = grown;
+            }
+            System.arraycopy(record.bytes, 0, bytes, length, record.length);
+            length += record.length;
+            records++;
+        }
+    }
+
+    /**
+     * Per-thread reusable buffer for encoding one record.
+     */
+    protected static class RecordEncoder {
+        byte[] bytes = new byte[1024];
+        int length;
+
+        void reset(byte type) {
+            length = 0;
+            ensure(1);
+            bytes[length++] = type;
+        }
+
+        void writeString(CharSequence s) {
+            int chars = s.length();
+            ensure(5 + chars * 3);
+            // varint char count
+            int v = chars;
+            while ((v & ~0x7f) != 0) {
+                bytes[length++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            bytes[length++] = (byte) v;
+            for (int i = 0; i < chars; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    bytes[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[length++] = (byte) (0xc0 | (c >> 6));
+                    bytes[length++] = (byte) (0x80 | (c & 0x3f));
+                } else {
+                    bytes[length++] = (byte) (0xe0 | (c >> 12));
+                    bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    bytes[length++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        void ensure(int more) {
+            if (length + more > bytes.length) {
+                byte[] grown = new byte[Math.max(bytes.length * 2,
+                        length + more)];
+                System.arraycopy(bytes, 0, grown, 0, length);
+                bytes = grown;
+            }
+        }
+    }
+
+    protected ThreadLocal<RecordEncoder> encoders =
+        new ThreadLocal<RecordEncoder>() {
+        protected RecordEncoder initialValue() {
+            return new RecordEncoder();
+        }
+    };
+
+    protected int blockBytes;
+    protected long flushIntervalMs = 1000;
+
+    /** guards current block and sequence numbering */
+    protected final ReentrantLock blockLock = new ReentrantLock();
+    protected Block current;
+    /** sequence number of next record */
+    protected long nextSeq = 0;
+    protected volatile boolean closed = true;
+
+    protected BlockingQueue<Block> pending;
+    /** guards written, for waiting flushers */
+    protected final Object writtenLock = new Object();
+    /** all records before this sequence number are written */
+    protected long written = 0;
+    /**
+     * first failure writing to the current file, after which no further
+     * blocks are written to it, nor is written advanced
+     */
+    protected volatile IOException writeFailure;
+    protected Thread writer;
+    /** written only by writer thread while running */
+    protected DataOutputStream stream;
+    protected Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    protected byte[] deflated = new byte[0];
+
+    /**
+     * Create a new binary recovery journal at the given location
+     *
+     * @param path Directory to make the recovery journal in.
+     * @param filename Name to use for recovery journal file.
+     * @throws IOException
+     */
+    public BinaryFrontierJournal(String path, String filename)
+    throws IOException {
+        this(path, filename, DEFAULT_BLOCK_BYTES);
+    }
+
+    /**
+     * Create a new binary recovery journal at the given location
+     *
+     * @param path Directory to make the recovery journal in.
+     * @param filename Name to use for recovery journal file.
+     * @param blockBytes Size of blocks of records written together
+     * @throws IOException
+     */
+    public BinaryFrontierJournal(String path, String filename, int blockBytes)
+    throws IOException {
+        super(path, filename);
+        this.blockBytes = blockBytes;
+        open();
+    }
+
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+    /**
+     * @param flushIntervalMs longest a partial block of records may wait
+     * to be written
+     */
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /**
+     * The superclass's text writer is not used; only move aside any
+     * existing file.
+     */
+    @Override
+    protected Writer initialize(File f) throws IOException {
+        FileUtils.moveAsideIfExists(f);
+        return null;
+    }
+
+    protected void open() throws IOException {
+        stream = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(gzipFile), 64 * 1024));
+        stream.writeInt(FILE_MAGIC);
+        stream.writeInt(FORMAT_VERSION);
+        stream.flush();
+        pending = new ArrayBlockingQueue<Block>(PENDING_BLOCKS);
+        blockLock.lock();
+        try {
+            current = new Block(blockBytes, nextSeq);
+            closed = false;
+        } finally {
+            blockLock.unlock();
+        }
+        writer = new Thread("BinaryFrontierJournal " + gzipFile.getName()) {
+            public void run() {
+                writeLoop();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void added(CrawlURI curi) {
+        record(ADD, curi);
+    }
+
+    @Override
+    public void finishedSuccess(CrawlURI curi) {
+        record(SUCCESS, curi);
+    }
+
+    @Override
+    public void finishedFailure(CrawlURI curi) {
+        record(FAILURE, curi);
+    }
+
+    @Override
+    public void emitted(CrawlURI curi) {
+        record(EMIT, curi);
+    }
+
+    @Override
+    public void included(CrawlURI curi) {
+        record(INCLUDE, curi);
+    }
+
+    @Override
+    public void finishedDisregard(CrawlURI curi) {
+        record(DISREGARD, curi);
+    }
+
+    @Override
+    public void reenqueued(CrawlURI curi) {
+        record(REENQUEUED, curi);
+    }
+
+    @Override
+    public void writeLongUriLine(String tag, CrawlURI curi) {
+        byte type = typeOf(tag);
+        if (type == TEXT) {
+            super.writeLongUriLine(tag, curi);
+            return;
+        }
+        record(type, curi);
+    }
+
+    @Override
+    public void writeLine(String... strs) {
+        StringBuilder line = new StringBuilder();
+        for (String s : strs) {
+            line.append(s);
+        }
+        recordLine(line.toString());
+    }
+
+    @Override
+    public void writeLine(MutableString mstring) {
+        recordLine(mstring.toString());
+    }
+
+    /**
+     * Record a line of the text journal format: as the equivalent typed
+     * record if it has a known tag, otherwise as text.
+     */
+    protected void recordLine(String line) {
+        byte type = line.length() > 3 ? typeOf(line.substring(0, 3)) : TEXT;
+        RecordEncoder record = encoders.get();
+        record.reset(type);
+        if (type == TEXT) {
+            record.writeString(line);
+        } else {
+            String[] fields = line.substring(3).trim().split("\\s+");
+            record.writeString(fields[0]);
+            if (hasContext(type)) {
+                record.writeString(fields.length > 1 ? fields[1] : "");
+                record.writeString(fields.length > 2 ? fields[2] : "");
+            }
+        }
+        append(record);
+    }
+
+    protected void record(byte type, CrawlURI curi) {
+        RecordEncoder record = encoders.get();
+        record.reset(type);
+        record.writeString(curi.getURI());
+        if (hasContext(type)) {
+            record.writeString(curi.getPathFromSeed());
+            record.writeString(curi.flattenVia());
+        }
+        append(record);
+    }
+
+    /**
+     * @return record type for the given text-journal tag; TEXT if none
+     */
+    protected static byte typeOf(String tag) {
+        for (byte type = 0; type < TAGS.length; type++) {
+            if (TAGS[type].equals(tag)) {
+                return type;
+            }
+        }
+        return TEXT;
+    }
+
+    /**
+     * @return whether records of the given type carry path-from-seed and
+     * via, as well as the URI
+     */
+    protected static boolean hasContext(byte type) {
+        return type == ADD || type == SUCCESS || type == FAILURE;
+    }
+
+    protected void append(RecordEncoder record) {
+        blockLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (current.records > 0
+                    && current.length + record.length > current.bytes.length) {
+                seal(true);
+            }
+            current.append(record);
+            nextSeq++;
+        } finally {
+            blockLock.unlock();
+        }
+    }
+
+    /**
+     * Pass the current block, if not empty, to the writer, and start a new
+     * one. Caller must hold blockLock.
+     *
+     * @param wait whether to wait for room among pending blocks; if
+     * false, and there is none, the block is left current
+     * @return whether the block was passed to the writer
+     */
+    protected boolean seal(boolean wait) {
+        if (current.records == 0) {
+            return true;
+        }
+        if (wait) {
+            try {
+                pending.put(current);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.warning("interrupted; journal records in block "
+                        + current.firstSeq + " not written");
+            }
+        } else if (!pending.offer(current)) {
+            return false;
+        }
+        current = new Block(blockBytes, nextSeq);
+        return true;
+    }
+
+    /**
+     * Write all records logged before this call, waiting until done.
+     *
+     * @throws IOException if records could not be written to the file
+     */
+    public void flush() throws IOException {
+        long target;
+        blockLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            target = nextSeq;
+            seal(true);
+        } finally {
+            blockLock.unlock();
+        }
+        synchronized (writtenLock) {
+            while (written < target && writer.isAlive()
+                    && writeFailure == null) {
+                try {
+                    writtenLock.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        checkWritten(writeFailure);
+    }
+
+    /**
+     * @param failure failure writing the file, or null
+     * @throws IOException reporting the failure, if any
+     */
+    protected static void checkWritten(IOException failure)
+    throws IOException {
+        if (failure != null) {
+            IOException e = new IOException(
+                    "journal records not written: " + failure.getMessage());
+            e.initCause(failure);
+            throw e;
+        }
+    }
+
+    /**
+     * Writer thread: write blocks as they are sealed, and seal a partial
+     * block when no full one has arrived within flushIntervalMs.
+     */
+    protected void writeLoop() {
+        while (true) {
+            Block block;
+            try {
+                block = pending.poll(Math.max(flushIntervalMs, 1),
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (block == CLOSE) {
+                return;
+            }
+            if (block == null) {
+                // never wait for the lock, or for room in pending: a
+                // logger may hold the lock waiting for this thread
+                if (blockLock.tryLock()) {
+                    try {
+                        if (System.currentTimeMillis() - current.started
+                                >= flushIntervalMs) {
+                            seal(false);
+                        }
+                    } finally {
+                        blockLock.unlock();
+                    }
+                }
+                continue;
+            }
+            if (writeFailure == null) {
+                try {
+                    writeBlock(block);
+                } catch (IOException e) {
+                    // later blocks, if written, would follow a gap
+                    LOGGER.log(Level.SEVERE, "problem writing journal block "
+                            + block.firstSeq + "; no later blocks will be "
+                            + "written to " + gzipFile, e);
+                    writeFailure = e;
+                }
+            }
+            synchronized (writtenLock) {
+                if (writeFailure == null) {
+                    written = block.firstSeq + block.records;
+                }
+                writtenLock.notifyAll();
+            }
+        }
+    }
+
+    protected void writeBlock(Block block) throws IOException {
+        deflater.reset();
+        deflater.setInput(block.bytes, 0, block.length);
+        deflater.finish();
+        if (deflated.length < block.length) {
+            deflated = new byte[block.length];
+        }
+        int storedLength = 0;
+        while (!deflater.finished() && storedLength < block.length) {
+            storedLength += deflater.deflate(deflated, storedLength,
+                    block.length - storedLength);
+        }
+        byte[] stored = deflated;
+        if (!deflater.finished() || storedLength >= block.length) {
+            // incompressible: store raw
+            stored = block.bytes;
+            storedLength = block.length;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(stored, 0, storedLength);
+        stream.writeInt(BLOCK_MAGIC);
+        stream.writeLong(block.firstSeq);
+        stream.writeInt(block.records);
+        stream.writeLong(block.started);
+        stream.writeInt(block.length);
+        stream.writeInt(storedLength);
+        stream.writeInt((int) crc.getValue());
+        stream.write(stored, 0, storedLength);
+        stream.flush();
+    }
+
+    /**
+     * Write all records, and close the file. Records logged afterward are
+     * ignored. Any failure to write records is logged, as close() may not
+     * throw; see {@link #getWriteFailure()}.
+     */
+    @Override
+    public void close() {
+        blockLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            seal(true);
+            closed = true;
+        } finally {
+            blockLock.unlock();
+        }
+        stopWriter();
+        if (writeFailure != null) {
+            LOGGER.log(Level.SEVERE, "closed journal " + gzipFile
+                    + " lacks records from sequence number " + written
+                    + " on", writeFailure);
+        }
+    }
+
+    /**
+     * @return first failure writing the current file, or null if none
+     */
+    public IOException getWriteFailure() {
+        return writeFailure;
+    }
+
+    /**
+     * Have the writer thread write all blocks passed to it, then end;
+     * and close the file.
+     */
+    protected void stopWriter() {
+        try {
+            pending.put(CLOSE);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "problem closing journal", e);
+        }
+    }
+
+    /**
+     * Handle a checkpoint by rotating the current journal to a
+     * checkpoint-named file and starting a new one. Sequence numbers
+     * continue across files. Records logged meanwhile wait for the new
+     * file, rather than being ignored as after close().
+     *
+     * @throws IOException if records could not be written to the rotated
+     * file (the new file is opened regardless)
+     */
+    @Override
+    public synchronized void rotateForCheckpoint(
+            Checkpoint checkpointInProgress) throws IOException {
+        blockLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            seal(true);
+            // the writer never waits for blockLock, so may finish while
+            // it is held
+            stopWriter();
+            File newName = new File(this.gzipFile.getParentFile(),
+                    this.gzipFile.getName() + "."
+                    + checkpointInProgress.getShortName());
+            FileUtils.moveAsideIfExists(newName);
+            this.gzipFile.renameTo(newName);
+            IOException failure = writeFailure;
+            writeFailure = null;
+            boolean opened = false;
+            try {
+                open();
+                opened = true;
+            } finally {
+                if (!opened) {
+                    // no writer: ignore further records, as if closed
+                    closed = true;
+                }
+            }
+            checkWritten(failure);
+        } finally {
+            blockLock.unlock();
+        }
+    }
+
+    /**
+     * @param file
+     * @return whether the file begins as a binary frontier journal
+     * @throws IOException
+     */
+    public static boolean isBinaryJournal(File file) throws IOException {
+        if (file.length() < FILE_HEADER_BYTES) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == FILE_MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Location and summary of one block in a journal file.
+     */
+    public static class BlockInfo {
+        long offset;
+        long firstSeq;
+        int records;
+        long timestamp;
+        int rawLength;
+        int storedLength;
+        int crc;
+
+        public long getFirstSeq() {
+            return firstSeq;
+        }
+        public int getRecords() {
+            return records;
+        }
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    /**
+     * One decoded journal record.
+     */
+    public static class Record {
+        byte type;
+        long seq;
+        String uri;
+        String pathFromSeed = "";
+        String via = "";
+
+        public byte getType() {
+            return type;
+        }
+        public long getSeq() {
+            return seq;
+        }
+        /** @return URI, or the whole line for TEXT records */
+        public String getUri() {
+            return uri;
+        }
+        public String getPathFromSeed() {
+            return pathFromSeed;
+        }
+        public String getVia() {
+            return via;
+        }
+
+        /**
+         * @return 3-character text-journal tag, or null for TEXT records
+         */
+        public String getTag() {
+            return type == TEXT ? null : TAGS[type];
+        }
+
+        /**
+         * @return line as written to a text journal
+         */
+        public String toTextLine() {
+            if (type == TEXT) {
+                return uri;
+            }
+            if (hasContext(type)) {
+                return TAGS[type] + uri + " " + pathFromSeed + " " + via;
+            }
+            return TAGS[type] + uri;
+        }
+
+        public CrawlURI toCrawlURI() throws URIException {
+            UURI u = UURIFactory.getInstance(uri);
+            UURI viaUuri = via.length() > 1
+                ? UURIFactory.getInstance(via) : null;
+            return new CrawlURI(u, pathFromSeed, viaUuri, null);
+        }
+    }
+
+    /**
+     * Reader of a binary journal's blocks. Blocks may be read by several
+     * threads at once.
+     */
+    public static class Reader implements Closeable {
+        protected File file;
+        protected RandomAccessFile raf;
+        protected FileChannel channel;
+        protected List<BlockInfo> blocks;
+
+        public Reader(File file) throws IOException {
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "r");
+            this.channel = raf.getChannel();
+        }
+
+        /**
+         * Scan block headers, without reading block contents.
+         *
+         * @return blocks of the journal, in order
+         * @throws IOException
+         */
+        public synchronized List<BlockInfo> getBlocks() throws IOException {
+            if (blocks != null) {
+                return blocks;
+            }
+            blocks = new ArrayList<BlockInfo>();
+            long length = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+            readFully(header, 0, FILE_HEADER_BYTES);
+            if (header.getInt(0) != FILE_MAGIC) {
+                throw new IOException("not a binary frontier journal: "
+                        + file);
+            }
+            if (header.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("unsupported journal version "
+                        + header.getInt(4) + ": " + file);
+            }
+            long offset = FILE_HEADER_BYTES;
+            while (offset + BLOCK_HEADER_BYTES <= length) {
+                readFully(header, offset, BLOCK_HEADER_BYTES);
+                BlockInfo info = new BlockInfo();
+                info.offset = offset;
+                int magic = header.getInt();
+                info.firstSeq = header.getLong();
+                info.records = header.getInt();
+                info.timestamp = header.getLong();
+                info.rawLength = header.getInt();
+                info.storedLength = header.getInt();
+                info.crc = header.getInt();
+                if (magic != BLOCK_MAGIC || info.storedLength < 0
+                        || info.rawLength < info.storedLength
+                        || offset + BLOCK_HEADER_BYTES + info.storedLength
+                            > length) {
+                    break;
+                }
+                blocks.add(info);
+                offset += BLOCK_HEADER_BYTES + info.storedLength;
+            }
+            if (offset < length) {
+                LOGGER.warning("ignoring " + (length - offset)
+                        + " bytes of incomplete block at end of " + file);
+            }
+            return blocks;
+        }
+
+        protected void readFully(ByteBuffer buffer, long position, int length)
+        throws IOException {
+            buffer.clear();
+            buffer.limit(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("unexpected end of " + file);
+                }
+            }
+            buffer.flip();
+        }
+
+        /**
+         * Read and decode one block.
+         *
+         * @param info block to read
+         * @return block's records, in order
+         * @throws IOException if the block is corrupt
+         */
+        public List<Record> read(BlockInfo info) throws IOException {
+            ByteBuffer stored = ByteBuffer.allocate(info.storedLength);
+            readFully(stored, info.offset + BLOCK_HEADER_BYTES,
+                    info.storedLength);
+            CRC32 crc = new CRC32();
+            crc.update(stored.array(), 0, info.storedLength);
+            if ((int) crc.getValue() != info.crc) {
+                throw new IOException("bad checksum in block "
+                        + info.firstSeq + " of " + file);
+            }
+            byte[] raw = stored.array();
+            if (info.storedLength != info.rawLength) {
+                raw = new byte[info.rawLength];
+                Inflater inflater = new Inflater(true);
+                try {
+                    // extra byte needed by inflater for 'nowrap' data
+                    byte[] input = new byte[info.storedLength + 1];
+                    System.arraycopy(stored.array(), 0, input, 0,
+                            info.storedLength);
+                    inflater.setInput(input);
+                    int n = 0;
+                    while (n < raw.length && !inflater.finished()) {
+                        int inflated = inflater.inflate(raw, n, raw.length - n);
+                        if (inflated == 0 && inflater.needsInput()) {
+                            break;
+                        }
+                        n += inflated;
+                    }
+                    if (n != raw.length) {
+                        throw new IOException("short block " + info.firstSeq
+                                + " of " + file);
+                    }
+                } catch (DataFormatException e) {
+                    IOException ioe = new IOException("bad block "
+                            + info.firstSeq + " of " + file);
+                    ioe.initCause(e);
+                    throw ioe;
+                } finally {
+                    inflater.end();
+                }
+            }
+            return decode(raw, info);
+        }
+
+        protected List<Record> decode(byte[] raw, BlockInfo info)
+        throws IOException {
+            List<Record> records = new ArrayList<Record>(info.records);
+            int[] pos = new int[1];
+            try {
+                for (int i = 0; i < info.records; i++) {
+                    Record record = new Record();
+                    record.seq = info.firstSeq + i;
+                    record.type = raw[pos[0]++];
+                    if (record.type < 0 || record.type > TEXT) {
+                        throw new IOException("bad record type "
+                                + record.type + " at " + record.seq);
+                    }
+                    record.uri = readString(raw, pos);
+                    if (hasContext(record.type)) {
+                        record.pathFromSeed = readString(raw, pos);
+                        record.via = readString(raw, pos);
+                    }
+                    records.add(record);
+                }
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new IOException("truncated record in block "
+                        + info.firstSeq + " of " + file);
+            }
+            return records;
+        }
+
+        protected static String readString(byte[] raw, int[] pos) {
+            int p = pos[0];
+            int chars = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = raw[p++];
+                chars |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            char[] decoded = new char[chars];
+            for (int i = 0; i < chars; i++) {
+                int c = raw[p++] & 0xff;
+                if (c < 0x80) {
+                    decoded[i] = (char) c;
+                } else if (c < 0xe0) {
+                    decoded[i] = (char) (((c & 0x1f) << 6) | (raw[p++] & 0x3f));
+                } else {
+                    int c2 = raw[p++] & 0x3f;
+                    decoded[i] = (char) (((c & 0x0f) << 12) | (c2 << 6)
+                            | (raw[p++] & 0x3f));
+                }
+            }
+            pos[0] = p;
+            return new String(decoded);
+        }
+
+        public void close() {
+            ArchiveUtils.closeQuietly(raf);
+        }
+    }
+}
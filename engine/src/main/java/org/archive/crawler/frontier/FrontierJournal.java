@@ -124,7 +124,8 @@ public class FrontierJournal extends CrawlerJournal {
     
     /**
      * Utility method for scanning a recovery journal and applying it to
-     * a Frontier.
+     * a Frontier. Binary journals are passed to a
+     * {@link FrontierJournalImporter}.
      * 
      * @param params JSONObject of import parameters; see Frontier.importURIS()
      * @param controller CrawlController of crawl to update
@@ -139,6 +140,10 @@ public class FrontierJournal extends CrawlerJournal {
             throw new IllegalArgumentException("Passed source file is null.");
         }
         final File source = new File(path);
+        if (BinaryFrontierJournal.isBinaryJournal(source)) {
+            FrontierJournalImporter.importRecoverLog(source, params, frontier);
+            return;
+        }
         LOGGER.info("recovering frontier completion state from "+source);
         
         // first, fill alreadyIncluded with successes (and possibly failures),
@@ -0,0 +1,502 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.crawler.frontier.BinaryFrontierJournal.BlockInfo;
+import org.archive.crawler.frontier.BinaryFrontierJournal.Record;
+import org.archive.crawler.framework.Frontier;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.DecideRule;
+import org.json.JSONObject;
+
+import st.ata.util.FPGenerator;
+
+/**
+ * Replays a {@link BinaryFrontierJournal} into a Frontier, with the same
+ * options and effect as the text journal import of
+ * {@link FrontierJournal#importRecoverLog(JSONObject, Frontier)}, but
+ * using several threads.
+ *
+ * The journal's blocks are split into contiguous partitions, one per
+ * thread. First, each thread fingerprints the URIs of the records of
+ * interest in its partition, noting the first sequence number at which
+ * each URI is to be considered included, or scheduled; the per-partition
+ * results are merged. Then the threads together load the included URIs
+ * into the frontier (and so its UriUniqFilter), after which URIs
+ * actually considered included (not rejected by scope) are dropped from
+ * those to be scheduled. Finally, a
+ * background thread schedules the remaining URIs, in journal order, from
+ * blocks decoded ahead by the other threads; as with the text import,
+ * crawling may begin once enough URIs are queued.
+ *
+ * Fingerprints are of URIs as journaled, not canonicalized, so this
+ * pre-deduplication only ever drops records the frontier would itself
+ * reject (or, if forcing revisits, would schedule more than once); the
+ * UriUniqFilter remains the final judge.
+ *
+ * Memory: the fingerprints are held in heap, in two open-addressing
+ * maps of long to long, each taking about 24 bytes per distinct URI it
+ * holds (up to twice that just after growing, and briefly more while
+ * rehashing). So a journal of N distinct URIs to include or schedule
+ * needs up to about 100 * N bytes of heap while it is imported: some
+ * 10GB for 100 million URIs. Journals beyond the heap available should
+ * be exported to text with FrontierJournalExport and imported one line
+ * at a time, as text journals are, at the cost of speed.
+ */
+public class FrontierJournalImporter {
+    private static final Logger LOGGER = Logger.getLogger(
+            FrontierJournalImporter.class.getName());
+
+    //  show recovery progress every this many records
+    private final static int PROGRESS_INTERVAL = 1000000;
+
+    // once this many URIs are queued during recovery, allow
+    // crawl to begin, while enqueuing of other URIs from log
+    // continues in background
+    private static final long ENOUGH_TO_START_CRAWLING = 100000;
+
+    protected File source;
+    protected Frontier frontier;
+    protected int threads;
+
+    protected boolean includeSuccesses;
+    protected boolean includeFailures;
+    protected boolean includeScheduleds;
+    protected DecideRule includeScope;
+    protected boolean scheduleSuccesses;
+    protected boolean scheduleFailures;
+    protected boolean scheduleScheduleds;
+    protected DecideRule scheduleScope;
+    protected boolean forceRevisit;
+
+    protected BinaryFrontierJournal.Reader reader;
+    protected List<List<BlockInfo>> partitions;
+    protected ExecutorService executor;
+
+    /**
+     * URI fingerprint to sequence number of record to consider included;
+     * in heap, so see the class comment on memory
+     */
+    protected Long2LongOpenHashMap toInclude;
+    /** URI fingerprint to sequence number of record to schedule */
+    protected Long2LongOpenHashMap toSchedule;
+
+    protected AtomicLong recordsRead = new AtomicLong(0);
+
+    /**
+     * @param source binary journal
+     * @param frontier Frontier to update
+     * @param params JSONObject of import parameters, as for
+     * FrontierJournal.importRecoverLog(); also "threads", the number of
+     * threads to use (default: one per processor)
+     */
+    public FrontierJournalImporter(File source, Frontier frontier,
+            JSONObject params) {
+        this.source = source;
+        this.frontier = frontier;
+        this.threads = params.optInt("threads",
+                Runtime.getRuntime().availableProcessors());
+        if (threads < 1) {
+            threads = 1;
+        }
+        includeSuccesses = !params.isNull("includeSuccesses");
+        includeFailures = !params.isNull("includeFailures");
+        includeScheduleds = !params.isNull("includeScheduleds");
+        includeScope = !params.isNull("scopeIncludes")
+            ? frontier.getScope() : null;
+        scheduleSuccesses = !params.isNull("scheduleSuccesses");
+        scheduleFailures = !params.isNull("scheduleFailures");
+        scheduleScheduleds = !params.isNull("scheduleScheduleds");
+        scheduleScope = !params.isNull("scopeScheduleds")
+            ? frontier.getScope() : null;
+        forceRevisit = !params.isNull("forceRevisit");
+    }
+
+    /**
+     * Import the journal: returning once included URIs are loaded and
+     * enough URIs are queued to begin crawling, while scheduling of any
+     * others continues in the background.
+     *
+     * @throws IOException
+     */
+    public void importRecoverLog() throws IOException {
+        LOGGER.info("recovering frontier completion state from " + source
+                + " with " + threads + " threads");
+        reader = new BinaryFrontierJournal.Reader(source);
+        partitions = partition(reader.getBlocks(), threads);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "journalImport-"
+                        + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            fingerprintAll();
+            includeAll();
+        } catch (IOException e) {
+            finish();
+            throw e;
+        } catch (RuntimeException e) {
+            finish();
+            throw e;
+        }
+
+        LOGGER.info("finished completion state; recovering queues from "
+                + source);
+        final CountDownLatch recoveredEnough = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    scheduleAll(recoveredEnough);
+                } finally {
+                    finish();
+                    recoveredEnough.countDown();
+                }
+            }
+        }, "queuesRecoveryThread").start();
+
+        try {
+            // wait until at least ENOUGH_TO_START_CRAWLING URIs queued
+            recoveredEnough.await();
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "interrupted", e);
+        }
+    }
+
+    protected void finish() {
+        executor.shutdown();
+        reader.close();
+    }
+
+    /**
+     * Split blocks into about equal, contiguous partitions.
+     */
+    protected static List<List<BlockInfo>> partition(List<BlockInfo> blocks,
+            int count) {
+        List<List<BlockInfo>> partitions = new ArrayList<List<BlockInfo>>();
+        int size = (blocks.size() + count - 1) / Math.max(count, 1);
+        for (int start = 0; start < blocks.size(); start += size) {
+            partitions.add(blocks.subList(start,
+                    Math.min(start + size, blocks.size())));
+        }
+        return partitions;
+    }
+
+    protected boolean isInclude(byte type) {
+        return includeSuccesses && type == BinaryFrontierJournal.SUCCESS
+            || includeFailures && type == BinaryFrontierJournal.FAILURE
+            || includeScheduleds && type == BinaryFrontierJournal.ADD;
+    }
+
+    protected boolean isSchedule(byte type) {
+        return scheduleSuccesses && type == BinaryFrontierJournal.SUCCESS
+            || scheduleFailures && type == BinaryFrontierJournal.FAILURE
+            || scheduleScheduleds && type == BinaryFrontierJournal.ADD;
+    }
+
+    protected static void putFirst(Long2LongOpenHashMap map, long fp,
+            long seq) {
+        long prior = map.get(fp);
+        if (prior == -1 || seq < prior) {
+            map.put(fp, seq);
+        }
+    }
+
+    protected static Long2LongOpenHashMap newMap() {
+        Long2LongOpenHashMap map = new Long2LongOpenHashMap();
+        map.defaultReturnValue(-1);
+        return map;
+    }
+
+    /**
+     * Fingerprint all partitions in parallel, then merge the results.
+     */
+    protected void fingerprintAll() throws IOException {
+        List<Future<Long2LongOpenHashMap[]>> results =
+            new ArrayList<Future<Long2LongOpenHashMap[]>>();
+        for (final List<BlockInfo> partition : partitions) {
+            results.add(executor.submit(new Callable<Long2LongOpenHashMap[]>() {
+                public Long2LongOpenHashMap[] call() throws IOException {
+                    return fingerprint(partition);
+                }
+            }));
+        }
+        toInclude = newMap();
+        toSchedule = newMap();
+        for (Future<Long2LongOpenHashMap[]> result : results) {
+            Long2LongOpenHashMap[] maps = get(result);
+            merge(toInclude, maps[0]);
+            merge(toSchedule, maps[1]);
+        }
+        LOGGER.info(recordsRead.get() + " records; " + toInclude.size()
+                + " distinct URIs to include, " + toSchedule.size()
+                + " to consider scheduling; about "
+                + (24L * (toInclude.size() + toSchedule.size()) >> 20)
+                + "MB of fingerprints in heap");
+    }
+
+    protected Long2LongOpenHashMap[] fingerprint(List<BlockInfo> partition)
+    throws IOException {
+        Long2LongOpenHashMap include = newMap();
+        Long2LongOpenHashMap schedule = newMap();
+        for (BlockInfo block : partition) {
+            for (Record record : reader.read(block)) {
+                boolean isInclude = isInclude(record.getType());
+                boolean isSchedule = isSchedule(record.getType());
+                if (isInclude || isSchedule) {
+                    long fp = FPGenerator.std64.fp(record.getUri());
+                    if (isInclude) {
+                        putFirst(include, fp, record.getSeq());
+                    }
+                    if (isSchedule) {
+                        putFirst(schedule, fp, record.getSeq());
+                    }
+                }
+            }
+            noteProgress(block.getRecords());
+        }
+        return new Long2LongOpenHashMap[] {include, schedule};
+    }
+
+    protected static void merge(Long2LongOpenHashMap into,
+            Long2LongOpenHashMap from) {
+        for (LongIterator iter = from.keySet().iterator(); iter.hasNext();) {
+            long fp = iter.nextLong();
+            putFirst(into, fp, from.get(fp));
+        }
+    }
+
+    protected void noteProgress(int records) {
+        long before = recordsRead.getAndAdd(records);
+        if (before / PROGRESS_INTERVAL
+                != (before + records) / PROGRESS_INTERVAL) {
+            LOGGER.info("at record " + (before + records)
+                    + " alreadyIncluded count = "
+                    + frontier.discoveredUriCount());
+        }
+    }
+
+    /**
+     * Consider included, in parallel, the first record of each URI to be
+     * included; then, unless forcing revisits, drop those URIs from the
+     * ones to be scheduled, but only if their include was accepted.
+     */
+    protected void includeAll() throws IOException {
+        recordsRead.set(0);
+        final FrontierJournal newJournal = frontier.getFrontierJournal();
+        List<Future<LongOpenHashSet>> results =
+            new ArrayList<Future<LongOpenHashSet>>();
+        for (final List<BlockInfo> partition : partitions) {
+            results.add(executor.submit(new Callable<LongOpenHashSet>() {
+                public LongOpenHashSet call() throws IOException {
+                    LongOpenHashSet rejected = new LongOpenHashSet();
+                    for (BlockInfo block : partition) {
+                        for (Record record : reader.read(block)) {
+                            if (isInclude(record.getType())) {
+                                include(record, newJournal, rejected);
+                            }
+                        }
+                        noteProgress(block.getRecords());
+                    }
+                    return rejected;
+                }
+            }));
+        }
+        LongOpenHashSet rejected = new LongOpenHashSet();
+        for (Future<LongOpenHashSet> result : results) {
+            rejected.addAll(get(result));
+        }
+        if (!forceRevisit) {
+            for (LongIterator iter = toInclude.keySet().iterator();
+                    iter.hasNext();) {
+                long fp = iter.nextLong();
+                if (!rejected.contains(fp)) {
+                    toSchedule.remove(fp);
+                }
+            }
+        }
+        toInclude = null;
+    }
+
+    /**
+     * @param rejected fingerprints of URIs not included, as out of scope
+     * or unparseable, to which this URI's is added if not included
+     */
+    protected void include(Record record, FrontierJournal newJournal,
+            LongOpenHashSet rejected) {
+        long fp = FPGenerator.std64.fp(record.getUri());
+        if (toInclude.get(fp) != record.getSeq()) {
+            return;
+        }
+        try {
+            CrawlURI curi = record.toCrawlURI();
+            if (includeScope != null && !includeScope.accepts(curi)) {
+                // skip out-of-scope URIs if so configured
+                rejected.add(fp);
+                return;
+            }
+            frontier.considerIncluded(curi);
+            if (newJournal != null) {
+                // write same record as read
+                newJournal.writeLongUriLine(record.getTag(), curi);
+            }
+        } catch (URIException e) {
+            rejected.add(fp);
+            LOGGER.log(Level.WARNING, "bad URI: " + record.toTextLine(), e);
+        }
+    }
+
+    /**
+     * Schedule, in journal order, the first record of each URI to be
+     * scheduled; blocks are read and decoded ahead, in parallel.
+     *
+     * @param enough latch signalling 'enough' URIs queued to begin crawling
+     */
+    protected void scheduleAll(CountDownLatch enough) {
+        long queuedAtStart = frontier.queuedUriCount();
+        long scheduled = 0;
+        int readAhead = threads * 2;
+        LinkedList<Future<List<Record>>> decoded =
+            new LinkedList<Future<List<Record>>>();
+        List<BlockInfo> blocks;
+        try {
+            blocks = reader.getBlocks();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "problem scheduling from " + source, e);
+            return;
+        }
+        int next = 0;
+        long records = 0;
+        while (next < blocks.size() || !decoded.isEmpty()) {
+            while (next < blocks.size() && decoded.size() < readAhead) {
+                final BlockInfo block = blocks.get(next++);
+                decoded.add(executor.submit(new Callable<List<Record>>() {
+                    public List<Record> call() throws IOException {
+                        return reader.read(block);
+                    }
+                }));
+            }
+            List<Record> block;
+            try {
+                block = get(decoded.removeFirst());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "problem reading " + source
+                        + "; remaining records not scheduled", e);
+                break;
+            }
+            for (Record record : block) {
+                if (!isSchedule(record.getType())
+                        || toSchedule.get(FPGenerator.std64.fp(
+                                record.getUri())) != record.getSeq()) {
+                    continue;
+                }
+                try {
+                    CrawlURI curi = record.toCrawlURI();
+                    if (scheduleScope != null && !scheduleScope.accepts(curi)) {
+                        // skip out-of-scope URIs if so configured
+                        continue;
+                    }
+                    curi.setForceFetch(forceRevisit);
+                    frontier.schedule(curi);
+                    scheduled++;
+                    long queuedDuringRecovery =
+                        frontier.queuedUriCount() - queuedAtStart;
+                    if (((queuedDuringRecovery + 1)
+                            % ENOUGH_TO_START_CRAWLING) == 0) {
+                        enough.countDown();
+                    }
+                } catch (URIException e) {
+                    LOGGER.log(Level.WARNING, "bad URI during "
+                            + "log-recovery of queue contents ", e);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "exception during "
+                            + "log-recovery of queue contents ", e);
+                }
+            }
+            records += block.size();
+            if (records / PROGRESS_INTERVAL
+                    != (records - block.size()) / PROGRESS_INTERVAL) {
+                LOGGER.info("through record " + records + " queued count = "
+                        + frontier.queuedUriCount());
+            }
+        }
+        LOGGER.info("finished recovering frontier from " + source + " "
+                + records + " records processed, " + scheduled
+                + " URIs scheduled");
+        toSchedule = null;
+    }
+
+    /**
+     * @return result of the given future, with any IOException it threw
+     */
+    protected static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            IOException ioe = new IOException(e.getMessage());
+            ioe.initCause(e.getCause());
+            throw ioe;
+        }
+    }
+
+    /**
+     * Convenience: import, with the given parameters, the given binary
+     * journal.
+     */
+    public static void importRecoverLog(File source, JSONObject params,
+            Frontier frontier) throws IOException {
+        new FrontierJournalImporter(source, frontier, params)
+            .importRecoverLog();
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Logger;
+
+/**
+ * Names of all 'inactive' queues, not yet in active rotation, bucketed by
+ * precedence.
+ *
+ * Each bucket is a FIFO of queue names supplied by the frontier (and so
+ * may spill to disk); alongside, an in-memory index tracks how many
+ * queues are waiting in each bucket, so that the highest (numerically
+ * lowest) precedence with waiting queues, and the counts shown in
+ * reports, are available without touching the buckets themselves.
+ *
+ * A waiting queue whose precedence changes is moved to its new bucket
+ * by appending its name there and retargeting its index entry; the name
+ * left behind in the old bucket becomes a stale entry, skipped (and
+ * discarded) when later reached, or when its bucket has no more waiting
+ * queues. Each WorkQueue remembers which buckets
+ * hold its name, so that it is never appended twice to the same bucket.
+ *
+ * Not synchronized: changes must be made holding the frontier's lock or
+ * on its manager thread. Reporting methods (sizes, precedences and names)
+ * may be called from other threads, giving approximate results.
+ */
+public class InactiveQueues {
+    private static final Logger logger =
+        Logger.getLogger(InactiveQueues.class.getName());
+
+    /** WorkQueue.inactivePrecedence value when not waiting in any bucket */
+    public static final int NOT_WAITING = Integer.MIN_VALUE;
+
+    /** precedences in [0,DENSE_LIMIT) are indexed by bitmap; others by
+     * sorted set */
+    protected static final int DENSE_LIMIT = 4096;
+
+    /**
+     * Names at one precedence, plus count of queues waiting on them.
+     */
+    protected static class Bucket {
+        final int precedence;
+        final Queue<String> names;
+        /** number of queues whose waiting entry is in this bucket */
+        volatile int waiting = 0;
+
+        Bucket(int precedence, Queue<String> names) {
+            this.precedence = precedence;
+            this.names = names;
+        }
+    }
+
+    protected WorkQueueFrontier frontier;
+
+    /** all buckets ever created, by precedence */
+    protected ConcurrentSkipListMap<Integer,Bucket> buckets = 
+        new ConcurrentSkipListMap<Integer,Bucket>();
+    /** shortcut to buckets with precedence under DENSE_LIMIT */
+    protected Bucket[] denseBuckets = new Bucket[DENSE_LIMIT];
+    /** bit set for each dense precedence with waiting queues */
+    protected long[] denseWaiting = new long[DENSE_LIMIT / 64];
+    /** other precedences with waiting queues */
+    protected TreeSet<Integer> sparseWaiting = new TreeSet<Integer>();
+
+    /** total queues waiting, over all buckets */
+    protected volatile int totalWaiting = 0;
+
+    public InactiveQueues(WorkQueueFrontier frontier) {
+        this.frontier = frontier;
+    }
+
+    /**
+     * Add the given queue to the bucket for its current precedence. If
+     * the queue is already waiting at another precedence, it is moved.
+     *
+     * @param wq WorkQueue to deactivate
+     * @return true if the queue's name was appended to a bucket; false if
+     * the bucket already held it
+     */
+    public boolean add(WorkQueue wq) {
+        int precedence = wq.getPrecedence();
+        int previous = wq.getInactivePrecedence();
+        if (previous != precedence) {
+            if (previous != NOT_WAITING) {
+                adjustWaiting(bucketFor(previous), -1);
+            }
+            adjustWaiting(bucketFor(precedence), 1);
+            wq.setInactivePrecedence(precedence);
+        }
+        if (wq.isOnInactiveQueue(precedence)) {
+            return false;
+        }
+        bucketFor(precedence).names.add(wq.getClassKey());
+        wq.addOnInactiveQueue(precedence);
+        return true;
+    }
+
+    /**
+     * Remove and return the first queue waiting at the highest
+     * precedence, skipping any stale entries before it.
+     *
+     * @return WorkQueue, no longer waiting, or null if none waiting
+     */
+    public WorkQueue poll() {
+        while (true) {
+            int precedence = getHighestPrecedence();
+            if (precedence == Integer.MAX_VALUE) {
+                return null;
+            }
+            Bucket bucket = bucketFor(precedence);
+            String key = bucket.names.poll();
+            if (key == null) {
+                logger.severe("p" + precedence + " inactive queues empty "
+                        + "with " + bucket.waiting + " waiting; resetting");
+                adjustWaiting(bucket, -bucket.waiting);
+                continue;
+            }
+            WorkQueue wq = frontier.getQueueFor(key);
+            if (wq == null) {
+                logger.severe("Key " + key + " in p" + precedence
+                        + " inactive queues but not allQueues");
+                continue;
+            }
+            wq.removeOnInactiveQueue(precedence);
+            if (wq.getInactivePrecedence() == precedence) {
+                wq.setInactivePrecedence(NOT_WAITING);
+                adjustWaiting(bucket, -1);
+                if (bucket.waiting == 0) {
+                    discardStale(bucket);
+                }
+                return wq;
+            }
+            // stale entry: queue moved elsewhere or already activated
+        }
+    }
+
+    /**
+     * @return highest (numerically lowest) precedence with waiting
+     * queues, or Integer.MAX_VALUE if none
+     */
+    public int getHighestPrecedence() {
+        if (!sparseWaiting.isEmpty() && sparseWaiting.first() < 0) {
+            return sparseWaiting.first();
+        }
+        for (int i = 0; i < denseWaiting.length; i++) {
+            if (denseWaiting[i] != 0) {
+                return i * 64 + Long.numberOfTrailingZeros(denseWaiting[i]);
+            }
+        }
+        if (!sparseWaiting.isEmpty()) {
+            return sparseWaiting.first();
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return count of all waiting queues
+     */
+    public int size() {
+        return totalWaiting;
+    }
+
+    public boolean isEmpty() {
+        return totalWaiting == 0;
+    }
+
+    /**
+     * @param precedence
+     * @return count of queues waiting at the given precedence
+     */
+    public int size(int precedence) {
+        Bucket bucket = buckets.get(precedence);
+        return bucket == null ? 0 : bucket.waiting;
+    }
+
+    /**
+     * @param floor
+     * @return count of queues waiting at precedences numerically lower
+     * (higher priority) than floor
+     */
+    public int sizeBelow(int floor) {
+        int count = 0;
+        for (Bucket bucket : buckets.headMap(floor).values()) {
+            count += bucket.waiting;
+        }
+        return count;
+    }
+
+    /**
+     * @return all precedences at which queues have ever waited, ascending
+     */
+    public SortedSet<Integer> getPrecedences() {
+        return Collections.unmodifiableSortedSet(buckets.navigableKeySet());
+    }
+
+    /**
+     * @param precedence
+     * @return names in the given precedence's bucket, including any stale
+     * entries
+     */
+    public Queue<String> getNames(int precedence) {
+        Bucket bucket = buckets.get(precedence);
+        return bucket == null ? new LinkedList<String>() : bucket.names;
+    }
+
+    /**
+     * Empty a bucket in which no queues are waiting, so that it does not
+     * hold stale entries indefinitely.
+     */
+    protected void discardStale(Bucket bucket) {
+        String key;
+        while ((key = bucket.names.poll()) != null) {
+            WorkQueue wq = frontier.getQueueFor(key);
+            if (wq != null) {
+                wq.removeOnInactiveQueue(bucket.precedence);
+            }
+        }
+    }
+
+    protected Bucket bucketFor(int precedence) {
+        boolean dense = precedence >= 0 && precedence < DENSE_LIMIT;
+        Bucket bucket = dense ? denseBuckets[precedence]
+                              : buckets.get(precedence);
+        if (bucket == null) {
+            bucket = new Bucket(precedence,
+                    frontier.createInactiveQueueForPrecedence(precedence));
+            buckets.put(precedence, bucket);
+            if (dense) {
+                denseBuckets[precedence] = bucket;
+            }
+        }
+        return bucket;
+    }
+
+    protected void adjustWaiting(Bucket bucket, int delta) {
+        boolean wasWaiting = bucket.waiting > 0;
+        bucket.waiting += delta;
+        totalWaiting += delta;
+        boolean isWaiting = bucket.waiting > 0;
+        if (wasWaiting == isWaiting) {
+            return;
+        }
+        int p = bucket.precedence;
+        if (p >= 0 && p < DENSE_LIMIT) {
+            if (isWaiting) {
+                denseWaiting[p >>> 6] |= 1L << (p & 63);
+            } else {
+                denseWaiting[p >>> 6] &= ~(1L << (p & 63));
+            }
+        } else if (isWaiting) {
+            sparseWaiting.add(p);
+        } else {
+            sparseWaiting.remove(p);
+        }
+    }
+}
@@ -22,11 +22,12 @@ package org.archive.crawler.frontier;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -75,8 +76,11 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     /** assigned precedence */
     protected PrecedenceProvider precedenceProvider = new SimplePrecedenceProvider(1);
         
-    /** set of by-precedence inactive-queues on which WorkQueue is waiting */
-    protected Set<Integer> onInactiveQueues = new HashSet<Integer>();
+    /** precedences of by-precedence inactive-queues holding this queue's name */
+    protected int[] onInactiveQueues = new int[0];
+
+    /** precedence at which queue is waiting to be activated, if any */
+    protected int inactivePrecedence = InactiveQueues.NOT_WAITING;
     
     /** Per-session 'budget' controlling activity duration */
     protected int sessionBudget = 0;
@@ -100,6 +104,20 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     /** The next item to be returned */
     transient protected CrawlURI peekItem = null;
 
+    /** Most items that may be in process at once */
+    protected int parallelism = 1;
+
+    /** Items emitted and not yet finished, in order emitted */
+    transient protected List<CrawlURI> inProcessItems = null;
+
+    /** Whether queue, while items are in process, also waits in the 
+     * ready or snoozed queues to emit another */
+    transient protected boolean laneScheduled = false;
+
+    /** Whether a retire directive arrived while other items were in 
+     * process, to be applied when the last finishes */
+    transient protected boolean retirePending = false;
+
     /** Last URI enqueued */
     protected String lastQueued;
 
@@ -187,13 +205,112 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     }
 
     /**
-     * Remove the peekItem from the queue and adjusts the count.
+     * Return the next item to emit: the topmost item if none are in 
+     * process, otherwise the item following the last one emitted. 
+     * 
+     * @param frontier Work queues manager
+     * @return next item, or null if none available
+     */
+    public CrawlURI peekNextToEmit(final WorkQueueFrontier frontier) {
+        if (getInProcessCount() == 0) {
+            return peek(frontier);
+        }
+        if (getInProcessCount() >= count) {
+            return null;
+        }
+        try {
+            return peekItemAfter(frontier, 
+                    inProcessItems.get(inProcessItems.size() - 1));
+        } catch (IOException e) {
+            logger.log(Level.SEVERE,"peek failure",e);
+            return null;
+        }
+    }
+
+    /**
+     * Whether another item could be emitted while others are in process:
+     * parallelism allows and the queue holds items not in process. 
+     * 
+     * @return true if another item may be emitted
+     */
+    public boolean canEmitAnother() {
+        int inProcess = getInProcessCount();
+        return inProcess < parallelism && inProcess < count;
+    }
+
+    /**
+     * Note that the given item, from peekNextToEmit(), is being emitted.
+     * 
+     * @param curi
+     */
+    public void noteEmitted(CrawlURI curi) {
+        if (inProcessItems == null) {
+            inProcessItems = new ArrayList<CrawlURI>(parallelism);
+        }
+        inProcessItems.add(curi);
+    }
+
+    /**
+     * @return count of items emitted and not yet finished
+     */
+    public int getInProcessCount() {
+        return inProcessItems == null ? 0 : inProcessItems.size();
+    }
+
+    /**
+     * @param curi
+     * @return whether the given item was emitted and is not yet finished
+     */
+    public boolean isInProcess(CrawlURI curi) {
+        if (inProcessItems != null) {
+            for (CrawlURI c : inProcessItems) {
+                if (c == curi) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public boolean isLaneScheduled() {
+        return laneScheduled;
+    }
+
+    public void setLaneScheduled(boolean laneScheduled) {
+        this.laneScheduled = laneScheduled;
+    }
+
+    public boolean isRetirePending() {
+        return retirePending;
+    }
+
+    public void setRetirePending(boolean retirePending) {
+        this.retirePending = retirePending;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the most items that may be in process at once. Usually updated
+     * from each finished CrawlURI.
+     * 
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Remove the given item, peeked or in process, from the queue and 
+     * adjust the count.
      * 
      * @param frontier  Work queues manager.
      */
     protected void dequeue(final WorkQueueFrontier frontier, CrawlURI expected) {
         try {
-            deleteItem(frontier, peekItem);
+            deleteItem(frontier, expected);
         } catch (IOException e) {
             //FIXME better exception handling
             e.printStackTrace();
@@ -354,8 +471,23 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
      * 
      */
     public void unpeek(CrawlURI expected) {
-        assert expected == peekItem : "unexpected peekItem";
-        peekItem = null;
+        boolean wasInProcess = false;
+        if (inProcessItems != null) {
+            Iterator<CrawlURI> iter = inProcessItems.iterator();
+            while (iter.hasNext()) {
+                if (iter.next() == expected) {
+                    iter.remove();
+                    wasInProcess = true;
+                    break;
+                }
+            }
+        }
+        if (expected == peekItem || expected == null) {
+            peekItem = null;
+        } else {
+            // a later item, emitted alongside the peekItem 
+            assert wasInProcess : "unexpected peekItem";
+        }
     }
 
     /* (non-Javadoc)
@@ -421,6 +553,21 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         lastQueued = curi.toString();
     }
 
+    /**
+     * Returns the item following the given one in queue order (does not
+     * delete). Hook for subclasses able to emit more than one item at 
+     * once; by default, none.
+     * 
+     * @param frontier Work queues manager
+     * @param previous item already emitted
+     * @return the following item, or null
+     * @throws IOException  if there was a problem while peeking
+     */
+    protected CrawlURI peekItemAfter(final WorkQueueFrontier frontier,
+            CrawlURI previous) throws IOException {
+        return null;
+    }
+
     /**
      * Insert the given curi, whether it is already present or not.
      * Hook for subclasses. 
@@ -547,6 +694,8 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         map.put("errorCount", errorCount);
         map.put("lastPeeked", lastPeeked);
         map.put("lastQueued", lastQueued);
+        map.put("inProcess", getInProcessCount());
+        map.put("parallelism", parallelism);
 
         return map;
     }
@@ -626,6 +775,13 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         writer.print("  ");
         writer.print(Long.toString(count));
         writer.print(" items");
+        if (parallelism > 1 || getInProcessCount() > 1) {
+            writer.print("\n   in process: ");
+            writer.print(getInProcessCount());
+            writer.print(" (parallelism ");
+            writer.print(parallelism);
+            writer.print(")");
+        }
         if (wakeTime != 0) {
             writer.print("\n   wakes in: "+ArchiveUtils.formatMillisecondsToConventional(wakeTime - System.currentTimeMillis()));
         }
@@ -696,10 +852,61 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     }
 
     /**
-     * @return the onInactiveQueues
+     * @param precedence
+     * @return whether the inactive-queue at given precedence holds this
+     * queue's name
      */
-    public Set<Integer> getOnInactiveQueues() {
-        return onInactiveQueues;
+    public boolean isOnInactiveQueue(int precedence) {
+        for (int p : onInactiveQueues) {
+            if (p == precedence) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void addOnInactiveQueue(int precedence) {
+        if (!isOnInactiveQueue(precedence)) {
+            int[] grown = new int[onInactiveQueues.length + 1];
+            System.arraycopy(onInactiveQueues, 0, grown, 0,
+                    onInactiveQueues.length);
+            grown[onInactiveQueues.length] = precedence;
+            onInactiveQueues = grown;
+        }
+    }
+
+    public void removeOnInactiveQueue(int precedence) {
+        for (int i = 0; i < onInactiveQueues.length; i++) {
+            if (onInactiveQueues[i] == precedence) {
+                int[] shrunk = new int[onInactiveQueues.length - 1];
+                System.arraycopy(onInactiveQueues, 0, shrunk, 0, i);
+                System.arraycopy(onInactiveQueues, i + 1, shrunk, i,
+                        shrunk.length - i);
+                onInactiveQueues = shrunk;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forget all inactive-queue membership, as when those queues are
+     * being rebuilt.
+     */
+    public void clearOnInactiveQueues() {
+        onInactiveQueues = new int[0];
+        inactivePrecedence = InactiveQueues.NOT_WAITING;
+    }
+
+    /**
+     * @return precedence at which queue is waiting to be activated, or
+     * InactiveQueues.NOT_WAITING
+     */
+    public int getInactivePrecedence() {
+        return inactivePrecedence;
+    }
+
+    public void setInactivePrecedence(int precedence) {
+        this.inactivePrecedence = precedence;
     }
 
     /* (non-Javadoc)
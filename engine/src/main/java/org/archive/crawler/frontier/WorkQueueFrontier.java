@@ -32,16 +32,15 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Queue;
 import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.Delayed;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -56,12 +55,15 @@ import org.archive.crawler.event.CrawlURIDispositionEvent;
 import org.archive.crawler.framework.ToeThread;
 import org.archive.crawler.frontier.precedence.BaseQueuePrecedencePolicy;
 import org.archive.crawler.frontier.precedence.QueuePrecedencePolicy;
+import org.archive.crawler.util.BloomUriUniqFilter;
 import org.archive.crawler.util.TopNSet;
 import org.archive.modules.CrawlURI;
 import org.archive.spring.KeyedProperties;
 import org.archive.util.ArchiveUtils;
+import org.archive.util.BloomFilter;
 import org.archive.util.ObjectIdentityCache;
 import org.archive.util.ObjectIdentityMemCache;
+import org.archive.util.TimingWheel;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
@@ -212,15 +214,25 @@ implements Closeable,
         BagUtils.synchronizedBag(new HashBag()); // of ClassKeyQueue
     
     /**
-     * All per-class queues held in snoozed state, sorted by wake time.
+     * All per-class queues held in snoozed state, by wake time; those
+     * snoozed long, or beyond MAX_SNOOZED_IN_MEMORY, in snoozedOverflow.
      */
-    transient protected DelayQueue<DelayedWorkQueue> snoozedClassQueues;
+    transient protected TimingWheel<DelayedWorkQueue> snoozedClassQueues;
     protected StoredSortedMap<Long,DelayedWorkQueue> snoozedOverflow; 
-    protected AtomicInteger snoozedOverflowCount = new AtomicInteger(0); 
-    protected static int MAX_SNOOZED_IN_MEMORY = 5000; 
+    protected static int MAX_SNOOZED_IN_MEMORY = 100000; 
+    /** wake-time resolution of snoozed queues, in ms */
+    protected static long SNOOZE_TICK_MS = 10;
     
-    /** URIs scheduled to be re-enqueued at future date */
+    /**
+     * URIs scheduled to be re-enqueued at future date, by reschedule 
+     * time; those far off, or beyond MAX_FUTURE_URIS_IN_MEMORY, in 
+     * futureUris. 
+     */
+    transient protected TimingWheel<CrawlURI> futureUriWheel;
     protected StoredSortedMap<Long, CrawlURI> futureUris; 
+    protected static int MAX_FUTURE_URIS_IN_MEMORY = 10000; 
+    /** reschedule-time resolution of future URIs, in ms */
+    protected static long FUTURE_URI_TICK_MS = 100;
     
     /** remember keys of small number of largest queues for reporting */
     transient protected TopNSet largestQueues = new TopNSet(20);
@@ -235,8 +247,6 @@ implements Closeable,
     }
     
     
-    protected int highestPrecedenceWaiting = Integer.MAX_VALUE;
-
     /** The UriUniqFilter to use, tracking those UURIs which are 
      * already in-process (or processed), and thus should not be 
      * rescheduled. Also known as the 'alreadyIncluded' or
@@ -485,15 +495,8 @@ implements Closeable,
 //        assert Thread.currentThread() == managerThread;
         
         int precedence = wq.getPrecedence();
-        if(!wq.getOnInactiveQueues().contains(precedence)) {
-            // not already on target, add
-            Queue<String> inactiveQueues = 
-                getInactiveQueuesForPrecedence(precedence);
-            inactiveQueues.add(wq.getClassKey());
-            wq.getOnInactiveQueues().add(precedence);
-            if(wq.getPrecedence() < highestPrecedenceWaiting ) {
-                highestPrecedenceWaiting = wq.getPrecedence();
-            }
+        if(getInactiveQueues().add(wq)) {
+            // was not already on target; added
             if(logger.isLoggable(Level.FINE)) {
                 logger.log(Level.FINE,
                         "queue deactivated to p" + precedence 
@@ -509,27 +512,10 @@ implements Closeable,
     }
     
     /**
-     * Get the queue of inactive uri-queue names at the given precedence. 
-     * 
-     * @param precedence
-     * @return queue of inacti
+     * Return the store of all inactive queues, indexed by precedence
+     * @return InactiveQueues
      */
-    protected Queue<String> getInactiveQueuesForPrecedence(int precedence) {
-        Map<Integer,Queue<String>> inactiveQueuesByPrecedence = 
-            getInactiveQueuesByPrecedence();
-        Queue<String> candidate = inactiveQueuesByPrecedence.get(precedence);
-        if(candidate==null) {
-            candidate = createInactiveQueueForPrecedence(precedence);
-            inactiveQueuesByPrecedence.put(precedence,candidate);
-        }
-        return candidate;
-    }
-
-    /**
-     * Return a sorted map of all inactive queues, keyed by precedence
-     * @return SortedMap<Integer, Queue<String>> of inactiveQueues
-     */
-    abstract SortedMap<Integer, Queue<String>> getInactiveQueuesByPrecedence();
+    abstract InactiveQueues getInactiveQueues();
 
     /**
      * Create an inactiveQueue to hold queue names at the given precedence
@@ -646,8 +632,8 @@ implements Closeable,
                     String key = readyClassQueues.poll();
                     if(key==null) {
                         // no ready queues; try to activate one
-                        if(!getInactiveQueuesByPrecedence().isEmpty() 
-                            && highestPrecedenceWaiting < getPrecedenceFloor()) {
+                        if(getInactiveQueues().getHighestPrecedence() 
+                                < getPrecedenceFloor()) {
                             activateInactiveQueue();
                             continue findaqueue;
                         } else {
@@ -668,6 +654,14 @@ implements Closeable,
                         // enqueues to again put queue in ready
                         readyQ.clearHeld();
                         readyQ = null;
+                    } else if(readyQ.isLaneScheduled()) {
+                        // readied for another parallel emit
+                        readyQ.setLaneScheduled(false);
+                        if(readyQ.isRetired() || !readyQ.canEmitAnother()) {
+                            // since retired, or parallelism since used 
+                            // up; a finishing item will ready it again
+                            readyQ = null;
+                        }
                     }
                 } while (readyQ == null);
                 
@@ -675,17 +669,26 @@ implements Closeable,
                     break findauri; 
                 }
                
-                assert !inProcessQueues.contains(readyQ) : "double activation";
-                returnauri: while(true) { // loop left by explicit return or break on empty
+                assert readyQ.getInProcessCount() > 0 
+                    || !inProcessQueues.contains(readyQ) : "double activation";
+                while(true) { // loop left by explicit return or continue
                     CrawlURI curi = null;
-                    curi = readyQ.peek(this);   
+                    curi = readyQ.peekNextToEmit(this);   
+                    if(curi == null && readyQ.getInProcessCount() > 0) {
+                        // nothing more to emit alongside items in process
+                        // (a finishing item will ready the queue again); 
+                        // look to other queues
+                        readyQ = null;
+                        continue findauri;
+                    }
                     if(curi == null) {
                         // should not reach
                         logger.severe("No CrawlURI from ready non-empty queue "
                                 + readyQ.classKey + "\n" 
                                 + readyQ.shortReportLegend() + "\n"
                                 + readyQ.shortReportLine() + "\n");
-                        break returnauri;
+                        readyQ = null;
+                        continue findauri;
                     }
                     
                     // from queues, override names persist but not map source
@@ -705,6 +708,12 @@ implements Closeable,
                         // curi was in right queue, emit
                         noteAboutToEmit(curi, readyQ);
                         inProcessQueues.add(readyQ);
+                        readyQ.noteEmitted(curi);
+                        if(readyQ.canEmitAnother()) {
+                            // parallelism allows another from this queue
+                            readyQ.setLaneScheduled(true);
+                            readyQueue(readyQ);
+                        }
                         return curi;
                     }
                     // URI's assigned queue has changed since it
@@ -764,14 +773,12 @@ implements Closeable,
      */
     protected void checkFutures() {
 //        assert Thread.currentThread() == managerThread;
-        // TODO: consider only checking this every set interval
-        Iterator<CrawlURI> iter = 
-            futureUris.headMap(System.currentTimeMillis())
-                .values().iterator();
-        while(iter.hasNext()) {
-            CrawlURI curi = iter.next();
+        ArrayList<CrawlURI> due = new ArrayList<CrawlURI>();
+        if(futureUriWheel.advance(System.currentTimeMillis(), due)==0) {
+            return;
+        }
+        for(CrawlURI curi : due) {
             curi.setRescheduleTime(-1); // unless again set elsewhere
-            iter.remove();
             futureUriCount.decrementAndGet();
             receive(curi);
         }
@@ -783,28 +790,12 @@ implements Closeable,
     private void activateInactiveQueue() {
 //        assert Thread.currentThread() == managerThread;
 
-        SortedMap<Integer,Queue<String>> inactiveQueuesByPrecedence = 
-            getInactiveQueuesByPrecedence();
-        
-        int targetPrecedence = highestPrecedenceWaiting;
-        Queue<String> inactiveQueues = inactiveQueuesByPrecedence.get(
-                targetPrecedence);
-
-        String key = inactiveQueues.poll();
-        assert key != null : "empty precedence queue in map";
-        
-        if(inactiveQueues.isEmpty()) {
-            updateHighestWaiting(targetPrecedence+1);
+        int targetPrecedence = getInactiveQueues().getHighestPrecedence();
+        WorkQueue candidateQ = getInactiveQueues().poll();
+        if(candidateQ == null) {
+            return;
         }
         
-        WorkQueue candidateQ = (WorkQueue) this.allQueues.get(key);
-        
-        assert candidateQ != null : "missing uri work queue";
-        
-        boolean was = candidateQ.getOnInactiveQueues().remove(targetPrecedence);
-        
-        assert was : "queue didn't know it was in "+targetPrecedence+" inactives";
-        
         if(candidateQ.isActive()) {
             // queue had been multiply-scheduled due to changing precedence
             // already active, so ignore this activation
@@ -816,17 +807,8 @@ implements Closeable,
             return; 
         }
         
-        if(candidateQ.getPrecedence() < targetPrecedence) {
-            // queue moved up; do nothing (already handled)
-            if(logger.isLoggable(Level.FINE)) {
-                logger.log(Level.FINE,
-                        "queue activated+ignored/higher from p" 
-                        + targetPrecedence 
-                        + ": " + candidateQ.getClassKey() 
-                        + " ("+candidateQ.getPrecedence() + ") ");
-            }
-            return; 
-        }
+        // (a queue which moved up while waiting, without being re-deactivated,
+        // now outranks everything waiting: activate it normally)
         if(candidateQ.getPrecedence() > targetPrecedence) {
             // queue moved down; deactivate to new level
             if(logger.isLoggable(Level.FINE)) {
@@ -855,24 +837,6 @@ implements Closeable,
         readyQueue(candidateQ);
     }
 
-    /**
-     * Recalculate the value of thehighest-precedence queue waiting
-     * among inactive queues. 
-     * 
-     * @param startFrom start looking at this precedence value
-     */
-    protected void updateHighestWaiting(int startFrom) {
-        // probe for new highestWaiting
-        for(int precedenceKey : getInactiveQueuesByPrecedence().tailMap(startFrom).keySet()) {
-            if(!getInactiveQueuesByPrecedence().get(precedenceKey).isEmpty()) {
-                highestPrecedenceWaiting = precedenceKey;
-                return;
-            }
-        }
-        // nothing waiting
-        highestPrecedenceWaiting = Integer.MAX_VALUE;
-    }
-
     /**
      * Enqueue the given queue to either readyClassQueues or inactiveQueues,
      * as appropriate.
@@ -886,6 +850,7 @@ implements Closeable,
             logger.fine("queue reenqueued: " +
                 wq.getClassKey());
         }
+        int highestPrecedenceWaiting = getInactiveQueues().getHighestPrecedence();
         if(highestPrecedenceWaiting < wq.getPrecedence() 
             || (wq.isOverBudget() && highestPrecedenceWaiting <= wq.getPrecedence())
             || wq.getPrecedence() >= getPrecedenceFloor()) {
@@ -901,8 +866,12 @@ implements Closeable,
      */
     @Override
     protected long getMaxInWait() {
-        Delayed next = snoozedClassQueues.peek();
-        return next == null ? 60000 : next.getDelay(TimeUnit.MILLISECONDS);
+        long next = Math.min(snoozedClassQueues.getNextCheckTime(),
+                futureUriWheel.getNextCheckTime());
+        if (next == Long.MAX_VALUE) {
+            return 60000;
+        }
+        return Math.min(Math.max(next - System.currentTimeMillis(), 0), 60000);
     }
 
     /**
@@ -915,19 +884,12 @@ implements Closeable,
             
             @Override
             public void process() {
-                Iterator<DelayedWorkQueue> iterSnoozed = snoozedClassQueues.iterator();
-                while(iterSnoozed.hasNext()) {
-                    WorkQueue queue = iterSnoozed.next().getWorkQueue(WorkQueueFrontier.this);
-                    queue.setWakeTime(0);
-                    reenqueueQueue(queue);
-                    iterSnoozed.remove(); 
-                }
-                Iterator<DelayedWorkQueue> iterOverflow = snoozedOverflow.values().iterator();
-                while(iterOverflow.hasNext()) {
-                    WorkQueue queue = iterOverflow.next().getWorkQueue(WorkQueueFrontier.this);
+                ArrayList<DelayedWorkQueue> all = new ArrayList<DelayedWorkQueue>();
+                snoozedClassQueues.drainAll(all);
+                for(DelayedWorkQueue dq : all) {
+                    WorkQueue queue = dq.getWorkQueue(WorkQueueFrontier.this);
                     queue.setWakeTime(0);
                     reenqueueQueue(queue);
-                    iterOverflow.remove(); 
                 }
             }
         });
@@ -936,34 +898,15 @@ implements Closeable,
      * Wake any queues sitting in the snoozed queue whose time has come.
      */
     protected void wakeQueues() {
-        DelayedWorkQueue waked; 
-        while((waked = snoozedClassQueues.poll())!=null) {
-            WorkQueue queue = waked.getWorkQueue(this);
+        ArrayList<DelayedWorkQueue> waked = new ArrayList<DelayedWorkQueue>();
+        if(snoozedClassQueues.advance(System.currentTimeMillis(), waked)==0) {
+            return;
+        }
+        for(DelayedWorkQueue dq : waked) {
+            WorkQueue queue = dq.getWorkQueue(this);
             queue.setWakeTime(0);
             reenqueueQueue(queue);
         }
-        // also consider overflow (usually empty)
-        long now = System.currentTimeMillis();
-        Iterator<DelayedWorkQueue> iter = 
-            snoozedOverflow.values().iterator();
-        while(iter.hasNext()) {
-            DelayedWorkQueue dq = iter.next();
-            if(dq.getWakeTime()<=now) {
-                iter.remove();
-                snoozedOverflowCount.decrementAndGet();
-                WorkQueue queue = dq.getWorkQueue(this);
-                queue.setWakeTime(0);
-                reenqueueQueue(queue);
-                continue; // while
-            }
-            if(snoozedClassQueues.size()<MAX_SNOOZED_IN_MEMORY) {
-                iter.remove();
-                snoozedOverflowCount.decrementAndGet();
-                snoozedClassQueues.add(dq); 
-            } else {
-                break; // while 
-            }
-        }
     }
     
     /**
@@ -995,8 +938,9 @@ implements Closeable,
         wq.setSessionBudget(getBalanceReplenishAmount());
         wq.setTotalBudget(getQueueTotalBudget());
         
-        assert (wq.peek(this) == curi) : "unexpected peek " + wq;
+        assert wq.isInProcess(curi) : "unexpected finish " + wq;
         inProcessQueues.remove(wq, 1);
+        wq.setParallelism(curi.getPolitenessParallelism());
         int holderCost = curi.getHolderCost();
 
         if (needsReenqueuing(curi)) {
@@ -1065,7 +1009,7 @@ implements Closeable,
             // marked up for forced-revisit at a set time
             curi.processingCleanup();
             curi.resetForRescheduling(); 
-            futureUris.put(curi.getRescheduleTime(),curi);
+            futureUriWheel.add(curi, curi.getRescheduleTime());
             futureUriCount.incrementAndGet(); 
         } else {
             curi.stripToMinimal();
@@ -1083,6 +1027,32 @@ implements Closeable,
      * @param delay_ms
      */
     protected void handleQueue(WorkQueue wq, boolean forceRetire, long now, long delay_ms) {
+        if(wq.getInProcessCount() > 0) {
+            // other items from this queue still in process
+            if(forceRetire) {
+                wq.setRetirePending(true);
+            } else if(!wq.isRetirePending() && !wq.isLaneScheduled() 
+                    && wq.canEmitAnother()) {
+                wq.setLaneScheduled(true);
+                if(delay_ms > 0) {
+                    snoozeQueue(wq, now, delay_ms);
+                } else {
+                    readyQueue(wq);
+                }
+            }
+            return;
+        }
+        if(wq.isRetirePending()) {
+            wq.setRetirePending(false);
+            forceRetire = true;
+        }
+        if(wq.isLaneScheduled()) {
+            // already waiting in ready or snoozed queues
+            if(forceRetire) {
+                retireQueue(wq);
+            }
+            return;
+        }
         if(forceRetire) {
             retireQueue(wq);
         } else if (delay_ms > 0) {
@@ -1103,13 +1073,7 @@ implements Closeable,
     private void snoozeQueue(WorkQueue wq, long now, long delay_ms) {
         long nextTime = now + delay_ms;
         wq.setWakeTime(nextTime);
-        DelayedWorkQueue dq = new DelayedWorkQueue(wq);
-        if(snoozedClassQueues.size()<MAX_SNOOZED_IN_MEMORY) {
-            snoozedClassQueues.add(dq);
-        } else {
-            snoozedOverflow.put(nextTime, dq);
-            snoozedOverflowCount.incrementAndGet();
-        }
+        snoozedClassQueues.add(new DelayedWorkQueue(wq), nextTime);
     }
 
     /**
@@ -1163,19 +1127,114 @@ implements Closeable,
         return REPORTS;
     }
     
+    /**
+     * Queue counts by category, all taken together at one moment, so
+     * that (unlike counts read one by one from the live structures
+     * while queues move between them) they add up. Numbered in the order
+     * taken.
+     */
+    public static class QueueSummary {
+        protected long version;
+        protected long time;
+        protected int allCount;
+        protected int inProcessCount;
+        protected int readyCount;
+        protected int snoozedCount;
+        protected int inactiveCount;
+        protected int eligibleInactiveCount;
+        protected int retiredCount;
+        protected SortedMap<Integer,Integer> inactiveByPrecedence =
+            new TreeMap<Integer,Integer>();
+
+        /** @return sequence number of this summary among those taken */
+        public long getVersion() {
+            return version;
+        }
+        /** @return time taken, in ms since the epoch */
+        public long getTime() {
+            return time;
+        }
+        public int getAllCount() {
+            return allCount;
+        }
+        public int getInProcessCount() {
+            return inProcessCount;
+        }
+        public int getReadyCount() {
+            return readyCount;
+        }
+        public int getSnoozedCount() {
+            return snoozedCount;
+        }
+        public int getActiveCount() {
+            return inProcessCount + readyCount + snoozedCount;
+        }
+        /** @return inactive queues at all precedences */
+        public int getInactiveCount() {
+            return inactiveCount;
+        }
+        /** @return inactive queues at precedences above the floor */
+        public int getEligibleInactiveCount() {
+            return eligibleInactiveCount;
+        }
+        public int getIneligibleInactiveCount() {
+            return inactiveCount - eligibleInactiveCount;
+        }
+        public int getRetiredCount() {
+            return retiredCount;
+        }
+        /** @return inactive queue counts, by precedence */
+        public SortedMap<Integer,Integer> getInactiveByPrecedence() {
+            return Collections.unmodifiableSortedMap(inactiveByPrecedence);
+        }
+    }
+
+    /** number of the last QueueSummary taken */
+    protected AtomicLong queueSummaryVersion = new AtomicLong(0);
+
+    /**
+     * Take a summary of the queue counts. Queues move between categories
+     * only under the frontier lock, so it is held while the counts are
+     * read; all are maintained as they change, so this is brief, and
+     * the (possibly long) report using them is written after it is
+     * released.
+     *
+     * @return QueueSummary of counts as of now
+     */
+    public QueueSummary getQueueSummary() {
+        QueueSummary summary = new QueueSummary();
+        synchronized (this) {
+            summary.version = queueSummaryVersion.incrementAndGet();
+            summary.time = System.currentTimeMillis();
+            summary.allCount = allQueues.size();
+            summary.inProcessCount = inProcessQueues.uniqueSet().size();
+            summary.readyCount = readyClassQueues.size();
+            summary.snoozedCount = getSnoozedCount();
+            summary.inactiveCount = getTotalInactiveQueues();
+            summary.eligibleInactiveCount = getTotalEligibleInactiveQueues();
+            summary.retiredCount = getRetiredQueues().size();
+            InactiveQueues inactives = getInactiveQueues();
+            for (int k : inactives.getPrecedences()) {
+                summary.inactiveByPrecedence.put(k, inactives.size(k));
+            }
+        }
+        return summary;
+    }
+
     public Map<String, Object> shortReportMap() {
         if (this.allQueues == null) {
             return null;
         }
-        
-        int allCount = allQueues.size();
-        int inProcessCount = inProcessQueues.uniqueSet().size();
-        int readyCount = readyClassQueues.size();
-        int snoozedCount = getSnoozedCount();
-        int activeCount = inProcessCount + readyCount + snoozedCount;
-        int inactiveCount = getTotalEligibleInactiveQueues();
-        int ineligibleCount = getTotalIneligibleInactiveQueues();
-        int retiredCount = getRetiredQueues().size();
+
+        QueueSummary summary = getQueueSummary();
+        int allCount = summary.getAllCount();
+        int inProcessCount = summary.getInProcessCount();
+        int readyCount = summary.getReadyCount();
+        int snoozedCount = summary.getSnoozedCount();
+        int activeCount = summary.getActiveCount();
+        int inactiveCount = summary.getEligibleInactiveCount();
+        int ineligibleCount = summary.getIneligibleInactiveCount();
+        int retiredCount = summary.getRetiredCount();
         int exhaustedCount = allCount - activeCount - inactiveCount - retiredCount;
         int inCount = inbound.size();
         int outCount = outbound.size();
@@ -1193,6 +1252,8 @@ implements Closeable,
         map.put("lastReachedState", lastReachedState);
         map.put("inboundCount", inCount);
         map.put("outboundCount", outCount);
+        map.put("toeWaitMs", getToeWaitMs());
+        map.put("managerWaitMs", getManagerWaitMs());
 
         return map;
     }
@@ -1204,15 +1265,16 @@ implements Closeable,
         if (this.allQueues == null) {
             return;
         }
-        int allCount = allQueues.size();
-        int inProcessCount = inProcessQueues.uniqueSet().size();
-        int readyCount = readyClassQueues.size();
-        int snoozedCount = getSnoozedCount();
-        int activeCount = inProcessCount + readyCount + snoozedCount;
-        int inactiveCount = getTotalEligibleInactiveQueues();
-        int ineligibleCount = getTotalIneligibleInactiveQueues();
-        int retiredCount = getRetiredQueues().size();
-        int exhaustedCount = 
+        QueueSummary summary = getQueueSummary();
+        int allCount = summary.getAllCount();
+        int inProcessCount = summary.getInProcessCount();
+        int readyCount = summary.getReadyCount();
+        int snoozedCount = summary.getSnoozedCount();
+        int activeCount = summary.getActiveCount();
+        int inactiveCount = summary.getEligibleInactiveCount();
+        int ineligibleCount = summary.getIneligibleInactiveCount();
+        int retiredCount = summary.getRetiredCount();
+        int exhaustedCount =
             allCount - activeCount - inactiveCount - retiredCount;
         int inCount = inbound.size();
         int outCount = outbound.size();
@@ -1240,41 +1302,27 @@ implements Closeable,
     }
 
     /**
-     * Total of all URIs in inactive queues at all precedences
+     * Total of all inactive queues at all precedences
      * @return int total 
      */
     protected int getTotalInactiveQueues() {
-        return tallyInactiveTotals(getInactiveQueuesByPrecedence());
+        return getInactiveQueues().size();
     }
     
     /**
-     * Total of all URIs in inactive queues at precedences above the floor
+     * Total of all inactive queues at precedences above the floor
      * @return int total 
      */
     protected int getTotalEligibleInactiveQueues() {
-        return tallyInactiveTotals(
-                getInactiveQueuesByPrecedence().headMap(getPrecedenceFloor()));
+        return getInactiveQueues().sizeBelow(getPrecedenceFloor());
     }
     
     /**
-     * Total of all URIs in inactive queues at precedences at or below the floor
+     * Total of all inactive queues at precedences at or below the floor
      * @return int total 
      */
     protected int getTotalIneligibleInactiveQueues() {
-        return tallyInactiveTotals(
-                getInactiveQueuesByPrecedence().tailMap(getPrecedenceFloor()));
-    }
-
-    /**
-     * @param iqueue 
-     * @return
-     */
-    private int tallyInactiveTotals(SortedMap<Integer,Queue<String>> iqueues) {
-        int inactiveCount = 0; 
-        for(Queue<String> q : iqueues.values()) {
-            inactiveCount += q.size();
-        }
-        return inactiveCount;
+        return getTotalInactiveQueues() - getTotalEligibleInactiveQueues();
     }
     
     /* (non-Javadoc)
@@ -1284,13 +1332,27 @@ implements Closeable,
         return "total active in-process ready snoozed inactive retired exhausted";
     }
 
+    /** lines of queue-per-line reports between flushes of the writer */
+    protected static final int REPORT_PAGE_LINES = 128;
+
     /**
      * This method compiles a human readable report on the status of the frontier
      * at the time of the call.
+     * 
+     * The frontier lock is not held while reporting, so that long reports 
+     * do not stall the crawl. The standard report's counts come from one
+     * numbered QueueSummary, taken under the lock just before writing, so
+     * they are consistent with each other. The queues listed are instead
+     * read through each category's own thread-safe view as the report is
+     * written, and queues moving between categories meanwhile may be
+     * listed in neither or in both. Reports 
+     * listing every queue flush the writer every REPORT_PAGE_LINES lines, 
+     * so a report file may be paged through while still being written. 
+     * 
      * @param name Name of report.
      * @param writer Where to write to.
      */
-    public synchronized void reportTo(String name, PrintWriter writer) {
+    public void reportTo(String name, PrintWriter writer) {
         if(ALL_NONEMPTY.equals(name)) {
             allNonemptyReportTo(writer);
             return;
@@ -1325,12 +1387,13 @@ implements Closeable,
         queueSingleLinesTo(writer, this.readyClassQueues.iterator());
 
         writer.print("\n -----===== SNOOZED QUEUES =====-----\n");
-        queueSingleLinesTo(writer, this.snoozedClassQueues.iterator());
+        queueSingleLinesTo(writer, this.snoozedClassQueues.getInMemory().iterator());
         queueSingleLinesTo(writer, this.snoozedOverflow.values().iterator());
         
         writer.print("\n -----===== INACTIVE QUEUES =====-----\n");
-        for(Queue<String> inactiveQueues : getInactiveQueuesByPrecedence().values()) {
-            queueSingleLinesTo(writer, inactiveQueues.iterator());
+        for(int prec : getInactiveQueues().getPrecedences()) {
+            queueSingleLinesTo(writer, 
+                    getInactiveQueues().getNames(prec).iterator());
         }
         
         writer.print("\n -----===== RETIRED QUEUES =====-----\n");
@@ -1356,6 +1419,7 @@ implements Closeable,
         Object obj;
         WorkQueue q;
         boolean legendWritten = false;
+        int lines = 0; 
         while( iterator.hasNext()) {
             obj = iterator.next();
             if (obj ==  null) {
@@ -1382,20 +1446,25 @@ implements Closeable,
                 legendWritten = true;
             }
             q.shortReportLineTo(writer);
+            if(++lines % REPORT_PAGE_LINES == 0) {
+                writer.flush();
+            }
         }       
+        writer.flush();
     }
 
     /**
      * @param w Writer to print to.
      */
     private void standardReportTo(PrintWriter w) {
-        int allCount = allQueues.size();
-        int inProcessCount = inProcessQueues.uniqueSet().size();
-        int readyCount = readyClassQueues.size();
-        int snoozedCount = getSnoozedCount();
-        int activeCount = inProcessCount + readyCount + snoozedCount;
-        int inactiveCount = getTotalInactiveQueues();
-        int retiredCount = getRetiredQueues().size();
+        QueueSummary summary = getQueueSummary();
+        int allCount = summary.getAllCount();
+        int inProcessCount = summary.getInProcessCount();
+        int readyCount = summary.getReadyCount();
+        int snoozedCount = summary.getSnoozedCount();
+        int activeCount = summary.getActiveCount();
+        int inactiveCount = summary.getInactiveCount();
+        int retiredCount = summary.getRetiredCount();
         int exhaustedCount = 
             allCount - activeCount - inactiveCount - retiredCount;
 
@@ -1431,7 +1500,23 @@ implements Closeable,
         w.print("               pending:     ");
         w.print(Long.toString(uriUniqFilter.pending()));
         w.print("\n");
-        w.print("\n All class queues map size: ");
+        if (uriUniqFilter instanceof BloomUriUniqFilter) {
+            BloomFilter bloom = 
+                ((BloomUriUniqFilter) uriUniqFilter).getBloomFilter();
+            w.print("   bloom est. false-pos.:   ");
+            w.print(Double.toString(bloom.getFalsePositiveRate()));
+            w.print(" (");
+            w.print(ArchiveUtils.formatBytesForDisplay(bloom.getSizeBytes()));
+            w.print(", ");
+            w.print(bloom.getClass().getSimpleName());
+            w.print(")\n");
+        }
+        w.print("\n Queue counts as of summary #");
+        w.print(summary.getVersion());
+        w.print(", ");
+        w.print(ArchiveUtils.getLog17Date(summary.getTime()));
+        w.print("\n");
+        w.print(" All class queues map size: ");
         w.print(Long.toString(allCount));
         w.print("\n");
         w.print( "             Active queues: ");
@@ -1449,16 +1534,16 @@ implements Closeable,
         w.print("           Inactive queues: ");
         w.print(inactiveCount);
         w.print(" (");
-        Map<Integer,Queue<String>> inactives = getInactiveQueuesByPrecedence();
         boolean betwixt = false; 
-        for(Integer k : inactives.keySet()) {
+        for(Map.Entry<Integer,Integer> entry
+                : summary.getInactiveByPrecedence().entrySet()) {
             if(betwixt) {
                 w.print("; ");
             }
             w.print("p");
-            w.print(k);
+            w.print(entry.getKey());
             w.print(": ");
-            w.print(inactives.get(k).size());
+            w.print(entry.getValue());
             betwixt = true; 
         }
         w.print(")\n");
@@ -1473,6 +1558,7 @@ implements Closeable,
         int outCount = outbound.size();
         State last = lastReachedState;
         w.print("\n               Threadbound: "+last+ ": "+inCount+" in, "+outCount+" out");        
+        w.print("\n                     Waits: "+getToeWaitMs()+" ms toes, "+getManagerWaitMs()+" ms manager");
         
         w.print("\n -----===== MANAGER THREAD =====-----\n");
         ToeThread.reportThread(managerThread, w);
@@ -1491,15 +1577,15 @@ implements Closeable,
             this.readyClassQueues.size(), maxQueuesPerReportCategory);
 
         w.print("\n -----===== SNOOZED QUEUES =====-----\n");
-        Object[] objs = snoozedClassQueues.toArray();
+        Object[] objs = snoozedClassQueues.getInMemory().toArray();
         DelayedWorkQueue[] qs = Arrays.copyOf(objs,objs.length,DelayedWorkQueue[].class);
         Arrays.sort(qs);
         appendQueueReports(w, "SNOOZED", new ObjectArrayIterator(qs), getSnoozedCount(), maxQueuesPerReportCategory);
         
         w.print("\n -----===== INACTIVE QUEUES =====-----\n");
-        SortedMap<Integer,Queue<String>> sortedInactives = getInactiveQueuesByPrecedence();
-        for(Integer prec : sortedInactives.keySet()) {
-            Queue<String> inactiveQueues = sortedInactives.get(prec);
+        InactiveQueues sortedInactives = getInactiveQueues();
+        for(int prec : sortedInactives.getPrecedences()) {
+            Queue<String> inactiveQueues = sortedInactives.getNames(prec);
             appendQueueReports(w, "INACTIVE-p"+prec, inactiveQueues.iterator(),
                     inactiveQueues.size(), maxQueuesPerReportCategory);
         }
@@ -1637,7 +1723,7 @@ implements Closeable,
     }
     
     protected int getSnoozedCount() {
-        return snoozedClassQueues.size() + snoozedOverflowCount.get();
+        return snoozedClassQueues.size();
     }
     
     public float congestionRatio() {
@@ -1657,7 +1743,8 @@ implements Closeable,
     
     /** 
      * Return whether frontier is exhausted: all crawlable URIs done (none
-     * waiting or pending). Only gives precise answer inside managerThread.
+     * waiting or pending, and no seeds still to be announced). Only gives
+     * precise answer inside managerThread.
      * 
      * @see org.archive.crawler.framework.Frontier#isEmpty()
      */
@@ -1665,7 +1752,8 @@ implements Closeable,
         return queuedUriCount.get() == 0 
             && (uriUniqFilter == null || uriUniqFilter.pending() == 0)
             && (inbound == null || inbound.isEmpty())
-            && futureUriCount.get() == 0;
+            && futureUriCount.get() == 0
+            && (seeds == null || !seeds.isAnnouncing());
     }
 
     /* (non-Javadoc)
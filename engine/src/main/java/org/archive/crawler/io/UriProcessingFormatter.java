@@ -49,12 +49,18 @@ extends Formatter implements CoreAttributeConstants {
         14 + 1 + 32 + 4 + 128 + 1;
     
     /**
-     * Reuseable assembly buffer.
+     * Reuseable assembly buffer, per thread, as lines may be formatted
+     * concurrently (as by RingBufferFileHandler).
      */
-    private final MutableString buffer =
-        new MutableString(GUESS_AT_LOG_LENGTH);
+    private final ThreadLocal<MutableString> buffers =
+        new ThreadLocal<MutableString>() {
+            protected MutableString initialValue() {
+                return new MutableString(GUESS_AT_LOG_LENGTH);
+            }
+        };
     
     public String format(LogRecord lr) {
+        MutableString buffer = buffers.get();
         CrawlURI curi = (CrawlURI)lr.getParameters()[0];
         String length = NA;
         String mime = null;
@@ -92,8 +98,8 @@ extends Formatter implements CoreAttributeConstants {
                 ? curi.getSourceTag()
                 : null;
                 
-        this.buffer.length(0);
-        this.buffer.append(ArchiveUtils.getLog17Date(time))
+        buffer.length(0);
+        buffer.append(ArchiveUtils.getLog17Date(time))
             .append(" ")
             .append(ArchiveUtils.padTo(curi.getFetchStatus(), 5))
             .append(" ")
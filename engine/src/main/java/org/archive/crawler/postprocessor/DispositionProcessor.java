@@ -25,6 +25,7 @@ import static org.archive.modules.CoreAttributeConstants.A_FETCH_BEGAN_TIME;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_FAILED;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_CONNECT_LOST;
 import static org.archive.modules.fetcher.FetchStatusCodes.S_DEEMED_NOT_FOUND;
+import static org.archive.modules.fetcher.FetchStatusCodes.S_TIMEOUT;
 
 import java.util.Map;
 import java.util.logging.Logger;
@@ -38,6 +39,7 @@ import org.archive.modules.net.CrawlServer;
 import org.archive.modules.net.IgnoreRobotsPolicy;
 import org.archive.modules.net.Robotstxt;
 import org.archive.modules.net.ServerCache;
+import org.archive.modules.net.ServerResponsiveness;
 import org.springframework.beans.factory.annotation.Autowired;
 
 
@@ -119,6 +121,54 @@ public class DispositionProcessor extends Processor {
         kp.put("maxDelayMs",maxDelay);
     }    
 
+    /**
+     * Most URIs from one queue that may be fetched at once. At the 
+     * default of 1, each queue offers one URI at a time, waiting the 
+     * politeness delay between them. Above 1, the number allowed for 
+     * each server adapts between 1 and this value: rising by one per 
+     * round of fetches while the server stays responsive, halving when 
+     * its error rate or latency rises. The politeness delay is then 
+     * based on the server's recent average fetch duration, lengthened in 
+     * proportion to its error rate, and applies to each parallel fetch.
+     */
+    {
+        setMaxPerHostParallelism(1);
+    }
+    public int getMaxPerHostParallelism() {
+        return (Integer) kp.get("maxPerHostParallelism");
+    }
+    public void setMaxPerHostParallelism(int max) {
+        kp.put("maxPerHostParallelism",max);
+    }
+    
+    /**
+     * Recent fraction of fetches ending in connection failure, timeout, 
+     * or 5XX/429 response above which a server's parallelism is reduced.
+     */
+    {
+        setParallelismMaxErrorRate(0.05f);
+    }
+    public float getParallelismMaxErrorRate() {
+        return (Float) kp.get("parallelismMaxErrorRate");
+    }
+    public void setParallelismMaxErrorRate(float rate) {
+        kp.put("parallelismMaxErrorRate",rate);
+    }
+    
+    /**
+     * Multiple of a server's best recent average latency above which its
+     * parallelism is reduced. 
+     */
+    {
+        setParallelismMaxLatencyFactor(2.0f);
+    }
+    public float getParallelismMaxLatencyFactor() {
+        return (Float) kp.get("parallelismMaxLatencyFactor");
+    }
+    public void setParallelismMaxLatencyFactor(float factor) {
+        kp.put("parallelismMaxLatencyFactor",factor);
+    }
+
     /** maximum per-host bandwidth usage */
     {
         setMaxPerHostBandwidthUsageKbSec(0);
@@ -208,7 +258,13 @@ public class DispositionProcessor extends Processor {
             }
         }
         
-        // set politeness delay
+        // set politeness delay and parallelism
+        if (getMaxPerHostParallelism() > 1 && server != null
+                && scheme.startsWith("http")) {
+            noteResponsiveness(curi, server.getResponsiveness());
+            curi.setPolitenessParallelism(
+                    parallelismFor(server.getResponsiveness()));
+        }
         curi.setPolitenessDelay(politenessDelayFor(curi));
         
         // consider operator-set force-retire
@@ -238,6 +294,19 @@ public class DispositionProcessor extends Processor {
             long completeTime = curi.getFetchCompletedTime();
             long durationTaken = (completeTime - curi.getFetchBeginTime());
             durationToWait = (long)(getDelayFactor() * durationTaken);
+            
+            if (getMaxPerHostParallelism() > 1) {
+                // adaptive: base on recent average, stretched by errors
+                CrawlServer s = getServerCache().getServerFor(curi.getUURI());
+                ServerResponsiveness r = (s == null) ? null 
+                        : s.getResponsiveness();
+                if (r != null && r.getAverageLatencyMs() >= 0) {
+                    float errorStretch = 1 + r.getErrorRate() 
+                        / Math.max(getParallelismMaxErrorRate(), 0.001f);
+                    durationToWait = (long)(getDelayFactor() 
+                            * r.getAverageLatencyMs() * errorStretch);
+                }
+            }
 
             long minDelay = getMinDelayMs();
             if (minDelay > durationToWait) {
@@ -294,4 +363,52 @@ public class DispositionProcessor extends Processor {
         }
         return durationToWait;
     }
+    
+    /**
+     * Add the outcome of the given URI's fetch, if any, to the server's
+     * responsiveness averages. 
+     * 
+     * @param curi
+     * @param r
+     */
+    protected void noteResponsiveness(CrawlURI curi, ServerResponsiveness r) {
+        Map<String,Object> cdata = curi.getData();
+        if (!cdata.containsKey(A_FETCH_BEGAN_TIME)
+                || !cdata.containsKey(A_FETCH_COMPLETED_TIME)) {
+            return;
+        }
+        int status = curi.getFetchStatus();
+        boolean error = status == S_CONNECT_FAILED 
+            || status == S_CONNECT_LOST || status == S_TIMEOUT 
+            || status >= 500 || status == 429;
+        r.note(curi.getFetchCompletedTime() - curi.getFetchBeginTime(),
+                curi.getContentSize(), error);
+    }
+    
+    /**
+     * Choose the number of parallel fetches to allow against a server, 
+     * adjusting at most once per round (as many fetches as the current 
+     * parallelism): additive increase while healthy, multiplicative 
+     * decrease when errors or latency rise. 
+     * 
+     * @param r server's responsiveness
+     * @return parallelism, between 1 and maxPerHostParallelism
+     */
+    protected int parallelismFor(ServerResponsiveness r) {
+        int max = getMaxPerHostParallelism();
+        synchronized (r) {
+            int p = Math.min(r.getParallelism(), max);
+            if (r.getObservationsSinceAdjustment() >= p) {
+                boolean slowed = r.getAverageLatencyMs() 
+                    > r.getBaselineLatencyMs() * getParallelismMaxLatencyFactor();
+                if (r.getErrorRate() > getParallelismMaxErrorRate() || slowed) {
+                    p = Math.max(1, p / 2);
+                } else if (p < max) {
+                    p++;
+                }
+            }
+            r.setParallelism(p);
+            return p;
+        }
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.processor;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.archive.crawler.framework.Frontier;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.extractor.Hop;
+import org.archive.net.PublicSuffixes;
+import org.archive.util.LongToIntConsistentHash;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import st.ata.util.FPGenerator;
+
+/**
+ * Maps URIs to one of a list of named crawler nodes by consistent
+ * hashing of the URI's (possibly-transformed) classKey. Unlike
+ * {@link HashCrawlMapper}, adding a node to the end of the list, or
+ * marking a node down, only moves the keys of the affected range
+ * rather than nearly all keys.
+ *
+ * <p>Placed in the candidates chain, URIs mapped elsewhere are passed
+ * to the configured {@link CrawlNodeTransport} (or diversion logs)
+ * instead of being scheduled. Placed also at the start of the fetch
+ * chain, with checkUri, already-queued URIs whose node has changed are
+ * passed on when they come up for fetching.
+ *
+ * <p>Prerequisites are always kept locally, as they must be fetched
+ * before the URI that needed them.
+ */
+public class ConsistentHashCrawlMapper extends CrawlMapper {
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger =
+        Logger.getLogger(ConsistentHashCrawlMapper.class.getName());
+
+    protected Frontier frontier;
+    public Frontier getFrontier() {
+        return this.frontier;
+    }
+    @Autowired
+    public void setFrontier(Frontier frontier) {
+        this.frontier = frontier;
+    }
+
+    /**
+     * Names of all crawler nodes, including this one (localName). Each
+     * node's position in the list determines its share of keys: new
+     * nodes should be appended, never inserted, and nodes leaving
+     * should be listed in downNodes rather than removed.
+     */
+    protected List<String> nodeNames = Collections.emptyList();
+    protected LongToIntConsistentHash conhash = new LongToIntConsistentHash();
+    public List<String> getNodeNames() {
+        return nodeNames;
+    }
+    public void setNodeNames(List<String> names) {
+        // build fully before publishing; readers never modify it
+        LongToIntConsistentHash newConhash = new LongToIntConsistentHash();
+        newConhash.installReplicasUpTo(names.size());
+        synchronized (this) {
+            this.conhash = newConhash;
+            this.nodeNames = new ArrayList<String>(names);
+            updateExcluded();
+        }
+    }
+
+    /**
+     * Names of nodes currently unavailable; their keys are spread over
+     * the remaining nodes.
+     */
+    protected Set<String> downNodes = new HashSet<String>();
+    protected BitSet excluded = new BitSet();
+    public Set<String> getDownNodes() {
+        return downNodes;
+    }
+    public synchronized void setDownNodes(Set<String> names) {
+        this.downNodes = new HashSet<String>(names);
+        updateExcluded();
+    }
+
+    public synchronized void markDown(String name) {
+        downNodes.add(name);
+        updateExcluded();
+    }
+
+    public synchronized void markUp(String name) {
+        downNodes.remove(name);
+        updateExcluded();
+    }
+
+    protected void updateExcluded() {
+        BitSet newExcluded = new BitSet();
+        for (int i = 0; i < nodeNames.size(); i++) {
+            if (downNodes.contains(nodeNames.get(i))) {
+                newExcluded.set(i);
+            }
+        }
+        excluded = newExcluded;
+    }
+
+    /**
+     * Whether to reduce the classKey to its topmost assigned domain
+     * (per the PublicSuffixes-supplied regex), so that all subdomains
+     * of a site map to the same node.
+     */
+    {
+        setUsePublicSuffixesRegex(false);
+    }
+    public boolean getUsePublicSuffixesRegex() {
+        return (Boolean) kp.get("usePublicSuffixesRegex");
+    }
+    public void setUsePublicSuffixesRegex(boolean usePublicSuffixes) {
+        kp.put("usePublicSuffixesRegex",usePublicSuffixes);
+    }
+
+    public ConsistentHashCrawlMapper() {
+        super();
+    }
+
+    @Override
+    protected String map(CrawlURI cauri) {
+        if (cauri.getPathFromSeed().endsWith(Hop.PREREQ.getHopString())) {
+            return localName;
+        }
+        String key = frontier.getClassKey(cauri);
+        // parallel queues of one site share a node
+        int plus = key.indexOf('+');
+        if (plus > 0) {
+            key = key.substring(0, plus);
+        }
+        return mapKey(key);
+    }
+
+    /**
+     * Map the given classKey to a node name.
+     *
+     * @param key classKey
+     * @return node name
+     */
+    public String mapKey(String key) {
+        List<String> names;
+        LongToIntConsistentHash hash;
+        BitSet skip;
+        synchronized (this) {
+            names = nodeNames;
+            hash = conhash;
+            skip = excluded;
+        }
+        if (skip.cardinality() >= names.size()) {
+            // no (live) nodes: keep everything
+            return localName;
+        }
+        if (getUsePublicSuffixesRegex()) {
+            key = HashCrawlMapper.reduce(key,
+                    PublicSuffixes.getTopmostAssignedSurtPrefixRegex());
+        }
+        return names.get(hash.bucketFor(
+                FPGenerator.std64.fp(key), names.size(), skip));
+    }
+
+    @Override
+    public void start() {
+        if (isRunning()) {
+            return;
+        }
+        super.start();
+        if (!nodeNames.contains(localName)) {
+            logger.warning("localName '" + localName
+                    + "' not among nodeNames " + nodeNames
+                    + "; all URIs will be sent elsewhere");
+        }
+    }
+}
@@ -59,6 +59,10 @@ import st.ata.util.FPGenerator;
  *
  * <p>If using the JMX importUris operation importing URLs dropped by
  * a {@link CrawlMapper} instance, use <code>recoveryLog</code> style.
+ *
+ * <p>Alternatively, if a {@link CrawlNodeTransport} is configured, diverted
+ * URIs are instead sent, in batches, straight to the other crawlers'
+ * frontiers.
  * 
  * @author gojomo
  * @version $Date$, $Revision$
@@ -153,6 +157,18 @@ public abstract class CrawlMapper extends Processor implements Lifecycle {
         this.rotationDigits = digits; 
     }
 
+    /**
+     * Transport sending diverted URIs directly to other crawlers, rather
+     * than to diversion logs. Default is none (use diversion logs).
+     */
+    CrawlNodeTransport transport = null;
+    public CrawlNodeTransport getTransport() {
+        return this.transport;
+    }
+    public void setTransport(CrawlNodeTransport transport) {
+        this.transport = transport;
+    }
+
     /**
      * Mapping of target crawlers to logs (PrintWriters)
      */
@@ -206,7 +222,7 @@ public abstract class CrawlMapper extends Processor implements Lifecycle {
                 // CrawlURI is mapped to somewhere other than here
                 curi.setFetchStatus(S_BLOCKED_BY_CUSTOM_PROCESSOR);
                 curi.getAnnotations().add("to:"+target);
-                divertLog(curi,target);
+                divert(curi,target);
                 return ProcessResult.FINISH;
             } else {
                 // localName means keep locally; do nothing
@@ -224,7 +240,7 @@ public abstract class CrawlMapper extends Processor implements Lifecycle {
                     if(!localName.equals(target)) {
                         // CrawlURI is mapped to somewhere other than here
                         iter.remove();
-                        divertLog(cauri,target);
+                        divert(cauri,target);
                     } else {
                         // localName means keep locally; do nothing
                     }
@@ -272,6 +288,25 @@ public abstract class CrawlMapper extends Processor implements Lifecycle {
     protected abstract String map(CrawlURI cauri);
 
     
+    /**
+     * Send the given CrawlURI to the given crawler node, by transport
+     * if configured, otherwise by diversion log. 
+     * 
+     * @param cauri CrawlURI to divert
+     * @param target String node name to receive URI
+     */
+    protected void divert(CrawlURI cauri, String target) {
+        if(transport == null) {
+            divertLog(cauri,target);
+            return;
+        }
+        // unsynchronized cache use may rarely let a duplicate through;
+        // the receiving frontier's uniqueness filter still applies
+        if(!recentlySeen(cauri)) {
+            transport.divert(cauri,target);
+        }
+    }
+
     /**
      * Note the given CrawlURI in the appropriate diversion log. 
      * 
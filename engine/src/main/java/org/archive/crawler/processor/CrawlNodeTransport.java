@@ -0,0 +1,279 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.processor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.crawler.framework.Frontier;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURI;
+import org.archive.net.UURIFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.Lifecycle;
+
+/**
+ * Carries URIs diverted by a {@link CrawlMapper} to the frontiers of
+ * other crawler nodes, and schedules URIs received from other nodes
+ * into the local frontier.
+ *
+ * <p>Outgoing URIs are batched per target node; a batch is sent once it
+ * holds batchSize URIs, or once flushIntervalMs has passed since its
+ * first URI. URIs of a batch that cannot be sent are scheduled locally
+ * instead, so that none are lost while a node is unreachable.
+ *
+ * <p>URIs travel as 'uri hopsPath via' lines, much like the recovery
+ * journal's.
+ * Subclasses supply the actual delivery: {@link #send(String, List)},
+ * and a call to {@link #received(List)} on the receiving node.
+ *
+ * <p>As a node's frontier may be exhausted while others still have URIs
+ * to send it, crawls spread over several nodes should set the
+ * CrawlController's pauseAtFinish, and be ended by the operator once
+ * all nodes are paused.
+ */
+public abstract class CrawlNodeTransport implements Lifecycle {
+    private static final Logger logger =
+        Logger.getLogger(CrawlNodeTransport.class.getName());
+
+    protected Frontier frontier;
+    public Frontier getFrontier() {
+        return this.frontier;
+    }
+    @Autowired
+    public void setFrontier(Frontier frontier) {
+        this.frontier = frontier;
+    }
+
+    /**
+     * Number of URIs to gather for a node before sending them.
+     */
+    protected int batchSize = 500;
+    public int getBatchSize() {
+        return batchSize;
+    }
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Longest time, in milliseconds, a URI may wait in an unsent batch.
+     */
+    protected long flushIntervalMs = 1000;
+    public long getFlushIntervalMs() {
+        return flushIntervalMs;
+    }
+    public void setFlushIntervalMs(long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /** unsent batches, by target node name */
+    protected Map<String,List<String>> batches =
+        new HashMap<String,List<String>>();
+    /** when each unsent batch got its first URI */
+    protected Map<String,Long> batchStarts = new HashMap<String,Long>();
+
+    protected AtomicLong sentUris = new AtomicLong();
+    protected AtomicLong receivedUris = new AtomicLong();
+    protected AtomicLong keptUris = new AtomicLong();
+
+    protected Thread flusher;
+
+    /**
+     * Queue the given URI for sending to the given node.
+     *
+     * @param curi URI to send
+     * @param target name of node to receive it
+     */
+    public void divert(CrawlURI curi, String target) {
+        String line = curi.getURI() + " "
+            + orDash(curi.getPathFromSeed()) + " "
+            + orDash(curi.getVia() == null ? null : curi.getVia().toString());
+        List<String> full = null;
+        synchronized (batches) {
+            List<String> batch = batches.get(target);
+            if (batch == null) {
+                batch = new ArrayList<String>(batchSize);
+                batches.put(target, batch);
+                batchStarts.put(target, System.currentTimeMillis());
+            }
+            batch.add(line);
+            if (batch.size() >= batchSize) {
+                full = batch;
+                batches.remove(target);
+                batchStarts.remove(target);
+            }
+        }
+        if (full != null) {
+            flush(target, full);
+        }
+    }
+
+    /**
+     * Send the given batch, scheduling it locally if it cannot be sent.
+     */
+    protected void flush(String target, List<String> batch) {
+        try {
+            send(target, batch);
+            sentUris.addAndGet(batch.size());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "unable to send " + batch.size()
+                    + " URIs to " + target + "; keeping them locally", e);
+            keptUris.addAndGet(batch.size());
+            schedule(batch);
+        }
+    }
+
+    /**
+     * Send all batches older than flushIntervalMs, or all batches.
+     *
+     * @param all whether to send all batches regardless of age
+     */
+    public void flush(boolean all) {
+        Map<String,List<String>> due = new HashMap<String,List<String>>();
+        long cutoff = System.currentTimeMillis() - flushIntervalMs;
+        synchronized (batches) {
+            for (String target : new ArrayList<String>(batches.keySet())) {
+                if (all || batchStarts.get(target) <= cutoff) {
+                    due.put(target, batches.remove(target));
+                    batchStarts.remove(target);
+                }
+            }
+        }
+        for (Map.Entry<String,List<String>> entry : due.entrySet()) {
+            flush(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Deliver a batch of URI lines to the named node, where they are to
+     * be passed to {@link #received(List)}, returning only once that
+     * node has taken them.
+     *
+     * @param target node name
+     * @param lines URI lines
+     * @throws IOException if the batch could not be delivered, or its
+     * delivery was not confirmed
+     */
+    protected abstract void send(String target, List<String> lines)
+    throws IOException;
+
+    /**
+     * Schedule a batch of URI lines received from another node.
+     *
+     * @param lines URI lines
+     */
+    protected void received(List<String> lines) {
+        receivedUris.addAndGet(lines.size());
+        schedule(lines);
+    }
+
+    protected void schedule(List<String> lines) {
+        for (String line : lines) {
+            try {
+                schedule(fromLine(line));
+            } catch (URIException e) {
+                logger.log(Level.WARNING, "bad URI line: " + line, e);
+            }
+        }
+    }
+
+    protected static String orDash(String field) {
+        return (field == null || field.length() == 0) ? "-" : field;
+    }
+
+    /**
+     * Recreate a CrawlURI from a line made by {@link #divert}.
+     *
+     * @param line 'uri hopsPath via' line, empty fields given as '-'
+     * @return CrawlURI
+     * @throws URIException if the line does not hold valid URIs
+     */
+    protected static CrawlURI fromLine(String line) throws URIException {
+        String[] fields = line.split(" ");
+        if (fields.length != 3) {
+            throw new URIException("malformed line");
+        }
+        UURI uuri = UURIFactory.getInstance(fields[0]);
+        String pathFromSeed = "-".equals(fields[1]) ? "" : fields[1];
+        UURI via = "-".equals(fields[2])
+            ? null : UURIFactory.getInstance(fields[2]);
+        return new CrawlURI(uuri, pathFromSeed, via, null);
+    }
+
+    protected void schedule(CrawlURI curi) {
+        frontier.schedule(curi);
+    }
+
+    /** @return URIs sent to other nodes */
+    public long getSentUris() {
+        return sentUris.get();
+    }
+
+    /** @return URIs received from other nodes */
+    public long getReceivedUris() {
+        return receivedUris.get();
+    }
+
+    /** @return URIs scheduled locally after their node was unreachable */
+    public long getKeptUris() {
+        return keptUris.get();
+    }
+
+    public void start() {
+        if (isRunning()) {
+            return;
+        }
+        flusher = new Thread("crawlNodeTransportFlusher") {
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        Thread.sleep(Math.max(flushIntervalMs / 2, 10));
+                        flush(false);
+                    }
+                } catch (InterruptedException e) {
+                    // exit
+                }
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public boolean isRunning() {
+        return flusher != null;
+    }
+
+    public void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        flusher.interrupt();
+        flusher = null;
+        flush(true);
+    }
+}
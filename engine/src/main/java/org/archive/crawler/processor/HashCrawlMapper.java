@@ -120,7 +120,21 @@ public class HashCrawlMapper extends CrawlMapper {
 
     public static String mapString(String key, String reducePattern,
             long bucketCount) {
+        key = reduce(key, reducePattern);
+        long fp = FPGenerator.std64.fp(key);
+        long bucket = fp % bucketCount;
+        return Long.toString(bucket >= 0 ? bucket : -bucket);
+    }
 
+    /**
+     * Reduce the given key to the first match of the given pattern, if
+     * any.
+     * 
+     * @param key String to reduce
+     * @param reducePattern regex; null or empty for no reduction
+     * @return reduced key
+     */
+    public static String reduce(String key, String reducePattern) {
         if (reducePattern != null && reducePattern.length()>0) {
             Matcher matcher = TextUtils.getMatcher(reducePattern,key);
             if(matcher.find()) {
@@ -128,8 +142,6 @@ public class HashCrawlMapper extends CrawlMapper {
             }
             TextUtils.recycleMatcher(matcher);
         }
-        long fp = FPGenerator.std64.fp(key);
-        long bucket = fp % bucketCount;
-        return Long.toString(bucket >= 0 ? bucket : -bucket);
+        return key;
     }
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.processor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * CrawlNodeTransport between crawler nodes (jobs) in the same JVM, for
+ * testing. Each running instance registers under its nodeName, which
+ * should match its CrawlMapper's localName.
+ */
+public class LoopbackCrawlNodeTransport extends CrawlNodeTransport {
+    protected static final ConcurrentMap<String,LoopbackCrawlNodeTransport>
+        NODES = new ConcurrentHashMap<String,LoopbackCrawlNodeTransport>();
+
+    /**
+     * Name under which this node receives URIs.
+     */
+    protected String nodeName;
+    public String getNodeName() {
+        return nodeName;
+    }
+    public void setNodeName(String nodeName) {
+        this.nodeName = nodeName;
+    }
+
+    protected void send(String target, List<String> lines) throws IOException {
+        LoopbackCrawlNodeTransport node = NODES.get(target);
+        if (node == null) {
+            throw new IOException("no such node: " + target);
+        }
+        node.received(new ArrayList<String>(lines));
+    }
+
+    public void start() {
+        if (isRunning()) {
+            return;
+        }
+        super.start();
+        NODES.put(getNodeName(), this);
+    }
+
+    public void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        NODES.remove(getNodeName(), this);
+        super.stop();
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.processor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * CrawlNodeTransport over plain TCP connections. Each node listens on
+ * listenPort; batches are sent as UTF-8 URI lines, each batch ended by
+ * an empty line, over one persistent connection per target node. The
+ * receiving node acknowledges each batch, once scheduled, with an
+ * "ok" line; a batch not acknowledged within timeoutMs is resent once,
+ * on a fresh connection, and then kept locally. (So a batch may, rarely,
+ * be scheduled twice; the frontier ignores the duplicates.)
+ *
+ * <p>There is no authentication or encryption: nodes should only be
+ * reachable from each other. So by default a node listens only on the
+ * loopback interface; set listenAddress to the address other nodes
+ * reach it by.
+ */
+public class SocketCrawlNodeTransport extends CrawlNodeTransport {
+    private static final Logger logger =
+        Logger.getLogger(SocketCrawlNodeTransport.class.getName());
+
+    /**
+     * Port on which to accept URIs from other nodes.
+     */
+    protected int listenPort = 7776;
+    public int getListenPort() {
+        return listenPort;
+    }
+    public void setListenPort(int listenPort) {
+        this.listenPort = listenPort;
+    }
+
+    /**
+     * Local address on which to accept URIs from other nodes; by default
+     * loopback only, so other hosts' nodes need an explicit address. 
+     * "0.0.0.0" listens on all interfaces.
+     */
+    protected String listenAddress = "127.0.0.1";
+    public String getListenAddress() {
+        return listenAddress;
+    }
+    public void setListenAddress(String listenAddress) {
+        this.listenAddress = listenAddress;
+    }
+
+    /**
+     * 'host:port' addresses of other nodes, by node name.
+     */
+    protected Map<String,String> nodeAddresses = new HashMap<String,String>();
+    public Map<String,String> getNodeAddresses() {
+        return nodeAddresses;
+    }
+    public void setNodeAddresses(Map<String,String> nodeAddresses) {
+        this.nodeAddresses = nodeAddresses;
+    }
+
+    /**
+     * Milliseconds to wait when connecting to, sending to, or awaiting
+     * acknowledgement from, another node.
+     */
+    protected int timeoutMs = 30000;
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+    public void setTimeoutMs(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /** line acknowledging a batch */
+    protected static final String ACK = "ok";
+
+    protected ServerSocket serverSocket;
+    protected Map<String,Socket> connections = new HashMap<String,Socket>();
+    /** per target node, lock held while connecting */
+    protected Map<String,Object> connectLocks = new HashMap<String,Object>();
+    protected List<Socket> accepted = new ArrayList<Socket>();
+
+    protected void send(String target, List<String> lines) throws IOException {
+        Socket socket = connection(target);
+        synchronized (socket) {
+            try {
+                write(socket, lines);
+            } catch (IOException e) {
+                // stale connection; retry once on a fresh one
+                close(target, socket);
+                socket = connection(target);
+                synchronized (socket) {
+                    write(socket, lines);
+                }
+            }
+        }
+    }
+
+    protected void write(Socket socket, List<String> lines)
+    throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                socket.getOutputStream(), "UTF-8"));
+        for (String line : lines) {
+            out.write(line);
+            out.write('\n');
+        }
+        out.write('\n');
+        out.flush();
+        readAck(socket);
+    }
+
+    /**
+     * Wait, up to the socket's timeout, for the receiver's
+     * acknowledgement of a batch.
+     *
+     * @throws IOException if none arrives
+     */
+    protected void readAck(Socket socket) throws IOException {
+        // read bytewise: nothing else arrives, and no reader should
+        // outlive the batch
+        InputStream in = socket.getInputStream();
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new EOFException("connection closed before ack");
+            }
+            line.append((char) c);
+        }
+        if (!ACK.equals(line.toString())) {
+            throw new IOException("unexpected ack: " + line);
+        }
+    }
+
+    /**
+     * @return the open connection to the target node, first connecting
+     * if there is none. Connecting (which may take up to timeoutMs) holds
+     * only the target's own lock, so sends to other nodes go on.
+     */
+    protected Socket connection(String target) throws IOException {
+        Object lock;
+        synchronized (connections) {
+            Socket socket = connections.get(target);
+            if (socket != null) {
+                return socket;
+            }
+            lock = connectLocks.get(target);
+            if (lock == null) {
+                lock = new Object();
+                connectLocks.put(target, lock);
+            }
+        }
+        synchronized (lock) {
+            synchronized (connections) {
+                Socket socket = connections.get(target);
+                if (socket != null) {
+                    // another thread connected meanwhile
+                    return socket;
+                }
+            }
+            String address = nodeAddresses.get(target);
+            if (address == null) {
+                throw new IOException("no address for node: " + target);
+            }
+            int colon = address.lastIndexOf(':');
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(
+                        address.substring(0, colon),
+                        Integer.parseInt(address.substring(colon + 1))),
+                        timeoutMs);
+                socket.setSoTimeout(timeoutMs);
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                closeQuietly(socket);
+                throw e;
+            }
+            synchronized (connections) {
+                if (!isRunning()) {
+                    closeQuietly(socket);
+                    throw new IOException("transport stopped");
+                }
+                connections.put(target, socket);
+            }
+            return socket;
+        }
+    }
+
+    protected void close(String target, Socket socket) {
+        synchronized (connections) {
+            if (connections.get(target) == socket) {
+                connections.remove(target);
+            }
+        }
+        closeQuietly(socket);
+    }
+
+    protected static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Read batches from an accepted connection until it is closed.
+     */
+    protected void receiveFrom(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), "UTF-8"));
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    socket.getOutputStream(), "UTF-8"));
+            List<String> batch = new ArrayList<String>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.length() > 0) {
+                    batch.add(line);
+                } else {
+                    if (!batch.isEmpty()) {
+                        received(batch);
+                        batch = new ArrayList<String>();
+                    }
+                    out.write(ACK);
+                    out.write('\n');
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            if (isRunning()) {
+                logger.log(Level.INFO, "connection from "
+                        + socket.getRemoteSocketAddress() + " ended", e);
+            }
+        } finally {
+            synchronized (accepted) {
+                accepted.remove(socket);
+            }
+            closeQuietly(socket);
+        }
+    }
+
+    public void start() {
+        if (isRunning()) {
+            return;
+        }
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(
+                    new InetSocketAddress(listenAddress, listenPort));
+        } catch (IOException e) {
+            throw new IllegalStateException("unable to listen on " 
+                    + listenAddress + ":" + listenPort, e);
+        }
+        super.start();
+        Thread acceptor = new Thread("crawlNodeTransportAcceptor") {
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    final Socket socket;
+                    try {
+                        socket = serverSocket.accept();
+                    } catch (IOException e) {
+                        if (!serverSocket.isClosed()) {
+                            logger.log(Level.WARNING, "accept failed", e);
+                        }
+                        continue;
+                    }
+                    synchronized (accepted) {
+                        accepted.add(socket);
+                    }
+                    Thread reader = new Thread("crawlNodeTransportReader-"
+                            + socket.getRemoteSocketAddress()) {
+                        public void run() {
+                            receiveFrom(socket);
+                        }
+                    };
+                    reader.setDaemon(true);
+                    reader.start();
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        super.stop();
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        synchronized (connections) {
+            for (Socket socket : connections.values()) {
+                closeQuietly(socket);
+            }
+            connections.clear();
+        }
+        synchronized (accepted) {
+            for (Socket socket : accepted) {
+                closeQuietly(socket);
+            }
+        }
+    }
+}
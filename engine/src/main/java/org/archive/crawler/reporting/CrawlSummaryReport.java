@@ -46,8 +46,8 @@ public class CrawlSummaryReport extends Report {
         writer.println("seeds uncrawled: " + (stats.seedsTotal - stats.seedsCrawled));
         writer.println();
 
-        // hostsDistribution contains all hosts crawled plus an entry for dns.
-        writer.println("hosts visited: " + (stats.hostsDistribution.size()-1));
+        // hosts crawled include an entry for dns.
+        writer.println("hosts visited: " + (stats.getHostsCrawledCount()-1));
         writer.println();
 
         // URI totals
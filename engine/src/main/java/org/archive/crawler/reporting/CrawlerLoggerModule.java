@@ -24,8 +24,8 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -41,6 +41,7 @@ import org.archive.crawler.io.UriErrorFormatter;
 import org.archive.crawler.io.UriProcessingFormatter;
 import org.archive.crawler.util.Logs;
 import org.archive.io.GenerationFileHandler;
+import org.archive.io.RingBufferFileHandler;
 import org.archive.modules.extractor.UriErrorLoggerModule;
 import org.archive.net.UURI;
 import org.archive.spring.ConfigPath;
@@ -142,6 +143,68 @@ public class CrawlerLoggerModule
         this.nonfatalErrorsLogPath.merge(cp);
     }
     
+    /**
+     * Whether the crawl, URI-error, runtime-error and nonfatal-error logs
+     * are written asynchronously, by a writer thread per log, rather than
+     * by each logging thread in turn. 
+     */
+    protected boolean asyncLogging = true;
+    public boolean getAsyncLogging() {
+        return asyncLogging;
+    }
+    public void setAsyncLogging(boolean asyncLogging) {
+        this.asyncLogging = asyncLogging;
+    }
+
+    /**
+     * Lines which may await an asynchronous log's writer before logging
+     * threads must wait.
+     */
+    protected int asyncLogCapacity = 16384;
+    public int getAsyncLogCapacity() {
+        return asyncLogCapacity;
+    }
+    public void setAsyncLogCapacity(int asyncLogCapacity) {
+        this.asyncLogCapacity = asyncLogCapacity;
+    }
+
+    /**
+     * Bytes an asynchronous log's writer accumulates for each write.
+     */
+    protected int asyncLogWriteBytes = 256 * 1024;
+    public int getAsyncLogWriteBytes() {
+        return asyncLogWriteBytes;
+    }
+    public void setAsyncLogWriteBytes(int asyncLogWriteBytes) {
+        this.asyncLogWriteBytes = asyncLogWriteBytes;
+    }
+
+    /**
+     * Longest, in milliseconds, an asynchronous log holds lines awaiting 
+     * more before writing them when logging is slow; 0 writes whenever 
+     * no lines are waiting.
+     */
+    protected long asyncLogFlushIntervalMs = 1000;
+    public long getAsyncLogFlushIntervalMs() {
+        return asyncLogFlushIntervalMs;
+    }
+    public void setAsyncLogFlushIntervalMs(long asyncLogFlushIntervalMs) {
+        this.asyncLogFlushIntervalMs = asyncLogFlushIntervalMs;
+    }
+
+    /**
+     * Shortest interval, in milliseconds, between forcing written
+     * asynchronous log data to disk (fsync); 0 forces only on rotation
+     * (as at checkpoints) and close.
+     */
+    protected long asyncLogSyncIntervalMs = 0;
+    public long getAsyncLogSyncIntervalMs() {
+        return asyncLogSyncIntervalMs;
+    }
+    public void setAsyncLogSyncIntervalMs(long asyncLogSyncIntervalMs) {
+        this.asyncLogSyncIntervalMs = asyncLogSyncIntervalMs;
+    }
+
     /** suffix to use on active logs */
 //    public static final String CURRENT_LOG_SUFFIX = ".log";
     
@@ -191,7 +254,7 @@ public class CrawlerLoggerModule
      * Record of fileHandlers established for loggers,
      * assisting file rotation.
      */
-    transient private Map<Logger,FileHandler> fileHandlers;
+    transient private Map<Logger,Handler> fileHandlers;
 
     private StringBuffer manifest = new StringBuffer();
     
@@ -235,35 +298,46 @@ public class CrawlerLoggerModule
         progressStats = Logger.getLogger(LOGNAME_PROGRESS_STATISTICS + "." +
             logsPath);
 
-        this.fileHandlers = new HashMap<Logger,FileHandler>();
+        this.fileHandlers = new HashMap<Logger,Handler>();
         setupLogFile(uriProcessing,
             getCrawlLogPath().getFile().getAbsolutePath(),
-            new UriProcessingFormatter(), true);
+            new UriProcessingFormatter(), true, getAsyncLogging());
 
         setupLogFile(runtimeErrors,
             getRuntimeErrorsLogPath().getFile().getAbsolutePath(),
-            new RuntimeErrorFormatter(), true);
+            new RuntimeErrorFormatter(), true, getAsyncLogging());
 
         setupLogFile(nonfatalErrors,
             getNonfatalErrorsLogPath().getFile().getAbsolutePath(),
-            new NonFatalErrorFormatter(), true);
+            new NonFatalErrorFormatter(), true, getAsyncLogging());
 
         setupLogFile(uriErrors,
             getUriErrorsLogPath().getFile().getAbsolutePath(),
-            new UriErrorFormatter(), true);
+            new UriErrorFormatter(), true, getAsyncLogging());
 
         setupLogFile(progressStats,
             getProgressLogPath().getFile().getAbsolutePath(),
-            new StatisticsLogFormatter(), true);
+            new StatisticsLogFormatter(), true, false);
 
         setupAlertLog(logsPath);
     }
 
     private void setupLogFile(Logger logger, String filename, Formatter f,
-            boolean shouldManifest) throws IOException, SecurityException {
+            boolean shouldManifest, boolean async) 
+    throws IOException, SecurityException {
         logger.setLevel(Level.INFO); // set all standard loggers to INFO
-        GenerationFileHandler fh = GenerationFileHandler.makeNew(filename, false,
-            shouldManifest);
+        Handler fh;
+        if (async) {
+            RingBufferFileHandler rbfh = RingBufferFileHandler.makeNew(
+                    filename, shouldManifest, getAsyncLogCapacity(), 
+                    getAsyncLogWriteBytes());
+            rbfh.setFlushIntervalMs(getAsyncLogFlushIntervalMs());
+            rbfh.setSyncIntervalMs(getAsyncLogSyncIntervalMs());
+            fh = rbfh;
+        } else {
+            fh = GenerationFileHandler.makeNew(filename, false,
+                shouldManifest);
+        }
         fh.setFormatter(f);
         logger.addHandler(fh);
         addToManifest(filename, MANIFEST_LOG_FILE, shouldManifest);
@@ -294,8 +368,18 @@ public class CrawlerLoggerModule
     protected void rotateLogFiles(String generationSuffix)
     throws IOException {
         for (Logger l: fileHandlers.keySet()) {
-            GenerationFileHandler gfh =
-                (GenerationFileHandler)fileHandlers.get(l);
+            Handler h = fileHandlers.get(l);
+            if (h instanceof RingBufferFileHandler) {
+                // rotates in place, keeping lines logged meanwhile
+                RingBufferFileHandler rbfh = (RingBufferFileHandler) h;
+                rbfh.rotate(generationSuffix, "");
+                if (rbfh.shouldManifest()) {
+                    addToManifest((String) rbfh.getFilenameSeries().get(1),
+                        MANIFEST_LOG_FILE, rbfh.shouldManifest());
+                }
+                continue;
+            }
+            GenerationFileHandler gfh = (GenerationFileHandler) h;
             GenerationFileHandler newGfh =
                 gfh.rotate(generationSuffix, "");
             if (gfh.shouldManifest()) {
@@ -313,10 +397,9 @@ public class CrawlerLoggerModule
      */
     public void closeLogFiles() {
        for (Logger l: fileHandlers.keySet()) {
-            GenerationFileHandler gfh =
-                (GenerationFileHandler)fileHandlers.get(l);
-            gfh.close();
-            l.removeHandler(gfh);
+            Handler h = fileHandlers.get(l);
+            h.close();
+            l.removeHandler(h);
         }
     }
 
@@ -0,0 +1,65 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.reporting;
+
+import java.io.PrintWriter;
+import java.util.Map;
+
+import org.archive.util.ArchiveUtils;
+import org.archive.util.LatencyHistogram.Snapshot;
+
+/**
+ * Sampled latency distributions of each processor chain, each processor,
+ * and the frontier's next() and finished(), in milliseconds. 
+ */
+public class LatencyReport extends Report {
+
+    @Override
+    public void write(PrintWriter writer) {
+        writer.print("Latency report - " + ArchiveUtils.get12DigitDate() 
+                + "\n");
+        writer.print(" [name] [count] [mean] [p50] [p90] [p99] [p99.9] "
+                + "[max] (ms)\n");
+        Map<String,Snapshot> snapshots = 
+            new LatencyStats(stats.controller).getSnapshots();
+        boolean any = false;
+        for (Map.Entry<String,Snapshot> entry : snapshots.entrySet()) {
+            String name = entry.getKey();
+            boolean processor = name.indexOf('.') >= 0 
+                && !name.startsWith("frontier.");
+            writer.print(processor ? "  " : "");
+            writer.print(name);
+            writer.print(" ");
+            writer.print(entry.getValue());
+            writer.print("\n");
+            any |= entry.getValue().getCount() > 0;
+        }
+        if (!any) {
+            writer.print("\nNothing sampled: set latencySampleInterval on "
+                    + "the processor chains and frontier to enable timing.\n");
+        }
+    }
+
+    @Override
+    public String getFilename() {
+        return "latency-report.txt";
+    }
+
+}
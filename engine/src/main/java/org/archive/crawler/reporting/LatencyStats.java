@@ -0,0 +1,132 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.reporting;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.archive.crawler.framework.CrawlController;
+import org.archive.crawler.frontier.AbstractFrontier;
+import org.archive.modules.Processor;
+import org.archive.modules.ProcessorChain;
+import org.archive.util.LatencyHistogram;
+import org.archive.util.LatencyHistogram.Snapshot;
+
+/**
+ * Gathers a crawl's latency histograms -- each processor chain and
+ * processor, and the frontier's next() and finished() -- under dotted
+ * names (as 'fetchChain.fetchHttp' or 'frontier.next'). Timing is sampled
+ * as configured by each chain's and the frontier's latencySampleInterval;
+ * steps never sampled report zero counts.
+ */
+public class LatencyStats implements LatencyStatsMBean {
+    protected CrawlController controller;
+
+    public LatencyStats(CrawlController controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * @return all histograms, by name, chains in crawl order each followed
+     * by its processors
+     */
+    public Map<String,LatencyHistogram> getHistograms() {
+        Map<String,LatencyHistogram> histograms =
+            new LinkedHashMap<String,LatencyHistogram>();
+        if (controller.getFrontier() instanceof AbstractFrontier) {
+            AbstractFrontier frontier = 
+                (AbstractFrontier) controller.getFrontier();
+            histograms.put("frontier.next", frontier.getNextLatency());
+        }
+        addChain(histograms, "fetchChain", controller.getFetchChain());
+        addChain(histograms, "candidateChain",
+                controller.getCandidateChain());
+        addChain(histograms, "dispositionChain",
+                controller.getDispositionChain());
+        if (controller.getFrontier() instanceof AbstractFrontier) {
+            AbstractFrontier frontier = 
+                (AbstractFrontier) controller.getFrontier();
+            histograms.put("frontier.finished", 
+                    frontier.getFinishedLatency());
+        }
+        return histograms;
+    }
+
+    protected void addChain(Map<String,LatencyHistogram> histograms,
+            String name, ProcessorChain chain) {
+        if (chain == null) {
+            return;
+        }
+        histograms.put(name, chain.getLatency());
+        for (Processor p : chain) {
+            histograms.put(name + "." + p.getBeanName(), p.getLatency());
+        }
+    }
+
+    /**
+     * @return snapshots of all histograms, by name
+     */
+    public Map<String,Snapshot> getSnapshots() {
+        Map<String,Snapshot> snapshots = new LinkedHashMap<String,Snapshot>();
+        for (Map.Entry<String,LatencyHistogram> entry 
+                : getHistograms().entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    protected Snapshot snapshot(String name) {
+        LatencyHistogram histogram = getHistograms().get(name);
+        if (histogram == null) {
+            throw new IllegalArgumentException("no latencies named " + name);
+        }
+        return histogram.snapshot();
+    }
+
+    public String[] getNames() {
+        return getHistograms().keySet().toArray(new String[0]);
+    }
+
+    public String[] getSummaries() {
+        Map<String,Snapshot> snapshots = getSnapshots();
+        String[] summaries = new String[snapshots.size()];
+        int i = 0;
+        for (Map.Entry<String,Snapshot> entry : snapshots.entrySet()) {
+            summaries[i++] = entry.getKey() + " " + entry.getValue();
+        }
+        return summaries;
+    }
+
+    public long getCount(String name) {
+        return snapshot(name).getCount();
+    }
+
+    public double getMean(String name) {
+        return snapshot(name).getMean();
+    }
+
+    public long getMax(String name) {
+        return snapshot(name).getMax();
+    }
+
+    public long getValueAtPercentile(String name, double percentile) {
+        return snapshot(name).getValueAtPercentile(percentile);
+    }
+}
@@ -25,6 +25,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -35,9 +36,13 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.archive.bdb.BdbModule;
 import org.archive.bdb.DisposableStoredSortedMap;
 import org.archive.checkpointing.Checkpoint;
@@ -50,8 +55,9 @@ import org.archive.crawler.framework.Engine;
 import org.archive.crawler.util.CrawledBytesHistotable;
 import org.archive.crawler.util.TopNSet;
 import org.archive.modules.CrawlURI;
+import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.ServerCache;
-import org.archive.modules.seeds.SeedListener;
+import org.archive.modules.seeds.ConcurrentSeedListener;
 import org.archive.modules.seeds.SeedModule;
 import org.archive.spring.ConfigPath;
 import org.archive.util.ArchiveUtils;
@@ -129,7 +135,7 @@ public class StatisticsTracker
     implements 
         ApplicationContextAware, 
         ApplicationListener,
-        SeedListener,
+        ConcurrentSeedListener,
         Lifecycle, 
         Runnable, 
         Checkpointable,
@@ -176,6 +182,22 @@ public class StatisticsTracker
         this.liveHostReportSize = liveHostReportSize;
     }
     
+    /**
+     * Reports requested during a crawl (as from the web UI) reuse a file 
+     * written within this many seconds, rather than generating it again.
+     */
+    protected int reportMaxAgeSeconds = 10;
+    public int getReportMaxAgeSeconds() {
+        return reportMaxAgeSeconds;
+    }
+    public void setReportMaxAgeSeconds(int reportMaxAgeSeconds) {
+        this.reportMaxAgeSeconds = reportMaxAgeSeconds;
+    }
+    
+    /** threads writing requested reports, by report class name */
+    protected ConcurrentMap<String,Thread> reportsInProgress = 
+        new ConcurrentHashMap<String,Thread>();
+    
     ApplicationContext appCtx;
     public void setApplicationContext(ApplicationContext appCtx) throws BeansException {
         this.appCtx = appCtx;
@@ -199,6 +221,7 @@ public class StatisticsTracker
         MimetypesReport.class, 
         ResponseCodeReport.class, 
         ProcessorsReport.class,
+        LatencyReport.class,
         FrontierSummaryReport.class, 
         FrontierNonemptyReport.class, 
         ToeThreadsReport.class,
@@ -216,6 +239,7 @@ public class StatisticsTracker
         MimetypesReport.class, 
         ResponseCodeReport.class, 
         ProcessorsReport.class,
+        LatencyReport.class,
         FrontierSummaryReport.class, 
         ToeThreadsReport.class,
     };
@@ -231,6 +255,7 @@ public class StatisticsTracker
         MimetypesReport.class, 
         ResponseCodeReport.class, 
         ProcessorsReport.class,
+        LatencyReport.class,
         FrontierSummaryReport.class, 
         ToeThreadsReport.class,
     };
@@ -241,6 +266,13 @@ public class StatisticsTracker
             public AtomicLong get() {
                 return new AtomicLong(0); 
             }};
+
+    /** reusable Supplier for initial zero per-host stats */
+    private static final Supplier<AtomicLongArray> HOST_STATS_SUPPLIER = 
+        new Supplier<AtomicLongArray>() {
+            public AtomicLongArray get() {
+                return new AtomicLongArray(3); 
+            }};
     
     /**
      * Whether to maintain seed disposition records (expensive in 
@@ -321,14 +353,15 @@ public class StatisticsTracker
     protected ObjectIdentityCache<String,AtomicLong> statusCodeDistribution
      = new ObjectIdentityMemCache<AtomicLong>();
     
-    /** Keep track of hosts. 
+    /** Keep track of hosts: URIs, bytes and time of last finish, as one
+     * entry per host. Like the other per-host tables, evictable to BDB
+     * once started, as hosts are unbounded in number. 
      */
-    protected ObjectIdentityCache<String,AtomicLong> hostsDistribution = 
-        new ObjectIdentityMemCache<AtomicLong>(); // temp dummy
-    protected ObjectIdentityCache<String,AtomicLong> hostsBytes = 
-        new ObjectIdentityMemCache<AtomicLong>(); // temp dummy
-    protected ObjectIdentityCache<String,AtomicLong> hostsLastFinished = 
-        new ObjectIdentityMemCache<AtomicLong>(); // temp dummy
+    protected ObjectIdentityCache<String,AtomicLongArray> hostsStats = 
+        new ObjectIdentityMemCache<AtomicLongArray>(); // temp dummy
+    protected static final int HOST_URIS = 0;
+    protected static final int HOST_BYTES = 1;
+    protected static final int HOST_LAST_FINISHED = 2;
 
     /** Keep track of URL counts per host per seed */
     @SuppressWarnings("unchecked")
@@ -359,21 +392,52 @@ public class StatisticsTracker
     public void stop() {
         isRunning = false;
         executor.shutdownNow();
+        unregisterLatencyStats();
+    }
+    
+    /** JMX name of registered {@link LatencyStats}, if any */
+    protected ObjectName latencyStatsName;
+    
+    /**
+     * Offer the crawl's sampled latencies over JMX, as 
+     * org.archive.crawler:type=LatencyStats,job=[job name].
+     */
+    protected void registerLatencyStats() {
+        try {
+            ObjectName name = new ObjectName("org.archive.crawler:"
+                    + "type=LatencyStats,job=" 
+                    + ObjectName.quote(controller.getMetadata().getJobName()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new LatencyStats(controller), name);
+            latencyStatsName = name;
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "unable to register latency stats", e);
+        }
+    }
+    
+    protected void unregisterLatencyStats() {
+        if (latencyStatsName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                    latencyStatsName);
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "unable to unregister latency stats", e);
+        }
+        latencyStatsName = null;
     }
     
     @SuppressWarnings("unchecked")
     public void start() {
         isRunning = true;
+        registerLatencyStats();
         boolean isRecover = (recoveryCheckpoint != null); 
         try {
             this.sourceHostDistribution = bdb.getObjectCache("sourceHostDistribution",
             	    isRecover, ConcurrentMap.class);
-            this.hostsDistribution = bdb.getObjectCache("hostsDistribution",
-                    isRecover, AtomicLong.class);
-            this.hostsBytes = bdb.getObjectCache("hostsBytes", 
-                    isRecover, AtomicLong.class);
-            this.hostsLastFinished = bdb.getObjectCache("hostsLastFinished",
-                    isRecover, AtomicLong.class);
+            this.hostsStats = bdb.getObjectCache("hostsStats",
+                    isRecover, AtomicLongArray.class);
             this.processedSeedsRecords = bdb.getObjectCache("processedSeedsRecords",
                     isRecover, SeedRecord.class);
             
@@ -761,11 +825,11 @@ public class StatisticsTracker
      * @param host The host to look up time of last completed URI.
      * @return Returns the time (in millisec) when a URI belonging to a given 
      * host was last finished processing. If no URI has been completed for host
-     * -1 will be returned. 
+     * 0 will be returned. 
      */
-    public AtomicLong getHostLastFinished(String host){
-        AtomicLong fini = hostsLastFinished.getOrUse(host, ATOMIC_ZERO_SUPPLIER);
-        return fini;
+    public long getHostLastFinished(String host){
+        AtomicLongArray stats = hostsStats.get(host);
+        return stats == null ? 0 : stats.get(HOST_LAST_FINISHED);
     }
 
     /**
@@ -774,7 +838,22 @@ public class StatisticsTracker
      * @return the accumulated number of bytes downloaded from a given host
      */
     public long getBytesPerHost(String host){
-        return getReportValue(hostsBytes, host);
+        if (host == null) {
+            return -1;
+        }
+        AtomicLongArray stats = hostsStats.get(host);
+        if (stats == null) {
+            return -2;
+        }
+        return stats.get(HOST_BYTES);
+    }
+
+    /**
+     * @return number of hosts (including the pseudo-host "dns:") with
+     * at least one successfully crawled URI
+     */
+    public int getHostsCrawledCount() {
+        return hostsStats.size();
     }
 
     /**
@@ -835,8 +914,7 @@ public class StatisticsTracker
 
         // Save hosts stats.
         ServerCache sc = serverCache;
-        saveHostStats(sc.getHostFor(curi.getUURI()).getHostName(),
-                curi.getContentSize());
+        saveHostStats(sc.getHostFor(curi.getUURI()), curi.getContentSize());
         
         if (curi.getData().containsKey(A_SOURCE_TAG)) {
         	saveSourceStats((String)curi.getData().get(A_SOURCE_TAG),
@@ -859,17 +937,18 @@ public class StatisticsTracker
         }
     }
     
-    protected void saveHostStats(String hostname, long size) {
-        incrementCacheCount(hostsDistribution, hostname);
+    protected void saveHostStats(CrawlHost host, long size) {
+        String hostname = host.getHostName();
+        AtomicLongArray stats = 
+            hostsStats.getOrUse(hostname, HOST_STATS_SUPPLIER);
         hostsDistributionTop.update(
-                hostname, getReportValue(hostsDistribution, hostname)); 
+                hostname, stats.incrementAndGet(HOST_URIS)); 
 
-        incrementCacheCount(hostsBytes, hostname, size);
         hostsBytesTop.update(hostname, 
-                getReportValue(hostsBytes, hostname));
+                stats.addAndGet(HOST_BYTES, size));
         
-        long time = new Long(System.currentTimeMillis());
-        getHostLastFinished(hostname).set(time); 
+        long time = System.currentTimeMillis();
+        stats.set(HOST_LAST_FINISHED, time); 
         hostsLastFinishedTop.update(hostname, time);
     }
 
@@ -940,9 +1019,17 @@ public class StatisticsTracker
      * @return SortedMap of hosts distribution
      */
     public DisposableStoredSortedMap<Long,String> calcReverseSortedHostsDistribution() {
-        synchronized(hostsDistribution){
-            return getReverseSortedCopy(hostsDistribution);
+        DisposableStoredSortedMap<Long,String> sortedMap = 
+            bdb.getStoredMap(
+                    null,
+                    Long.class,
+                    String.class,
+                    true,
+                    false);
+        for (String host : hostsStats.keySet()) {
+            sortedMap.put(-hostsStats.get(host).get(HOST_URIS), host);
         }
+        return sortedMap;
     }
 
     public File writeReportFile(String reportName) {
@@ -954,6 +1041,79 @@ public class StatisticsTracker
         return null; 
     }
     
+    /**
+     * Write the named report to its file on a separate thread, waiting at
+     * most waitMs for it to finish; a report not yet finished may be read
+     * (as by paging) while it grows. A report already being written, or 
+     * written within the last reportMaxAgeSeconds, is not started again. 
+     * 
+     * @param reportName simple class name of report
+     * @param waitMs longest time to wait for report to complete
+     * @return report File (perhaps still being written), or null if no 
+     * such report
+     */
+    public File startReportFile(String reportName, long waitMs) {
+        Class<Report> reportClass = null; 
+        for(Class<Report> c : ALL_REPORTS) {
+            if(c.getSimpleName().equals(reportName)) {
+                reportClass = c;
+            }
+        }
+        if(reportClass == null) {
+            return null;
+        }
+        final Class<Report> toWrite = reportClass; 
+        File f = getReportFile(reportClass);
+        Thread writer = reportsInProgress.get(reportName);
+        if(writer == null) {
+            long age = System.currentTimeMillis() - f.lastModified();
+            if(f.exists() && age < getReportMaxAgeSeconds() * 1000L) {
+                return f; 
+            }
+            writer = new Thread("report writer: " + reportName) {
+                public void run() {
+                    try {
+                        writeReportFile(toWrite, false);
+                    } finally {
+                        reportsInProgress.remove(toWrite.getSimpleName());
+                    }
+                }
+            };
+            Thread prior = reportsInProgress.putIfAbsent(reportName, writer);
+            if(prior == null) {
+                writer.setDaemon(true);
+                writer.start();
+            } else {
+                writer = prior; 
+            }
+        }
+        try {
+            writer.join(waitMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return f;
+    }
+    
+    /**
+     * @param reportName simple class name of report
+     * @return true if the named report is being written on a thread 
+     * started by startReportFile()
+     */
+    public boolean isReportInProgress(String reportName) {
+        return reportsInProgress.containsKey(reportName);
+    }
+    
+    protected File getReportFile(Class<Report> reportClass) {
+        Report r;
+        try {
+            r = reportClass.newInstance();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return new File(getReportsDir().getFile(), r.getFilename());
+    }
+    
     protected File writeReportFile(Class<Report> reportClass, boolean force) {
         Report r;
         try {
@@ -21,6 +21,7 @@ package org.archive.crawler.restlet;
 
 import java.io.File;
 
+import org.archive.crawler.reporting.StatisticsTracker;
 import org.restlet.Context;
 import org.restlet.data.MediaType;
 import org.restlet.data.Request;
@@ -34,9 +35,16 @@ import org.restlet.resource.Variant;
  * Restlet Resource which generates fresh reports and then redirects
  * requests to the report in the filesystem. 
  * 
+ * Reports which take longer than REPORT_WAIT_MS to generate continue
+ * to be written in the background; the redirect is then to the paged
+ * view of the growing file. 
+ * 
  * @contributor gojomo
  */
 public class ReportGenResource extends JobRelatedResource {
+    /** longest time to wait for a report to complete before redirecting */
+    protected static final long REPORT_WAIT_MS = 3000;
+    
     String reportClass;
     
     public ReportGenResource(Context ctx, Request req, Response res) throws ResourceException {
@@ -47,14 +55,20 @@ public class ReportGenResource extends JobRelatedResource {
 
     public Representation represent(Variant variant) throws ResourceException {
         // generate report
-        File f = cj.getCrawlController().getStatisticsTracker().writeReportFile(reportClass); 
+        StatisticsTracker stats = cj.getCrawlController().getStatisticsTracker();
+        File f = stats.startReportFile(reportClass, REPORT_WAIT_MS); 
         if (f==null) {
             throw new ResourceException(500);
         }
         // redirect
         String relative = JobResource.getHrefPath(f,cj);
         if(relative!=null) {
-            getResponse().redirectSeeOther("../"+relative+"?m="+f.lastModified());
+            String query = "?m="+f.lastModified();
+            if(stats.isReportInProgress(reportClass)) {
+                // still being written: page through it as it grows
+                query = query + "&format=paged";
+            }
+            getResponse().redirectSeeOther("../"+relative+query);
             return new StringRepresentation("");
         } else {
             return new StringRepresentation(
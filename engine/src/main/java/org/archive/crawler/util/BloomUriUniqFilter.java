@@ -25,13 +25,33 @@
 */
 package org.archive.crawler.util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.logging.Logger;
 
+import org.apache.commons.io.IOUtils;
+import org.archive.checkpointing.Checkpoint;
+import org.archive.checkpointing.Checkpointable;
 import org.archive.modules.CrawlURI;
+import org.archive.spring.ConfigPath;
+import org.archive.util.BlockedBloomFilter;
 import org.archive.util.BloomFilter;
 import org.archive.util.BloomFilter64bit;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.Lifecycle;
 
 
 /**
@@ -48,13 +68,20 @@ import org.springframework.beans.factory.InitializingBean;
  * about 495MB in size. 
  * 
  * You may swap in an differently-configured BloomFilter class to alter
- * these tradeoffs. 
+ * these tradeoffs, or set 'blockedLayout' to use a {@link BlockedBloomFilter}
+ * of the configured size, which needs one cache miss per lookup rather
+ * than one per hash function, and may keep its bits off-heap or in a
+ * memory-mapped file.
+ * 
+ * The filter's bits are saved with each checkpoint, and restored on 
+ * recovery from one.
  * 
  * @author gojomo
  * @version $Date$, $Revision$
  */
 public class BloomUriUniqFilter extends SetBasedUriUniqFilter
-implements Serializable, InitializingBean {
+implements Serializable, InitializingBean, Lifecycle, Checkpointable,
+           BeanNameAware {
 	private static final long serialVersionUID = 1061526253773091309L;
 
 	private static Logger LOGGER =
@@ -68,6 +95,62 @@ implements Serializable, InitializingBean {
         bloom = filter; 
     }
 
+    /** expected number of URIs, when creating the default filter */
+    protected long expectedInserts = 125000000;
+    public long getExpectedInserts() {
+        return expectedInserts;
+    }
+    public void setExpectedInserts(long expectedInserts) {
+        this.expectedInserts = expectedInserts;
+    }
+
+    /** 
+     * bits set per URI, when creating the default filter; the designed
+     * false-positive rate is 1 in 2^hashCount
+     */
+    protected int hashCount = 22;
+    public int getHashCount() {
+        return hashCount;
+    }
+    public void setHashCount(int hashCount) {
+        this.hashCount = hashCount;
+    }
+
+    /** 
+     * whether the default filter is a cache-friendly BlockedBloomFilter,
+     * rather than a BloomFilter64bit; for the same false-positive goal it
+     * is larger (about 720MB at the default settings) but much faster
+     */
+    protected boolean blockedLayout = false;
+    public boolean getBlockedLayout() {
+        return blockedLayout;
+    }
+    public void setBlockedLayout(boolean blockedLayout) {
+        this.blockedLayout = blockedLayout;
+    }
+
+    /** 
+     * where a default BlockedBloomFilter keeps its bits: HEAP, DIRECT 
+     * (off-heap) or MAPPED (in mapFile)
+     */
+    protected BlockedBloomFilter.Storage storage = 
+        BlockedBloomFilter.Storage.HEAP;
+    public BlockedBloomFilter.Storage getStorage() {
+        return storage;
+    }
+    public void setStorage(BlockedBloomFilter.Storage storage) {
+        this.storage = storage;
+    }
+
+    /** scratch file for MAPPED storage */
+    protected ConfigPath mapFile = new ConfigPath("bloom map file","bloom.map");
+    public ConfigPath getMapFile() {
+        return mapFile;
+    }
+    public void setMapFile(ConfigPath mapFile) {
+        this.mapFile = mapFile;
+    }
+
     /**
      * Default constructor
      */
@@ -86,7 +169,119 @@ implements Serializable, InitializingBean {
             // 1.44*125mil*22/8 ~= 495MB in size, and at full
             // capacity will give a false contained indication
             // 1/(2^22) ~= 1 in every 4 million probes
-            bloom = new BloomFilter64bit(125000000,22);
+            if (blockedLayout) {
+                File file = null;
+                if (storage == BlockedBloomFilter.Storage.MAPPED) {
+                    file = mapFile.getFile();
+                    file.getParentFile().mkdirs();
+                }
+                bloom = new BlockedBloomFilter(expectedInserts, hashCount,
+                        storage, file);
+            } else {
+                bloom = new BloomFilter64bit(expectedInserts, hashCount);
+            }
+        }
+    }
+
+    boolean isRunning = false;
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public void start() {
+        if (isRunning) {
+            return;
+        }
+        if (recoveryCheckpoint != null) {
+            try {
+                JSONObject json = recoveryCheckpoint.loadJson(beanName);
+                duplicateCount = json.getLong("duplicateCount");
+                loadBloom(new File(
+                        recoveryCheckpoint.getCheckpointDir().getFile(),
+                        beanName + BLOOM_SUFFIX));
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        isRunning = true;
+    }
+
+    public void stop() {
+        isRunning = false;
+    }
+
+    protected String beanName = "uriUniqFilter";
+    public void setBeanName(String name) {
+        this.beanName = name;
+    }
+
+    /** suffix of bean name, naming the bloom bits file in a checkpoint */
+    protected static final String BLOOM_SUFFIX = ".bloom";
+
+    public void startCheckpoint(Checkpoint checkpointInProgress) {}
+
+    public void doCheckpoint(Checkpoint checkpointInProgress)
+    throws IOException {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("count", setCount());
+            json.put("duplicateCount", duplicateCount);
+        } catch (JSONException e) {
+            // impossible
+            throw new RuntimeException(e);
+        }
+        checkpointInProgress.saveJson(beanName, json);
+        saveBloom(new File(checkpointInProgress.getCheckpointDir().getFile(),
+                beanName + BLOOM_SUFFIX));
+    }
+
+    public void finishCheckpoint(Checkpoint checkpointInProgress) {}
+
+    protected Checkpoint recoveryCheckpoint;
+    @Autowired(required=false)
+    public void setRecoveryCheckpoint(Checkpoint checkpoint) {
+        this.recoveryCheckpoint = checkpoint;
+    }
+
+    /**
+     * Write the filter: a BlockedBloomFilter as its raw bits, any other
+     * (Serializable) filter by serialization.
+     */
+    protected void saveBloom(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 1024 * 1024));
+        try {
+            if (bloom instanceof BlockedBloomFilter) {
+                ((BlockedBloomFilter) bloom).save(out);
+            } else {
+                ObjectOutputStream oos = new ObjectOutputStream(out);
+                oos.writeObject(bloom);
+                oos.flush();
+            }
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Restore the filter written by {@link #saveBloom(File)}; a 
+     * BlockedBloomFilter must be configured as when saved.
+     */
+    protected void loadBloom(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 1024 * 1024));
+        try {
+            if (bloom instanceof BlockedBloomFilter) {
+                ((BlockedBloomFilter) bloom).load(in);
+            } else {
+                bloom = (BloomFilter) new ObjectInputStream(in).readObject();
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("unable to restore bloom: " + e);
+        } finally {
+            IOUtils.closeQuietly(in);
         }
     }
 
@@ -0,0 +1,113 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+import org.archive.crawler.frontier.BinaryFrontierJournal;
+import org.archive.crawler.frontier.BinaryFrontierJournal.BlockInfo;
+import org.archive.crawler.frontier.BinaryFrontierJournal.Record;
+import org.archive.io.CrawlerJournal;
+import org.archive.util.ArchiveUtils;
+
+/**
+ * Export a binary frontier recovery journal (frontier.recover.bin) as the
+ * text journal lines ('F+ ', 'Fs ', etc.) of frontier.recover.gz, for
+ * inspection by operators or use by text-based tools. A timestamp line
+ * ('T ') precedes each block's records.
+ *
+ * Usage: FrontierJournalExport [-s] journal [output]
+ *
+ * Output goes to the given file, gzipped if its name ends '.gz', or to
+ * standard output. With '-s', each line is prefixed by its record's
+ * sequence number and a space.
+ */
+public class FrontierJournalExport {
+
+    /**
+     * Write the journal as text lines.
+     *
+     * @param journal binary journal file
+     * @param out destination of lines
+     * @param withSeq whether to prefix lines with sequence numbers
+     * @return number of records written
+     * @throws IOException
+     */
+    public static long export(File journal, Writer out, boolean withSeq)
+    throws IOException {
+        BinaryFrontierJournal.Reader reader =
+            new BinaryFrontierJournal.Reader(journal);
+        long count = 0;
+        try {
+            for (BlockInfo block : reader.getBlocks()) {
+                out.write(CrawlerJournal.LOG_TIMESTAMP);
+                out.write(ArchiveUtils.getLog14Date(block.getTimestamp()));
+                out.write("\n");
+                for (Record record : reader.read(block)) {
+                    if (withSeq) {
+                        out.write(Long.toString(record.getSeq()));
+                        out.write(" ");
+                    }
+                    out.write(record.toTextLine());
+                    out.write("\n");
+                    count++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        out.flush();
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean withSeq = args.length > 0 && "-s".equals(args[0]);
+        int first = withSeq ? 1 : 0;
+        if (args.length - first < 1 || args.length - first > 2) {
+            System.err.println("Usage: FrontierJournalExport [-s] journal "
+                    + "[output]");
+            System.exit(1);
+        }
+        File journal = new File(args[first]);
+        OutputStream os = System.out;
+        if (args.length - first == 2) {
+            String output = args[first + 1];
+            os = new FileOutputStream(output);
+            if (output.endsWith(".gz")) {
+                os = new GZIPOutputStream(os);
+            }
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(os),
+                64 * 1024);
+        try {
+            long count = export(journal, out, withSeq);
+            System.err.println(count + " records exported");
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -126,7 +126,7 @@ public class TopNSet implements Serializable {
      * 
      * @return SortedSet of Entry<key, count> descending-frequency 
      */
-    public SortedSet<Entry<?, Long>> getEntriesDescending() {
+    public synchronized SortedSet<Entry<?, Long>> getEntriesDescending() {
         TreeSet<Entry<?, Long>> sorted = Histotable.getEntryByFrequencySortedSet();
         sorted.addAll(getTopSet().entrySet());
         return sorted; 
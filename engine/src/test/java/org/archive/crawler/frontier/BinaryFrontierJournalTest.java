@@ -0,0 +1,273 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.archive.checkpointing.Checkpoint;
+import org.archive.crawler.frontier.BinaryFrontierJournal.BlockInfo;
+import org.archive.crawler.frontier.BinaryFrontierJournal.Record;
+import org.archive.crawler.util.FrontierJournalExport;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests for {@link BinaryFrontierJournal} and its text export.
+ */
+public class BinaryFrontierJournalTest extends TmpDirTestCase {
+
+    protected File dir;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File(getTmpDir(), "BinaryFrontierJournalTest");
+        org.apache.commons.io.FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        org.apache.commons.io.FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    protected List<Record> readAll(File file) throws Exception {
+        BinaryFrontierJournal.Reader reader =
+            new BinaryFrontierJournal.Reader(file);
+        List<Record> records = new ArrayList<Record>();
+        try {
+            for (BlockInfo block : reader.getBlocks()) {
+                records.addAll(reader.read(block));
+            }
+        } finally {
+            reader.close();
+        }
+        return records;
+    }
+
+    public void testRecordsAndExport() throws Exception {
+        BinaryFrontierJournal journal = new BinaryFrontierJournal(
+                dir.getAbsolutePath(), "j.bin", 1024);
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/a"), "LX",
+                UURIFactory.getInstance("http://example.com/"), null);
+        journal.added(curi);
+        journal.emitted(curi);
+        journal.finishedSuccess(curi);
+        journal.writeLine("Ff http://example.com/b L http://example.com/");
+        journal.seriousError("trouble");
+        journal.flush();
+        File file = new File(dir, "j.bin");
+        assertTrue(BinaryFrontierJournal.isBinaryJournal(file));
+        assertEquals(5, readAll(file).size());
+        journal.close();
+
+        List<Record> records = readAll(file);
+        assertEquals(BinaryFrontierJournal.ADD, records.get(0).getType());
+        assertEquals("F+ http://example.com/a LX http://example.com/",
+                records.get(0).toTextLine());
+        assertEquals("Fe http://example.com/a", records.get(1).toTextLine());
+        assertEquals(BinaryFrontierJournal.FAILURE, records.get(3).getType());
+        assertEquals("http://example.com/b", records.get(3).getUri());
+        assertEquals(BinaryFrontierJournal.TEXT, records.get(4).getType());
+        assertEquals(4, records.get(4).getSeq());
+        CrawlURI restored = records.get(0).toCrawlURI();
+        assertEquals("http://example.com/a", restored.getURI());
+        assertEquals("LX", restored.getPathFromSeed());
+        assertEquals("http://example.com/", restored.flattenVia());
+
+        StringWriter text = new StringWriter();
+        assertEquals(5, FrontierJournalExport.export(file, text, true));
+        String[] lines = text.toString().split("\n");
+        assertTrue(lines[0].startsWith("T "));
+        assertEquals("2 Fs http://example.com/a LX http://example.com/",
+                lines[3]);
+    }
+
+    /**
+     * Many threads journaling across many blocks: every record must be
+     * read back once, each thread's in order, with consecutive sequence
+     * numbers; a truncated final block is ignored.
+     */
+    public void testConcurrentBlocks() throws Exception {
+        final BinaryFrontierJournal journal = new BinaryFrontierJournal(
+                dir.getAbsolutePath(), "busy.bin", 4096);
+        final int threads = 4;
+        final int perThread = 5000;
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            writers[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        journal.writeLine("Fi http://host" + thread
+                                + ".example.com/" + i);
+                    }
+                }
+            };
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        journal.close();
+
+        File file = new File(dir, "busy.bin");
+        List<Record> records = readAll(file);
+        assertEquals(threads * perThread, records.size());
+        int[] next = new int[threads];
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            assertEquals(i, record.getSeq());
+            assertEquals(BinaryFrontierJournal.INCLUDE, record.getType());
+            String uri = record.getUri();
+            int thread = uri.charAt("http://host".length()) - '0';
+            assertEquals(uri, next[thread],
+                    Integer.parseInt(uri.substring(uri.lastIndexOf('/') + 1)));
+            next[thread]++;
+        }
+
+        // cut off part of the last block, as by a crash
+        BinaryFrontierJournal.Reader reader =
+            new BinaryFrontierJournal.Reader(file);
+        List<BlockInfo> blocks = reader.getBlocks();
+        reader.close();
+        assertTrue(blocks.size() > 2);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 10);
+        raf.close();
+        BlockInfo last = blocks.get(blocks.size() - 1);
+        assertEquals(last.getFirstSeq(), readAll(file).size());
+    }
+
+    /**
+     * Records journaled while the journal is rotated for a checkpoint
+     * go to one file or the other: none are lost.
+     */
+    public void testRotateWhileJournaling() throws Exception {
+        final BinaryFrontierJournal journal = new BinaryFrontierJournal(
+                dir.getAbsolutePath(), "rotating.bin", 1024) {
+            protected void open() throws IOException {
+                if (nextSeq > 0) {
+                    // widen the window in which records might be lost
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                super.open();
+            }
+        };
+        final int perThread = 20000;
+        Thread[] writers = new Thread[2];
+        for (int t = 0; t < writers.length; t++) {
+            writers[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        journal.writeLine("Fi http://example.com/" + i);
+                    }
+                }
+            };
+            writers[t].setDaemon(true);
+            writers[t].start();
+        }
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.setCheckpointDir(new ConfigPath("checkpoint",
+                new File(dir, "cp00001-20260101000000").getAbsolutePath()));
+        checkpoint.afterPropertiesSet();
+        while (journal.nextSeq < 100) {
+            Thread.sleep(1);
+        }
+        journal.rotateForCheckpoint(checkpoint);
+        for (Thread writer : writers) {
+            writer.join(30000);
+            assertFalse("journaling stuck", writer.isAlive());
+        }
+        journal.close();
+
+        List<Record> rotated = readAll(new File(dir, "rotating.bin.cp00001"));
+        List<Record> current = readAll(new File(dir, "rotating.bin"));
+        assertEquals(writers.length * perThread,
+                rotated.size() + current.size());
+        if (!current.isEmpty()) {
+            assertEquals(rotated.size(), current.get(0).getSeq());
+        }
+    }
+
+    /**
+     * A block that cannot be written is reported to flush() and to
+     * rotation, rather than counted as written.
+     */
+    public void testWriteFailureReported() throws Exception {
+        final boolean[] failing = {true};
+        BinaryFrontierJournal journal = new BinaryFrontierJournal(
+                dir.getAbsolutePath(), "failing.bin", 1024) {
+            protected void writeBlock(Block block) throws IOException {
+                if (failing[0]) {
+                    throw new IOException("disk full");
+                }
+                super.writeBlock(block);
+            }
+        };
+        journal.writeLine("Fi http://example.com/a");
+        try {
+            journal.flush();
+            fail("flush reported lost records as written");
+        } catch (IOException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+        assertEquals(0, journal.written);
+        journal.writeLine("Fi http://example.com/b");
+        try {
+            journal.flush();
+            fail("flush reported lost records as written");
+        } catch (IOException e) {
+            // expected
+        }
+
+        failing[0] = false;
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.setCheckpointDir(new ConfigPath("checkpoint",
+                new File(dir, "cp00001-20260101000000").getAbsolutePath()));
+        checkpoint.afterPropertiesSet();
+        try {
+            journal.rotateForCheckpoint(checkpoint);
+            fail("rotation hid lost records");
+        } catch (IOException e) {
+            // expected
+        }
+        // the new file is written as usual
+        journal.writeLine("Fi http://example.com/c");
+        journal.flush();
+        assertNull(journal.getWriteFailure());
+        journal.close();
+        List<Record> records = readAll(new File(dir, "failing.bin"));
+        assertEquals(1, records.size());
+        assertEquals("http://example.com/c", records.get(0).getUri());
+        assertEquals(2, records.get(0).getSeq());
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.archive.crawler.framework.Frontier;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.DecideResult;
+import org.archive.modules.deciderules.DecideRule;
+import org.archive.util.TmpDirTestCase;
+import org.json.JSONObject;
+
+/**
+ * Tests for {@link FrontierJournalImporter}: URIs journaled several
+ * times, in blocks split among several threads, are included or
+ * scheduled once each, as by the text journal import.
+ */
+public class FrontierJournalImporterTest extends TmpDirTestCase {
+
+    protected File dir;
+
+    /** URIs passed to the frontier's considerIncluded() */
+    protected List<String> included;
+    /** URIs passed to the frontier's schedule(), in order */
+    protected List<String> scheduled;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File(getTmpDir(), "FrontierJournalImporterTest");
+        org.apache.commons.io.FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
+        included = Collections.synchronizedList(new ArrayList<String>());
+        scheduled = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    protected void tearDown() throws Exception {
+        org.apache.commons.io.FileUtils.deleteDirectory(dir);
+        super.tearDown();
+    }
+
+    /**
+     * @param scope rule returned as the frontier's scope
+     * @return Frontier noting included and scheduled URIs, and otherwise
+     * doing nothing
+     */
+    protected Frontier frontier(final DecideRule scope) {
+        return (Frontier) Proxy.newProxyInstance(
+                Frontier.class.getClassLoader(),
+                new Class<?>[] {Frontier.class},
+                new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("considerIncluded")) {
+                    included.add(((CrawlURI) args[0]).getURI());
+                } else if (name.equals("schedule")) {
+                    scheduled.add(((CrawlURI) args[0]).getURI());
+                } else if (name.equals("getScope")) {
+                    return scope;
+                } else if (method.getReturnType() == long.class) {
+                    return 0L;
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Write a journal of repeated URIs, in small blocks, so that repeats
+     * fall in different threads' partitions.
+     */
+    protected File writeJournal() throws Exception {
+        BinaryFrontierJournal journal = new BinaryFrontierJournal(
+                dir.getAbsolutePath(), "import.bin", 100);
+        String[] lines = {
+            "F+ http://example.com/a L http://example.com/",
+            "F+ http://example.com/b L http://example.com/",
+            "F+ http://example.com/c L http://example.com/",
+            "Fs http://example.com/a L http://example.com/",
+            "Fd http://example.com/b",
+            "F+ http://example.com/a L http://example.com/",
+            "F+ http://example.com/c L http://example.com/",
+            "Fs http://example.com/d L http://example.com/",
+            "F+ http://example.com/x L http://example.com/",
+            "Fs http://example.com/x L http://example.com/",
+            "F+ http://example.com/b L http://example.com/",
+            "Fs http://example.com/a L http://example.com/",
+        };
+        for (String line : lines) {
+            journal.writeLine(line);
+        }
+        journal.close();
+        File file = new File(dir, "import.bin");
+        BinaryFrontierJournal.Reader reader =
+            new BinaryFrontierJournal.Reader(file);
+        try {
+            assertTrue(reader.getBlocks().size() >= 6);
+        } finally {
+            reader.close();
+        }
+        return file;
+    }
+
+    protected JSONObject params(String... names) throws Exception {
+        JSONObject params = new JSONObject();
+        for (String name : names) {
+            params.put(name, true);
+        }
+        params.put("threads", 3);
+        return params;
+    }
+
+    protected List<String> sorted(List<String> uris) {
+        List<String> copy = new ArrayList<String>(uris);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    /**
+     * Successes are included once each; URIs added are scheduled once
+     * each, in journal order, unless included; disregards are ignored.
+     */
+    public void testIncludeSuccessesScheduleScheduleds() throws Exception {
+        File journal = writeJournal();
+        FrontierJournalImporter.importRecoverLog(journal,
+                params("includeSuccesses", "scheduleScheduleds"),
+                frontier(null));
+        assertEquals("[http://example.com/a, http://example.com/d, "
+                + "http://example.com/x]", sorted(included).toString());
+        assertEquals("[http://example.com/b, http://example.com/c]",
+                scheduled.toString());
+    }
+
+    /**
+     * With successes only included, nothing is scheduled.
+     */
+    public void testIncludeSuccessesOnly() throws Exception {
+        File journal = writeJournal();
+        FrontierJournalImporter.importRecoverLog(journal,
+                params("includeSuccesses"), frontier(null));
+        assertEquals("[http://example.com/a, http://example.com/d, "
+                + "http://example.com/x]", sorted(included).toString());
+        assertTrue(scheduled.isEmpty());
+    }
+
+    /**
+     * A URI whose include is rejected by scope is still scheduled.
+     */
+    public void testScopeRejectedIncludeStillScheduled() throws Exception {
+        File journal = writeJournal();
+        DecideRule scope = new DecideRule() {
+            private static final long serialVersionUID = 1L;
+            protected DecideResult innerDecide(CrawlURI uri) {
+                return uri.getURI().endsWith("/x")
+                    ? DecideResult.REJECT : DecideResult.ACCEPT;
+            }
+        };
+        FrontierJournalImporter.importRecoverLog(journal,
+                params("includeSuccesses", "scopeIncludes",
+                        "scheduleScheduleds"), frontier(scope));
+        assertEquals("[http://example.com/a, http://example.com/d]",
+                sorted(included).toString());
+        assertEquals("[http://example.com/b, http://example.com/c, "
+                + "http://example.com/x]", scheduled.toString());
+    }
+
+    /**
+     * When forcing revisits, URIs included are scheduled too.
+     */
+    public void testForceRevisit() throws Exception {
+        File journal = writeJournal();
+        FrontierJournalImporter.importRecoverLog(journal,
+                params("includeSuccesses", "scheduleScheduleds",
+                        "forceRevisit"), frontier(null));
+        assertEquals("[http://example.com/a, http://example.com/b, "
+                + "http://example.com/c, http://example.com/x]",
+                scheduled.toString());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+
+import junit.framework.TestCase;
+
+import org.archive.crawler.frontier.precedence.SimplePrecedenceProvider;
+import org.archive.modules.CrawlURI;
+
+/**
+ * Tests for InactiveQueues
+ */
+public class InactiveQueuesTest extends TestCase {
+
+    static class TestWorkQueue extends WorkQueue {
+        private static final long serialVersionUID = 1L;
+        TestWorkQueue(String key, int precedence) {
+            super(key);
+            setPrecedence(precedence);
+        }
+        void setPrecedence(int precedence) {
+            setPrecedenceProvider(new SimplePrecedenceProvider(precedence));
+        }
+        protected void insertItem(WorkQueueFrontier frontier, CrawlURI curi,
+                boolean overwriteIfPresent) {
+        }
+        protected long deleteMatchingFromQueue(WorkQueueFrontier frontier,
+                String match) {
+            return 0;
+        }
+        protected void deleteItem(WorkQueueFrontier frontier, CrawlURI item) {
+        }
+        protected CrawlURI peekItem(WorkQueueFrontier frontier) {
+            return null;
+        }
+    }
+
+    Map<String,WorkQueue> queues = new HashMap<String,WorkQueue>();
+    InactiveQueues inactives;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        BdbFrontier frontier = new BdbFrontier() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected WorkQueue getQueueFor(String classKey) {
+                return queues.get(classKey);
+            }
+            @Override
+            Queue<String> createInactiveQueueForPrecedence(int precedence) {
+                return new LinkedList<String>();
+            }
+        };
+        inactives = new InactiveQueues(frontier);
+    }
+
+    TestWorkQueue queue(String key, int precedence) {
+        TestWorkQueue wq = new TestWorkQueue(key, precedence);
+        queues.put(key, wq);
+        return wq;
+    }
+
+    public void testHighestFirst() {
+        assertEquals(Integer.MAX_VALUE, inactives.getHighestPrecedence());
+        inactives.add(queue("a", 30));
+        inactives.add(queue("b", 5));
+        inactives.add(queue("c", 100000));
+        inactives.add(queue("d", -2));
+        inactives.add(queue("e", 5));
+        assertEquals(5, inactives.size());
+        assertEquals(-2, inactives.getHighestPrecedence());
+        assertEquals("d", inactives.poll().getClassKey());
+        assertEquals("b", inactives.poll().getClassKey());
+        assertEquals("e", inactives.poll().getClassKey());
+        assertEquals(30, inactives.getHighestPrecedence());
+        assertEquals("a", inactives.poll().getClassKey());
+        assertEquals("c", inactives.poll().getClassKey());
+        assertNull(inactives.poll());
+        assertEquals(0, inactives.size());
+    }
+
+    public void testPrecedenceChange() {
+        TestWorkQueue a = queue("a", 10);
+        TestWorkQueue b = queue("b", 10);
+        inactives.add(a);
+        inactives.add(b);
+        b.setPrecedence(3);
+        assertTrue(inactives.add(b));
+        // b counted once, at its new precedence
+        assertEquals(2, inactives.size());
+        assertEquals(1, inactives.size(3));
+        assertEquals(1, inactives.size(10));
+        assertEquals(1, inactives.sizeBelow(10));
+        assertEquals(2, inactives.sizeBelow(11));
+
+        assertSame(b, inactives.poll());
+        // stale entry for b at 10 skipped
+        assertSame(a, inactives.poll());
+        assertNull(inactives.poll());
+        assertEquals(0, inactives.getNames(10).size());
+    }
+
+    public void testReaddReusesEntry() {
+        TestWorkQueue a = queue("a", 10);
+        TestWorkQueue b = queue("b", 10);
+        inactives.add(a);
+        inactives.add(b);
+        a.setPrecedence(2);
+        inactives.add(a);
+        assertSame(a, inactives.poll());
+        // a deactivated again to 10, where its old entry still waits
+        a.setPrecedence(10);
+        assertFalse(inactives.add(a));
+        assertEquals(2, inactives.size(10));
+        assertSame(a, inactives.poll());
+        assertSame(b, inactives.poll());
+        assertNull(inactives.poll());
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.frontier;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.ObjectIdentityMemCache;
+import org.archive.util.Supplier;
+import org.archive.util.TimingWheel;
+
+/**
+ * Tests of WorkQueueFrontier's choice of URIs to emit.
+ */
+public class WorkQueueFrontierTest extends TestCase {
+
+    /**
+     * Queue whose next item sorts before those in process, so that none
+     * may be emitted alongside them.
+     */
+    static class TestWorkQueue extends InactiveQueuesTest.TestWorkQueue {
+        private static final long serialVersionUID = 1L;
+        TestWorkQueue(String key) {
+            super(key, 1);
+        }
+        protected CrawlURI peekItemAfter(WorkQueueFrontier frontier,
+                CrawlURI previous) {
+            return null;
+        }
+    }
+
+    Map<String,WorkQueue> queues = new HashMap<String,WorkQueue>();
+    Queue<String> retired = new ConcurrentLinkedQueue<String>();
+    BdbFrontier frontier;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        frontier = new BdbFrontier() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected WorkQueue getQueueFor(String classKey) {
+                return queues.get(classKey);
+            }
+            @Override
+            Queue<String> createInactiveQueueForPrecedence(int precedence) {
+                return new LinkedList<String>();
+            }
+            @Override
+            Queue<String> getRetiredQueues() {
+                return retired;
+            }
+        };
+        frontier.allQueues = new ObjectIdentityMemCache<WorkQueue>();
+        frontier.readyClassQueues = new LinkedBlockingQueue<String>();
+        frontier.inactiveQueues = new InactiveQueues(frontier);
+        frontier.snoozedClassQueues =
+            new TimingWheel<DelayedWorkQueue>(10, 2, null, 100);
+        frontier.futureUriWheel = new TimingWheel<CrawlURI>(100, 2, null, 100);
+    }
+
+    /**
+     * A parallel queue readied for another emit, but with nothing to emit
+     * alongside its item in process, must not keep findEligibleURI()
+     * looping.
+     */
+    public void testParallelQueueWithNothingMoreToEmit() throws Exception {
+        TestWorkQueue wq = new TestWorkQueue("example.com");
+        queues.put(wq.getClassKey(), wq);
+        wq.setParallelism(2);
+        wq.count = 2;
+        wq.noteEmitted(new CrawlURI(
+                UURIFactory.getInstance("http://example.com/b")));
+        frontier.inProcessQueues.add(wq);
+        assertTrue(wq.canEmitAnother());
+        wq.setLaneScheduled(true);
+        frontier.readyClassQueues.add(wq.getClassKey());
+
+        final CrawlURI[] found = new CrawlURI[1];
+        final boolean[] returned = new boolean[1];
+        Thread finder = new Thread() {
+            public void run() {
+                found[0] = frontier.findEligibleURI();
+                returned[0] = true;
+            }
+        };
+        finder.setDaemon(true);
+        finder.start();
+        finder.join(5000);
+        assertTrue("findEligibleURI() did not return", returned[0]);
+        assertNull(found[0]);
+        assertTrue(frontier.readyClassQueues.isEmpty());
+    }
+
+    /**
+     * Reports taken while the manager moves queues between categories
+     * must count every queue once: the counts are taken together, under
+     * the frontier lock the mover holds, not one by one from the live
+     * structures.
+     */
+    public void testReportWhileQueuesMove() throws Exception {
+        final int total = 24;
+        for (int i = 0; i < total; i++) {
+            TestWorkQueue wq = new TestWorkQueue("q" + i + ".example");
+            wq.setPrecedence(1 + i % 3);
+            queues.put(wq.getClassKey(), wq);
+            frontier.allQueues.getOrUse(wq.getClassKey(),
+                    new Supplier<WorkQueue>(wq));
+            frontier.readyClassQueues.add(wq.getClassKey());
+        }
+        frontier.setInbound(new LinkedBlockingQueue<AbstractFrontier.InEvent>());
+        frontier.setOutbound(new LinkedBlockingQueue<CrawlURI>());
+
+        final boolean[] stop = new boolean[1];
+        final Throwable[] failure = new Throwable[1];
+        Thread mover = new Thread() {
+            public void run() {
+                LinkedList<WorkQueue> inProcess = new LinkedList<WorkQueue>();
+                try {
+                    for (int step = 0; !stop[0]; step++) {
+                        synchronized (frontier) {
+                            // ready -> in-process -> inactive or retired
+                            // -> ready, one step at a time, as the
+                            // manager thread would
+                            String key = frontier.readyClassQueues.poll();
+                            if (key != null) {
+                                WorkQueue wq = queues.get(key);
+                                frontier.inProcessQueues.add(wq);
+                                inProcess.add(wq);
+                            }
+                            WorkQueue done = inProcess.poll();
+                            if (done != null) {
+                                frontier.inProcessQueues.remove(done, 1);
+                                if (step % 2 == 0) {
+                                    frontier.getInactiveQueues().add(done);
+                                } else {
+                                    retired.add(done.getClassKey());
+                                }
+                            }
+                            WorkQueue woken = frontier.getInactiveQueues().poll();
+                            if (woken != null) {
+                                frontier.readyClassQueues.add(woken.getClassKey());
+                            }
+                            String unretired = retired.poll();
+                            if (unretired != null) {
+                                frontier.readyClassQueues.add(unretired);
+                            }
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        };
+        mover.setDaemon(true);
+        mover.start();
+        try {
+            long lastVersion = 0;
+            for (int i = 0; i < 2000; i++) {
+                WorkQueueFrontier.QueueSummary summary =
+                    frontier.getQueueSummary();
+                assertTrue(summary.getVersion() > lastVersion);
+                lastVersion = summary.getVersion();
+                assertEquals(total, summary.getAllCount());
+                assertEquals(total, summary.getActiveCount()
+                        + summary.getInactiveCount()
+                        + summary.getRetiredCount());
+                int byPrecedence = 0;
+                for (int count : summary.getInactiveByPrecedence().values()) {
+                    byPrecedence += count;
+                }
+                assertEquals(summary.getInactiveCount(), byPrecedence);
+
+                Map<String,Object> map = frontier.shortReportMap();
+                assertEquals(total, map.get("totalQueues"));
+                assertEquals(total, (Integer) map.get("activeQueues")
+                        + (Integer) map.get("inactiveQueues")
+                        + (Integer) map.get("ineligibleQueues")
+                        + (Integer) map.get("retiredQueues"));
+                assertEquals(0, map.get("exhaustedQueues"));
+            }
+        } finally {
+            stop[0] = true;
+            mover.join(5000);
+        }
+        assertFalse(mover.isAlive());
+        assertNull("mover failed: " + failure[0], failure[0]);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Tests for {@link ConsistentHashCrawlMapper} and
+ * {@link LoopbackCrawlNodeTransport}.
+ */
+public class ConsistentHashCrawlMapperTest extends TestCase {
+    static final int KEYS = 10000;
+
+    protected Map<String,String> mapAll(ConsistentHashCrawlMapper mapper) {
+        Map<String,String> mapped = new HashMap<String,String>();
+        for (int i = 0; i < KEYS; i++) {
+            String key = "com,example" + i + ",";
+            mapped.put(key, mapper.mapKey(key));
+        }
+        return mapped;
+    }
+
+    protected int moved(Map<String,String> before, Map<String,String> after) {
+        int moved = 0;
+        for (String key : before.keySet()) {
+            if (!before.get(key).equals(after.get(key))) {
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    public void testNodesAddedAndDown() {
+        ConsistentHashCrawlMapper mapper = new ConsistentHashCrawlMapper();
+        mapper.setLocalName("a");
+        assertEquals("a", mapper.mapKey("com,example,"));
+
+        mapper.setNodeNames(Arrays.asList("a", "b", "c", "d"));
+        Map<String,String> four = mapAll(mapper);
+        assertEquals(four, mapAll(mapper));
+        for (String node : mapper.getNodeNames()) {
+            int share = 0;
+            for (String target : four.values()) {
+                if (target.equals(node)) {
+                    share++;
+                }
+            }
+            assertTrue(node + " got " + share,
+                    share > KEYS / 8 && share < KEYS / 2);
+        }
+
+        // a fifth node takes about a fifth of keys, all from others
+        mapper.setNodeNames(Arrays.asList("a", "b", "c", "d", "e"));
+        Map<String,String> five = mapAll(mapper);
+        int moved = moved(four, five);
+        assertTrue("moved " + moved, moved > KEYS / 10 && moved < KEYS / 3);
+        for (String key : four.keySet()) {
+            if (!four.get(key).equals(five.get(key))) {
+                assertEquals("e", five.get(key));
+            }
+        }
+
+        // a down node's keys, only, move elsewhere
+        mapper.markDown("c");
+        Map<String,String> down = mapAll(mapper);
+        for (String key : five.keySet()) {
+            if (five.get(key).equals("c")) {
+                assertFalse("c".equals(down.get(key)));
+            } else {
+                assertEquals(five.get(key), down.get(key));
+            }
+        }
+        mapper.markUp("c");
+        assertEquals(five, mapAll(mapper));
+
+        // with no live nodes, everything stays local
+        for (String node : mapper.getNodeNames()) {
+            mapper.markDown(node);
+        }
+        assertEquals("a", mapper.mapKey("com,example,"));
+    }
+
+    static class TestTransport extends LoopbackCrawlNodeTransport {
+        List<CrawlURI> scheduled = new ArrayList<CrawlURI>();
+        TestTransport(String name) {
+            setNodeName(name);
+            setBatchSize(3);
+            setFlushIntervalMs(60000);
+        }
+        protected void schedule(CrawlURI curi) {
+            synchronized (scheduled) {
+                scheduled.add(curi);
+            }
+        }
+    }
+
+    public void testLoopbackTransport() throws Exception {
+        TestTransport a = new TestTransport("a");
+        TestTransport b = new TestTransport("b");
+        a.start();
+        b.start();
+        try {
+            CrawlURI seed = new CrawlURI(
+                    UURIFactory.getInstance("http://example.com/"));
+            CrawlURI link = new CrawlURI(
+                    UURIFactory.getInstance("http://example.com/a b"), "LL",
+                    UURIFactory.getInstance("http://example.org/"), null);
+            a.divert(seed, "b");
+            a.divert(link, "b");
+            assertEquals(0, b.scheduled.size());
+            a.divert(seed, "b");
+            // full batch sent
+            assertEquals(3, b.scheduled.size());
+            assertEquals(3, a.getSentUris());
+            assertEquals(3, b.getReceivedUris());
+            assertEquals("http://example.com/",
+                    b.scheduled.get(0).getURI());
+            assertEquals("", b.scheduled.get(0).getPathFromSeed());
+            assertNull(b.scheduled.get(0).getVia());
+            assertEquals(link.getURI(), b.scheduled.get(1).getURI());
+            assertEquals("LL", b.scheduled.get(1).getPathFromSeed());
+            assertEquals("http://example.org/",
+                    b.scheduled.get(1).getVia().toString());
+
+            // unknown node: kept locally, on flush
+            a.divert(link, "nowhere");
+            assertEquals(0, a.scheduled.size());
+            a.flush(true);
+            assertEquals(1, a.scheduled.size());
+            assertEquals(1, a.getKeptUris());
+        } finally {
+            a.stop();
+            b.stop();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.processor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Tests for {@link SocketCrawlNodeTransport}: batches count as sent only
+ * once acknowledged, and are otherwise kept locally.
+ */
+public class SocketCrawlNodeTransportTest extends TestCase {
+
+    /**
+     * Transport noting, rather than passing to a frontier, the URIs it
+     * schedules.
+     */
+    static class TestTransport extends SocketCrawlNodeTransport {
+        List<String> scheduled =
+            Collections.synchronizedList(new ArrayList<String>());
+
+        TestTransport(String peerAddress, int timeoutMs) {
+            setListenPort(0);
+            setTimeoutMs(timeoutMs);
+            setFlushIntervalMs(60000);
+            Map<String,String> addresses = new HashMap<String,String>();
+            if (peerAddress != null) {
+                addresses.put("peer", peerAddress);
+            }
+            setNodeAddresses(addresses);
+        }
+
+        protected void schedule(CrawlURI curi) {
+            scheduled.add(curi.getURI());
+        }
+    }
+
+    protected static CrawlURI curi(String uri) throws Exception {
+        return new CrawlURI(UURIFactory.getInstance(uri), "L", null, null);
+    }
+
+    public void testAcknowledged() throws Exception {
+        TestTransport receiver = new TestTransport(null, 5000);
+        receiver.start();
+        TestTransport sender = new TestTransport(
+                "127.0.0.1:" + receiver.serverSocket.getLocalPort(), 5000);
+        sender.start();
+        try {
+            sender.divert(curi("http://example.com/a"), "peer");
+            sender.divert(curi("http://example.com/b"), "peer");
+            sender.flush(true);
+            assertEquals(2, sender.getSentUris());
+            assertEquals(0, sender.getKeptUris());
+            // acknowledged only once received
+            assertEquals(2, receiver.getReceivedUris());
+            assertEquals("[http://example.com/a, http://example.com/b]",
+                    receiver.scheduled.toString());
+
+            sender.divert(curi("http://example.com/c"), "peer");
+            sender.flush(true);
+            assertEquals(3, sender.getSentUris());
+            assertEquals(3, receiver.scheduled.size());
+        } finally {
+            sender.stop();
+            receiver.stop();
+        }
+    }
+
+    /**
+     * A peer that takes connections and bytes, but never acknowledges
+     * (as if hung, or crashed before scheduling), gets nothing counted
+     * as sent; the URIs are kept locally.
+     */
+    public void testUnacknowledgedKept() throws Exception {
+        // never accepted: connections complete in the backlog, unanswered
+        ServerSocket silent = new ServerSocket(0);
+        TestTransport sender = new TestTransport(
+                "127.0.0.1:" + silent.getLocalPort(), 300);
+        sender.start();
+        try {
+            sender.divert(curi("http://example.com/a"), "peer");
+            sender.flush(true);
+            assertEquals(0, sender.getSentUris());
+            assertEquals(1, sender.getKeptUris());
+            assertEquals("[http://example.com/a]",
+                    sender.scheduled.toString());
+        } finally {
+            sender.stop();
+            silent.close();
+        }
+    }
+
+    public void testListensOnLoopbackByDefault() throws Exception {
+        TestTransport receiver = new TestTransport(null, 5000);
+        receiver.start();
+        try {
+            assertTrue(receiver.serverSocket.getInetAddress()
+                    .isLoopbackAddress());
+        } finally {
+            receiver.stop();
+        }
+    }
+
+    /**
+     * A node slow to accept connections must not hold up sends to other
+     * nodes while connecting.
+     */
+    public void testSlowConnectDoesNotBlockOtherNodes() throws Exception {
+        // a listener whose backlog is full: further connects hang
+        ServerSocket stalled = new ServerSocket(0, 1,
+                InetAddress.getByName("127.0.0.1"));
+        List<Socket> fillers = new ArrayList<Socket>();
+        while (true) {
+            Socket filler = new Socket();
+            fillers.add(filler);
+            try {
+                filler.connect(new InetSocketAddress("127.0.0.1",
+                        stalled.getLocalPort()), 200);
+            } catch (SocketTimeoutException e) {
+                break;
+            }
+            assertTrue("backlog never filled", fillers.size() < 100);
+        }
+
+        TestTransport receiver = new TestTransport(null, 5000);
+        receiver.start();
+        final TestTransport sender = new TestTransport(
+                "127.0.0.1:" + receiver.serverSocket.getLocalPort(), 3000);
+        sender.getNodeAddresses().put("stalled",
+                "127.0.0.1:" + stalled.getLocalPort());
+        sender.start();
+        final IOException[] failure = new IOException[1];
+        Thread slow = new Thread() {
+            public void run() {
+                try {
+                    sender.send("stalled", 
+                            Arrays.asList("http://example.com/s L -"));
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        slow.setDaemon(true);
+        try {
+            slow.start();
+            // let it start connecting
+            Thread.sleep(200);
+            long start = System.currentTimeMillis();
+            sender.send("peer", Arrays.asList("http://example.com/a L -"));
+            assertTrue("send to other node waited on connect",
+                    System.currentTimeMillis() - start < 1500);
+            assertTrue(slow.isAlive());
+            assertEquals(1, receiver.getReceivedUris());
+            assertEquals("[http://example.com/a]",
+                    receiver.scheduled.toString());
+
+            slow.join(10000);
+            assertFalse(slow.isAlive());
+            assertNotNull(failure[0]);
+        } finally {
+            sender.stop();
+            receiver.stop();
+            for (Socket filler : fillers) {
+                filler.close();
+            }
+            stalled.close();
+        }
+    }
+}
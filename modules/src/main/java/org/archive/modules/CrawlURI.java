@@ -62,12 +62,15 @@ import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.httpclient.HttpMethod;
@@ -180,6 +183,16 @@ implements MultiReporter, Serializable, OverlayContext {
    
     transient private int discardedOutlinks = 0; 
     
+    /**
+     * While extractors run concurrently against this URI, each worker 
+     * thread's outlinks, annotations, nonfatal failures and extraction 
+     * status are kept in its own branch, to be merged back in a fixed 
+     * order afterward. Null except during such concurrent extraction.
+     * 
+     * @see #beginConcurrentExtraction()
+     */
+    transient private Map<Thread,ExtractionBranch> extractionBranches = null;
+    
 ////////////////////////////////////////////////////////////////////
     private long contentSize = UNCALCULATED;
     private long contentLength = UNCALCULATED;
@@ -670,6 +683,10 @@ implements MultiReporter, Serializable, OverlayContext {
      * @return the annotations set for this uri.
      */
     public Collection<String> getAnnotations() {
+        ExtractionBranch branch = currentExtractionBranch();
+        if (branch != null) {
+            return branch.annotations;
+        }
         @SuppressWarnings("unchecked")
         List<String> list = (List<String>)getData().get(A_ANNOTATIONS);
         if (list == null) {
@@ -788,6 +805,10 @@ implements MultiReporter, Serializable, OverlayContext {
      * @see #linkExtractorFinished()
      */
     public boolean hasBeenLinkExtracted(){
+        ExtractionBranch branch = currentExtractionBranch();
+        if (branch != null) {
+            return branch.linkExtractorFinished;
+        }
         return linkExtractorFinished;
     }
 
@@ -801,6 +822,11 @@ implements MultiReporter, Serializable, OverlayContext {
      * @see #hasBeenLinkExtracted()
      */
     public void linkExtractorFinished() {
+        ExtractionBranch branch = currentExtractionBranch();
+        if (branch != null) {
+            branch.linkExtractorFinished = true;
+            return;
+        }
         linkExtractorFinished = true;
         if(discardedOutlinks>0) {
             getAnnotations().add("dol:"+discardedOutlinks);
@@ -1106,6 +1132,10 @@ implements MultiReporter, Serializable, OverlayContext {
      * @return Collection of all discovered outbound Links
      */
     public Collection<Link> getOutLinks() {
+        ExtractionBranch branch = currentExtractionBranch();
+        if (branch != null) {
+            return branch.outLinks;
+        }
         return outLinks;
 //        return Transform.subclasses(outLinks, Link.class);
     }
@@ -1263,6 +1293,10 @@ implements MultiReporter, Serializable, OverlayContext {
     }
     
     public Collection<Throwable> getNonFatalFailures() {
+        ExtractionBranch branch = currentExtractionBranch();
+        if (branch != null) {
+            return branch.nonFatalFailures;
+        }
         @SuppressWarnings("unchecked")
         List<Throwable> list = (List)getData().get(A_NONFATAL_ERRORS);
         if (list == null) {
@@ -1684,9 +1718,115 @@ implements MultiReporter, Serializable, OverlayContext {
 
     
     public void incrementDiscardedOutLinks() {
+        ExtractionBranch branch = currentExtractionBranch();
+        if (branch != null) {
+            branch.discardedOutlinks++;
+            return;
+        }
         discardedOutlinks++;
     }
 
+    /**
+     * Thread-private extraction results, collected while several 
+     * extractors run against this URI at once.
+     */
+    public static class ExtractionBranch {
+        protected Collection<Link> outLinks = new LinkedHashSet<Link>();
+        protected List<String> annotations = new ArrayList<String>();
+        protected List<Throwable> nonFatalFailures = new ArrayList<Throwable>();
+        protected int discardedOutlinks = 0;
+        protected boolean linkExtractorFinished;
+        
+        protected ExtractionBranch(boolean linkExtractorFinished) {
+            this.linkExtractorFinished = linkExtractorFinished;
+        }
+        public Collection<Link> getOutLinks() {
+            return outLinks;
+        }
+        public boolean isLinkExtractorFinished() {
+            return linkExtractorFinished;
+        }
+    }
+    
+    /**
+     * Prepare this URI to have extractors run against it from several
+     * threads at once. Until {@link #endConcurrentExtraction()}, the data
+     * map is synchronized, and threads which have called 
+     * {@link #openExtractionBranch()} see their own private outlinks, 
+     * annotations and nonfatal failures. 
+     */
+    public synchronized void beginConcurrentExtraction() {
+        assert extractionBranches == null : "concurrent extraction already begun";
+        data = Collections.synchronizedMap(getData());
+        extractionBranches = new ConcurrentHashMap<Thread,ExtractionBranch>();
+    }
+    
+    /**
+     * Route the current thread's extraction results to a fresh branch, 
+     * whose extraction status starts as this URI's status did.
+     * @return the new branch
+     */
+    public ExtractionBranch openExtractionBranch() {
+        ExtractionBranch branch = new ExtractionBranch(linkExtractorFinished);
+        extractionBranches.put(Thread.currentThread(), branch);
+        return branch;
+    }
+    
+    /**
+     * Stop routing the current thread's extraction results to its branch.
+     */
+    public void closeExtractionBranch() {
+        Map<Thread,ExtractionBranch> branches = extractionBranches;
+        if (branches != null) {
+            branches.remove(Thread.currentThread());
+        }
+    }
+    
+    /**
+     * Merge a branch's results into this URI's own state. Must be called
+     * only from the thread which began concurrent extraction, with its own
+     * branch (if any) closed. Outlinks beyond maxOutlinks are counted as
+     * discarded.
+     * 
+     * @param branch results to merge
+     * @param maxOutlinks limit on total outlinks
+     */
+    public void mergeExtractionBranch(ExtractionBranch branch, int maxOutlinks) {
+        for (Link link : branch.outLinks) {
+            if (getOutLinks().size() < maxOutlinks) {
+                getOutLinks().add(link);
+            } else {
+                discardedOutlinks++;
+            }
+        }
+        getAnnotations().addAll(branch.annotations);
+        getNonFatalFailures().addAll(branch.nonFatalFailures);
+        discardedOutlinks += branch.discardedOutlinks;
+        if (branch.linkExtractorFinished && !linkExtractorFinished) {
+            linkExtractorFinished();
+        }
+    }
+    
+    /**
+     * End concurrent extraction begun by {@link #beginConcurrentExtraction()};
+     * any still-open branches are abandoned.
+     */
+    public synchronized void endConcurrentExtraction() {
+        extractionBranches = null;
+        if (data != null) {
+            // unwrap synchronized view
+            data = new HashMap<String,Object>(data);
+        }
+    }
+    
+    protected ExtractionBranch currentExtractionBranch() {
+        Map<Thread,ExtractionBranch> branches = extractionBranches;
+        if (branches == null) {
+            return null;
+        }
+        return branches.get(Thread.currentThread());
+    }
+
     /**
      * @return the precedence
      */
@@ -1771,6 +1911,18 @@ implements MultiReporter, Serializable, OverlayContext {
         return this.politenessDelay;
     }
 
+    /** 
+     * How many URIs of this URI's queue may be in process at once, as 
+     * decided at disposition. 
+     */
+    protected int politenessParallelism = 1; 
+    public void setPolitenessParallelism(int parallelism) {
+        this.politenessParallelism = parallelism; 
+    }
+    public int getPolitenessParallelism() {
+        return this.politenessParallelism;
+    }
+
     transient CrawlURI fullVia; 
     public void setFullVia(CrawlURI curi) {
         this.fullVia = curi; 
@@ -34,6 +34,7 @@ import org.archive.modules.deciderules.DecideRule;
 import org.archive.net.UURI;
 import org.archive.spring.HasKeyedProperties;
 import org.archive.spring.KeyedProperties;
+import org.archive.util.LatencyHistogram;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.springframework.beans.factory.BeanNameAware;
@@ -157,6 +158,15 @@ implements HasKeyedProperties,
         return uriCount.get();
     }
 
+    /**
+     * Time taken by {@link #process(CrawlURI)} calls, as sampled by the
+     * enclosing {@link ProcessorChain}.
+     */
+    protected LatencyHistogram latency = new LatencyHistogram();
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
 
     /**
      * Determines whether the given uri should be processed by this 
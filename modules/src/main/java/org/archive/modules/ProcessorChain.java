@@ -9,6 +9,7 @@ import java.util.Map;
 import org.archive.spring.HasKeyedProperties;
 import org.archive.spring.KeyedProperties;
 import org.archive.util.ArchiveUtils;
+import org.archive.util.LatencyHistogram;
 import org.archive.util.Reporter;
 import org.springframework.context.Lifecycle;
 
@@ -51,6 +52,31 @@ implements Iterable<Processor>,
         kp.put("processors",processors);
     }
 
+    /**
+     * Time every Nth URI through this chain (counted per thread, as
+     * URIs not yet scheduled, such as candidates, have no ordinal),
+     * recording each processor's latency in its {@link Processor#getLatency()} and the
+     * whole chain's in {@link #getLatency()}. 0 (the default) disables
+     * timing, 1 times every URI.
+     */
+    {
+        setLatencySampleInterval(0);
+    }
+    public int getLatencySampleInterval() {
+        return (Integer) kp.get("latencySampleInterval");
+    }
+    public void setLatencySampleInterval(int interval) {
+        kp.put("latencySampleInterval",interval);
+    }
+
+    protected LatencyHistogram latency = new LatencyHistogram();
+    /**
+     * @return time taken by sampled URIs through the whole chain
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
     boolean isRunning = false; 
     public boolean isRunning() {
         return isRunning;
@@ -117,6 +143,8 @@ implements Iterable<Processor>,
     public void process(CrawlURI curi, ChainStatusReceiver thread) throws InterruptedException {
         assert KeyedProperties.overridesActiveFrom(curi);
         String skipToProc = null; 
+        boolean timed = latency.isSampled(getLatencySampleInterval());
+        long chainStart = timed ? System.nanoTime() : 0;
         
         ploop: for(Processor curProc : this ) {
             if(skipToProc!=null && !curProc.getBeanName().equals(skipToProc)) {
@@ -128,7 +156,14 @@ implements Iterable<Processor>,
                 thread.atProcessor(curProc);
             }
             ArchiveUtils.continueCheck();
-            ProcessResult pr = curProc.process(curi);
+            ProcessResult pr;
+            if(timed) {
+                long start = System.nanoTime();
+                pr = curProc.process(curi);
+                curProc.getLatency().recordSince(start);
+            } else {
+                pr = curProc.process(curi);
+            }
             switch (pr.getProcessStatus()) {
                 case PROCEED:
                     continue;
@@ -139,6 +174,9 @@ implements Iterable<Processor>,
                     continue;
             }
         }
+        if(timed) {
+            latency.recordSince(chainStart);
+        }
     }
     
     public interface ChainStatusReceiver {
@@ -31,7 +31,7 @@ import org.apache.commons.lang.StringUtils;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.deciderules.DecideResult;
 import org.archive.modules.deciderules.PredicatedDecideRule;
-import org.archive.modules.seeds.SeedListener;
+import org.archive.modules.seeds.ConcurrentSeedListener;
 import org.archive.modules.seeds.SeedModule;
 import org.archive.net.UURI;
 import org.archive.spring.ConfigFile;
@@ -46,6 +46,7 @@ import org.springframework.beans.factory.annotation.Autowired;
  * 
  * The set can be filled with SURT prefixes implied or
  * listed in the seeds file, or another external file. 
+ * Seeds may be added from several threads at once.
  *
  * The "also-check-via" option to implement "one hop off" 
  * scoping derives from a contribution by Shifra Raffel
@@ -55,7 +56,7 @@ import org.springframework.beans.factory.annotation.Autowired;
  */
 public class SurtPrefixedDecideRule extends PredicatedDecideRule 
 implements 
-    SeedListener,
+    ConcurrentSeedListener,
     PathFixupListener
 {
     private static final long serialVersionUID = 3L;
@@ -236,7 +237,11 @@ implements
      */
     public void addedSeed(final CrawlURI curi) {
         if(getSeedsAsSurtPrefixes()) {
-            surtPrefixes.add(prefixFrom(curi.getURI()));
+            String prefix = prefixFrom(curi.getURI());
+            // PrefixSet's coalescing of redundant prefixes isn't atomic
+            synchronized (surtPrefixes) {
+                surtPrefixes.add(prefix);
+            }
         }
     }
     
@@ -262,7 +267,10 @@ implements
     public boolean nonseedLine(String line) {
         String effectiveDirective = getEffectiveAddDirective();
         if(line.startsWith(effectiveDirective)) {
-            return surtPrefixes.considerAsAddDirective(line.substring(effectiveDirective.length()));
+            synchronized (surtPrefixes) {
+                return surtPrefixes.considerAsAddDirective(
+                        line.substring(effectiveDirective.length()));
+            }
         } else {
             // not a line this instance is interested in
             return false; 
@@ -21,15 +21,12 @@ package org.archive.modules.extractor;
 import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 
 import org.apache.commons.httpclient.URIException;
 import org.archive.io.ReplayCharSequence;
 import org.archive.modules.CrawlURI;
 import org.archive.net.UURI;
 import org.archive.util.ArchiveUtils;
-import org.archive.util.DevUtils;
-import org.archive.util.TextUtils;
 
 /**
  * This extractor is parsing URIs from CSS type files.
@@ -56,24 +53,19 @@ public class ExtractorCSS extends ContentExtractor {
         Logger.getLogger("org.archive.crawler.extractor.ExtractorCSS");
 
     private static String ESCAPED_AMP = "&amp";
-    // CSS escapes: "Parentheses, commas, whitespace characters, single 
-    // quotes (') and double quotes (") appearing in a URL must be 
-    // escaped with a backslash"
-    static final String CSS_BACKSLASH_ESCAPE = "\\\\([,'\"\\(\\)\\s])";
-    
+
     /**
-     *  CSS URL extractor pattern.
+     *  CSS URL extraction.
      *
-     *  This pattern extracts URIs for CSS files
+     *  URIs were formerly found with the regular expression
+     *  <pre>
+     *  (?i)(?:@import (?:url[(]|)|url[(])\s*(["']?)([^"'].{0,MAX_URL_LENGTH}?)\1\s*[);]
+     *  </pre>
+     *  (the URI being group 2), and are now found by the equivalent 
+     *  single-pass scan in findUri().
      **/
-//    static final String CSS_URI_EXTRACTOR =
-//        "url[(]\\s*([\"\']?)([^\\\"\\'].*?)\\1\\s*[)]";
-    static final String CSS_URI_EXTRACTOR =    
-    "(?i)(?:@import (?:url[(]|)|url[(])\\s*([\\\"\']?)" + // G1
-    "([^\\\"\'].{0,"+UURI.MAX_URL_LENGTH+"}?)\\1\\s*[);]"; // G2
-    // GROUPS:
-    // (G1) optional ' or "
-    // (G2) URI
+    static final String IMPORT = "@import ";
+    static final String URL = "url(";
     
 
     /**
@@ -117,31 +109,199 @@ public class ExtractorCSS extends ContentExtractor {
     public static long processStyleCode(Extractor ext, 
             CrawlURI curi, CharSequence cs) {
         long foundLinks = 0;
-        Matcher uris = null;
-        String cssUri;
-        try {
-            uris = TextUtils.getMatcher(CSS_URI_EXTRACTOR, cs);
-            while (uris.find()) {
-                cssUri = uris.group(2);
-                // TODO: Escape more HTML Entities.
-                cssUri = TextUtils.replaceAll(ESCAPED_AMP, cssUri, "&");
-                // Remove backslashes when used as escape character in CSS URL
-                cssUri = TextUtils.replaceAll(CSS_BACKSLASH_ESCAPE, cssUri,
-                        "$1");
-                foundLinks++;
-                int max = ext.getExtractorParameters().getMaxOutlinks();
-                try {
-                    Link.addRelativeToBase(curi, max, cssUri, 
-                            LinkContext.EMBED_MISC, Hop.EMBED);
-                } catch (URIException e) {
-                    ext.logUriError(e, curi.getUURI(), cssUri);
-                }
+        int[] match = new int[3];
+        int position = 0;
+        while (findUri(cs, position, match)) {
+            position = match[2];
+            String cssUri = unescape(cs, match[0], match[1]);
+            foundLinks++;
+            int max = ext.getExtractorParameters().getMaxOutlinks();
+            try {
+                Link.addRelativeToBase(curi, max, cssUri, 
+                        LinkContext.EMBED_MISC, Hop.EMBED);
+            } catch (URIException e) {
+                ext.logUriError(e, curi.getUURI(), cssUri);
             }
-        } catch (StackOverflowError e) {
-            DevUtils.warnHandle(e, "ExtractorCSS StackOverflowError");
-        } finally {
-            TextUtils.recycleMatcher(uris);
         }
         return foundLinks;
     }
+
+    /**
+     * Find the first CSS URI reference (@import or url()) at or after from.
+     * 
+     * @param match on success, receives URI start, URI end, and end of 
+     * the reference
+     * @return true if found
+     */
+    protected static boolean findUri(CharSequence cs, int from, int[] match) {
+        int length = cs.length();
+        for (int i = from; i < length; i++) {
+            char c = cs.charAt(i);
+            if (c == '@') {
+                if (!regionMatchesIgnoreCase(cs, i, IMPORT)) {
+                    continue;
+                }
+                int p = i + IMPORT.length();
+                if (regionMatchesIgnoreCase(cs, p, URL)
+                        && matchUriAt(cs, p + URL.length(), match)) {
+                    return true;
+                }
+                if (matchUriAt(cs, p, match)) {
+                    return true;
+                }
+            } else if ((c == 'u' || c == 'U') 
+                    && regionMatchesIgnoreCase(cs, i, URL)
+                    && matchUriAt(cs, i + URL.length(), match)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Match whitespace, optional quote, URI, matching quote, whitespace, 
+     * and closing ')' or ';', starting at p.
+     */
+    protected static boolean matchUriAt(CharSequence cs, int p, int[] match) {
+        int afterSpace = skipWhitespace(cs, p);
+        if (afterSpace < cs.length()) {
+            char c = cs.charAt(afterSpace);
+            if ((c == '"' || c == '\'') 
+                    && matchRest(cs, afterSpace + 1, c, match)) {
+                return true;
+            }
+        }
+        if (matchRest(cs, afterSpace, (char) 0, match)) {
+            return true;
+        }
+        // the URI may instead begin with the last whitespace character;
+        // beginning any earlier can succeed only if that does
+        return afterSpace > p 
+            && matchRest(cs, afterSpace - 1, (char) 0, match);
+    }
+
+    /**
+     * Match the shortest URI at start (of at least one character, 
+     * not starting with a quote, not spanning lines) followed by the 
+     * given quote (if not 0), whitespace, and ')' or ';'.
+     */
+    protected static boolean matchRest(CharSequence cs, int start, 
+            char quote, int[] match) {
+        int length = cs.length();
+        if (start >= length) {
+            return false;
+        }
+        char first = cs.charAt(start);
+        if (first == '"' || first == '\'') {
+            return false;
+        }
+        int maxEnd = Math.min(length, start + 1 + UURI.MAX_URL_LENGTH);
+        // end of whitespace run most recently skipped
+        int spaceEnd = -1;
+        for (int end = start + 1; end <= maxEnd; end++) {
+            int t = end;
+            if (quote != 0) {
+                t = (t < length && cs.charAt(t) == quote) ? t + 1 : -1;
+            }
+            if (t >= 0) {
+                if (t > spaceEnd) {
+                    spaceEnd = skipWhitespace(cs, t);
+                }
+                if (spaceEnd < length) {
+                    char c = cs.charAt(spaceEnd);
+                    if (c == ')' || c == ';') {
+                        match[0] = start;
+                        match[1] = end;
+                        match[2] = spaceEnd + 1;
+                        return true;
+                    }
+                }
+            }
+            if (end < length && isLineTerminator(cs.charAt(end))) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Undo HTML ampersand escaping, then remove backslashes when used as
+     * CSS escape characters: "Parentheses, commas, whitespace characters,
+     * single quotes (') and double quotes (") appearing in a URL must be 
+     * escaped with a backslash".
+     */
+    protected static String unescape(CharSequence cs, int start, int end) {
+        boolean plain = true;
+        for (int i = start; i < end && plain; i++) {
+            char c = cs.charAt(i);
+            plain = c != '&' && c != '\\';
+        }
+        String cssUri = cs.subSequence(start, end).toString();
+        if (plain) {
+            return cssUri;
+        }
+        // TODO: Escape more HTML Entities.
+        cssUri = cssUri.replace(ESCAPED_AMP, "&");
+        StringBuilder sb = new StringBuilder(cssUri.length());
+        for (int i = 0; i < cssUri.length(); i++) {
+            char c = cssUri.charAt(i);
+            if (c == '\\' && i + 1 < cssUri.length()) {
+                char next = cssUri.charAt(i + 1);
+                if (next == ',' || next == '\'' || next == '"' 
+                        || next == '(' || next == ')' || isWhitespace(next)) {
+                    sb.append(next);
+                    i++;
+                    continue;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return true if region at offset matches the given lowercase ASCII
+     * text, ignoring case
+     */
+    protected static boolean regionMatchesIgnoreCase(CharSequence cs, 
+            int offset, String lowercase) {
+        if (offset + lowercase.length() > cs.length()) {
+            return false;
+        }
+        for (int i = 0; i < lowercase.length(); i++) {
+            char c = cs.charAt(offset + i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != lowercase.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static int skipWhitespace(CharSequence cs, int p) {
+        int length = cs.length();
+        while (p < length && isWhitespace(cs.charAt(p))) {
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * @return true if c is whitespace as in the regular expression class \s
+     */
+    protected static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' 
+            || c == '\f' || c == '\r';
+    }
+
+    /**
+     * @return true if c ends a line, so is not matched by regular
+     * expression '.'
+     */
+    protected static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+            || c == '\u2029';
+    }
 }
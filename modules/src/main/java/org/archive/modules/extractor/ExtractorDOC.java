@@ -79,8 +79,7 @@ public class ExtractorDOC extends ContentExtractor {
         // Get the doc as a repositionable reader
         try
         {
-            documentStream = curi.getRecorder().getRecordedInput().
-                getContentReplayInputStream();
+            documentStream = curi.getRecorder().getContentReplayInputStream();
 
             if (documentStream==null) {
                 // TODO: note problem
@@ -22,16 +22,15 @@ import static org.archive.modules.extractor.Hop.SPECULATIVE;
 import static org.archive.modules.extractor.LinkContext.JS_MISC;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 
 import org.apache.commons.httpclient.URIException;
 import org.archive.io.ReplayCharSequence;
 import org.archive.modules.CrawlURI;
 import org.archive.net.UURI;
 import org.archive.util.ArchiveUtils;
-import org.archive.util.DevUtils;
-import org.archive.util.TextUtils;
 import org.archive.util.UriUtils;
 
 /**
@@ -52,11 +51,13 @@ public class ExtractorJS extends ContentExtractor {
     // finds whitespace-free strings in Javascript
     // (areas between paired ' or " characters, possibly backslash-quoted
     // on the ends, but not in the middle)
-    static final String JAVASCRIPT_STRING_EXTRACTOR =
-        "(\\\\{0,8}+(?:\"|\'))(\\S{0,"+UURI.MAX_URL_LENGTH+"}?)(?:\\1)";
-    // GROUPS:
-    // (G1) ' or " with optional leading backslashes
-    // (G2) whitespace-free string delimited on boths ends by G1
+    //
+    // Formerly found with the regular expression:
+    //   (\\{0,8}+(?:"|'))(\S{0,MAX_URL_LENGTH}?)(?:\1)
+    // now by the equivalent single-pass scan in findString().
+
+    /** most backslashes quoting a string delimiter */
+    static final int MAX_DELIMITER_BACKSLASHES = 8;
 
     protected long numberOfCURIsHandled = 0;
     protected static long numberOfLinksExtracted = 0;
@@ -123,11 +124,7 @@ public class ExtractorJS extends ContentExtractor {
         ReplayCharSequence cs = null;
         try {
             cs = curi.getRecorder().getReplayCharSequence();
-            try {
-                numberOfLinksExtracted += considerStrings(this, curi, cs, true);
-            } catch (StackOverflowError e) {
-                DevUtils.warnHandle(e, "ExtractorJS StackOverflowError");
-            }
+            numberOfLinksExtracted += considerStrings(this, curi, cs, true);
             // Set flag to indicate that link extraction is completed.
             return true;
         } catch (IOException e) {
@@ -141,13 +138,19 @@ public class ExtractorJS extends ContentExtractor {
     public static long considerStrings(Extractor ext, 
             CrawlURI curi, CharSequence cs, boolean handlingJSFile) {
         long foundLinks = 0;
-        Matcher strings =
-            TextUtils.getMatcher(JAVASCRIPT_STRING_EXTRACTOR, cs);
-        while(strings.find()) {
-            CharSequence subsequence =
-                cs.subSequence(strings.start(2), strings.end(2));
-            if(UriUtils.isLikelyUri(subsequence)) {
-                String string = subsequence.toString();
+        int[] match = new int[3];
+        // strings being searched, innermost last: {next position, end}
+        List<int[]> ranges = new ArrayList<int[]>();
+        ranges.add(new int[] {0, cs.length()});
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.get(ranges.size() - 1);
+            if (!findString(cs, range[0], range[1], match)) {
+                ranges.remove(ranges.size() - 1);
+                continue;
+            }
+            range[0] = match[2];
+            if (UriUtils.isLikelyUri(cs, match[0], match[1])) {
+                String string = cs.subSequence(match[0], match[1]).toString();
                 string = UriUtils.speculativeFixup(string, curi.getUURI());
                 foundLinks++;
                 try {
@@ -163,11 +166,92 @@ public class ExtractorJS extends ContentExtractor {
                     ext.logUriError(e, curi.getUURI(), string);
                 }
             } else {
-               foundLinks += considerStrings(ext, curi, subsequence, 
-                       handlingJSFile);
+                // look for strings within the string
+                ranges.add(new int[] {match[0], match[1]});
             }
         }
-        TextUtils.recycleMatcher(strings);
         return foundLinks;
     }
+
+    /**
+     * Find the first whitespace-free string in cs between from and to: the
+     * shortest run of non-whitespace characters, of at most
+     * UURI.MAX_URL_LENGTH, between a ' or " (with up to 8 leading
+     * backslashes) and the next identical delimiter.
+     * 
+     * @param match on success, receives string start, string end, and 
+     * end of closing delimiter
+     * @return true if a string was found
+     */
+    protected static boolean findString(CharSequence cs, int from, int to,
+            int[] match) {
+        for (int i = from; i < to; i++) {
+            char c = cs.charAt(i);
+            if (c != '\\' && c != '"' && c != '\'') {
+                continue;
+            }
+            int backslashes = 0;
+            while (backslashes < MAX_DELIMITER_BACKSLASHES 
+                    && i + backslashes < to 
+                    && cs.charAt(i + backslashes) == '\\') {
+                backslashes++;
+            }
+            if (i + backslashes >= to) {
+                // backslashes to the end; no delimiter can follow
+                return false;
+            }
+            char quote = cs.charAt(i + backslashes);
+            if (quote != '"' && quote != '\'') {
+                continue;
+            }
+            int start = i + backslashes + 1;
+            int close = findClosingQuote(cs, start, to, backslashes, quote);
+            if (close >= 0) {
+                match[0] = start;
+                match[1] = close - backslashes;
+                match[2] = close + 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return position of the quote of the first delimiter (quote preceded
+     * by the given number of backslashes) after start, if reached before
+     * any whitespace and within UURI.MAX_URL_LENGTH; otherwise -1
+     */
+    protected static int findClosingQuote(CharSequence cs, int start, int to,
+            int backslashes, char quote) {
+        int maxStringEnd = start + UURI.MAX_URL_LENGTH;
+        for (int p = start; p < to; p++) {
+            char c = cs.charAt(p);
+            if (isWhitespace(c) || p - backslashes > maxStringEnd) {
+                return -1;
+            }
+            if (c == quote && p - backslashes >= start
+                    && precededByBackslashes(cs, p, backslashes)) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    protected static boolean precededByBackslashes(CharSequence cs, int p, 
+            int count) {
+        for (int i = p - count; i < p; i++) {
+            if (cs.charAt(i) != '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if c is whitespace as in the regular expression class \s
+     */
+    protected static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' 
+            || c == '\f' || c == '\r';
+    }
 }
@@ -18,13 +18,14 @@
  */
 package org.archive.modules.extractor;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.httpclient.URIException;
-import org.archive.io.SinkHandlerLogThread;
+import org.archive.io.ReplayInputStream;
 import org.archive.modules.CrawlURI;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
@@ -32,6 +33,11 @@ import org.archive.net.UURIFactory;
 /** Allows the caller to process a CrawlURI representing a PDF
  *  for the purpose of extracting URIs
  *
+ * <p>The recorded content is scanned in place by a {@link PDFLinkScanner},
+ * which passes over content streams without parsing the whole document.
+ * Encrypted documents, whose strings the scanner cannot read, are instead
+ * loaded into memory and parsed fully with {@link PDFParser}.
+ *
  * @author Parker Thompson
  *
  */
@@ -56,6 +62,20 @@ public class ExtractorPDF extends ContentExtractor {
         kp.put("maxSizeToParse",threshold);
     }
 
+    /**
+     * The maximum time, in milliseconds, to spend scanning one PDF for
+     * links. Links found before the limit are kept. 0 means no limit.
+     */
+    {
+        setMaxParseTimeMs(10*1000L); // 10 seconds
+    }
+    public long getMaxParseTimeMs() {
+        return (Long) kp.get("maxParseTimeMs");
+    }
+    public void setMaxParseTimeMs(long ms) {
+        kp.put("maxParseTimeMs",ms);
+    }
+
     public ExtractorPDF() {
     }
     
@@ -72,28 +92,24 @@ public class ExtractorPDF extends ContentExtractor {
     
     
     protected boolean innerExtract(CrawlURI curi){
-        File tempFile;
-
-        int sn;
-	Thread thread = Thread.currentThread();
-        if (thread instanceof SinkHandlerLogThread) {
-            sn = ((SinkHandlerLogThread)thread).getSerialNumber();
-        } else {
-            sn = System.identityHashCode(thread);
-        }
+        List<String> uris;
+        ReplayInputStream content = null;
         try {
-            tempFile = File.createTempFile("tt" + sn , "tmp.pdf");
-        } catch (IOException ioe) {
-            throw new RuntimeException(ioe);
-        }
-
-        PDFParser parser;
-        ArrayList<String> uris;
-        try {
-            curi.getRecorder().getRecordedInput().
-                copyContentBodyTo(tempFile);
-            parser = new PDFParser(tempFile.getAbsolutePath());
-            uris = parser.extractURIs();
+            content = curi.getRecorder().getContentReplayInputStream();
+            PDFLinkScanner scanner = new PDFLinkScanner(getMaxParseTimeMs());
+            uris = scanner.scan(content);
+            if (scanner.isEncrypted()) {
+                content.close();
+                content = curi.getRecorder().getContentReplayInputStream();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                        (int) content.remaining());
+                content.readFullyTo(bytes);
+                uris = new PDFParser(bytes.toByteArray()).extractURIs();
+            } else if (scanner.isTimedOut()) {
+                LOGGER.fine(curi + " PDF scan stopped at time limit");
+                curi.getNonFatalFailures().add(new IOException(
+                        "PDF scan exceeded " + getMaxParseTimeMs() + "ms"));
+            }
         } catch (IOException e) {
             curi.getNonFatalFailures().add(e);
             return false;
@@ -103,7 +119,13 @@ public class ExtractorPDF extends ContentExtractor {
             curi.getNonFatalFailures().add(e);
             return false;
         } finally {
-            tempFile.delete();
+            if (content != null) {
+                try {
+                    content.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "closing replay of " + curi, e);
+                }
+            }
         }
         
         if (uris == null) {
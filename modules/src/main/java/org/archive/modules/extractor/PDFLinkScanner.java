@@ -0,0 +1,701 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Finds URIs in a PDF document in a single sequential pass over its bytes,
+ * without reading the cross-reference table or building the document's
+ * object graph.
+ *
+ * <p>Dictionaries are tracked only far enough to recognize the value of a
+ * /URI (or legacy /URL) key, as found in URI actions of link annotations
+ * and outlines. Such values may be literal or hex strings, or references
+ * to string objects. Content, image and font streams are skipped unread;
+ * compressed object streams (PDF 1.5), which commonly hold annotations,
+ * are inflated and scanned in turn.
+ *
+ * <p>Memory use is bounded independent of document size: strings, object
+ * stream data and nesting depth are capped. Scanning stops, keeping the
+ * URIs found so far, once the given time limit passes.
+ *
+ * <p>Strings of encrypted documents cannot be read this way; callers
+ * should check {@link #isEncrypted()} and discard results if set.
+ */
+public class PDFLinkScanner {
+    /** longest string kept; longer /URI values are not usable URIs anyway */
+    public static final int MAX_STRING_LENGTH = 4096;
+    /** deepest nesting of dictionaries and arrays tracked */
+    public static final int MAX_DEPTH = 64;
+    /** most URIs, unresolved references or string objects remembered */
+    public static final int MAX_ENTRIES = 10000;
+    /** most bytes of an object stream read, and of its inflation */
+    public static final int MAX_OBJECT_STREAM_BYTES = 4 * 1024 * 1024;
+    /** tokens between checks of the time limit */
+    protected static final int CHECK_INTERVAL = 4096;
+
+    protected static final byte[] ENDSTREAM = {
+        'e','n','d','s','t','r','e','a','m'};
+    /** for each prefix of ENDSTREAM, length of its longest proper prefix
+     * that is also its suffix (for Knuth-Morris-Pratt matching) */
+    protected static final int[] ENDSTREAM_FALLBACK = {
+        0, 0, 0, 0, 0, 0, 1, 0, 0};
+
+    // token types
+    protected static final int EOF = 0;
+    protected static final int DICT_START = 1;
+    protected static final int DICT_END = 2;
+    protected static final int ARRAY_START = 3;
+    protected static final int ARRAY_END = 4;
+    protected static final int NAME = 5;
+    protected static final int STRING = 6;
+    protected static final int NUMBER = 7;
+    protected static final int KEYWORD = 8;
+
+    /**
+     * Byte-level tokenizer over a stream, with its own buffering. Reports
+     * end of input once the scan's time limit has passed.
+     */
+    protected class Lexer {
+        final InputStream in;
+        final byte[] buf = new byte[8192];
+        int pos = 0;
+        int limit = 0;
+
+        int type;
+        /** text of NAME (without '/'), NUMBER or KEYWORD tokens */
+        String text;
+        /** bytes of STRING tokens */
+        ByteArrayOutputStream string = new ByteArrayOutputStream();
+
+        Lexer(InputStream in) {
+            this.in = in;
+        }
+
+        int read() throws IOException {
+            if (pos == limit) {
+                if (isPastDeadline()) {
+                    return -1;
+                }
+                limit = in.read(buf, 0, buf.length);
+                pos = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buf[pos++] & 0xff;
+        }
+
+        void unread() {
+            // only ever called directly after a successful read()
+            pos--;
+        }
+
+        int next() throws IOException {
+            int c;
+            while (true) {
+                c = read();
+                if (c < 0) {
+                    return type = EOF;
+                }
+                if (isWhitespace(c)) {
+                    continue;
+                }
+                if (c == '%') {
+                    // comment to end of line
+                    while ((c = read()) >= 0 && c != '\n' && c != '\r') {
+                        continue;
+                    }
+                    continue;
+                }
+                if (c == ')' || c == '{' || c == '}') {
+                    // stray or PostScript-function delimiters
+                    continue;
+                }
+                if (c == '>') {
+                    if ((c = read()) == '>') {
+                        return type = DICT_END;
+                    }
+                    if (c >= 0) {
+                        unread();
+                    }
+                    continue;
+                }
+                break;
+            }
+            switch (c) {
+                case '<':
+                    if ((c = read()) == '<') {
+                        return type = DICT_START;
+                    }
+                    if (c >= 0) {
+                        unread();
+                    }
+                    return type = readHexString() ? STRING : EOF;
+                case '[':
+                    return type = ARRAY_START;
+                case ']':
+                    return type = ARRAY_END;
+                case '(':
+                    return type = readLiteralString() ? STRING : EOF;
+                case '/':
+                    text = readRegular(-1, true);
+                    return type = NAME;
+                default:
+                    text = readRegular(c, false);
+                    return type = isNumberStart(c) ? NUMBER : KEYWORD;
+            }
+        }
+
+        String readRegular(int first, boolean name) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            if (first >= 0) {
+                sb.append((char) first);
+            }
+            int c;
+            while ((c = read()) >= 0) {
+                if (isWhitespace(c) || isDelimiter(c)) {
+                    unread();
+                    break;
+                }
+                if (name && c == '#') {
+                    int h1 = hexValue(read());
+                    int h2 = hexValue(read());
+                    if (h1 >= 0 && h2 >= 0) {
+                        c = h1 * 16 + h2;
+                    }
+                }
+                if (sb.length() < 256) {
+                    sb.append((char) c);
+                }
+            }
+            return sb.toString();
+        }
+
+        /** @return false if input ended before the string did */
+        boolean readLiteralString() throws IOException {
+            string.reset();
+            int nesting = 1;
+            int c;
+            while ((c = read()) >= 0) {
+                if (c == '(') {
+                    nesting++;
+                } else if (c == ')') {
+                    if (--nesting == 0) {
+                        return true;
+                    }
+                } else if (c == '\\') {
+                    c = read();
+                    switch (c) {
+                        case 'n': c = '\n'; break;
+                        case 'r': c = '\r'; break;
+                        case 't': c = '\t'; break;
+                        case 'b': c = '\b'; break;
+                        case 'f': c = '\f'; break;
+                        case '\r':
+                            // line continuation
+                            if ((c = read()) != '\n' && c >= 0) {
+                                unread();
+                            }
+                            continue;
+                        case '\n':
+                            continue;
+                        default:
+                            if (c >= '0' && c <= '7') {
+                                int octal = c - '0';
+                                for (int i = 0; i < 2; i++) {
+                                    c = read();
+                                    if (c >= '0' && c <= '7') {
+                                        octal = octal * 8 + (c - '0');
+                                    } else {
+                                        if (c >= 0) {
+                                            unread();
+                                        }
+                                        break;
+                                    }
+                                }
+                                c = octal & 0xff;
+                            }
+                    }
+                    if (c < 0) {
+                        return false;
+                    }
+                }
+                if (string.size() < MAX_STRING_LENGTH) {
+                    string.write(c);
+                }
+            }
+            return false;
+        }
+
+        /** @return false if input ended before the string did */
+        boolean readHexString() throws IOException {
+            string.reset();
+            int high = -1;
+            int c;
+            while ((c = read()) >= 0 && c != '>') {
+                int v = hexValue(c);
+                if (v < 0) {
+                    continue;
+                }
+                if (high < 0) {
+                    high = v;
+                } else {
+                    if (string.size() < MAX_STRING_LENGTH) {
+                        string.write(high * 16 + v);
+                    }
+                    high = -1;
+                }
+            }
+            if (high >= 0 && string.size() < MAX_STRING_LENGTH) {
+                string.write(high * 16);
+            }
+            return c == '>';
+        }
+
+        /**
+         * Skip the EOL after the 'stream' keyword, then pass over the
+         * stream's data up to the 'endstream' keyword, copying up to
+         * max bytes of it into the given sink, if any.
+         *
+         * @return false if the end of input came first
+         */
+        boolean passStreamData(ByteArrayOutputStream sink, int max)
+        throws IOException {
+            int c = read();
+            if (c == '\r') {
+                if ((c = read()) != '\n' && c >= 0) {
+                    unread();
+                }
+            } else if (c != '\n' && c >= 0) {
+                unread();
+            }
+            int matched = 0;
+            while ((c = read()) >= 0) {
+                while (matched > 0 && c != ENDSTREAM[matched]) {
+                    // bytes no longer part of a possible match were data
+                    int fallback = ENDSTREAM_FALLBACK[matched - 1];
+                    if (sink != null) {
+                        for (int i = 0; i < matched - fallback
+                                && sink.size() < max; i++) {
+                            sink.write(ENDSTREAM[i]);
+                        }
+                    }
+                    matched = fallback;
+                }
+                if (c == ENDSTREAM[matched]) {
+                    if (++matched == ENDSTREAM.length) {
+                        return true;
+                    }
+                } else if (sink != null && sink.size() < max) {
+                    sink.write(c);
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * State of one open dictionary or array.
+     */
+    protected static class Container {
+        final boolean dict;
+        /** for dictionaries, whether next token is a key */
+        boolean expectKey = true;
+        /** for dictionaries, the last key read */
+        String key;
+
+        Container(boolean dict) {
+            this.dict = dict;
+        }
+    }
+
+    protected long maxTimeMs;
+    protected long deadline;
+    protected boolean timedOut = false;
+    protected boolean encrypted = false;
+    protected int tokenCount = 0;
+
+    protected Set<String> uris = new LinkedHashSet<String>();
+    /** numbers of objects referenced as /URI values, not yet seen */
+    protected Set<Integer> pendingReferences = new HashSet<Integer>();
+    /** top-level string objects seen, by object number */
+    protected Map<Integer,String> stringObjects =
+        new HashMap<Integer,String>();
+
+    /**
+     * @param maxTimeMs time after which scanning stops; 0 for no limit
+     */
+    public PDFLinkScanner(long maxTimeMs) {
+        this.maxTimeMs = maxTimeMs;
+    }
+
+    /**
+     * Scan the given PDF content for URIs.
+     *
+     * @param in PDF content; not closed
+     * @return URIs found, in order first found, without duplicates
+     * @throws IOException
+     */
+    public List<String> scan(InputStream in) throws IOException {
+        deadline = (maxTimeMs > 0)
+            ? System.currentTimeMillis() + maxTimeMs : Long.MAX_VALUE;
+        scan(new Lexer(in), null);
+        return new ArrayList<String>(uris);
+    }
+
+    /**
+     * @return true if the document has an /Encrypt entry, so that any
+     * URIs found are likely garbled
+     */
+    public boolean isEncrypted() {
+        return encrypted;
+    }
+
+    /**
+     * @return true if scanning stopped at the time limit
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    protected boolean isPastDeadline() {
+        if (System.currentTimeMillis() >= deadline) {
+            timedOut = true;
+        }
+        return timedOut;
+    }
+
+    /**
+     * Scan tokens to the end of input.
+     *
+     * @param lexer source of tokens
+     * @param objectNumbers for an object stream's contents, the numbers of
+     * the objects it holds, in order; otherwise null
+     */
+    protected void scan(Lexer lexer, List<Integer> objectNumbers)
+    throws IOException {
+        List<Container> stack = new ArrayList<Container>();
+        int overflowDepth = 0;
+        // last two integers seen, for 'N G obj' and 'N G R'
+        long number1 = -1;
+        long number2 = -1;
+        // whether last value was a /URI or /URL key's value, and if an
+        // integer, awaiting ' G R'
+        boolean uriValuePending = false;
+        int currentObject = -1;
+        boolean atObjectStart = false;
+        int objectIndex = 0;
+        Container lastClosedDict = null;
+        Map<String,String> streamDict = null;
+
+        while (lexer.next() != EOF) {
+            if ((++tokenCount % CHECK_INTERVAL) == 0 && isPastDeadline()) {
+                return;
+            }
+            int type = lexer.type;
+            boolean wasObjectStart = atObjectStart;
+            atObjectStart = false;
+            Container top = stack.isEmpty() ? null : stack.get(stack.size() - 1);
+
+            // integer pairs and the keywords that follow them
+            if (type == NUMBER) {
+                number1 = number2;
+                number2 = parseInteger(lexer.text);
+            } else if (type == KEYWORD) {
+                String keyword = lexer.text;
+                if (keyword.equals("R") && number1 >= 0 && number2 >= 0) {
+                    if (uriValuePending) {
+                        noteUriReference((int) number1);
+                    }
+                } else if (keyword.equals("obj") && number1 >= 0
+                        && stack.isEmpty()) {
+                    currentObject = (int) number1;
+                    atObjectStart = true;
+                } else if (keyword.equals("stream") && stack.isEmpty()) {
+                    scanStream(lexer, streamDict);
+                }
+                number1 = number2 = -1;
+            } else {
+                number1 = number2 = -1;
+            }
+            if (type != NUMBER) {
+                uriValuePending = false;
+            }
+
+            if (objectNumbers != null && stack.isEmpty()
+                    && objectIndex < objectNumbers.size()) {
+                // in object stream: each top-level value is next object
+                if (type == STRING) {
+                    noteStringObject(objectNumbers.get(objectIndex),
+                            decode(lexer.string.toByteArray()));
+                }
+                if (type != DICT_END && type != ARRAY_END) {
+                    if (type == DICT_START || type == ARRAY_START) {
+                        // counted when closed
+                    } else if (type != KEYWORD || !lexer.text.equals("R")) {
+                        objectIndex++;
+                    }
+                }
+            } else if (wasObjectStart && type == STRING) {
+                noteStringObject(currentObject,
+                        decode(lexer.string.toByteArray()));
+            }
+
+            switch (type) {
+                case DICT_START:
+                case ARRAY_START:
+                    if (stack.size() >= MAX_DEPTH) {
+                        overflowDepth++;
+                    } else {
+                        stack.add(new Container(type == DICT_START));
+                    }
+                    if (type == DICT_START && stack.size() == 1) {
+                        streamDict = new HashMap<String,String>();
+                    }
+                    break;
+                case DICT_END:
+                case ARRAY_END:
+                    if (overflowDepth > 0) {
+                        overflowDepth--;
+                        break;
+                    }
+                    if (top != null) {
+                        stack.remove(stack.size() - 1);
+                        if (top.dict) {
+                            lastClosedDict = top;
+                        }
+                        Container parent = stack.isEmpty() ? null
+                                : stack.get(stack.size() - 1);
+                        valueEnds(parent);
+                        if (stack.isEmpty() && objectNumbers != null) {
+                            objectIndex++;
+                        }
+                    }
+                    break;
+                case NAME:
+                    if (overflowDepth > 0) {
+                        break;
+                    }
+                    if (top != null && top.dict && top.expectKey) {
+                        top.key = lexer.text;
+                        top.expectKey = false;
+                        if (top.key.equals("Encrypt")) {
+                            encrypted = true;
+                        }
+                    } else {
+                        if (top != null && top.dict && stack.size() == 1) {
+                            streamDict.put(top.key, lexer.text);
+                        }
+                        valueEnds(top);
+                    }
+                    break;
+                case STRING:
+                    if (overflowDepth == 0 && isUriValue(top)) {
+                        noteUri(decode(lexer.string.toByteArray()));
+                    }
+                    valueEnds(top);
+                    break;
+                case NUMBER:
+                    if (overflowDepth == 0 && isUriValue(top)) {
+                        uriValuePending = true;
+                    }
+                    if (top != null && top.dict && stack.size() == 1
+                            && !top.expectKey) {
+                        streamDict.put(top.key, lexer.text);
+                    }
+                    valueEnds(top);
+                    break;
+                default:
+                    valueEnds(top);
+            }
+        }
+    }
+
+    /**
+     * Handle a stream's data: scan it if an object stream, otherwise pass
+     * over it.
+     */
+    protected void scanStream(Lexer lexer, Map<String,String> dict)
+    throws IOException {
+        boolean objectStream = dict != null
+            && "ObjStm".equals(dict.get("Type"))
+            && "FlateDecode".equals(dict.get("Filter"))
+            && !dict.containsKey("DecodeParms");
+        if (!objectStream) {
+            lexer.passStreamData(null, 0);
+            return;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        lexer.passStreamData(compressed, MAX_OBJECT_STREAM_BYTES);
+        byte[] inflated = inflate(compressed.toByteArray());
+        if (inflated == null) {
+            return;
+        }
+        // header: N pairs of object number and offset
+        int count = (int) parseInteger(dict.get("N"));
+        Lexer inner = new Lexer(new ByteArrayInputStream(inflated));
+        List<Integer> objectNumbers = new ArrayList<Integer>();
+        for (int i = 0; i < count && i < MAX_ENTRIES; i++) {
+            if (inner.next() != NUMBER) {
+                break;
+            }
+            objectNumbers.add((int) parseInteger(inner.text));
+            if (inner.next() != NUMBER) {
+                break;
+            }
+        }
+        scan(inner, objectNumbers);
+    }
+
+    /**
+     * @return inflated data, up to MAX_OBJECT_STREAM_BYTES, or null if not
+     * inflatable
+     */
+    protected byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()
+                    && out.size() < MAX_OBJECT_STREAM_BYTES) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    break;
+                }
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    protected static void valueEnds(Container container) {
+        if (container != null && container.dict) {
+            container.expectKey = true;
+        }
+    }
+
+    protected static boolean isUriValue(Container container) {
+        return container != null && container.dict && !container.expectKey
+            && ("URI".equals(container.key) || "URL".equals(container.key));
+    }
+
+    protected void noteUri(String uri) {
+        if (uris.size() < MAX_ENTRIES && uri.length() > 0) {
+            uris.add(uri);
+        }
+    }
+
+    protected void noteUriReference(int objectNumber) {
+        String s = stringObjects.get(objectNumber);
+        if (s != null) {
+            noteUri(s);
+        } else if (pendingReferences.size() < MAX_ENTRIES) {
+            pendingReferences.add(objectNumber);
+        }
+    }
+
+    protected void noteStringObject(int objectNumber, String value) {
+        if (pendingReferences.remove(objectNumber)) {
+            noteUri(value);
+        } else if (stringObjects.size() < MAX_ENTRIES) {
+            stringObjects.put(objectNumber, value);
+        }
+    }
+
+    /**
+     * Decode PDF string bytes: UTF-16BE if so marked, otherwise as
+     * single-byte characters.
+     */
+    protected static String decode(byte[] bytes) {
+        try {
+            if (bytes.length >= 2 && (bytes[0] & 0xff) == 0xfe
+                    && (bytes[1] & 0xff) == 0xff) {
+                return new String(bytes, 2, bytes.length - 2, "UTF-16BE");
+            }
+            return new String(bytes, "ISO-8859-1").trim();
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected static long parseInteger(String text) {
+        if (text == null || text.length() == 0 || text.length() > 10) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    protected static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f'
+            || c == 0;
+    }
+
+    protected static boolean isDelimiter(int c) {
+        return c == '(' || c == ')' || c == '<' || c == '>' || c == '['
+            || c == ']' || c == '{' || c == '}' || c == '/' || c == '%';
+    }
+
+    protected static boolean isNumberStart(int c) {
+        return (c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.';
+    }
+
+    protected static int hexValue(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.ProcessResult;
+import org.archive.modules.Processor;
+import org.archive.modules.CrawlURI.ExtractionBranch;
+import org.archive.spring.KeyedProperties;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.Recorder;
+
+/**
+ * Runs a group of extractors concurrently against the same URI, for use in
+ * place of listing them one after another in the FetchChain. Wall time per
+ * URI then approaches that of the slowest member rather than the sum of
+ * all members.
+ *
+ * <p>Each member runs on its own thread (the first on the calling
+ * ToeThread, the rest on this group's pool), with its outlinks,
+ * annotations and nonfatal failures collected privately. When all have
+ * completed, results are merged into the URI in member order, exactly as
+ * if the members had run in sequence: once a member calls
+ * {@link CrawlURI#linkExtractorFinished()}, results of later
+ * non-independent {@link ContentExtractor}s are discarded, and a member
+ * returning other than PROCEED ends the merge with that result. (Such
+ * discarded members will still have done their work, and counted the URI
+ * as processed.)
+ *
+ * <p>Members should be extractors which only read the URI's recorded
+ * content and add outlinks; each obtains its own ReplayCharSequence.
+ * Members which depend on state set by earlier members (other than
+ * the link-extraction-finished flag) must not be grouped.
+ */
+public class ParallelExtractorGroup extends Processor {
+    /** Extractors (or other processors) to run concurrently, in merge order. */
+    protected List<Processor> processors = new ArrayList<Processor>();
+    public List<Processor> getProcessors() {
+        return processors;
+    }
+    public void setProcessors(List<Processor> processors) {
+        this.processors = processors;
+    }
+
+    /** Number of pool threads shared by all ToeThreads for running members
+     * other than the first. */
+    protected int maxThreads = 4;
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    protected transient ExecutorService executor;
+
+    /**
+     * Outcome of running one member against the URI.
+     */
+    protected static class MemberOutcome {
+        ExtractionBranch branch;
+        ProcessResult result = ProcessResult.PROCEED;
+        Throwable error;
+    }
+
+    /**
+     * Runs one member with its results routed to a private branch.
+     */
+    protected static class MemberTask implements Callable<MemberOutcome> {
+        final CrawlURI curi;
+        final Processor member;
+        final boolean loadOverrides;
+
+        MemberTask(CrawlURI curi, Processor member, boolean loadOverrides) {
+            this.curi = curi;
+            this.member = member;
+            this.loadOverrides = loadOverrides;
+        }
+
+        public MemberOutcome call() {
+            MemberOutcome outcome = new MemberOutcome();
+            if (loadOverrides) {
+                KeyedProperties.loadOverridesFrom(curi);
+            }
+            Recorder previousRecorder = Recorder.getHttpRecorder();
+            Recorder.setHttpRecorder(curi.getRecorder());
+            outcome.branch = curi.openExtractionBranch();
+            try {
+                outcome.result = member.process(curi);
+            } catch (Throwable t) {
+                outcome.error = t;
+            } finally {
+                curi.closeExtractionBranch();
+                Recorder.setHttpRecorder(previousRecorder);
+                if (loadOverrides) {
+                    KeyedProperties.clearOverridesFrom(curi);
+                }
+            }
+            return outcome;
+        }
+    }
+
+    @Override
+    protected boolean shouldProcess(CrawlURI uri) {
+        return !getProcessors().isEmpty();
+    }
+
+    @Override
+    protected void innerProcess(CrawlURI uri) throws InterruptedException {
+        // all work done in innerProcessResult
+    }
+
+    @Override
+    protected ProcessResult innerProcessResult(CrawlURI curi)
+    throws InterruptedException {
+        List<Processor> members = getProcessors();
+        if (members.size() == 1 || executor == null) {
+            return processSequentially(curi);
+        }
+        ArchiveUtils.continueCheck();
+
+        // tasks on other threads must see this thread's sheet overlays
+        boolean loadOverrides = KeyedProperties.overridesActiveFrom(curi);
+        List<Future<MemberOutcome>> futures =
+            new ArrayList<Future<MemberOutcome>>(members.size() - 1);
+        List<MemberOutcome> outcomes =
+            new ArrayList<MemberOutcome>(members.size());
+        boolean completed = false;
+        curi.beginConcurrentExtraction();
+        try {
+            for (Processor member : members.subList(1, members.size())) {
+                futures.add(executor.submit(
+                        new MemberTask(curi, member, loadOverrides)));
+            }
+            // calling thread already has overlays loaded
+            outcomes.add(new MemberTask(curi, members.get(0), false).call());
+            for (Future<MemberOutcome> future : futures) {
+                try {
+                    outcomes.add(future.get());
+                } catch (ExecutionException e) {
+                    // MemberTask catches everything; should not happen
+                    MemberOutcome failed = new MemberOutcome();
+                    failed.error = e.getCause();
+                    outcomes.add(failed);
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                for (Future<MemberOutcome> future : futures) {
+                    future.cancel(true);
+                }
+            }
+            curi.endConcurrentExtraction();
+        }
+        return merge(curi, members, outcomes);
+    }
+
+    /**
+     * Merge member outcomes into the URI in member order, emulating
+     * sequential execution.
+     */
+    protected ProcessResult merge(CrawlURI curi, List<Processor> members,
+            List<MemberOutcome> outcomes) {
+        for (int i = 0; i < members.size(); i++) {
+            Processor member = members.get(i);
+            MemberOutcome outcome = outcomes.get(i);
+            if (curi.hasBeenLinkExtracted() && member instanceof ContentExtractor
+                    && !((ContentExtractor) member).getExtractorParameters()
+                            .isIndependentExtractors()) {
+                // would have been skipped if run in sequence
+                continue;
+            }
+            if (outcome.branch != null) {
+                curi.mergeExtractionBranch(outcome.branch, 
+                        maxOutlinksFor(member));
+            }
+            if (outcome.error != null) {
+                rethrow(outcome.error);
+            }
+            if (outcome.result.getProcessStatus()
+                    != ProcessResult.PROCEED.getProcessStatus()) {
+                return outcome.result;
+            }
+        }
+        return ProcessResult.PROCEED;
+    }
+
+    protected ProcessResult processSequentially(CrawlURI curi)
+    throws InterruptedException {
+        for (Processor member : getProcessors()) {
+            ArchiveUtils.continueCheck();
+            ProcessResult result = member.process(curi);
+            if (result.getProcessStatus()
+                    != ProcessResult.PROCEED.getProcessStatus()) {
+                return result;
+            }
+        }
+        return ProcessResult.PROCEED;
+    }
+
+    protected int maxOutlinksFor(Processor member) {
+        if (member instanceof Extractor) {
+            return ((Extractor) member).getExtractorParameters()
+                    .getMaxOutlinks();
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    protected static void rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        // InterruptedException from a pool thread: treat as runtime problem
+        throw new RuntimeException(t);
+    }
+
+    @Override
+    public void start() {
+        if (isRunning()) {
+            return;
+        }
+        for (Processor p : getProcessors()) {
+            p.start();
+        }
+        if (getProcessors().size() > 1 && getMaxThreads() > 0) {
+            final String namePrefix = getClass().getSimpleName() + "-"
+                    + getBeanName() + "-";
+            executor = Executors.newFixedThreadPool(getMaxThreads(),
+                new ThreadFactory() {
+                    AtomicInteger count = new AtomicInteger(0);
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r,
+                                namePrefix + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        for (Processor p : getProcessors()) {
+            p.stop();
+        }
+        super.stop();
+    }
+
+    @Override
+    public String report() {
+        StringBuilder ret = new StringBuilder();
+        ret.append(super.report());
+        ret.append("  " + getProcessors().size() + " members, "
+                + getMaxThreads() + " pool threads\n\n");
+        for (Processor p : getProcessors()) {
+            ret.append(p.report());
+            ret.append("\n");
+        }
+        return ret.toString();
+    }
+}
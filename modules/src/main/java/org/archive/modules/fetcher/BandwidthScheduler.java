@@ -0,0 +1,244 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.archive.spring.HasKeyedProperties;
+import org.archive.spring.KeyedProperties;
+import org.archive.util.TokenBucket;
+
+/**
+ * Crawl-wide bandwidth budgets, which all fetches' recording streams draw
+ * on: a total, within it one per local bind address, and within each of
+ * those one per group. A fetch is paused whenever it has run ahead of any
+ * of the budgets it draws on (as well as its own maxFetchKBSec).
+ *
+ * <p>The group of a URI is the 'group' setting, normally given by sheet
+ * overlays applied to sets of SURT prefixes; URIs of no group draw only
+ * on their bind address's budget. Each group has its limit on each bind
+ * address.
+ *
+ * <p>Limits may be changed mid-crawl, taking effect with the next fetch.
+ * All limits are in KB/sec, with 0 meaning no limit.
+ *
+ * @version $Date$, $Revision$
+ */
+public class BandwidthScheduler implements HasKeyedProperties {
+    protected KeyedProperties kp = new KeyedProperties();
+    public KeyedProperties getKeyedProperties() {
+        return kp;
+    }
+
+    /**
+     * Bandwidth group of the URI being fetched, with its limit in
+     * maxKBSecPerGroup. Empty for none.
+     */
+    {
+        setGroup("");
+    }
+    public String getGroup() {
+        return (String) kp.get("group");
+    }
+    public void setGroup(String group) {
+        kp.put("group", group);
+    }
+
+    /**
+     * Maximum total fetch rate of the crawl, in KB/sec.
+     */
+    protected int maxTotalKBSec = 0;
+    public int getMaxTotalKBSec() {
+        return maxTotalKBSec;
+    }
+    public void setMaxTotalKBSec(int rate) {
+        this.maxTotalKBSec = rate;
+    }
+
+    /**
+     * Maximum fetch rate through each local bind address (as set in
+     * FetchHTTP's httpBindAddress, where the empty string is the default
+     * address), in KB/sec.
+     */
+    protected Map<String,Integer> maxKBSecPerBindAddress =
+        new HashMap<String,Integer>();
+    public Map<String,Integer> getMaxKBSecPerBindAddress() {
+        return maxKBSecPerBindAddress;
+    }
+    public void setMaxKBSecPerBindAddress(Map<String,Integer> rates) {
+        this.maxKBSecPerBindAddress = rates;
+    }
+
+    /**
+     * Maximum fetch rate of each group, on each bind address, in KB/sec.
+     */
+    protected Map<String,Integer> maxKBSecPerGroup =
+        new HashMap<String,Integer>();
+    public Map<String,Integer> getMaxKBSecPerGroup() {
+        return maxKBSecPerGroup;
+    }
+    public void setMaxKBSecPerGroup(Map<String,Integer> rates) {
+        this.maxKBSecPerGroup = rates;
+    }
+
+    /**
+     * How far (in ms of traffic) a budget may be overrun before fetches
+     * are paused, smoothing out the bursts of many fetches.
+     */
+    protected int burstMs = 1000;
+    public int getBurstMs() {
+        return burstMs;
+    }
+    public void setBurstMs(int burstMs) {
+        this.burstMs = burstMs;
+    }
+
+    protected TokenBucket total = new TokenBucket("total", null, 0, burstMs);
+    protected ConcurrentMap<String,TokenBucket> bindAddressBuckets =
+        new ConcurrentHashMap<String,TokenBucket>();
+    protected ConcurrentMap<String,TokenBucket> groupBuckets =
+        new ConcurrentHashMap<String,TokenBucket>();
+    /** burstMs as last applied, to notice changes */
+    protected volatile int appliedBurstMs = burstMs;
+
+    /**
+     * The budget a fetch from the given bind address, of the URI whose
+     * settings are in effect, should draw on.
+     *
+     * @param bindAddress local bind address, or null or empty for the
+     * default
+     * @return innermost bucket (never null)
+     */
+    public TokenBucket bucketFor(String bindAddress) {
+        if (bindAddress == null) {
+            bindAddress = "";
+        }
+        boolean burstChanged = appliedBurstMs != burstMs;
+        appliedBurstMs = burstMs;
+        updateRate(total, maxTotalKBSec, burstChanged);
+
+        TokenBucket bindBucket = bindAddressBuckets.get(bindAddress);
+        if (bindBucket == null) {
+            bindBucket = new TokenBucket(bindAddress.length() > 0
+                    ? bindAddress : "default address", total, 0, burstMs);
+            TokenBucket raced =
+                bindAddressBuckets.putIfAbsent(bindAddress, bindBucket);
+            if (raced != null) {
+                bindBucket = raced;
+            }
+        }
+        updateRate(bindBucket, rate(maxKBSecPerBindAddress, bindAddress),
+                burstChanged);
+
+        String group = getGroup();
+        if (StringUtils.isEmpty(group)) {
+            return bindBucket;
+        }
+        String key = bindAddress + " " + group;
+        TokenBucket groupBucket = groupBuckets.get(key);
+        if (groupBucket == null) {
+            groupBucket = new TokenBucket(group + " @ " + bindBucket.getName(),
+                    bindBucket, 0, burstMs);
+            TokenBucket raced = groupBuckets.putIfAbsent(key, groupBucket);
+            if (raced != null) {
+                groupBucket = raced;
+            }
+        }
+        updateRate(groupBucket, rate(maxKBSecPerGroup, group), burstChanged);
+        return groupBucket;
+    }
+
+    protected static int rate(Map<String,Integer> rates, String key) {
+        Integer rate = rates.get(key);
+        return rate != null ? rate : 0;
+    }
+
+    /**
+     * Apply a changed limit to a bucket.
+     */
+    protected void updateRate(TokenBucket bucket, int kbSec,
+            boolean burstChanged) {
+        long bytesPerSecond = Math.max(kbSec, 0) * 1024L;
+        if (burstChanged || bucket.getBytesPerSecond() != bytesPerSecond) {
+            bucket.setRate(bytesPerSecond, burstMs);
+        }
+    }
+
+    /**
+     * @return all bytes fetched within these budgets
+     */
+    public long getTotalBytes() {
+        return total.getBytes();
+    }
+
+    /**
+     * @return recent total fetch rate, in KB/sec
+     */
+    public long getTotalKBSec() {
+        return total.getMeasuredBytesPerSecond() / 1024;
+    }
+
+    /**
+     * @return recent total fetch rate as a fraction of maxTotalKBSec (0 if
+     * there is no such limit)
+     */
+    public float getTotalUtilization() {
+        return total.getUtilization();
+    }
+
+    /**
+     * @return recent rate, limit, utilization and pauses imposed, for each
+     * budget in use
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        report(sb, total);
+        List<String> keys =
+            new ArrayList<String>(bindAddressBuckets.keySet());
+        Collections.sort(keys);
+        for (String key : keys) {
+            report(sb, bindAddressBuckets.get(key));
+        }
+        keys = new ArrayList<String>(groupBuckets.keySet());
+        Collections.sort(keys);
+        for (String key : keys) {
+            report(sb, groupBuckets.get(key));
+        }
+        return sb.toString();
+    }
+
+    protected void report(StringBuilder sb, TokenBucket bucket) {
+        sb.append("  Bandwidth ").append(bucket.getName()).append(": ");
+        sb.append(bucket.getMeasuredBytesPerSecond() / 1024).append(" KB/sec");
+        if (bucket.getBytesPerSecond() > 0) {
+            sb.append(" of ").append(bucket.getBytesPerSecond() / 1024);
+            sb.append(" (").append(Math.round(bucket.getUtilization() * 100));
+            sb.append("%)");
+        }
+        sb.append(", ").append(bucket.getBytes()).append(" bytes, ");
+        sb.append(bucket.getDelayedMs()).append(" ms paused\n");
+    }
+}
@@ -20,6 +20,8 @@
 package org.archive.modules.fetcher;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.logging.Logger;
 
@@ -29,6 +31,7 @@ import org.archive.modules.net.CrawlServer;
 import org.archive.modules.net.ServerCache;
 import org.archive.util.ObjectIdentityCache;
 import org.archive.util.ObjectIdentityMemCache;
+import org.archive.util.StringIdTable;
 import org.archive.util.Supplier;
 
 
@@ -56,6 +59,12 @@ public class DefaultServerCache extends ServerCache implements Closeable, Serial
      * Set in the initialization.
      */
     protected ObjectIdentityCache<String,CrawlHost> hosts = null;
+
+    /**
+     * host and server names -> crawl-wide IDs. Not serialized; rebuilt
+     * from the cached servers and hosts when deserialized.
+     */
+    protected transient StringIdTable authorityIds = new StringIdTable();
     
     /**
      * Constructor.
@@ -85,7 +94,9 @@ public class DefaultServerCache extends ServerCache implements Closeable, Serial
                 new Supplier<CrawlServer>() {
                     public CrawlServer get() {
                         String skey = new String(serverKey); // ensure private minimal key
-                        return new CrawlServer(skey);
+                        CrawlServer server = new CrawlServer(skey);
+                        server.setId(authorityIds.intern(skey));
+                        return server;
                     }});
         return cserver;
     }
@@ -104,11 +115,21 @@ public class DefaultServerCache extends ServerCache implements Closeable, Serial
                 new Supplier<CrawlHost>() {
                     public CrawlHost get() {
                         String hkey = new String(hostname); // ensure private minimal key
-                        return new CrawlHost(hkey);
+                        CrawlHost host = new CrawlHost(hkey);
+                        host.setId(authorityIds.intern(hkey));
+                        return host;
                     }});
         return host;
     }
 
+    public StringIdTable getAuthorityIds() {
+        return authorityIds;
+    }
+
+    public void setAuthorityIds(StringIdTable authorityIds) {
+        this.authorityIds = authorityIds;
+    }
+
     /**
      * @param serverKey Key to use doing lookup.
      * @return True if a server instance exists.
@@ -141,6 +162,23 @@ public class DefaultServerCache extends ServerCache implements Closeable, Serial
         }
     }
 
+    private void readObject(ObjectInputStream in) 
+    throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // reassign IDs, in a fresh table, to all servers and hosts held
+        authorityIds = new StringIdTable();
+        if (servers != null) {
+            for (String key : servers.keySet()) {
+                servers.get(key).setId(authorityIds.intern(key));
+            }
+        }
+        if (hosts != null) {
+            for (String key : hosts.keySet()) {
+                hosts.get(key).setId(authorityIds.intern(key));
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.archive.modules.net.ServerCache#forAllHostsDo(org.apache.commons.collections.Closure)
      */
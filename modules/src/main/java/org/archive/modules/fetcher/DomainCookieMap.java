@@ -0,0 +1,586 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.fetcher;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.Cookie;
+
+import com.sleepycat.collections.StoredIterator;
+
+/**
+ * Cookie map, keyed by {@link Cookie#getSortKey()}, partitioned by cookie
+ * domain, for use as an HttpState's cookies map by many threads at once.
+ *
+ * <p>Cookie matching (CookieSpecBase) only ever asks for the subMap of
+ * one exact domain at a time -- the request host, then each of its parent
+ * domains -- so each such probe is a single hash lookup, then a walk of
+ * only that domain's cookies. Lookups take no locks; changes lock only
+ * the changed domain's partition.
+ *
+ * <p>In-memory cookies are dropped once they expire, using an index
+ * ordered by expiry date. Optionally, once more than maxHotDomains
+ * domains have cookies in memory, the cookies of the least-recently used
+ * domains move to a 'cold' SortedMap (such as one backed by BDB), and
+ * move back on their domain's next use. Frozen cookies leave the expiry
+ * index, so it holds only in-memory cookies; those that expired while
+ * frozen are dropped as their domain is thawed. Cold-map reads and writes
+ * lock only the domain moved, never the whole map.
+ *
+ * <p>Other than subMap() within a single domain, SortedMap's ordered
+ * views are not supported; iteration visits cookies grouped by domain,
+ * with domains in no particular order.
+ */
+public class DomainCookieMap extends AbstractMap<String,Cookie>
+implements SortedMap<String,Cookie> {
+    /** minimum interval between sweeps for expired cookies */
+    protected static final long PURGE_INTERVAL_MS = 1000;
+
+    protected static final SortedMap<String,Cookie> EMPTY =
+        Collections.unmodifiableSortedMap(new TreeMap<String,Cookie>());
+
+    /** one domain's cookies */
+    protected static class Partition {
+        protected final ConcurrentSkipListMap<String,Cookie> cookies =
+            new ConcurrentSkipListMap<String,Cookie>();
+        protected volatile long lastUsed = System.currentTimeMillis();
+        /** set, under the partition's lock, when no longer in use */
+        protected boolean retired = false;
+        /** false until any frozen cookies are moved in, under the
+         * partition's lock */
+        protected volatile boolean thawed = true;
+        /** count of changes, under the partition's lock */
+        protected long version = 0;
+    }
+
+    /** position of a cookie in the expiry index */
+    protected static class Expiry implements Comparable<Expiry> {
+        protected final long time;
+        protected final String key;
+
+        protected Expiry(Cookie cookie) {
+            this.time = cookie.getExpiryDate().getTime();
+            this.key = cookie.getSortKey();
+        }
+
+        public int compareTo(Expiry o) {
+            if (time != o.time) {
+                return time < o.time ? -1 : 1;
+            }
+            return key.compareTo(o.key);
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof Expiry && compareTo((Expiry) o) == 0;
+        }
+
+        public int hashCode() {
+            return key.hashCode() ^ (int) time;
+        }
+    }
+
+    protected final ConcurrentMap<String,Partition> hot =
+        new ConcurrentHashMap<String,Partition>();
+    protected final ConcurrentSkipListSet<Expiry> expiries =
+        new ConcurrentSkipListSet<Expiry>();
+    protected final AtomicLong size = new AtomicLong();
+    protected volatile long nextPurge = 0;
+
+    protected final SortedMap<String,Cookie> cold;
+    protected final Set<String> coldDomains = Collections.newSetFromMap(
+            new ConcurrentHashMap<String,Boolean>());
+    protected final int maxHotDomains;
+    /** set while one thread moves domains to the cold map */
+    protected final AtomicBoolean freezing = new AtomicBoolean(false);
+
+    /**
+     * Create a map keeping all cookies in memory.
+     */
+    public DomainCookieMap() {
+        this(null, 0);
+    }
+
+    /**
+     * @param cold map to hold the cookies of less-recently used domains;
+     * must be safe for use by several threads
+     * @param maxHotDomains most domains whose cookies to keep in memory;
+     * 0 to keep all in memory
+     */
+    public DomainCookieMap(SortedMap<String,Cookie> cold, int maxHotDomains) {
+        this.cold = cold;
+        this.maxHotDomains = cold == null ? 0 : maxHotDomains;
+    }
+
+    /**
+     * @param key a cookie sort key, or a bare domain
+     * @return domain part of the key
+     */
+    protected static String domainOf(String key) {
+        int i = key.indexOf('\1');
+        return i < 0 ? key : key.substring(0, i);
+    }
+
+    /**
+     * @param domain
+     * @param create whether to create the partition if absent
+     * @return the in-memory partition for the domain, first moving its
+     * cookies from the cold map if necessary; null if the domain has no
+     * cookies and create is false
+     */
+    protected Partition partition(String domain, boolean create) {
+        Partition p = hot.get(domain);
+        if (p == null && (create || coldDomains.contains(domain))) {
+            boolean overfull = false;
+            synchronized (hot) {
+                p = hot.get(domain);
+                if (p == null) {
+                    p = new Partition();
+                    // thawed below, outside the lock on 'hot'; until
+                    // then, users of the partition wait in thaw()
+                    p.thawed = !coldDomains.contains(domain);
+                    hot.put(domain, p);
+                    overfull = maxHotDomains > 0 
+                        && hot.size() > maxHotDomains;
+                }
+            }
+            if (overfull) {
+                freezeLeastRecentlyUsed();
+            }
+        }
+        if (p != null) {
+            if (!p.thawed) {
+                thaw(domain, p);
+            }
+            p.lastUsed = System.currentTimeMillis();
+        }
+        return p;
+    }
+
+    /**
+     * Move the cookies of the least-recently used tenth of the in-memory
+     * domains to the cold map, unless another thread already is. The
+     * domains are chosen from a copy of the in-memory set, and each is
+     * written to the cold map holding no lock; 'hot' is locked only to
+     * drop each domain from memory once written.
+     */
+    protected void freezeLeastRecentlyUsed() {
+        if (!freezing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<Map.Entry<String,Partition>> entries =
+                new ArrayList<Map.Entry<String,Partition>>(hot.entrySet());
+            Collections.sort(entries, 
+                    new Comparator<Map.Entry<String,Partition>>() {
+                public int compare(Map.Entry<String,Partition> e1,
+                        Map.Entry<String,Partition> e2) {
+                    long t1 = e1.getValue().lastUsed;
+                    long t2 = e2.getValue().lastUsed;
+                    return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+                }
+            });
+            int toFreeze = entries.size() - maxHotDomains * 9 / 10;
+            for (int i = 0; i < toFreeze; i++) {
+                freeze(entries.get(i).getKey(), entries.get(i).getValue());
+            }
+        } finally {
+            freezing.set(false);
+        }
+    }
+
+    /**
+     * Move one domain's cookies to the cold map: write a copy, then drop
+     * the partition from memory, unless it changed meanwhile, in which
+     * case it stays and the copy is removed from the cold map.
+     * 
+     * @param domain
+     * @param p the domain's partition
+     */
+    protected void freeze(String domain, Partition p) {
+        SortedMap<String,Cookie> copy;
+        long version;
+        synchronized (p) {
+            if (p.retired || !p.thawed) {
+                return;
+            }
+            copy = new TreeMap<String,Cookie>(p.cookies);
+            version = p.version;
+        }
+        cold.putAll(copy);
+        boolean frozen = false;
+        synchronized (hot) {
+            synchronized (p) {
+                if (!p.retired && p.version == version) {
+                    for (Cookie c : copy.values()) {
+                        if (c.getExpiryDate() != null) {
+                            expiries.remove(new Expiry(c));
+                        }
+                    }
+                    coldDomains.add(domain);
+                    hot.remove(domain, p);
+                    p.retired = true;
+                    frozen = true;
+                }
+            }
+        }
+        if (!frozen) {
+            // used (so no longer least-recently), emptied, or cleared
+            for (String key : copy.keySet()) {
+                cold.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Move a domain's cookies from the cold map into the given partition,
+     * if not already done, dropping any that expired while frozen. Holds
+     * only the partition's lock, so other users of the domain wait here
+     * until it is done.
+     */
+    protected void thaw(String domain, Partition p) {
+        synchronized (p) {
+            if (p.thawed) {
+                return;
+            }
+            if (p.retired) {
+                // cleared meanwhile
+                p.thawed = true;
+                return;
+            }
+            Date now = new Date();
+            List<String> keys = new ArrayList<String>();
+            SortedMap<String,Cookie> frozen =
+                cold.subMap(domain, domain + Cookie.DOMAIN_OVERBOUNDS);
+            Iterator<Map.Entry<String,Cookie>> iter = 
+                frozen.entrySet().iterator();
+            try {
+                while (iter.hasNext()) {
+                    Map.Entry<String,Cookie> entry = iter.next();
+                    Cookie c = entry.getValue();
+                    keys.add(entry.getKey());
+                    if (c.isExpired(now)) {
+                        size.decrementAndGet();
+                        continue;
+                    }
+                    p.cookies.put(entry.getKey(), c);
+                    if (c.getExpiryDate() != null) {
+                        expiries.add(new Expiry(c));
+                    }
+                }
+            } finally {
+                StoredIterator.close(iter);
+            }
+            for (String key : keys) {
+                cold.remove(key);
+            }
+            coldDomains.remove(domain);
+            p.thawed = true;
+            retireIfEmpty(domain, p);
+        }
+    }
+
+    public Cookie get(Object key) {
+        Partition p = partition(domainOf((String) key), false);
+        return p == null ? null : p.cookies.get(key);
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    public Cookie put(String key, Cookie cookie) {
+        Cookie previous;
+        while (true) {
+            Partition p = partition(domainOf(key), true);
+            synchronized (p) {
+                if (p.retired) {
+                    // frozen or emptied meanwhile; try again
+                    continue;
+                }
+                previous = p.cookies.put(key, cookie);
+                p.version++;
+                // index kept in step, so that a frozen domain's cookies
+                // all leave it
+                if (previous != null && previous.getExpiryDate() != null) {
+                    expiries.remove(new Expiry(previous));
+                }
+                if (cookie.getExpiryDate() != null) {
+                    expiries.add(new Expiry(cookie));
+                }
+            }
+            break;
+        }
+        if (previous == null) {
+            size.incrementAndGet();
+        }
+        purgeExpired(System.currentTimeMillis());
+        return previous;
+    }
+
+    public Cookie remove(Object key) {
+        String domain = domainOf((String) key);
+        Cookie removed;
+        while (true) {
+            Partition p = partition(domain, false);
+            if (p == null) {
+                return null;
+            }
+            synchronized (p) {
+                if (p.retired) {
+                    continue;
+                }
+                removed = p.cookies.remove(key);
+                p.version++;
+                if (removed != null && removed.getExpiryDate() != null) {
+                    expiries.remove(new Expiry(removed));
+                }
+                retireIfEmpty(domain, p);
+            }
+            break;
+        }
+        if (removed != null) {
+            size.decrementAndGet();
+        }
+        return removed;
+    }
+
+    /**
+     * Drop an emptied partition. Caller holds the partition's lock.
+     */
+    protected void retireIfEmpty(String domain, Partition p) {
+        if (p.cookies.isEmpty()) {
+            p.retired = true;
+            hot.remove(domain, p);
+        }
+    }
+
+    /**
+     * Remove cookies whose expiry date has passed, at most once per
+     * PURGE_INTERVAL_MS.
+     *
+     * @param now current time
+     */
+    protected void purgeExpired(long now) {
+        if (now < nextPurge) {
+            return;
+        }
+        nextPurge = now + PURGE_INTERVAL_MS;
+        // entries may be stale (a cookie since replaced or frozen): the 
+        // in-memory cookie itself is checked
+        Iterator<Expiry> iter = expiries.iterator();
+        while (iter.hasNext()) {
+            Expiry expiry = iter.next();
+            if (expiry.time > now) {
+                break;
+            }
+            if (!expiries.remove(expiry)) {
+                // another thread got it
+                continue;
+            }
+            String domain = domainOf(expiry.key);
+            Partition p = hot.get(domain);
+            if (p != null) {
+                synchronized (p) {
+                    if (!p.retired) {
+                        Cookie c = p.cookies.get(expiry.key);
+                        if (c != null && c.isExpired()) {
+                            p.cookies.remove(expiry.key);
+                            p.version++;
+                            size.decrementAndGet();
+                            retireIfEmpty(domain, p);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Cookies of the one domain named by fromKey, as CookieSpecBase asks
+     * for them.
+     */
+    public SortedMap<String,Cookie> subMap(String fromKey, String toKey) {
+        String domain = domainOf(fromKey);
+        if (!toKey.startsWith(domain)) {
+            throw new UnsupportedOperationException(
+                    "subMap spans cookie domains");
+        }
+        Partition p = partition(domain, false);
+        return p == null ? EMPTY : p.cookies.subMap(fromKey, toKey);
+    }
+
+    public int size() {
+        return (int) Math.min(size.get(), Integer.MAX_VALUE);
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    public void clear() {
+        synchronized (hot) {
+            for (Partition p : hot.values()) {
+                synchronized (p) {
+                    p.retired = true;
+                }
+            }
+            hot.clear();
+            if (cold != null) {
+                cold.clear();
+            }
+            coldDomains.clear();
+            expiries.clear();
+            size.set(0);
+        }
+    }
+
+    /**
+     * @return number of domains whose cookies are in memory
+     */
+    public int getHotDomainCount() {
+        return hot.size();
+    }
+
+    /**
+     * @return number of domains whose cookies are in the cold map
+     */
+    public int getColdDomainCount() {
+        return coldDomains.size();
+    }
+
+    public Set<Map.Entry<String,Cookie>> entrySet() {
+        return new AbstractSet<Map.Entry<String,Cookie>>() {
+            public Iterator<Map.Entry<String,Cookie>> iterator() {
+                return new EntryIterator();
+            }
+            public int size() {
+                return DomainCookieMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Iterates over in-memory domains' cookies, then each cold domain's
+     * (copied, a domain at a time, so no cursor is left open). A domain
+     * moving between memory and the cold map meanwhile may be missed.
+     */
+    protected class EntryIterator implements Iterator<Map.Entry<String,Cookie>> {
+        protected Iterator<String> domains;
+        protected boolean inCold = false;
+        protected Iterator<Map.Entry<String,Cookie>> current =
+            Collections.<String,Cookie>emptyMap().entrySet().iterator();
+        protected Map.Entry<String,Cookie> last;
+
+        protected EntryIterator() {
+            domains = new ArrayList<String>(hot.keySet()).iterator();
+        }
+
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (!domains.hasNext()) {
+                    if (inCold || cold == null) {
+                        return false;
+                    }
+                    inCold = true;
+                    domains = new ArrayList<String>(coldDomains).iterator();
+                    continue;
+                }
+                String domain = domains.next();
+                if (inCold) {
+                    SortedMap<String,Cookie> copy = new TreeMap<String,Cookie>();
+                    if (coldDomains.contains(domain)) {
+                        Iterator<Map.Entry<String,Cookie>> iter = cold
+                            .subMap(domain, domain + Cookie.DOMAIN_OVERBOUNDS)
+                            .entrySet().iterator();
+                        try {
+                            while (iter.hasNext()) {
+                                Map.Entry<String,Cookie> e = iter.next();
+                                copy.put(e.getKey(), e.getValue());
+                            }
+                        } finally {
+                            StoredIterator.close(iter);
+                        }
+                    }
+                    current = copy.entrySet().iterator();
+                } else {
+                    Partition p = partition(domain, false);
+                    if (p != null) {
+                        current = p.cookies.entrySet().iterator();
+                    }
+                }
+            }
+            return true;
+        }
+
+        public Map.Entry<String,Cookie> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = current.next();
+            return last;
+        }
+
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            DomainCookieMap.this.remove(last.getKey());
+            last = null;
+        }
+    }
+
+    public Comparator<? super String> comparator() {
+        return null;
+    }
+
+    public String firstKey() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String lastKey() {
+        throw new UnsupportedOperationException();
+    }
+
+    public SortedMap<String,Cookie> headMap(String toKey) {
+        throw new UnsupportedOperationException();
+    }
+
+    public SortedMap<String,Cookie> tailMap(String fromKey) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.fetcher;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+import org.apache.commons.httpclient.Cookie;
+import org.archive.bdb.BdbModule;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.collections.StoredSortedMap;
+import com.sleepycat.je.DatabaseException;
+
+/**
+ * CookieStorage keeping cookies in memory, partitioned by domain, so that
+ * many fetching threads may match and set cookies without contending
+ * on one lock. See {@link DomainCookieMap}.
+ *
+ * If maxHotDomains is set, the cookies of less-recently used domains
+ * move to BDB once more than that many domains have cookies, so that
+ * cookies accumulated in large crawls do not outgrow RAM.
+ */
+public class DomainCookieStorage extends AbstractCookieStorage {
+    private static final long serialVersionUID = 1L;
+
+    protected BdbModule bdb;
+    @Autowired(required=false)
+    public void setBdbModule(BdbModule bdb) {
+        this.bdb = bdb;
+    }
+
+    /**
+     * Most domains whose cookies to keep in memory, with the remainder
+     * kept in BDB. 0 (the default) keeps all cookies in memory.
+     */
+    protected int maxHotDomains = 0;
+    public int getMaxHotDomains() {
+        return maxHotDomains;
+    }
+    public void setMaxHotDomains(int maxHotDomains) {
+        this.maxHotDomains = maxHotDomains;
+    }
+
+    public static String COLD_COOKIEDB_NAME = "http_cookies_cold";
+
+    private transient DomainCookieMap cookies;
+
+    public DomainCookieStorage() {
+    }
+
+    protected SortedMap<String,Cookie> prepareMap() {
+        if (getMaxHotDomains() <= 0 || bdb == null) {
+            cookies = new DomainCookieMap();
+            return cookies;
+        }
+        try {
+            StoredClassCatalog classCatalog = bdb.getClassCatalog();
+            BdbModule.BdbConfig dbConfig = new BdbModule.BdbConfig();
+            dbConfig.setTransactional(false);
+            dbConfig.setAllowCreate(true);
+            StoredSortedMap<String,Cookie> cold =
+                new StoredSortedMap<String,Cookie>(
+                    bdb.openDatabase(COLD_COOKIEDB_NAME, dbConfig, false),
+                    new StringBinding(),
+                    new SerialBinding<Cookie>(classCatalog,Cookie.class),
+                    true);
+            cookies = new DomainCookieMap(cold, getMaxHotDomains());
+            return cookies;
+        } catch (DatabaseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public SortedMap<String,Cookie> getCookiesMap() {
+        return cookies;
+    }
+
+    protected void innerSaveCookiesMap(Map<String,Cookie> map) {
+    }
+}
@@ -45,6 +45,8 @@ import org.archive.net.ClientFTP;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.util.Recorder;
+import org.archive.util.TokenBucket;
+import org.springframework.beans.factory.annotation.Autowired;
 
 
 /**
@@ -190,6 +192,18 @@ public class FetchFTP extends Processor  {
     public void setMaxFetchKBSec(int rate) {
         kp.put("maxFetchKBSec",rate);
     }
+
+    /**
+     * Crawl-wide bandwidth budgets to fetch within, if any.
+     */
+    protected BandwidthScheduler bandwidthScheduler;
+    public BandwidthScheduler getBandwidthScheduler() {
+        return this.bandwidthScheduler;
+    }
+    @Autowired(required=false)
+    public void setBandwidthScheduler(BandwidthScheduler scheduler) {
+        this.bandwidthScheduler = scheduler;
+    }
     
     /**
      * If the fetch is not completed in this number of seconds, give up (and
@@ -410,8 +424,10 @@ public class FetchFTP extends Processor  {
         long hardMax = getMaxLengthBytes();
         long timeout = (long)getTimeoutSeconds() * 1000L;
         int maxRate = getMaxFetchKBSec();
+        TokenBucket bandwidth = (bandwidthScheduler == null) ? null
+                : bandwidthScheduler.bucketFor(null);
         RecordingInputStream input = recorder.getRecordedInput();
-        input.setLimits(hardMax, timeout, maxRate); 
+        input.setLimits(hardMax, timeout, maxRate, bandwidth); 
         input.readFullyOrUntil(softMax);
     }
     
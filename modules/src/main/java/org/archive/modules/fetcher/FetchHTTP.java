@@ -81,6 +81,7 @@ import org.apache.commons.httpclient.protocol.Protocol;
 import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
 import org.apache.commons.lang.StringUtils;
 import org.archive.httpclient.ConfigurableX509TrustManager;
+import org.archive.httpclient.Http2ConnectionPool;
 import org.archive.httpclient.HttpRecorderGetMethod;
 import org.archive.httpclient.HttpRecorderMethod;
 import org.archive.httpclient.HttpRecorderPostMethod;
@@ -102,7 +103,9 @@ import org.archive.modules.extractor.LinkContext;
 import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.CrawlServer;
 import org.archive.modules.net.ServerCache;
+import org.archive.util.LatencyHistogram;
 import org.archive.util.Recorder;
+import org.archive.util.TokenBucket;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
 
@@ -207,6 +210,51 @@ public class FetchHTTP extends Processor implements Lifecycle {
     public void setAcceptHeaders(List<String> headers) {
         kp.put("acceptHeaders",headers);
     }
+
+    /**
+     * Whether to ask servers for compressed (gzip or deflate) responses,
+     * with an 'Accept-Encoding' header, to save bandwidth. Responses are 
+     * recorded (and archived) as sent; extractors and content digests see
+     * decoded content. An 'Accept-Encoding' among the acceptHeaders takes
+     * precedence.
+     */
+    {
+        setAcceptCompression(false);
+    }
+    public boolean getAcceptCompression() {
+        return (Boolean) kp.get("acceptCompression");
+    }
+    public void setAcceptCompression(boolean accept) {
+        kp.put("acceptCompression",accept);
+    }
+
+    /**
+     * Most bytes decoded from one compressed response, for extractors and
+     * content digests; the rest is ignored. 
+     */
+    {
+        setMaxDecodedLengthBytes(Recorder.DEFAULT_MAX_DECODED_LENGTH);
+    }
+    public long getMaxDecodedLengthBytes() {
+        return (Long) kp.get("maxDecodedLengthBytes");
+    }
+    public void setMaxDecodedLengthBytes(long max) {
+        kp.put("maxDecodedLengthBytes",max);
+    }
+
+    /**
+     * Most bytes decoded per compressed byte of a response, guarding
+     * against 'decompression bombs'; the rest is ignored.
+     */
+    {
+        setMaxDecodingRatio(Recorder.DEFAULT_MAX_DECODING_RATIO);
+    }
+    public int getMaxDecodingRatio() {
+        return (Integer) kp.get("maxDecodingRatio");
+    }
+    public void setMaxDecodingRatio(int ratio) {
+        kp.put("maxDecodingRatio",ratio);
+    }
     
     /**
      * The character encoding to use for files that do not have one specified in
@@ -287,8 +335,96 @@ public class FetchHTTP extends Processor implements Lifecycle {
         kp.put("sslTrustLevel",trustLevel);
     }
 
+    /**
+     * Maximum number of TLS sessions remembered (per server host and port)
+     * for resumption on later connections, saving a full handshake. 0
+     * means no limit.
+     */
+    {
+        setSslSessionCacheSize(
+                HeritrixSSLProtocolSocketFactory.DEFAULT_SESSION_CACHE_SIZE);
+    }
+    public int getSslSessionCacheSize() {
+        return (Integer) kp.get("sslSessionCacheSize");
+    }
+    public void setSslSessionCacheSize(int size) {
+        kp.put("sslSessionCacheSize",size);
+    }
+
+    /**
+     * Whether to fetch over HTTP/2 where servers support it: for HTTPS, if
+     * the server selects it by ALPN (which needs Java 9, or 8u252, or
+     * later); for plain HTTP, only with http2PriorKnowledge. Each
+     * server's requests then share one connection, up to
+     * http2MaxStreamsPerServer at a time. Responses are recorded with an
+     * 'HTTP/2.0' status line, the decoded header fields and the content
+     * exactly as sent. Not used through a proxy.
+     */
+    {
+        setUseHttp2(false);
+    }
+    public boolean getUseHttp2() {
+        return (Boolean) kp.get("useHttp2");
+    }
+    public void setUseHttp2(boolean useHttp2) {
+        kp.put("useHttp2",useHttp2);
+    }
+
+    /**
+     * Most concurrent HTTP/2 requests (streams) on one server's connection,
+     * if the server allows as many. Further requests wait for one to
+     * finish.
+     */
+    {
+        setHttp2MaxStreamsPerServer(6);
+    }
+    public int getHttp2MaxStreamsPerServer() {
+        return (Integer) kp.get("http2MaxStreamsPerServer");
+    }
+    public void setHttp2MaxStreamsPerServer(int max) {
+        kp.put("http2MaxStreamsPerServer",max);
+    }
+
+    /**
+     * Most HTTP/2 connections to keep open, each to a different server
+     * and each with a thread reading from it. Beyond this, idle
+     * connections are closed, least recently used first; those with
+     * requests in progress are kept, so there may be more while more
+     * servers than this are fetched from at once. Connections idle for
+     * a minute are closed regardless.
+     */
+    {
+        setHttp2MaxConnections(100);
+    }
+    public int getHttp2MaxConnections() {
+        return (Integer) kp.get("http2MaxConnections");
+    }
+    public void setHttp2MaxConnections(int max) {
+        kp.put("http2MaxConnections",max);
+    }
+
+    /**
+     * Whether to assume all plain HTTP servers speak HTTP/2 (without
+     * upgrade negotiation), when useHttp2 is set. Only for crawls of
+     * known servers.
+     */
+    {
+        setHttp2PriorKnowledge(false);
+    }
+    public boolean getHttp2PriorKnowledge() {
+        return (Boolean) kp.get("http2PriorKnowledge");
+    }
+    public void setHttp2PriorKnowledge(boolean priorKnowledge) {
+        kp.put("http2PriorKnowledge",priorKnowledge);
+    }
+
     private transient HttpClient http = null;
 
+    /**
+     * Shared HTTP/2 connections, if useHttp2.
+     */
+    private transient Http2ConnectionPool http2Pool = null;
+
     /**
      * How many 'instant retries' of HttpRecoverableExceptions have occurred
      * 
@@ -478,11 +614,27 @@ public class FetchHTTP extends Processor implements Lifecycle {
         this.serverCache = serverCache;
     }
 
+    /**
+     * Crawl-wide bandwidth budgets to fetch within, if any.
+     */
+    protected BandwidthScheduler bandwidthScheduler;
+    public BandwidthScheduler getBandwidthScheduler() {
+        return this.bandwidthScheduler;
+    }
+    @Autowired(required=false)
+    public void setBandwidthScheduler(BandwidthScheduler scheduler) {
+        this.bandwidthScheduler = scheduler;
+    }
+
+    /** the registered https socket factory, for its handshake tallies */
+    protected static HeritrixSSLProtocolSocketFactory sslSocketFactory;
+
     static {
         Protocol.registerProtocol("http", new Protocol("http",
                 new HeritrixProtocolSocketFactory(), 80));
         try {
-            ProtocolSocketFactory psf = new HeritrixSSLProtocolSocketFactory();
+            sslSocketFactory = new HeritrixSSLProtocolSocketFactory();
+            ProtocolSocketFactory psf = sslSocketFactory;
             Protocol p = new Protocol("https", psf, 443); 
             Protocol.registerProtocol("https", p);
         } catch (KeyManagementException e) {
@@ -497,6 +649,7 @@ public class FetchHTTP extends Processor implements Lifecycle {
 
     // static final String SERVER_CACHE_KEY = "heritrix.server.cache";
     static final String SSL_FACTORY_KEY = "heritrix.ssl.factory";
+    static final String HTTP2_POOL_KEY = "heritrix.http2.pool";
 
     /***************************************************************************
      * Socket factory that has the configurable trust manager installed.
@@ -517,6 +670,10 @@ public class FetchHTTP extends Processor implements Lifecycle {
         // Get a reference to the HttpRecorder that is set into this ToeThread.
         Recorder rec = curi.getRecorder();
 
+        if (http2Pool != null) {
+            http2Pool.maybeCloseIdle();
+        }
+
         // Shall we get a digest on the content downloaded?
         boolean digestContent = getDigestContent();
         String algorithm = null;
@@ -570,7 +727,12 @@ public class FetchHTTP extends Processor implements Lifecycle {
         long timeoutMs = 1000 * getTimeoutSeconds();
         // Get max fetch rate (bytes/ms). It comes in in KB/sec
         long maxRateKBps = getMaxFetchKBSec();
-        rec.getRecordedInput().setLimits(hardMax, timeoutMs, maxRateKBps);
+        // and any crawl-wide budget to draw on
+        TokenBucket bandwidth = (bandwidthScheduler == null) ? null
+                : bandwidthScheduler.bucketFor(
+                        (String) getAttributeEither(curi, HTTP_BIND_ADDRESS));
+        rec.getRecordedInput().setLimits(hardMax, timeoutMs, maxRateKBps,
+                bandwidth);
 
         try {
             this.http.executeMethod(customConfigOrNull, method);
@@ -621,6 +783,7 @@ public class FetchHTTP extends Processor implements Lifecycle {
             curi.setFetchCompletedTime(System.currentTimeMillis());
             // Set the response charset into the HttpRecord if available.
             setCharacterEncoding(curi, rec, method);
+            setContentEncoding(curi, rec, method);
             setSizes(curi, rec);
         }
 
@@ -766,6 +929,25 @@ public class FetchHTTP extends Processor implements Lifecycle {
         rec.setCharacterEncoding(encoding);
     }
 
+    /**
+     * Note in the Recorder any compression of the response content, if
+     * compressed responses were requested, so later processors see 
+     * decoded content.
+     */
+    private void setContentEncoding(CrawlURI uri, final Recorder rec,
+            final HttpMethod method) {
+        if (!getAcceptCompression()) {
+            return;
+        }
+        Header ce = method.getResponseHeader("content-encoding");
+        if (ce == null || !Recorder.isDecodable(ce.getValue())) {
+            return;
+        }
+        rec.setDecodingLimits(getMaxDecodedLengthBytes(), 
+                getMaxDecodingRatio());
+        rec.setContentEncoding(ce.getValue());
+    }
+
     /**
      * Cleanup after a failed method execute.
      * 
@@ -1302,6 +1484,10 @@ public class FetchHTTP extends Processor implements Lifecycle {
      */
     protected void cleanupHttp() {
         this.http = null; 
+        if (this.http2Pool != null) {
+            this.http2Pool.closeAll();
+            this.http2Pool = null;
+        }
     }
     
     private void setSSLFactory() {
@@ -1313,6 +1499,8 @@ public class FetchHTTP extends Processor implements Lifecycle {
             context.init(null,
                     new TrustManager[] { new ConfigurableX509TrustManager(
                             getSslTrustLevel()) }, null);
+            context.getClientSessionContext().setSessionCacheSize(
+                    getSslSessionCacheSize());
             this.sslfactory = context.getSocketFactory();
         } catch (Exception e) {
             logger.log(Level.WARNING, "Failed configure of ssl context "
@@ -1379,6 +1567,15 @@ public class FetchHTTP extends Processor implements Lifecycle {
         configureBindAddress(addressStr,config);
 
         hcmp.setParameter(SSL_FACTORY_KEY, this.sslfactory);
+
+        if (getUseHttp2() && proxy == null) {
+            this.http2Pool = new Http2ConnectionPool();
+            this.http2Pool.setMaxStreamsPerServer(
+                    getHttp2MaxStreamsPerServer());
+            this.http2Pool.setMaxConnections(getHttp2MaxConnections());
+            this.http2Pool.setPriorKnowledge(getHttp2PriorKnowledge());
+            hcmp.setParameter(HTTP2_POOL_KEY, this.http2Pool);
+        }
     }
 
     /*
@@ -1392,12 +1589,49 @@ public class FetchHTTP extends Processor implements Lifecycle {
         ret.append("  Function:          Fetch HTTP URIs\n");
         ret.append("  CrawlURIs handled: " + this.getURICount() + "\n");
         ret.append("  Recovery retries:   " + this.recoveryRetries + "\n");
+        if (sslSocketFactory != null) {
+            LatencyHistogram.Snapshot handshakes = 
+                sslSocketFactory.getHandshakeLatency().snapshot();
+            long resumed = sslSocketFactory.getResumedHandshakes();
+            ret.append("  TLS handshakes:     " + handshakes.getCount() 
+                    + " (all fetchers)\n");
+            ret.append("    resumed:          " + resumed);
+            if (handshakes.getCount() > 0) {
+                ret.append(" (" + (resumed * 100 / handshakes.getCount()) 
+                        + "%)");
+            }
+            ret.append("\n");
+            ret.append("    time (ms):        mean "
+                    + LatencyHistogram.Snapshot.ms((long) handshakes.getMean())
+                    + " p50 " 
+                    + LatencyHistogram.Snapshot.ms(
+                            handshakes.getValueAtPercentile(50))
+                    + " p99 " 
+                    + LatencyHistogram.Snapshot.ms(
+                            handshakes.getValueAtPercentile(99))
+                    + " max " 
+                    + LatencyHistogram.Snapshot.ms(handshakes.getMax()) 
+                    + "\n");
+        }
+        if (http2Pool != null) {
+            ret.append("  HTTP/2 connections: " 
+                    + http2Pool.getConnectionsOpened() + " ("
+                    + http2Pool.getConnectionCount() + " open)\n");
+            ret.append("    streams:          " 
+                    + http2Pool.getStreamsOpened() + "\n");
+        }
+        if (bandwidthScheduler != null) {
+            ret.append(bandwidthScheduler.report());
+        }
 
         return ret.toString();
     }
 
 
     private void setAcceptHeaders(CrawlURI curi, HttpMethod get) {
+        if (getAcceptCompression()) {
+            get.setRequestHeader("Accept-Encoding", "gzip, deflate");
+        }
         List<String> acceptHeaders = getAcceptHeaders();
         if (acceptHeaders.isEmpty()) {
             return;
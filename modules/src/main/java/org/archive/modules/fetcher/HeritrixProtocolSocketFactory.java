@@ -28,6 +28,7 @@ import java.net.UnknownHostException;
 import org.apache.commons.httpclient.ConnectTimeoutException;
 import org.apache.commons.httpclient.params.HttpConnectionParams;
 import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.archive.httpclient.Http2ConnectionPool;
 
 
 /**
@@ -37,6 +38,9 @@ import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
  * Copied the guts of DefaultProtocolSocketFactory.  This factory gets
  * setup by {@link FetchHTTP}.
  * 
+ * If FetchHTTP shares HTTP/2 connections with prior knowledge that
+ * servers speak it, sockets are streams of those connections.
+ * 
  * @author stack
  * @version $Date$, $Revision$
  */
@@ -109,8 +113,17 @@ implements ProtocolSocketFactory {
         }
         Socket socket = null;
         int timeout = params.getConnectionTimeout();
+        Http2ConnectionPool http2Pool = (Http2ConnectionPool) 
+            params.getParameter(FetchHTTP.HTTP2_POOL_KEY);
+        if (http2Pool != null && !http2Pool.isPriorKnowledge()) {
+            // no HTTP/2 over plain HTTP unless known to be spoken
+            http2Pool = null;
+        }
         if (timeout == 0) {
             socket = createSocket(host, port, localAddress, localPort);
+        } else if (http2Pool != null && (socket = http2Pool.existingStream(
+                "http", host, port, timeout)) != null) {
+            // another request on an open HTTP/2 connection
         } else {
             socket = new Socket();
             
@@ -134,6 +147,16 @@ implements ProtocolSocketFactory {
                     ": timeout set at " + Integer.toString(timeout) + "ms.");
             }
             assert socket.isConnected(): "Socket not connected " + host;
+            if (http2Pool != null) {
+                Socket plain = socket;
+                try {
+                    socket = http2Pool.newStream("http", host, port, plain,
+                            timeout);
+                } catch (IOException e) {
+                    plain.close();
+                    throw e;
+                }
+            }
         }
         return socket;
     }
@@ -27,14 +27,21 @@ import java.net.UnknownHostException;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 
 import org.apache.commons.httpclient.params.HttpConnectionParams;
 import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 import org.archive.httpclient.ConfigurableX509TrustManager;
+import org.archive.httpclient.Http2ConnectionPool;
+import org.archive.util.LatencyHistogram;
 
 
 /**
@@ -47,6 +54,17 @@ import org.archive.httpclient.ConfigurableX509TrustManager;
  * its assumed this class and it are used together.
  * See {@link HeritrixProtocolSocketFactory#getHostAddress(ServerCache,String)}.
  *
+ * <p>Sockets are created concurrently: the TCP connect happens on a plain
+ * socket, then TLS is layered over it naming the host, so that the
+ * SSLContext's (bounded, per host and port) client session cache can
+ * resume an earlier session with the same server rather than perform a
+ * full handshake. Handshake times and the share of resumed sessions are
+ * tallied for reporting.
+ *
+ * <p>If FetchHTTP shares HTTP/2 connections, HTTP/2 is offered by ALPN,
+ * and requests to a server already connected by HTTP/2 use a new stream
+ * of that connection instead of a new socket.
+ *
  * @author stack
  * @version $Id$
  * @see org.archive.httpclient.ConfigurableX509TrustManager
@@ -57,6 +75,27 @@ implements SecureProtocolSocketFactory {
      * Socket factory with default trust manager installed.
      */
     private SSLSocketFactory sslDefaultFactory = null;
+
+    /** default number of TLS sessions kept for resumption */
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 10000;
+
+    /** time taken by explicit TLS handshakes */
+    protected LatencyHistogram handshakeLatency = new LatencyHistogram();
+    /** handshakes which resumed a cached session */
+    protected AtomicLong resumedHandshakes = new AtomicLong(0);
+    /**
+     * Sessions established by earlier handshakes, most recently used
+     * last, as many as the session cache holds: only these may be
+     * resumed.
+     */
+    @SuppressWarnings("serial")
+    protected Map<String,Boolean> sessionsSeen = 
+        new LinkedHashMap<String,Boolean>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(
+                    Map.Entry<String,Boolean> eldest) {
+                return size() > DEFAULT_SESSION_CACHE_SIZE;
+            }
+        };
     
     /**
      * Shutdown constructor.
@@ -75,6 +114,8 @@ implements SecureProtocolSocketFactory {
         context.init(null, new TrustManager[] {
             new ConfigurableX509TrustManager(
                 ConfigurableX509TrustManager.DEFAULT)}, null);
+        context.getClientSessionContext().setSessionCacheSize(
+                DEFAULT_SESSION_CACHE_SIZE);
         this.sslDefaultFactory = context.getSocketFactory();
     }
 
@@ -90,7 +131,7 @@ implements SecureProtocolSocketFactory {
         return this.sslDefaultFactory.createSocket(host, port);
     }
 
-    public synchronized Socket createSocket(String host, int port,
+    public Socket createSocket(String host, int port,
     	InetAddress localAddress, int localPort, HttpConnectionParams params)
     throws IOException, UnknownHostException {
         // Below code is from the DefaultSSLProtocolSocketFactory#createSocket
@@ -101,13 +142,17 @@ implements SecureProtocolSocketFactory {
         }
         Socket socket = null;
         int timeout = params.getConnectionTimeout();
+        Http2ConnectionPool http2Pool = (Http2ConnectionPool) 
+            params.getParameter(FetchHTTP.HTTP2_POOL_KEY);
         if (timeout == 0) {
             socket = createSocket(host, port, localAddress, localPort);
+        } else if (http2Pool != null && (socket = http2Pool.existingStream(
+                "https", host, port, timeout)) != null) {
+            // another request on an open HTTP/2 connection
         } else {
         	SSLSocketFactory factory = (SSLSocketFactory)params.
                 getParameter(FetchHTTP.SSL_FACTORY_KEY);
         	SSLSocketFactory f = (factory != null)? factory: this.sslDefaultFactory;
-            socket = f.createSocket();
             
             Thread current = Thread.currentThread();
             InetAddress hostAddress;
@@ -120,19 +165,93 @@ implements SecureProtocolSocketFactory {
             InetSocketAddress address = (hostAddress != null)?
                     new InetSocketAddress(hostAddress, port):
                     new InetSocketAddress(host, port);
-            socket.bind(new InetSocketAddress(localAddress, localPort));
+            Socket plain = new Socket();
             try {
-                socket.connect(address, timeout);
-            } catch (SocketTimeoutException e) {
-                // Add timeout info. to the exception.
-                throw new SocketTimeoutException(e.getMessage() +
-                    ": timeout set at " + Integer.toString(timeout) + "ms.");
+                plain.bind(new InetSocketAddress(localAddress, localPort));
+                try {
+                    plain.connect(address, timeout);
+                } catch (SocketTimeoutException e) {
+                    // Add timeout info. to the exception.
+                    throw new SocketTimeoutException(e.getMessage() +
+                        ": timeout set at " + Integer.toString(timeout) + 
+                        "ms.");
+                }
+                assert plain.isConnected(): "Socket not connected " + host;
+                // HttpConnection sets the read timeout only once we return
+                int soTimeout = params.getSoTimeout();
+                plain.setSoTimeout(soTimeout > 0 ? soTimeout : timeout);
+                // naming the host keys the session cache (and sends SNI)
+                SSLSocket sslSocket = 
+                    (SSLSocket) f.createSocket(plain, host, port, true);
+                if (http2Pool != null) {
+                    Http2ConnectionPool.offerAlpn(sslSocket);
+                }
+                handshake(sslSocket);
+                if (http2Pool != null 
+                        && Http2ConnectionPool.isH2Negotiated(sslSocket)) {
+                    socket = http2Pool.newStream("https", host, port, 
+                            sslSocket, timeout);
+                } else {
+                    socket = sslSocket;
+                }
+            } finally {
+                if (socket == null) {
+                    plain.close();
+                }
             }
-            assert socket.isConnected(): "Socket not connected " + host;
         }
         return socket;
     }
     
+    /**
+     * Perform the TLS handshake now, rather than on first write, to tally
+     * its time and whether it resumed a cached session.
+     * 
+     * @param socket connected SSLSocket
+     * @throws IOException
+     */
+    protected void handshake(SSLSocket socket) throws IOException {
+        long start = System.nanoTime();
+        socket.startHandshake();
+        handshakeLatency.recordSince(start);
+        if (isResumed(socket.getSession())) {
+            resumedHandshakes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Note a session just established, and whether it resumes one an
+     * earlier handshake established. A resumed session keeps the peer
+     * and the creation time of the session it resumes (though, in TLS
+     * 1.3, not its ID), while a full handshake creates a new one, so 
+     * those identify it.
+     * 
+     * @param session session of a completed handshake
+     * @return true if an earlier handshake established the session
+     */
+    protected boolean isResumed(SSLSession session) {
+        String key = session.getPeerHost() + ":" + session.getPeerPort()
+            + "@" + session.getCreationTime();
+        synchronized (sessionsSeen) {
+            return sessionsSeen.put(key, Boolean.TRUE) != null;
+        }
+    }
+
+    /**
+     * @return times of handshakes performed by
+     * {@link #createSocket(String, int, InetAddress, int, HttpConnectionParams)}
+     */
+    public LatencyHistogram getHandshakeLatency() {
+        return handshakeLatency;
+    }
+
+    /**
+     * @return number of those handshakes which resumed a cached session
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+    
 	public Socket createSocket(Socket socket, String host, int port,
         boolean autoClose)
     throws IOException, UnknownHostException {
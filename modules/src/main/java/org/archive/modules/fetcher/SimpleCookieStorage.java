@@ -20,7 +20,7 @@ package org.archive.modules.fetcher;
 
 import java.util.Map;
 import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.apache.commons.httpclient.Cookie;
 
@@ -28,7 +28,8 @@ public class SimpleCookieStorage extends AbstractCookieStorage {
 
     private static final long serialVersionUID = 1L;
 
-    final private SortedMap<String,Cookie> map = new TreeMap<String,Cookie>();
+    final private SortedMap<String,Cookie> map =
+        new ConcurrentSkipListMap<String,Cookie>();
 
     
     protected SortedMap<String,Cookie> prepareMap() {
@@ -19,6 +19,7 @@
 package org.archive.modules.net;
 
 import org.archive.bdb.BdbModule;
+import org.archive.checkpointing.Checkpoint;
 import org.archive.modules.fetcher.DefaultServerCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.Lifecycle;
@@ -42,6 +43,12 @@ implements Lifecycle {
         this.bdb = bdb;
     }
     
+    protected Checkpoint recoveryCheckpoint;
+    @Autowired(required=false)
+    public void setRecoveryCheckpoint(Checkpoint checkpoint) {
+        this.recoveryCheckpoint = checkpoint; 
+    }
+
     public BdbServerCache() {
     }
     
@@ -52,6 +59,9 @@ implements Lifecycle {
         try {
             this.servers = bdb.getObjectCache("servers", false, CrawlServer.class, CrawlServer.class);
             this.hosts = bdb.getObjectCache("hosts", false, CrawlHost.class, CrawlHost.class);
+            // IDs must survive resume, as other modules' state uses them
+            this.authorityIds = bdb.getStringIdTable("authorityIds", 
+                    recoveryCheckpoint != null);
         } catch (DatabaseException e) {
             throw new IllegalStateException(e);
         }
@@ -28,6 +28,7 @@ import java.util.logging.Logger;
 import org.archive.bdb.AutoKryo;
 import org.archive.modules.fetcher.FetchStats;
 import org.archive.util.InetAddressUtil;
+import org.archive.util.StringIdTable;
 
 /** 
  * Represents a single remote "host".
@@ -47,6 +48,8 @@ public class CrawlHost implements Serializable, FetchStats.HasFetchStats {
     /** Flag value indicating an IP has not yet been looked up */
     public static final long IP_NEVER_LOOKED_UP = -2;
     private String hostname;
+    /** crawl-wide ID of hostname; see ServerCache.getAuthorityIds() */
+    private int id = StringIdTable.NONE;
     private String countryCode;
     private InetAddress ip;
     private long ipFetched = IP_NEVER_LOOKED_UP;
@@ -181,6 +184,20 @@ public class CrawlHost implements Serializable, FetchStats.HasFetchStats {
         return hostname;
     }
 
+    /**
+     * Get the crawl-wide ID of this host's name, usable as a compact
+     * key in place of the name.
+     * 
+     * @return ID, or StringIdTable.NONE if not assigned
+     */
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
     /** 
      * Get the earliest time a URI for this host could be emitted.
      * This only has effect if constraints on bandwidth per host is set.
@@ -44,6 +44,7 @@ import org.archive.modules.credential.Credential;
 import org.archive.modules.fetcher.FetchStats;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
+import org.archive.util.StringIdTable;
 
 /**
  * Represents a single remote "server".
@@ -65,6 +66,8 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats {
 
     private String server; // actually, host+port in the https case
     private int port;
+    /** crawl-wide ID of server name; see ServerCache.getAuthorityIds() */
+    private int id = StringIdTable.NONE;
     protected Robotstxt robotstxt;
     long robotsFetched = ROBOTS_NOT_FETCHED;
     boolean validRobots = false;
@@ -75,6 +78,11 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats {
     // used to drive exponentially increasing retry timeout or decision
     // to 'freeze' entire class (queue) of URIs
     protected int consecutiveConnectionErrors = 0;
+    
+    // recent latency/errors/throughput, and parallel fetches allowed, 
+    // for adaptive politeness 
+    protected ServerResponsiveness responsiveness = 
+        new ServerResponsiveness();
 
     /**
      * Set of credentials.
@@ -183,7 +191,7 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats {
        try {
            BufferedReader reader;
            contentBodyStream = curi.getRecorder()
-                   .getRecordedInput().getContentReplayInputStream();
+                   .getContentReplayInputStream();
 
            contentBodyStream.setToResponseBodyStart();
            reader = new BufferedReader(new InputStreamReader(contentBodyStream));
@@ -206,6 +214,20 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats {
        return server;
     }
 
+    /**
+     * Get the crawl-wide ID of this server's name, usable as a compact
+     * key in place of the name.
+     *
+     * @return ID, or StringIdTable.NONE if not assigned
+     */
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
     /** Get the port number for this server.
      *
      * @return the port number or -1 if not known (uses default for protocol)
@@ -299,6 +321,10 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats {
     public FetchStats getSubstats() {
         return substats;
     }
+    
+    public ServerResponsiveness getResponsiveness() {
+        return responsiveness;
+    }
 
     /**
      * Is the robots policy expired.
@@ -331,6 +357,7 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats {
     public static void autoregisterTo(AutoKryo kryo) {
         kryo.register(CrawlServer.class);
         kryo.autoregister(FetchStats.class); 
+        kryo.autoregister(ServerResponsiveness.class); 
         kryo.autoregister(org.archive.modules.net.Robotstxt.class);
         kryo.autoregister(java.util.HashMap.class);
         kryo.autoregister(org.archive.modules.net.RobotsDirectives.class);
@@ -25,6 +25,7 @@ import java.util.logging.Logger;
 import org.apache.commons.collections.Closure;
 import org.apache.commons.httpclient.URIException;
 import org.archive.net.UURI;
+import org.archive.util.StringIdTable;
 
 /**
  * Abstract class for crawl-global registry of CrawlServer (host:port) and
@@ -43,6 +44,16 @@ public abstract class ServerCache {
      */
     public abstract void forAllHostsDo(Closure action);
 
+    /**
+     * Crawl-wide table of IDs for host names and server keys, as
+     * assigned to every CrawlHost and CrawlServer this cache creates.
+     * Host and server names share one ID space; a host name and a
+     * port-less server key for the same host share one ID.
+     * 
+     * @return table of host and server IDs
+     */
+    public abstract StringIdTable getAuthorityIds();
+
     
     private static Logger logger =
         Logger.getLogger(ServerCache.class.getName());
@@ -0,0 +1,125 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.net;
+
+import java.io.Serializable;
+
+/**
+ * Recent responsiveness of a server, as moving averages of fetch latency,
+ * error rate and throughput, plus the number of parallel fetches
+ * currently allowed against it (as chosen by an adaptive politeness
+ * policy).
+ *
+ * Averages are exponentially weighted, each new observation counting
+ * for SMOOTHING of the new value.
+ */
+public class ServerResponsiveness implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** weight of each new observation in the moving averages */
+    public static final float SMOOTHING = 0.2f;
+
+    /** moving average of fetch duration, in ms; negative before any */
+    protected float averageLatencyMs = -1;
+    /** low-water mark of average latency; basis for noticing slowdowns */
+    protected float baselineLatencyMs = -1;
+    /** moving average of fraction of fetches ending in error */
+    protected float errorRate = 0;
+    /** moving average of bytes per second of fetch duration */
+    protected float averageBytesPerSec = 0;
+    /** parallel fetches currently allowed */
+    protected int parallelism = 1;
+    /** observations since parallelism last changed */
+    protected int observationsSinceAdjustment = 0;
+
+    /**
+     * Note the outcome of one fetch.
+     *
+     * @param durationMs time from fetch start to completion
+     * @param bytes bytes received
+     * @param error whether fetch ended in (server-attributable) error
+     */
+    public synchronized void note(long durationMs, long bytes, boolean error) {
+        float latency = Math.max(durationMs, 1);
+        if (averageLatencyMs < 0) {
+            averageLatencyMs = latency;
+            averageBytesPerSec = bytes * 1000f / latency;
+        } else {
+            averageLatencyMs += SMOOTHING * (latency - averageLatencyMs);
+            averageBytesPerSec +=
+                SMOOTHING * (bytes * 1000f / latency - averageBytesPerSec);
+        }
+        if (baselineLatencyMs < 0 || averageLatencyMs < baselineLatencyMs) {
+            baselineLatencyMs = averageLatencyMs;
+        } else {
+            // drift slowly up, so one lucky spell isn't the standard forever
+            baselineLatencyMs += 
+                SMOOTHING * SMOOTHING * (averageLatencyMs - baselineLatencyMs);
+        }
+        errorRate += SMOOTHING * ((error ? 1 : 0) - errorRate);
+        observationsSinceAdjustment++;
+    }
+
+    public synchronized float getAverageLatencyMs() {
+        return averageLatencyMs;
+    }
+
+    public synchronized float getBaselineLatencyMs() {
+        return baselineLatencyMs;
+    }
+
+    public synchronized float getErrorRate() {
+        return errorRate;
+    }
+
+    public synchronized float getAverageBytesPerSec() {
+        return averageBytesPerSec;
+    }
+
+    public synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    public synchronized int getObservationsSinceAdjustment() {
+        return observationsSinceAdjustment;
+    }
+
+    /**
+     * Set the allowed parallelism; if changed, restart the count of
+     * observations since adjustment.
+     *
+     * @param parallelism
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism != this.parallelism) {
+            this.parallelism = parallelism;
+            observationsSinceAdjustment = 0;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "parallelism " + parallelism
+            + ", latency " + (long) averageLatencyMs + "ms"
+            + " (baseline " + (long) baselineLatencyMs + "ms)"
+            + ", errors " + Math.round(errorRate * 100) + "%"
+            + ", " + (long) averageBytesPerSec + "B/s";
+    }
+}
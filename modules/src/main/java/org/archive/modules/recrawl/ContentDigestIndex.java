@@ -0,0 +1,453 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.bdb.BdbModule;
+import org.archive.checkpointing.Checkpoint;
+import org.archive.checkpointing.Checkpointable;
+import org.archive.modules.CrawlURI;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.Base32;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.Lifecycle;
+
+import com.sleepycat.bind.tuple.TupleBinding;
+import com.sleepycat.bind.tuple.TupleInput;
+import com.sleepycat.bind.tuple.TupleOutput;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+
+/**
+ * Crawl-wide index of payloads already stored, keyed by payload (content
+ * body) digest, giving for each the payload size and the URI, date and
+ * WARC record ID of its first capture. Unlike URI fetch history, which
+ * only recognizes a payload seen before at the same URI, this lets a
+ * writer replace any later capture of the same payload, at whatever URI,
+ * with a short 'revisit' record referring to the first.
+ *
+ * Entries live in a BDB database of the crawl's {@link BdbModule}, so
+ * are on disk (with only recently used entries cached in memory) and
+ * are saved with, and restored from, crawl checkpoints. When not
+ * resuming from a checkpoint, the index may be preloaded from the CDX
+ * files of prior crawls, so that their captures are also not stored
+ * again.
+ *
+ * @see org.archive.modules.writer.WARCWriterProcessor#setContentDigestIndex(ContentDigestIndex)
+ */
+public class ContentDigestIndex
+implements Lifecycle, Checkpointable, BeanNameAware {
+    private static final Logger logger =
+        Logger.getLogger(ContentDigestIndex.class.getName());
+
+    /** show preload progress every this many lines */
+    private static final int PROGRESS_INTERVAL = 1000000;
+
+    /** CDX field letters, as in a ' CDX ...' header line */
+    protected static final char CDX_URL = 'a';
+    protected static final char CDX_DATE = 'b';
+    protected static final char CDX_MIMETYPE = 'm';
+    protected static final char CDX_DIGEST = 'k';
+    /** fields of CDX files lacking a header line */
+    protected static final String DEFAULT_CDX_FIELDS = "N b a m s k r M S V g";
+
+    protected static final BdbModule.BdbConfig DB_CONFIG;
+    static {
+        BdbModule.BdbConfig dbConfig = new BdbModule.BdbConfig();
+        dbConfig.setTransactional(false);
+        dbConfig.setAllowCreate(true);
+        dbConfig.setDeferredWrite(true);
+        DB_CONFIG = dbConfig;
+    }
+
+    /**
+     * A payload's first capture.
+     */
+    public static class Capture {
+        /** payload length in bytes, or -1 if unknown */
+        protected long size;
+        protected String uri;
+        /** capture time, in ms since the epoch */
+        protected long date;
+        /** WARC-Record-ID of the full capture, or null if unknown */
+        protected String recordId;
+
+        public Capture(long size, String uri, long date, String recordId) {
+            this.size = size;
+            this.uri = uri;
+            this.date = date;
+            this.recordId = recordId;
+        }
+
+        public long getSize() {
+            return size;
+        }
+        public String getUri() {
+            return uri;
+        }
+        public long getDate() {
+            return date;
+        }
+        public String getRecordId() {
+            return recordId;
+        }
+    }
+
+    protected static class CaptureBinding extends TupleBinding<Capture> {
+        public Capture entryToObject(TupleInput input) {
+            long size = input.readPackedLong();
+            long date = input.readPackedLong();
+            String uri = input.readString();
+            String recordId = input.readString();
+            return new Capture(size, uri, date, recordId);
+        }
+
+        public void objectToEntry(Capture capture, TupleOutput output) {
+            output.writePackedLong(capture.size);
+            output.writePackedLong(capture.date);
+            output.writeString(capture.uri);
+            output.writeString(capture.recordId);
+        }
+    }
+    protected static final CaptureBinding CAPTURE_BINDING =
+        new CaptureBinding();
+
+    protected BdbModule bdb;
+    @Autowired
+    public void setBdbModule(BdbModule bdb) {
+        this.bdb = bdb;
+    }
+
+    protected String dbName = "content_digests";
+    public String getDbName() {
+        return dbName;
+    }
+    /**
+     * @param dbName name of the BDB database holding the index
+     */
+    public void setDbName(String dbName) {
+        this.dbName = dbName;
+    }
+
+    protected long minimumPayloadSize = 1024;
+    public long getMinimumPayloadSize() {
+        return minimumPayloadSize;
+    }
+    /**
+     * Payloads smaller than this are neither indexed nor replaced by
+     * revisit records, as the savings would be negligible against the
+     * revisit record's own headers. Default is 1024 bytes.
+     */
+    public void setMinimumPayloadSize(long minimumPayloadSize) {
+        this.minimumPayloadSize = minimumPayloadSize;
+    }
+
+    protected List<String> preloadCdxPaths = new ArrayList<String>();
+    public List<String> getPreloadCdxPaths() {
+        return preloadCdxPaths;
+    }
+    /**
+     * CDX files (optionally gzipped) of prior crawls, whose captures are
+     * loaded into the index when a crawl starts fresh (not when resuming
+     * from a checkpoint, whose index already includes them). Only SHA-1
+     * digests, as used by default, are loaded.
+     */
+    public void setPreloadCdxPaths(List<String> preloadCdxPaths) {
+        this.preloadCdxPaths = preloadCdxPaths;
+    }
+
+    protected Database db;
+    protected AtomicLong entries = new AtomicLong(0);
+    protected AtomicLong hits = new AtomicLong(0);
+    protected AtomicLong bytesSaved = new AtomicLong(0);
+
+    public ContentDigestIndex() {
+    }
+
+    public void start() {
+        if (isRunning()) {
+            return;
+        }
+        boolean isRecovery = (recoveryCheckpoint != null);
+        try {
+            db = bdb.openDatabase(getDbName(), DB_CONFIG, isRecovery);
+        } catch (DatabaseException e) {
+            throw new IllegalStateException(e);
+        }
+        if (isRecovery) {
+            JSONObject json = recoveryCheckpoint.loadJson(beanName);
+            try {
+                entries.set(json.getLong("entries"));
+                hits.set(json.getLong("hits"));
+                bytesSaved.set(json.getLong("bytesSaved"));
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            for (String path : getPreloadCdxPaths()) {
+                try {
+                    preloadCdx(new File(path));
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "problem preloading " + path, e);
+                }
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return db != null;
+    }
+
+    public void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        // leave db cleanup to BdbModule
+        db = null;
+    }
+
+    /**
+     * @return whether the given URI's payload is eligible for the index
+     */
+    protected boolean isIndexable(CrawlURI curi) {
+        return curi.getContentDigest() != null
+            && curi.getContentLength() >= getMinimumPayloadSize();
+    }
+
+    /**
+     * Find a prior capture of the given URI's payload.
+     *
+     * @param curi fetched CrawlURI, with content digest
+     * @return earlier capture of an identical payload, or null if none
+     * (or the payload is too small to be worth replacing)
+     */
+    public Capture lookup(CrawlURI curi) {
+        if (!isIndexable(curi)) {
+            return null;
+        }
+        DatabaseEntry value = new DatabaseEntry();
+        OperationStatus status;
+        try {
+            status = db.get(null, new DatabaseEntry(curi.getContentDigest()),
+                    value, LockMode.READ_UNCOMMITTED);
+        } catch (DatabaseException e) {
+            logger.log(Level.WARNING, "problem looking up " + curi, e);
+            return null;
+        }
+        if (status != OperationStatus.SUCCESS) {
+            return null;
+        }
+        Capture capture = CAPTURE_BINDING.entryToObject(value);
+        if (capture.getSize() >= 0
+                && capture.getSize() != curi.getContentLength()) {
+            // same digest, different size: don't trust it
+            return null;
+        }
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(curi.getContentLength());
+        return capture;
+    }
+
+    /**
+     * Note the given URI's payload as stored in full, unless an earlier
+     * capture is already indexed. Should be called only once the full
+     * record is written.
+     *
+     * @param curi fetched CrawlURI, with content digest
+     * @param recordId WARC-Record-ID of the record holding the payload
+     */
+    public void note(CrawlURI curi, String recordId) {
+        if (!isIndexable(curi)) {
+            return;
+        }
+        Capture capture = new Capture(curi.getContentLength(), curi.getURI(),
+                curi.getFetchBeginTime(), recordId);
+        add(curi.getContentDigest(), capture);
+    }
+
+    /**
+     * Add a capture, unless one is already present for the digest.
+     *
+     * @return whether added
+     */
+    protected boolean add(byte[] digest, Capture capture) {
+        DatabaseEntry value = new DatabaseEntry();
+        CAPTURE_BINDING.objectToEntry(capture, value);
+        try {
+            if (db.putNoOverwrite(null, new DatabaseEntry(digest), value)
+                    == OperationStatus.SUCCESS) {
+                entries.incrementAndGet();
+                return true;
+            }
+        } catch (DatabaseException e) {
+            logger.log(Level.WARNING, "problem adding " + capture.getUri(), e);
+        }
+        return false;
+    }
+
+    /**
+     * Load the captures of a CDX file (optionally gzipped) into the
+     * index. The fields are taken from its ' CDX ' header line, if any.
+     * Revisit records, and digests other than base32 SHA-1, are skipped.
+     *
+     * @param cdx file to load
+     * @return number of captures added
+     * @throws IOException
+     */
+    public long preloadCdx(File cdx) throws IOException {
+        logger.info("preloading content digests from " + cdx);
+        BufferedReader reader = ArchiveUtils.getBufferedReader(cdx);
+        int urlField = -1, dateField = -1, mimeField = -1, digestField = -1;
+        long lines = 0;
+        long added = 0;
+        try {
+            String line = reader.readLine();
+            String fields = DEFAULT_CDX_FIELDS;
+            if (line != null && line.startsWith(" CDX ")) {
+                fields = line.substring(5).trim();
+                line = reader.readLine();
+            }
+            String[] letters = fields.split(" ");
+            for (int i = 0; i < letters.length; i++) {
+                switch (letters[i].charAt(0)) {
+                case CDX_URL: urlField = i; break;
+                case CDX_DATE: dateField = i; break;
+                case CDX_MIMETYPE: mimeField = i; break;
+                case CDX_DIGEST: digestField = i; break;
+                }
+            }
+            if (urlField < 0 || dateField < 0 || digestField < 0) {
+                throw new IOException("CDX fields '" + fields + "' lack "
+                        + "original URL, date or digest: " + cdx);
+            }
+            for (; line != null; line = reader.readLine()) {
+                lines++;
+                if (lines % PROGRESS_INTERVAL == 0) {
+                    logger.info("at line " + lines + " of " + cdx + ", "
+                            + added + " digests added");
+                }
+                String[] values = line.split(" ");
+                if (values.length <= Math.max(urlField,
+                        Math.max(dateField, digestField))) {
+                    continue;
+                }
+                if (mimeField >= 0 && mimeField < values.length
+                        && "warc/revisit".equals(values[mimeField])) {
+                    continue;
+                }
+                String digest = values[digestField];
+                int colon = digest.indexOf(':');
+                if (colon >= 0) {
+                    if (!digest.substring(0, colon).equalsIgnoreCase("sha1")) {
+                        continue;
+                    }
+                    digest = digest.substring(colon + 1);
+                }
+                if (digest.length() != 32) {
+                    // not a base32 SHA-1
+                    continue;
+                }
+                long date;
+                try {
+                    date = ArchiveUtils.parse14DigitDate(
+                            values[dateField]).getTime();
+                } catch (ParseException e) {
+                    continue;
+                }
+                if (add(Base32.decode(digest),
+                        new Capture(-1, values[urlField], date, null))) {
+                    added++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        logger.info("preloaded " + added + " content digests from " + lines
+                + " lines of " + cdx);
+        return added;
+    }
+
+    /**
+     * @return number of payloads indexed
+     */
+    public long getEntries() {
+        return entries.get();
+    }
+
+    /**
+     * @return number of captures found to duplicate an indexed payload
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return total payload bytes of captures duplicating an indexed
+     * payload
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    protected String beanName;
+    public void setBeanName(String name) {
+        this.beanName = name;
+    }
+
+    public void startCheckpoint(Checkpoint checkpointInProgress) {}
+
+    public void doCheckpoint(Checkpoint checkpointInProgress)
+    throws IOException {
+        // database itself is checkpointed by BdbModule
+        JSONObject json = new JSONObject();
+        try {
+            json.put("entries", entries.get());
+            json.put("hits", hits.get());
+            json.put("bytesSaved", bytesSaved.get());
+            checkpointInProgress.saveJson(beanName, json);
+        } catch (JSONException e) {
+            // impossible
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void finishCheckpoint(Checkpoint checkpointInProgress) {}
+
+    protected Checkpoint recoveryCheckpoint;
+    @Autowired(required=false)
+    public void setRecoveryCheckpoint(Checkpoint checkpoint) {
+        this.recoveryCheckpoint = checkpoint;
+    }
+}
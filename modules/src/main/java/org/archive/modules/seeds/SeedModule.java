@@ -76,6 +76,14 @@ public abstract class SeedModule implements Serializable
     }
     
     public abstract void announceSeeds();
+
+    /**
+     * @return true while seeds are still being announced in the
+     * background, after announceSeeds() has returned
+     */
+    public boolean isAnnouncing() {
+        return false;
+    }
     
     public abstract void actOn(File f); 
     
@@ -26,9 +26,21 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.io.IOUtils;
@@ -48,6 +60,15 @@ import org.springframework.beans.factory.annotation.Required;
  * as a ConfigFile or ConfigString), and provides a mechanism for
  * adding seeds after a crawl has begun.
  *
+ * <p>Large seed lists may be loaded with several ingestThreads: the
+ * list is read in chunks of ingestBatchSize lines, which are parsed
+ * and made into seed CrawlURIs in parallel. {@link ConcurrentSeedListener}s
+ * (such as SURT-prefix scoping rules) hear of each seed from the parsing
+ * threads; the remaining listeners, including the frontier, hear of
+ * each chunk's seeds afterward from a single thread, in seed-list order.
+ * With announceInBackground, the crawl may begin once the first chunk
+ * is announced, while the rest of the list streams in.
+ *
  * @contributor gojomo
  */
 public class TextSeedModule extends SeedModule 
@@ -57,6 +78,13 @@ implements ReadSource {
     private static final Logger logger =
         Logger.getLogger(TextSeedModule.class.getName());
 
+    /** Rfc2396 s3.1 scheme, minus '.' */
+    protected static final Pattern SCHEME =
+        Pattern.compile("[a-zA-Z][\\w+\\-]+:.*");
+
+    /** log ingestion progress every this many lines */
+    protected static final int PROGRESS_INTERVAL = 1000000;
+
     /**
      * Text from which to extract seeds
      */
@@ -69,6 +97,62 @@ implements ReadSource {
         this.textSource = seedsSource;
     }
 
+    /**
+     * Number of threads parsing seed lines. With 1 (the default), seeds
+     * are read, parsed and announced on the announcing thread alone.
+     */
+    protected int ingestThreads = 1;
+    public int getIngestThreads() {
+        return ingestThreads;
+    }
+    public void setIngestThreads(int ingestThreads) {
+        this.ingestThreads = ingestThreads;
+    }
+
+    /**
+     * Number of seed-list lines given to a parsing thread at a time, and
+     * announced together, when ingestThreads is more than 1.
+     */
+    protected int ingestBatchSize = 1000;
+    public int getIngestBatchSize() {
+        return ingestBatchSize;
+    }
+    public void setIngestBatchSize(int ingestBatchSize) {
+        this.ingestBatchSize = ingestBatchSize;
+    }
+
+    /**
+     * Whether the crawl may begin once the first seeds are announced,
+     * with the remainder announced in the background. The frontier is
+     * not considered exhausted while seeds are still being announced.
+     */
+    protected boolean announceInBackground = false;
+    public boolean getAnnounceInBackground() {
+        return announceInBackground;
+    }
+    public void setAnnounceInBackground(boolean announceInBackground) {
+        this.announceInBackground = announceInBackground;
+    }
+
+    protected volatile boolean announcing = false;
+    protected volatile long linesRead = 0;
+    protected volatile long seedsAnnounced = 0;
+
+    /** @return lines read from the seed list currently or last loaded */
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    /** @return seeds announced from the seed list currently or last loaded */
+    public long getSeedsAnnounced() {
+        return seedsAnnounced;
+    }
+
+    @Override
+    public boolean isAnnouncing() {
+        return announcing;
+    }
+
     public TextSeedModule() {
     }
 
@@ -78,20 +162,75 @@ implements ReadSource {
      * @see org.archive.modules.seeds.SeedModule#announceSeeds()
      */
     public void announceSeeds() {
-        BufferedReader reader = new BufferedReader(textSource.obtainReader());       
+        if (!getAnnounceInBackground()) {
+            BufferedReader reader =
+                new BufferedReader(textSource.obtainReader());
+            try {
+                announceSeedsFromReader(reader);
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+            return;
+        }
+        announcing = true;
+        final CountDownLatch started = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            public void run() {
+                BufferedReader reader = null;
+                try {
+                    reader = new BufferedReader(textSource.obtainReader());
+                    announceSeedsFromReader(reader, started);
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, "problem announcing seeds", e);
+                } finally {
+                    IOUtils.closeQuietly(reader);
+                    announcing = false;
+                    started.countDown();
+                }
+            }
+        }, "seedsAnnouncer").start();
         try {
-            announceSeedsFromReader(reader);    
-        } finally {
-            IOUtils.closeQuietly(reader);
+            // wait until the first seeds have been scheduled
+            started.await();
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "interrupted", e);
         }
     }
-            
+
     /**
      * Announce all seeds (and nonseed possible-directive lines) from
      * the given Reader
      * @param reader
      */
     protected void announceSeedsFromReader(BufferedReader reader) {
+        announceSeedsFromReader(reader, new CountDownLatch(1));
+    }
+
+    /**
+     * Announce all seeds (and nonseed possible-directive lines) from
+     * the given Reader, in parallel if so configured.
+     *
+     * @param reader
+     * @param started latch counted down once the first seeds are announced
+     */
+    protected void announceSeedsFromReader(BufferedReader reader,
+            CountDownLatch started) {
+        linesRead = 0;
+        seedsAnnounced = 0;
+        long startTime = System.currentTimeMillis();
+        if (getIngestThreads() > 1) {
+            announceSeedsInParallel(reader, started);
+        } else {
+            announceSeedsSerially(reader, started);
+        }
+        publishConcludedSeedBatch();
+        logger.info("announced " + seedsAnnounced + " seeds from "
+                + linesRead + " lines in "
+                + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    protected void announceSeedsSerially(BufferedReader reader,
+            CountDownLatch started) {
         String s;
         Iterator<String> iter = 
             new RegexLineIterator(
@@ -103,19 +242,157 @@ implements ReadSource {
         int count = 0; 
         while (iter.hasNext()) {
             s = (String) iter.next();
+            linesRead++;
             if(Character.isLetterOrDigit(s.charAt(0))) {
                 // consider a likely URI
                 seedLine(s);
                 count++;
+                seedsAnnounced = count;
                 if(count%20000==0) {
                     System.runFinalization();
                 }
+                started.countDown();
             } else {
                 // report just in case it's a useful directive
                 nonseedLine(s);
             }
         }
-        publishConcludedSeedBatch(); 
+    }
+
+    /**
+     * Read the seed list in chunks, parsing chunks on several threads
+     * (a few chunks ahead) but announcing them, to listeners that are not
+     * {@link ConcurrentSeedListener}s, one at a time, in order.
+     *
+     * @param reader
+     * @param started latch counted down once the first seeds are announced
+     */
+    protected void announceSeedsInParallel(BufferedReader reader,
+            CountDownLatch started) {
+        final List<SeedListener> concurrentListeners =
+            new ArrayList<SeedListener>();
+        List<SeedListener> orderedListeners = new ArrayList<SeedListener>();
+        for (SeedListener l : seedListeners) {
+            if (l instanceof ConcurrentSeedListener) {
+                concurrentListeners.add(l);
+            } else {
+                orderedListeners.add(l);
+            }
+        }
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                getIngestThreads(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "seedIngest-"
+                                + threadNumber.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        try {
+            Iterator<String> lines = new LineReadingIterator(reader);
+            int readAhead = getIngestThreads() * 2;
+            LinkedList<Future<List<Object>>> parsed =
+                new LinkedList<Future<List<Object>>>();
+            long lastProgress = 0;
+            long startTime = System.currentTimeMillis();
+            // LineReadingIterator closes the reader once exhausted; ask no
+            // more of it after that
+            boolean more = lines.hasNext();
+            while (more || !parsed.isEmpty()) {
+                while (more && parsed.size() < readAhead) {
+                    final List<String> chunk =
+                        new ArrayList<String>(getIngestBatchSize());
+                    while (chunk.size() < getIngestBatchSize()
+                            && (more = lines.hasNext())) {
+                        chunk.add(lines.next());
+                    }
+                    linesRead += chunk.size();
+                    parsed.add(executor.submit(new Callable<List<Object>>() {
+                        public List<Object> call() {
+                            return parse(chunk, concurrentListeners);
+                        }
+                    }));
+                }
+                for (Object o : get(parsed.removeFirst())) {
+                    if (o instanceof CrawlURI) {
+                        for (SeedListener l : orderedListeners) {
+                            l.addedSeed((CrawlURI) o);
+                        }
+                        seedsAnnounced++;
+                    } else {
+                        for (SeedListener l : orderedListeners) {
+                            l.nonseedLine((String) o);
+                        }
+                    }
+                }
+                started.countDown();
+                if (linesRead - lastProgress >= PROGRESS_INTERVAL) {
+                    lastProgress = linesRead;
+                    long elapsed = System.currentTimeMillis() - startTime;
+                    logger.info("read " + linesRead + " lines, announced "
+                            + seedsAnnounced + " seeds ("
+                            + (seedsAnnounced * 1000 / Math.max(elapsed, 1))
+                            + "/s)");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Parse a chunk of seed-list lines, notifying concurrent listeners.
+     *
+     * @param chunk raw lines
+     * @param concurrentListeners listeners to notify in this thread
+     * @return seed CrawlURIs and nonseed line Strings, in list order
+     */
+    protected List<Object> parse(List<String> chunk,
+            List<SeedListener> concurrentListeners) {
+        List<Object> parsed = new ArrayList<Object>(chunk.size());
+        Iterator<String> iter =
+            new RegexLineIterator(
+                    chunk.iterator(),
+                    RegexLineIterator.COMMENT_LINE,
+                    RegexLineIterator.NONWHITESPACE_ENTRY_TRAILING_COMMENT,
+                    RegexLineIterator.ENTRY);
+        while (iter.hasNext()) {
+            String s = iter.next();
+            Object item = s;
+            if (Character.isLetterOrDigit(s.charAt(0))) {
+                try {
+                    item = seedFrom(s);
+                } catch (URIException e) {
+                    // try as nonseed line as fallback
+                    item = withScheme(s);
+                }
+            }
+            for (SeedListener l : concurrentListeners) {
+                if (item instanceof CrawlURI) {
+                    l.addedSeed((CrawlURI) item);
+                } else {
+                    l.nonseedLine((String) item);
+                }
+            }
+            parsed.add(item);
+        }
+        return parsed;
+    }
+
+    protected static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
     }
     
     /**
@@ -124,24 +401,43 @@ implements ReadSource {
      * @param uri String seed-containing line
      */
     protected void seedLine(String uri) {
-        if (!uri.matches("[a-zA-Z][\\w+\\-]+:.*")) { // Rfc2396 s3.1 scheme,
-                                                     // minus '.'
-            // Does not begin with scheme, so try http://
-            uri = "http://" + uri;
-        }
         try {
-            UURI uuri = UURIFactory.getInstance(uri);
-            CrawlURI curi = new CrawlURI(uuri);
-            curi.setSeed(true);
-            curi.setSchedulingDirective(SchedulingConstants.MEDIUM);
-            if (getSourceTagSeeds()) {
-                curi.setSourceTag(curi.toString());
-            }
-            publishAddedSeed(curi);
+            publishAddedSeed(seedFrom(uri));
         } catch (URIException e) {
             // try as nonseed line as fallback
-            nonseedLine(uri);
+            nonseedLine(withScheme(uri));
+        }
+    }
+
+    /**
+     * @param uri String seed-containing line
+     * @return the line, prefixed 'http://' if it does not begin with a
+     * scheme
+     */
+    protected String withScheme(String uri) {
+        if (!SCHEME.matcher(uri).matches()) {
+            // Does not begin with scheme, so try http://
+            uri = "http://" + uri;
+        }
+        return uri;
+    }
+
+    /**
+     * Make a seed CrawlURI of a line that is probably a seed.
+     *
+     * @param uri String seed-containing line
+     * @return new seed CrawlURI
+     * @throws URIException if the line is not a usable URI
+     */
+    protected CrawlURI seedFrom(String uri) throws URIException {
+        UURI uuri = UURIFactory.getInstance(withScheme(uri));
+        CrawlURI curi = new CrawlURI(uuri);
+        curi.setSeed(true);
+        curi.setSchedulingDirective(SchedulingConstants.MEDIUM);
+        if (getSourceTagSeeds()) {
+            curi.setSourceTag(curi.toString());
         }
+        return curi;
     }
     
     /**
@@ -26,6 +26,9 @@ import static org.archive.io.warc.WARCConstants.HEADER_KEY_IP;
 import static org.archive.io.warc.WARCConstants.HEADER_KEY_LAST_MODIFIED;
 import static org.archive.io.warc.WARCConstants.HEADER_KEY_PAYLOAD_DIGEST;
 import static org.archive.io.warc.WARCConstants.HEADER_KEY_PROFILE;
+import static org.archive.io.warc.WARCConstants.HEADER_KEY_REFERS_TO;
+import static org.archive.io.warc.WARCConstants.HEADER_KEY_REFERS_TO_DATE;
+import static org.archive.io.warc.WARCConstants.HEADER_KEY_REFERS_TO_TARGET_URI;
 import static org.archive.io.warc.WARCConstants.HEADER_KEY_TRUNCATED;
 import static org.archive.io.warc.WARCConstants.HTTP_REQUEST_MIMETYPE;
 import static org.archive.io.warc.WARCConstants.HTTP_RESPONSE_MIMETYPE;
@@ -77,6 +80,7 @@ import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessResult;
 import org.archive.modules.deciderules.recrawl.IdenticalDigestDecideRule;
 import org.archive.modules.extractor.Link;
+import org.archive.modules.recrawl.ContentDigestIndex;
 import org.archive.uid.GeneratorFactory;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.anvl.ANVLRecord;
@@ -158,6 +162,20 @@ public class WARCWriterProcessor extends WriterPoolProcessor {
         kp.put("writeRevisitForNotModified",writeRevisits);
     }
 
+    /**
+     * Crawl-wide index of payloads already written, by digest. If set, 
+     * and writeRevisitForIdenticalDigests is true, responses whose 
+     * payload was already written for any URI are written as 'revisit' 
+     * records referring to the earlier capture. Default is none. 
+     */
+    protected ContentDigestIndex contentDigestIndex;
+    public ContentDigestIndex getContentDigestIndex() {
+        return contentDigestIndex;
+    }
+    public void setContentDigestIndex(ContentDigestIndex contentDigestIndex) {
+        this.contentDigestIndex = contentDigestIndex;
+    }
+
     private transient List<String> cachedMetadata;
 
     public WARCWriterProcessor() {
@@ -273,11 +291,18 @@ public class WARCWriterProcessor extends WriterPoolProcessor {
         }
         headers.addLabelValue(HEADER_KEY_IP, getHostAddress(curi));
         URI rid;
+        ContentDigestIndex.Capture prior = null;
         
         if (IdenticalDigestDecideRule.hasIdenticalDigest(curi) && 
                 getWriteRevisitForIdenticalDigests()) {
             rid = writeRevisitDigest(w, timestamp, HTTP_RESPONSE_MIMETYPE,
                     baseid, curi, headers);
+        } else if (getContentDigestIndex() != null 
+                && getWriteRevisitForIdenticalDigests()
+                && (prior = getContentDigestIndex().lookup(curi)) != null) {
+            addRefersTo(headers, prior);
+            rid = writeRevisitDigest(w, timestamp, HTTP_RESPONSE_MIMETYPE,
+                    baseid, curi, headers);
         } else if (curi.getFetchStatus() == HttpStatus.SC_NOT_MODIFIED && 
                 getWriteRevisitForNotModified()) {
             rid = writeRevisitNotModified(w, timestamp,
@@ -299,6 +324,9 @@ public class WARCWriterProcessor extends WriterPoolProcessor {
             }
             rid = writeResponse(w, timestamp, HTTP_RESPONSE_MIMETYPE,
             	baseid, curi, headers);
+            if (getContentDigestIndex() != null) {
+                getContentDigestIndex().note(curi, rid.toString());
+            }
         }
         
         headers = new ANVLRecord(1);
@@ -458,6 +486,21 @@ public class WARCWriterProcessor extends WriterPoolProcessor {
         return baseid;
     }
     
+    /**
+     * Add headers identifying the earlier capture of an identical payload.
+     */
+    protected void addRefersTo(ANVLRecord namedFields, 
+            ContentDigestIndex.Capture prior) {
+        if (prior.getRecordId() != null) {
+            namedFields.addLabelValue(HEADER_KEY_REFERS_TO,
+                    '<' + prior.getRecordId() + '>');
+        }
+        namedFields.addLabelValue(HEADER_KEY_REFERS_TO_TARGET_URI,
+                prior.getUri());
+        namedFields.addLabelValue(HEADER_KEY_REFERS_TO_DATE,
+                ArchiveUtils.getLog14Date(prior.getDate()));
+    }
+    
     protected URI writeRevisitNotModified(final WARCWriter w,
             final String timestamp, 
             final URI baseid, final CrawlURI puri,
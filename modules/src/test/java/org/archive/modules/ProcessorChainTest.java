@@ -0,0 +1,84 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.archive.net.UURIFactory;
+import org.archive.spring.KeyedProperties;
+
+/**
+ * Tests for {@link ProcessorChain}'s latency sampling.
+ */
+public class ProcessorChainTest extends TestCase {
+
+    static class CountingProcessor extends Processor {
+        int count = 0;
+        protected boolean shouldProcess(CrawlURI uri) {
+            return true;
+        }
+        protected void innerProcess(CrawlURI uri) {
+            count++;
+        }
+    }
+
+    /**
+     * Candidates pass through the candidate chain before being scheduled,
+     * so all have ordinal 0; only every Nth must still be timed.
+     */
+    public void testSamplesCandidatesWithoutOrdinals() throws Exception {
+        CountingProcessor processor = new CountingProcessor();
+        List<Processor> processors = new ArrayList<Processor>();
+        processors.add(processor);
+        CandidateChain chain = new CandidateChain();
+        chain.setProcessors(processors);
+        chain.setLatencySampleInterval(10);
+
+        for (int i = 0; i < 100; i++) {
+            CrawlURI candidate = new CrawlURI(
+                    UURIFactory.getInstance("http://example.com/" + i));
+            assertEquals(0, candidate.getOrdinal());
+            candidate.getOverlayNames();
+            KeyedProperties.loadOverridesFrom(candidate);
+            try {
+                chain.process(candidate, null);
+            } finally {
+                KeyedProperties.clearOverridesFrom(candidate);
+            }
+        }
+        assertEquals(100, processor.count);
+        assertEquals(10, chain.getLatency().snapshot().getCount());
+        assertEquals(10, processor.getLatency().snapshot().getCount());
+
+        chain.setLatencySampleInterval(0);
+        CrawlURI candidate = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/off"));
+        candidate.getOverlayNames();
+        KeyedProperties.loadOverridesFrom(candidate);
+        try {
+            chain.process(candidate, null);
+        } finally {
+            KeyedProperties.clearOverridesFrom(candidate);
+        }
+        assertEquals(10, chain.getLatency().snapshot().getCount());
+    }
+}
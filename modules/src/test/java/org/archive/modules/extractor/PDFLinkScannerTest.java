@@ -0,0 +1,138 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link PDFLinkScanner}, against hand-built PDF fragments.
+ */
+public class PDFLinkScannerTest extends TestCase {
+
+    protected List<String> scan(byte[] pdf) throws IOException {
+        return new PDFLinkScanner(0).scan(new ByteArrayInputStream(pdf));
+    }
+
+    protected static byte[] bytes(String s) throws IOException {
+        return s.getBytes("ISO-8859-1");
+    }
+
+    protected static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    public void testAnnotationActions() throws IOException {
+        byte[] pdf = bytes("%PDF-1.4\n%\u00e2\u00e3\n"
+            + "1 0 obj\n<< /Type /Annot /Subtype /Link /Rect [0 0 1 1]\n"
+            + "   /A << /S /URI /URI (http://example.com/a\\(1\\)) >> >>\n"
+            + "endobj\n"
+            + "2 0 obj<</A<</S/URI/URI<687474703a2f2f6578616d706c652e636f6d2f62>>>>"
+            + "endobj\n"
+            // key named URI inside a nested array is still a dictionary key
+            + "3 0 obj [ << /URI (http://example.com/c) /Title (x) >> ] endobj\n"
+            // strings which are not /URI values are ignored
+            + "4 0 obj << /Title (http://example.com/no) /URIs (no) >> endobj\n"
+            + "5 0 obj << /A << /URI (http://example.com/a\\(1\\)) >> >> endobj\n"
+            + "trailer << /Root 1 0 R >>\n%%EOF\n");
+        assertEquals(Arrays.asList("http://example.com/a(1)",
+                "http://example.com/b", "http://example.com/c"), scan(pdf));
+    }
+
+    public void testIndirectStrings() throws IOException {
+        byte[] pdf = bytes("%PDF-1.4\n"
+            + "7 0 obj (http://example.com/before) endobj\n"
+            + "1 0 obj << /A << /S /URI /URI 7 0 R >> >> endobj\n"
+            + "2 0 obj << /A << /S /URI /URI 8 0 R >> >> endobj\n"
+            + "8 0 obj\n(http://example.com/after)\nendobj\n"
+            + "9 0 obj (http://example.com/unreferenced) endobj\n");
+        assertEquals(Arrays.asList("http://example.com/before",
+                "http://example.com/after"), scan(pdf));
+    }
+
+    public void testStreamsSkipped() throws IOException {
+        // binary stream data with unbalanced parentheses and a wrong /Length
+        byte[] pdf = concat(bytes("%PDF-1.4\n"
+            + "1 0 obj << /Length 3 >>\nstream\r\n"
+            + "( /URI (http://example.com/no) << [ \u0000\u00ff"),
+            bytes("\nendstream\nendobj\n"
+            + "2 0 obj << /A << /URI (http://example.com/yes) >> >> endobj\n"));
+        assertEquals(Arrays.asList("http://example.com/yes"), scan(pdf));
+    }
+
+    public void testObjectStream() throws IOException {
+        String objects = "11 0 12 60 13 100 "
+            + "<< /Type /Annot /A << /S /URI /URI 13 0 R >> >>\n"
+            + "<< /Type /Annot /A << /S /URI /URI (http://example.com/in) >> >>\n"
+            + "(http://example.com/indirect)";
+        Deflater deflater = new Deflater();
+        deflater.setInput(bytes(objects));
+        deflater.finish();
+        byte[] buf = new byte[4096];
+        int len = deflater.deflate(buf);
+        deflater.end();
+        byte[] data = new byte[len];
+        System.arraycopy(buf, 0, data, 0, len);
+
+        byte[] pdf = concat(bytes("%PDF-1.5\n"
+            + "20 0 obj << /Type /ObjStm /N 3 /First 18 /Filter /FlateDecode"
+            + " /Length " + len + " >>\nstream\n"), data, bytes(
+            "\nendstream\nendobj\n"
+            + "21 0 obj << /A << /URI (http://example.com/outside) >> >> endobj\n"));
+        assertEquals(Arrays.asList("http://example.com/in",
+                "http://example.com/indirect", "http://example.com/outside"),
+                scan(pdf));
+    }
+
+    public void testUnicodeAndEncrypted() throws IOException {
+        byte[] pdf = concat(bytes("1 0 obj << /URI ("),
+            new byte[] {(byte) 0xfe, (byte) 0xff, 0, 'h', 0, 't', 0, 't',
+                0, 'p', 0, ':', 0, '/', 0, '/', 0, 'x', 0, '/'},
+            bytes(") >> endobj\n"));
+        PDFLinkScanner scanner = new PDFLinkScanner(0);
+        assertEquals(Arrays.asList("http://x/"),
+                scanner.scan(new ByteArrayInputStream(pdf)));
+        assertFalse(scanner.isEncrypted());
+
+        pdf = bytes("1 0 obj << /URI (\u0012\u0089) >> endobj\n"
+            + "trailer << /Root 2 0 R /Encrypt 3 0 R >>\n");
+        scanner = new PDFLinkScanner(0);
+        scanner.scan(new ByteArrayInputStream(pdf));
+        assertTrue(scanner.isEncrypted());
+    }
+
+    public void testTruncated() throws IOException {
+        // unterminated constructs at end of input end scanning quietly
+        assertEquals(Arrays.asList("http://example.com/a"), scan(bytes(
+            "1 0 obj << /URI (http://example.com/a) /K [ << /URI (http://ex")));
+        assertTrue(scan(bytes("<< /Length 5 >> stream\nabc")).isEmpty());
+        assertTrue(scan(new byte[0]).isEmpty());
+    }
+}
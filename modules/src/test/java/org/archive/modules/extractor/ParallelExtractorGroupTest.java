@@ -0,0 +1,156 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.Processor;
+import org.archive.modules.ProcessorTestBase;
+import org.archive.net.UURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Unit test for {@link ParallelExtractorGroup}.
+ */
+public class ParallelExtractorGroupTest extends ProcessorTestBase {
+
+    /**
+     * Adds a fixed set of links, after a delay, optionally claiming
+     * extraction finished.
+     */
+    static class FixedLinksExtractor extends ContentExtractor {
+        String[] links;
+        boolean finishes;
+        long delayMs;
+        FixedLinksExtractor(boolean finishes, long delayMs, String... links) {
+            this.finishes = finishes;
+            this.delayMs = delayMs;
+            this.links = links;
+        }
+        @Override
+        protected boolean shouldExtract(CrawlURI uri) {
+            return true;
+        }
+        @Override
+        protected boolean innerExtract(CrawlURI curi) {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            for (String link : links) {
+                addOutlink(curi, link, LinkContext.NAVLINK_MISC, Hop.NAVLINK);
+            }
+            curi.getAnnotations().add(links[0]);
+            return finishes;
+        }
+    }
+
+    protected CrawlURI makeCrawlURI() throws Exception {
+        UURI uuri = UURIFactory.getInstance("http://www.archive.org/start/");
+        CrawlURI curi = new CrawlURI(uuri, null, null, LinkContext.NAVLINK_MISC);
+        curi.setContentType("text/html");
+        curi.setRecorder(ContentExtractorTestBase.createRecorder("content"));
+        return curi;
+    }
+
+    protected ParallelExtractorGroup makeGroup(Processor... members) {
+        ParallelExtractorGroup group = new ParallelExtractorGroup();
+        group.setProcessors(Arrays.asList(members));
+        group.setMaxThreads(members.length);
+        group.start();
+        return group;
+    }
+
+    protected List<String> outlinkStrings(CrawlURI curi) {
+        List<String> result = new ArrayList<String>();
+        for (Link link : curi.getOutLinks()) {
+            result.add(link.getDestination().toString());
+        }
+        return result;
+    }
+
+    public void testMatchesSequential() throws Exception {
+        // slowest member first, so members complete out of order
+        FixedLinksExtractor[] members = new FixedLinksExtractor[] {
+            new FixedLinksExtractor(false, 200, "/a1", "/a2"),
+            new FixedLinksExtractor(false, 0, "/b1"),
+            new FixedLinksExtractor(false, 50, "/c1", "/c2", "/c3"),
+        };
+        CrawlURI sequential = makeCrawlURI();
+        for (FixedLinksExtractor member : members) {
+            member.process(sequential);
+        }
+
+        ParallelExtractorGroup group = makeGroup(members);
+        CrawlURI parallel = makeCrawlURI();
+        try {
+            group.process(parallel);
+        } finally {
+            group.stop();
+        }
+        assertEquals(outlinkStrings(sequential), outlinkStrings(parallel));
+        assertEquals(sequential.getAnnotations(), parallel.getAnnotations());
+        assertFalse(parallel.hasBeenLinkExtracted());
+    }
+
+    public void testLinkExtractorFinished() throws Exception {
+        ParallelExtractorGroup group = makeGroup(
+            new FixedLinksExtractor(false, 0, "/a1"),
+            new FixedLinksExtractor(true, 50, "/b1"),
+            new FixedLinksExtractor(false, 0, "/c1"));
+        CrawlURI curi = makeCrawlURI();
+        try {
+            group.process(curi);
+        } finally {
+            group.stop();
+        }
+        // third member would have been skipped in sequence
+        assertEquals(new HashSet<String>(Arrays.asList(new String[] {
+                "http://www.archive.org/a1", "http://www.archive.org/b1"})),
+                new HashSet<String>(outlinkStrings(curi)));
+        assertTrue(curi.hasBeenLinkExtracted());
+    }
+
+    public void testNoBranchesAfter() throws Exception {
+        ParallelExtractorGroup group = makeGroup(
+            new FixedLinksExtractor(false, 0, "/a1"),
+            new FixedLinksExtractor(false, 0, "/b1"));
+        CrawlURI curi = makeCrawlURI();
+        try {
+            group.process(curi);
+        } finally {
+            group.stop();
+        }
+        try {
+            curi.getOutLinks().add(new Link(curi.getUURI(),
+                UURIFactory.getInstance("http://www.archive.org/d1"),
+                LinkContext.NAVLINK_MISC, Hop.NAVLINK));
+        } catch (URIException e) {
+            fail(e.toString());
+        }
+        assertEquals(3, curi.getOutLinks().size());
+    }
+}
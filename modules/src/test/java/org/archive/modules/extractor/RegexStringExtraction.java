@@ -0,0 +1,112 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import static org.archive.modules.extractor.Hop.SPECULATIVE;
+import static org.archive.modules.extractor.LinkContext.JS_MISC;
+
+import java.util.regex.Matcher;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURI;
+import org.archive.util.TextUtils;
+import org.archive.util.UriUtils;
+
+/**
+ * Former regular-expression implementations of
+ * {@link ExtractorJS#considerStrings} and
+ * {@link ExtractorCSS#processStyleCode}, kept as a reference for
+ * differential testing of their replacements.
+ */
+public class RegexStringExtraction {
+
+    static final String JAVASCRIPT_STRING_EXTRACTOR =
+        "(\\\\{0,8}+(?:\"|\'))(\\S{0,"+UURI.MAX_URL_LENGTH+"}?)(?:\\1)";
+
+    private static String ESCAPED_AMP = "&amp";
+    static final String CSS_BACKSLASH_ESCAPE = "\\\\([,'\"\\(\\)\\s])";
+    static final String CSS_URI_EXTRACTOR =
+    "(?i)(?:@import (?:url[(]|)|url[(])\\s*([\\\"\']?)" + // G1
+    "([^\\\"\'].{0,"+UURI.MAX_URL_LENGTH+"}?)\\1\\s*[);]"; // G2
+
+    static final String NAIVE_LIKELY_URI_PATTERN =
+        "[^<>\\s]*[\\./][^<>\\s]*(?<!\\.)";
+
+    public static long considerStrings(Extractor ext,
+            CrawlURI curi, CharSequence cs, boolean handlingJSFile) {
+        long foundLinks = 0;
+        Matcher strings =
+            TextUtils.getMatcher(JAVASCRIPT_STRING_EXTRACTOR, cs);
+        while(strings.find()) {
+            CharSequence subsequence =
+                cs.subSequence(strings.start(2), strings.end(2));
+            if(UriUtils.isLikelyUri(subsequence)) {
+                String string = subsequence.toString();
+                string = UriUtils.speculativeFixup(string, curi.getUURI());
+                foundLinks++;
+                try {
+                    int max = ext.getExtractorParameters().getMaxOutlinks();
+                    if (handlingJSFile) {
+                        Link.addRelativeToVia(curi, max, string, JS_MISC,
+                                SPECULATIVE);
+                    } else {
+                        Link.addRelativeToBase(curi, max, string, JS_MISC,
+                                SPECULATIVE);
+                    }
+                } catch (URIException e) {
+                    ext.logUriError(e, curi.getUURI(), string);
+                }
+            } else {
+               foundLinks += considerStrings(ext, curi, subsequence,
+                       handlingJSFile);
+            }
+        }
+        TextUtils.recycleMatcher(strings);
+        return foundLinks;
+    }
+
+    public static long processStyleCode(Extractor ext,
+            CrawlURI curi, CharSequence cs) {
+        long foundLinks = 0;
+        Matcher uris = null;
+        String cssUri;
+        try {
+            uris = TextUtils.getMatcher(CSS_URI_EXTRACTOR, cs);
+            while (uris.find()) {
+                cssUri = uris.group(2);
+                cssUri = TextUtils.replaceAll(ESCAPED_AMP, cssUri, "&");
+                cssUri = TextUtils.replaceAll(CSS_BACKSLASH_ESCAPE, cssUri,
+                        "$1");
+                foundLinks++;
+                int max = ext.getExtractorParameters().getMaxOutlinks();
+                try {
+                    Link.addRelativeToBase(curi, max, cssUri,
+                            LinkContext.EMBED_MISC, Hop.EMBED);
+                } catch (URIException e) {
+                    ext.logUriError(e, curi.getUURI(), cssUri);
+                }
+            }
+        } finally {
+            TextUtils.recycleMatcher(uris);
+        }
+        return foundLinks;
+    }
+}
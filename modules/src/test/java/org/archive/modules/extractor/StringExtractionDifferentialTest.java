@@ -0,0 +1,202 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.TextUtils;
+import org.archive.util.UriUtils;
+
+/**
+ * Differential test of the scanning {@link ExtractorJS#considerStrings}
+ * and {@link ExtractorCSS#processStyleCode} against the regular-expression
+ * implementations they replaced ({@link RegexStringExtraction}): for a
+ * corpus of script and style snippets and many random mutations of them,
+ * both must find the same links, in the same order, with the same errors.
+ */
+public class StringExtractionDifferentialTest extends TestCase {
+
+    static final String[] JS_CORPUS = {
+        "var a = 'http://www.example.com/a.js'; b(\"/img/b.gif\");",
+        "document.write('<img src=\"/c/d.png\">');",
+        "x = \"not a uri\"; y = 'nodots'; z = '1.5'; w = 'text/javascript';",
+        "s = \"<a href=\\\"/e/f.html\\\">\"; t = '\\'/g/h.html\\'';",
+        "u = '\\\\\\'/i.html\\\\\\''; v = \"a\\\\\\\\\\\\\\\\\\\"/j\\\"\";",
+        "'outer \"/inner.html\" more' + \"x'/y.js'z\"",
+        "loc = 'http%3A%2F%2Fexample.com%2Fk.html'; q = 'a.html?b=1&amp;c=2';",
+        "'' \"\" '.' '/' 'a.' '/.' '<x>.y' 'end.html.'",
+        "f('../up/one.css','./same.css')",
+        "'unclosed /a.html\nnext 'line/b.html'",
+    };
+
+    static final String[] CSS_CORPUS = {
+        "@import url(http://www.example.com/a.css);",
+        "@import 'b.css'; @import \"c.css\";",
+        "@IMPORT URL( 'd.css' ) screen;",
+        "body { background: url(e.png) no-repeat; }",
+        "div { background-image: url(  \"  f g.png  \"   ) }",
+        "p { background: url('h\\(1\\).png'); } q { x: url(i\\,j\\ k.png) }",
+        "a { b: url(l.png?m=1&amp;n=2) }",
+        "url() url( ) url(  ); url('') url(\"\"); url('x\"); url(\"y');",
+        "url('unclosed.png\n); url(next.png)",
+        "@import  url(two-spaces.css); @import\turl(tab.css);",
+        "url(url(nested.png))",
+        "x{y:url( 'a.png)}",
+    };
+
+    static final String[] FRAGMENTS = {
+        "'", "\"", "\\", "\\\\", "\\'", "\\\"", " ", "\t", "\n", "\r",
+        "\u0085", "\u2028", "\u000B", "(", ")", ";", ",", ".", "/", "<",
+        ">", "&amp", "url(", "URL(", "@import ", "@Import url(", "a", "9",
+        ".html", "http://", "text/javascript", "1.5",
+    };
+
+    static final String BASE = "http://www.archive.org/start/page.html";
+
+    /**
+     * Collects logged URI errors.
+     */
+    static class RecordingLoggerModule implements UriErrorLoggerModule {
+        private static final long serialVersionUID = 1L;
+        List<String> errors = new ArrayList<String>();
+        public void logUriError(URIException e, UURI u, CharSequence l) {
+            errors.add(l + ": " + e.getMessage());
+        }
+        public Logger getLogger(String name) {
+            return Logger.getLogger(name);
+        }
+    }
+
+    public void testCorpus() throws Exception {
+        for (String js : JS_CORPUS) {
+            compareJS(js);
+        }
+        for (String css : CSS_CORPUS) {
+            compareCSS(css);
+        }
+    }
+
+    public void testMutations() throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < 3000; i++) {
+            compareJS(mutate(JS_CORPUS, random));
+            compareCSS(mutate(CSS_CORPUS, random));
+        }
+    }
+
+    public void testLikelyUri() {
+        Random random = new Random(2);
+        for (int i = 0; i < 3000; i++) {
+            String s = mutate(JS_CORPUS, random);
+            int start = random.nextInt(s.length() + 1);
+            int end = start + random.nextInt(s.length() - start + 1);
+            String candidate = s.substring(start, end);
+            boolean expected =
+                TextUtils.matches(RegexStringExtraction.NAIVE_LIKELY_URI_PATTERN,
+                        candidate)
+                && !"text/javascript".equals(candidate)
+                && !TextUtils.matches("\\d+\\.\\d+", candidate);
+            assertEquals("'" + candidate + "'", expected,
+                    UriUtils.isLikelyUri(s, start, end));
+        }
+    }
+
+    protected String mutate(String[] corpus, Random random) {
+        StringBuilder sb = new StringBuilder(
+                corpus[random.nextInt(corpus.length)]);
+        int edits = 1 + random.nextInt(6);
+        for (int j = 0; j < edits; j++) {
+            int at = random.nextInt(sb.length() + 1);
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.insert(at, FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+                    break;
+                case 1:
+                    if (at < sb.length()) {
+                        sb.deleteCharAt(at);
+                    }
+                    break;
+                default:
+                    // splice in another snippet
+                    sb.insert(at, corpus[random.nextInt(corpus.length)]);
+            }
+        }
+        return sb.toString();
+    }
+
+    protected void compareJS(String js) throws Exception {
+        for (boolean jsFile : new boolean[] {true, false}) {
+            Outcome expected = new Outcome();
+            expected.count = RegexStringExtraction.considerStrings(
+                    expected.extractor, expected.curi, js, jsFile);
+            Outcome actual = new Outcome();
+            actual.count = ExtractorJS.considerStrings(
+                    actual.extractor, actual.curi, js, jsFile);
+            assertEquals("differing result for script '" + js + "'",
+                    expected.toString(), actual.toString());
+        }
+    }
+
+    protected void compareCSS(String css) throws Exception {
+        Outcome expected = new Outcome();
+        expected.count = RegexStringExtraction.processStyleCode(
+                expected.extractor, expected.curi, css);
+        Outcome actual = new Outcome();
+        actual.count = ExtractorCSS.processStyleCode(
+                actual.extractor, actual.curi, css);
+        assertEquals("differing result for style '" + css + "'",
+                expected.toString(), actual.toString());
+    }
+
+    /**
+     * Links, errors and count from one extraction.
+     */
+    static class Outcome {
+        Extractor extractor = new ExtractorJS();
+        RecordingLoggerModule logger = new RecordingLoggerModule();
+        CrawlURI curi;
+        long count;
+
+        Outcome() throws URIException {
+            extractor.setLoggerModule(logger);
+            UURI uuri = UURIFactory.getInstance(BASE);
+            curi = new CrawlURI(uuri, "LX", uuri, LinkContext.NAVLINK_MISC);
+        }
+
+        @Override
+        public String toString() {
+            List<String> links = new ArrayList<String>();
+            for (Link link : curi.getOutLinks()) {
+                links.add(link.getDestination() + " " + link.getContext()
+                        + " " + link.getHopType());
+            }
+            return count + " " + links + " " + logger.errors;
+        }
+    }
+}
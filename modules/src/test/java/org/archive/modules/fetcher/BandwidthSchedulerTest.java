@@ -0,0 +1,75 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.fetcher;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.archive.util.TokenBucket;
+
+/**
+ * Tests of {@link BandwidthScheduler}.
+ */
+public class BandwidthSchedulerTest extends TestCase {
+
+    public void testBudgets() {
+        BandwidthScheduler scheduler = new BandwidthScheduler();
+        scheduler.setMaxTotalKBSec(1000);
+        Map<String,Integer> perAddress = new HashMap<String,Integer>();
+        perAddress.put("10.0.0.1", 500);
+        scheduler.setMaxKBSecPerBindAddress(perAddress);
+        Map<String,Integer> perGroup = new HashMap<String,Integer>();
+        perGroup.put("partner", 100);
+        scheduler.setMaxKBSecPerGroup(perGroup);
+
+        // no group: the bind address's budget, within the total
+        TokenBucket bucket = scheduler.bucketFor(null);
+        assertEquals(0, bucket.getBytesPerSecond());
+        assertEquals(1000 * 1024, bucket.getParent().getBytesPerSecond());
+        assertNull(bucket.getParent().getParent());
+        assertSame(bucket, scheduler.bucketFor(""));
+
+        scheduler.setGroup("partner");
+        bucket = scheduler.bucketFor("10.0.0.1");
+        assertEquals(100 * 1024, bucket.getBytesPerSecond());
+        assertEquals(500 * 1024, bucket.getParent().getBytesPerSecond());
+        assertEquals(1000 * 1024,
+                bucket.getParent().getParent().getBytesPerSecond());
+        assertSame(bucket, scheduler.bucketFor("10.0.0.1"));
+        // the same group on another address has its own budget
+        assertNotSame(bucket, scheduler.bucketFor(""));
+
+        // changed limits apply to the next fetch
+        perGroup.put("partner", 200);
+        scheduler.setMaxTotalKBSec(0);
+        bucket = scheduler.bucketFor("10.0.0.1");
+        assertEquals(200 * 1024, bucket.getBytesPerSecond());
+        assertEquals(0, bucket.getParent().getParent().getBytesPerSecond());
+
+        bucket.charge(4096);
+        assertEquals(4096, scheduler.getTotalBytes());
+        String report = scheduler.report();
+        assertTrue(report, report.contains("Bandwidth total: "));
+        assertTrue(report, report.contains("Bandwidth 10.0.0.1: "));
+        assertTrue(report, report.contains("Bandwidth partner @ 10.0.0.1: "));
+    }
+}
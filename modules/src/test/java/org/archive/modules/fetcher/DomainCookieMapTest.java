@@ -0,0 +1,247 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.fetcher;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.Cookie;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.cookie.CookiePolicy;
+import org.apache.commons.httpclient.cookie.CookieSpec;
+
+/**
+ * Tests for {@link DomainCookieMap}.
+ */
+public class DomainCookieMapTest extends TestCase {
+
+    protected static Set<String> names(Cookie[] cookies) {
+        Set<String> names = new HashSet<String>();
+        for (Cookie c : cookies) {
+            names.add(c.getName());
+        }
+        return names;
+    }
+
+    protected static Cookie[] match(HttpState state, String host) {
+        CookieSpec spec = CookiePolicy.getCookieSpec(CookiePolicy.BROWSER_COMPATIBILITY);
+        return spec.match(host, 80, "/", false, state.getCookiesMap());
+    }
+
+    public void testMatching() {
+        HttpState state = new HttpState();
+        DomainCookieMap map = new DomainCookieMap();
+        state.setCookiesMap(map);
+        state.addCookie(new Cookie(".example.com", "wide", "1", "/", null,
+                false));
+        state.addCookie(new Cookie("www.example.com", "narrow", "2", "/",
+                null, false));
+        state.addCookie(new Cookie("other.org", "other", "3", "/", null,
+                false));
+        // replaces earlier 'narrow'
+        state.addCookie(new Cookie("www.example.com", "narrow", "4", "/",
+                null, false));
+        assertEquals(3, map.size());
+        assertEquals(names(match(state, "www.example.com")),
+                new HashSet<String>(Arrays.asList("wide", "narrow")));
+        assertEquals(1, match(state, "images.example.com").length);
+        assertEquals(0, match(state, "example.net").length);
+        assertEquals("4", map.get(new Cookie("www.example.com", "narrow", "",
+                "/", null, false).getSortKey()).getValue());
+
+        // expired cookie removes equivalent
+        state.addCookie(new Cookie("other.org", "other", "3", "/",
+                new Date(1000), false));
+        assertEquals(0, match(state, "other.org").length);
+        assertEquals(2, map.size());
+        assertEquals(2, state.getCookies().length);
+    }
+
+    public void testExpiryEviction() throws InterruptedException {
+        DomainCookieMap map = new DomainCookieMap();
+        Cookie soon = new Cookie("a.example.com", "soon", "1", "/",
+                new Date(System.currentTimeMillis() + 50), false);
+        map.put(soon.getSortKey(), soon);
+        Cookie later = new Cookie("b.example.com", "later", "1", "/",
+                new Date(System.currentTimeMillis() + 3600000), false);
+        map.put(later.getSortKey(), later);
+        assertEquals(2, map.size());
+        Thread.sleep(DomainCookieMap.PURGE_INTERVAL_MS + 100);
+        Cookie session = new Cookie("c.example.com", "session", "1", "/",
+                null, false);
+        map.put(session.getSortKey(), session);
+        assertEquals(2, map.size());
+        assertNull(map.get(soon.getSortKey()));
+        assertEquals(2, map.getHotDomainCount());
+    }
+
+    public void testColdTier() {
+        ConcurrentSkipListMap<String,Cookie> cold =
+            new ConcurrentSkipListMap<String,Cookie>();
+        DomainCookieMap map = new DomainCookieMap(cold, 10);
+        HttpState state = new HttpState();
+        state.setCookiesMap(map);
+        for (int i = 0; i < 100; i++) {
+            state.addCookie(new Cookie("host" + i + ".example.com", "c", "" + i,
+                    "/", null, false));
+        }
+        assertEquals(100, map.size());
+        assertTrue(map.getHotDomainCount() <= 10);
+        assertEquals(100, map.getHotDomainCount() + map.getColdDomainCount());
+        assertEquals(100 - map.getHotDomainCount(), cold.size());
+        // cold domain's cookies come back on use
+        Cookie[] found = match(state, "host0.example.com");
+        assertEquals(1, found.length);
+        assertEquals("0", found[0].getValue());
+        assertNull(cold.get(found[0].getSortKey()));
+        // iteration covers both tiers
+        assertEquals(100, state.getCookies().length);
+        assertEquals(100, map.entrySet().size());
+        map.clear();
+        assertEquals(0, map.size());
+        assertTrue(cold.isEmpty());
+        assertEquals(0, match(state, "host5.example.com").length);
+    }
+
+    public void testConcurrentUse() throws InterruptedException {
+        final HttpState state = new HttpState();
+        final DomainCookieMap map = new DomainCookieMap(
+                new ConcurrentSkipListMap<String,Cookie>(), 20);
+        state.setCookiesMap(map);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 5000; i++) {
+                        String host = "h" + (i % 50) + ".example.com";
+                        state.addCookie(new Cookie(host, "t" + thread, "" + i,
+                                "/", null, false));
+                        match(state, host);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(200, map.size());
+        for (int h = 0; h < 50; h++) {
+            assertEquals(4, match(state, "h" + h + ".example.com").length);
+        }
+    }
+
+    /**
+     * Writing domains to the cold map (as to BDB) must not keep other
+     * threads from starting new domains.
+     */
+    public void testFreezeWritesOutsideMapLock() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ConcurrentSkipListMap<String,Cookie> cold =
+            new ConcurrentSkipListMap<String,Cookie>() {
+            private static final long serialVersionUID = 1L;
+            public void putAll(Map<? extends String,? extends Cookie> m) {
+                writing.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.putAll(m);
+            }
+        };
+        final DomainCookieMap map = new DomainCookieMap(cold, 10);
+        for (int i = 0; i < 10; i++) {
+            Cookie c = new Cookie("host" + i + ".example.com", "c", "" + i,
+                    "/", null, false);
+            map.put(c.getSortKey(), c);
+        }
+        Thread freezer = new Thread() {
+            public void run() {
+                Cookie c = new Cookie("host10.example.com", "c", "10", "/",
+                        null, false);
+                map.put(c.getSortKey(), c);
+            }
+        };
+        freezer.setDaemon(true);
+        freezer.start();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        final Cookie added = new Cookie("other.org", "c", "x", "/", null,
+                false);
+        Thread adder = new Thread() {
+            public void run() {
+                map.put(added.getSortKey(), added);
+            }
+        };
+        adder.setDaemon(true);
+        adder.start();
+        adder.join(5000);
+        assertFalse("new domain waited on freeze", adder.isAlive());
+        // domain being written is still readable from memory
+        assertEquals("0", map.get(new Cookie("host0.example.com", "c", "",
+                "/", null, false).getSortKey()).getValue());
+
+        release.countDown();
+        freezer.join(5000);
+        assertFalse(freezer.isAlive());
+        assertEquals(12, map.size());
+        assertEquals(12, map.getHotDomainCount() + map.getColdDomainCount());
+        assertEquals(map.getColdDomainCount(), cold.size());
+        assertEquals(12, map.entrySet().size());
+    }
+
+    /**
+     * Frozen cookies leave the in-memory expiry index; those expiring
+     * while frozen are dropped when their domain is next used.
+     */
+    public void testFrozenCookiesLeaveExpiryIndex() throws Exception {
+        ConcurrentSkipListMap<String,Cookie> cold =
+            new ConcurrentSkipListMap<String,Cookie>();
+        DomainCookieMap map = new DomainCookieMap(cold, 10);
+        HttpState state = new HttpState();
+        state.setCookiesMap(map);
+        Date expiry = new Date(System.currentTimeMillis() + 300);
+        for (int i = 0; i < 40; i++) {
+            state.addCookie(new Cookie("host" + i + ".example.com", "c",
+                    "" + i, "/", expiry, false));
+        }
+        assertEquals(40, map.size());
+        assertTrue(map.getColdDomainCount() >= 30);
+        assertEquals(map.getHotDomainCount(), map.expiries.size());
+
+        Thread.sleep(400);
+        assertEquals(0, match(state, "host0.example.com").length);
+        assertNull(cold.get(new Cookie("host0.example.com", "c", "", "/",
+                null, false).getSortKey()));
+        assertEquals(39, map.size());
+        assertEquals(map.getHotDomainCount(), map.expiries.size());
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.fetcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.Arrays;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests that {@link HeritrixSSLProtocolSocketFactory} counts handshakes
+ * which resume an earlier session with the same server, and only those.
+ */
+public class HeritrixSSLProtocolSocketFactoryTest extends TmpDirTestCase {
+
+    protected static final String PASSWORD = "password";
+
+    protected SSLContext serverContext;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        File keystore = new File(getTmpDir(), "ssl-factory-test.keystore");
+        keystore.delete();
+        Process keytool = new ProcessBuilder(
+                System.getProperty("java.home") + File.separator + "bin"
+                    + File.separator + "keytool",
+                "-genkey", "-keystore", keystore.getAbsolutePath(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD,
+                "-alias", "test", "-keyalg", "RSA",
+                "-dname", "CN=localhost").redirectErrorStream(true).start();
+        InputStream out = keytool.getInputStream();
+        while (out.read() >= 0) {
+            // discard
+        }
+        assertEquals(0, keytool.waitFor());
+
+        KeyStore keys = KeyStore.getInstance("JKS");
+        FileInputStream in = new FileInputStream(keystore);
+        try {
+            keys.load(in, PASSWORD.toCharArray());
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keys, PASSWORD.toCharArray());
+        serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(kmf.getKeyManagers(), null, null);
+    }
+
+    /**
+     * Start a server accepting TLS connections, sending each one byte
+     * once the handshake is done.
+     *
+     * @param protocol sole protocol to enable, or null for the defaults
+     */
+    protected SSLServerSocket startServer(String protocol) throws Exception {
+        final SSLServerSocket server = (SSLServerSocket) serverContext
+            .getServerSocketFactory().createServerSocket(0, 50,
+                    InetAddress.getByName("127.0.0.1"));
+        if (protocol != null) {
+            server.setEnabledProtocols(new String[] {protocol});
+        }
+        Thread acceptor = new Thread("sslTestServer") {
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        SSLSocket socket = (SSLSocket) server.accept();
+                        try {
+                            socket.startHandshake();
+                            OutputStream out = socket.getOutputStream();
+                            out.write('x');
+                            out.flush();
+                            // let the client read before closing
+                            socket.getInputStream().read();
+                        } finally {
+                            socket.close();
+                        }
+                    } catch (Exception e) {
+                        // closed, or client went away
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server;
+    }
+
+    /**
+     * Connect, and read the server's byte (so that any session ticket
+     * sent after the handshake is taken up too).
+     */
+    protected void connect(HeritrixSSLProtocolSocketFactory factory,
+            int port) throws Exception {
+        HttpConnectionParams params = new HttpConnectionParams();
+        params.setConnectionTimeout(5000);
+        params.setSoTimeout(5000);
+        Socket socket = factory.createSocket("localhost", port, null, 0,
+                params);
+        try {
+            assertEquals('x', socket.getInputStream().read());
+        } finally {
+            socket.close();
+        }
+    }
+
+    protected void checkResumption(String protocol) throws Exception {
+        SSLServerSocket server = startServer(protocol);
+        SSLServerSocket other = startServer(protocol);
+        try {
+            HeritrixSSLProtocolSocketFactory factory =
+                new HeritrixSSLProtocolSocketFactory();
+            connect(factory, server.getLocalPort());
+            assertEquals(1, factory.getHandshakeLatency().snapshot().getCount());
+            assertEquals("first connection resumed", 0,
+                    factory.getResumedHandshakes());
+
+            connect(factory, server.getLocalPort());
+            assertEquals(2, factory.getHandshakeLatency().snapshot().getCount());
+            assertEquals("second connection not resumed", 1,
+                    factory.getResumedHandshakes());
+
+            // a different server's first connection is a full handshake
+            connect(factory, other.getLocalPort());
+            assertEquals(1, factory.getResumedHandshakes());
+        } finally {
+            server.close();
+            other.close();
+        }
+    }
+
+    public void testResumption() throws Exception {
+        checkResumption(null);
+    }
+
+    /**
+     * TLS 1.2 resumes sessions by ID, unlike TLS 1.3.
+     */
+    public void testResumptionTls12() throws Exception {
+        SSLServerSocket probe = (SSLServerSocket) serverContext
+            .getServerSocketFactory().createServerSocket(0);
+        boolean supported = Arrays.asList(probe.getSupportedProtocols())
+            .contains("TLSv1.2");
+        probe.close();
+        if (supported) {
+            checkResumption("TLSv1.2");
+        }
+    }
+}
@@ -18,12 +18,18 @@
  */
 package org.archive.modules.net;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import junit.framework.TestCase;
 
 import org.apache.commons.httpclient.URIException;
 import org.archive.modules.fetcher.DefaultServerCache;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
+import org.archive.util.StringIdTable;
 
 /**
  * Test the BigMapServerCache
@@ -41,6 +47,36 @@ public class ServerCacheTest extends TestCase {
         assertTrue("cache lost host", servers.containsHost(hostKey));
     }
     
+    /**
+     * The ID table is not serialized, but rebuilt to agree with the
+     * IDs of the servers and hosts restored.
+     */
+    public void testSerializedIdsRebuilt() throws Exception {
+        DefaultServerCache servers = new DefaultServerCache();
+        servers.getServerFor("www.example.com:9090");
+        servers.getHostFor("www.example.com");
+        servers.getHostFor("example.org");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(servers);
+        out.close();
+        DefaultServerCache restored = (DefaultServerCache) 
+            new ObjectInputStream(new ByteArrayInputStream(
+                    bytes.toByteArray())).readObject();
+
+        StringIdTable ids = restored.getAuthorityIds();
+        assertEquals(3, ids.size());
+        for (String name : new String[] {"www.example.com", "example.org"}) {
+            assertTrue("cache lost host", restored.containsHost(name));
+            assertEquals(ids.get(name), restored.getHostFor(name).getId());
+        }
+        assertEquals(ids.get("www.example.com:9090"), 
+                restored.getServerFor("www.example.com:9090").getId());
+        // new names get new IDs
+        assertEquals(3, restored.getHostFor("example.net").getId());
+    }
+
     public void testCrawlURIKeys()
     throws Exception {
         DefaultServerCache servers = new DefaultServerCache();
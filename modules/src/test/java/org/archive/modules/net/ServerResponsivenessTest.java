@@ -0,0 +1,68 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual 
+ *  contributors. 
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.net;
+
+import org.archive.util.TestUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * ServerResponsiveness unit tests.
+ */
+public class ServerResponsivenessTest extends TestCase {
+
+    public void testSerialization() throws Exception {
+        TestUtils.testSerialization(new ServerResponsiveness());
+    }
+
+    public void testAverages() {
+        ServerResponsiveness r = new ServerResponsiveness();
+        assertTrue(r.getAverageLatencyMs() < 0);
+        r.note(100, 1000, false);
+        assertEquals(100f, r.getAverageLatencyMs());
+        assertEquals(100f, r.getBaselineLatencyMs());
+        assertEquals(10000f, r.getAverageBytesPerSec());
+        assertEquals(0f, r.getErrorRate());
+
+        r.note(600, 0, true);
+        assertEquals(200f, r.getAverageLatencyMs(), 0.01f);
+        assertEquals(ServerResponsiveness.SMOOTHING, r.getErrorRate(), 0.0001f);
+        // baseline only drifts up slowly
+        assertTrue(r.getBaselineLatencyMs() < 110f);
+
+        for (int i = 0; i < 10; i++) {
+            r.note(10, 0, false);
+        }
+        // baseline follows average down immediately
+        assertEquals(r.getAverageLatencyMs(), r.getBaselineLatencyMs());
+    }
+
+    public void testAdjustmentCount() {
+        ServerResponsiveness r = new ServerResponsiveness();
+        r.note(100, 0, false);
+        r.note(100, 0, false);
+        assertEquals(2, r.getObservationsSinceAdjustment());
+        r.setParallelism(1);
+        assertEquals(2, r.getObservationsSinceAdjustment());
+        r.setParallelism(2);
+        assertEquals(0, r.getObservationsSinceAdjustment());
+        assertEquals(2, r.getParallelism());
+    }
+}
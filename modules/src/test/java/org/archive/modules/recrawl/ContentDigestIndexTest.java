@@ -0,0 +1,139 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.recrawl;
+
+import java.io.File;
+
+import org.apache.commons.httpclient.URIException;
+import org.apache.commons.io.FileUtils;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.Base32;
+import org.archive.util.TmpDirTestCase;
+import org.archive.util.bdbje.EnhancedEnvironment;
+
+import com.sleepycat.je.Database;
+
+/**
+ * Tests for {@link ContentDigestIndex}.
+ */
+public class ContentDigestIndexTest extends TmpDirTestCase {
+    protected File envDir;
+    protected EnhancedEnvironment env;
+    protected Database db;
+    protected ContentDigestIndex index;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        envDir = new File(getTmpDir(), "ContentDigestIndexTest");
+        FileUtils.deleteDirectory(envDir);
+        envDir.mkdirs();
+        env = EnhancedEnvironment.getTestEnvironment(envDir);
+        db = env.openDatabase(null, "digests",
+                ContentDigestIndex.DB_CONFIG.toDatabaseConfig());
+        index = new ContentDigestIndex();
+        index.db = db;
+    }
+
+    protected void tearDown() throws Exception {
+        db.close();
+        env.close();
+        FileUtils.deleteDirectory(envDir);
+        super.tearDown();
+    }
+
+    protected CrawlURI fetched(String uri, byte[] digest, final long length)
+    throws URIException {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(uri)) {
+            private static final long serialVersionUID = 1L;
+            public long getContentLength() {
+                return length;
+            }
+        };
+        curi.setContentDigest("sha1", digest);
+        curi.setFetchBeginTime(1000000000000L);
+        return curi;
+    }
+
+    protected static byte[] digest(int seed) {
+        byte[] digest = new byte[20];
+        for (int i = 0; i < digest.length; i++) {
+            digest[i] = (byte) (seed + i);
+        }
+        return digest;
+    }
+
+    public void testLookupAndNote() throws Exception {
+        CrawlURI first = fetched("http://a.example.com/x.js", digest(1), 5000);
+        assertNull(index.lookup(first));
+        index.note(first, "urn:uuid:1");
+        assertEquals(1, index.getEntries());
+
+        CrawlURI mirror = fetched("http://b.example.com/y.js?s=2", digest(1),
+                5000);
+        ContentDigestIndex.Capture prior = index.lookup(mirror);
+        assertNotNull(prior);
+        assertEquals("http://a.example.com/x.js", prior.getUri());
+        assertEquals("urn:uuid:1", prior.getRecordId());
+        assertEquals(1000000000000L, prior.getDate());
+        assertEquals(1, index.getHits());
+        assertEquals(5000, index.getBytesSaved());
+
+        // first capture is kept
+        index.note(mirror, "urn:uuid:2");
+        assertEquals(1, index.getEntries());
+        assertEquals("urn:uuid:1", index.lookup(mirror).getRecordId());
+
+        // same digest, other size: not trusted
+        assertNull(index.lookup(fetched("http://c.example.com/", digest(1),
+                4000)));
+        // too small to bother
+        CrawlURI small = fetched("http://d.example.com/", digest(2), 100);
+        index.note(small, "urn:uuid:3");
+        assertNull(index.lookup(small));
+        assertEquals(1, index.getEntries());
+    }
+
+    public void testPreloadCdx() throws Exception {
+        File cdx = new File(envDir, "prior.cdx");
+        String sha1 = Base32.encode(digest(3));
+        FileUtils.writeStringToFile(cdx,
+                " CDX N b a m s k r M S V g\n"
+                + "com,example)/z 20090101000000 http://example.com/z "
+                + "text/html 200 " + sha1 + " - - 2000 100 a.warc.gz\n"
+                + "com,example)/w 20090102000000 http://example.com/w "
+                + "warc/revisit - " + Base32.encode(digest(4))
+                + " - - 500 2100 a.warc.gz\n"
+                + "com,example)/v 20090103000000 http://example.com/v "
+                + "text/html 200 sha1:" + sha1 + " - - 2000 2600 a.warc.gz\n"
+                + "com,example)/u 20090104000000 http://example.com/u "
+                + "text/html 200 - - - 2000 4600 a.warc.gz\n");
+        assertEquals(1, index.preloadCdx(cdx));
+
+        ContentDigestIndex.Capture prior = index.lookup(
+                fetched("http://example.org/z2", digest(3), 70000));
+        assertNotNull(prior);
+        assertEquals("http://example.com/z", prior.getUri());
+        assertEquals(-1, prior.getSize());
+        assertNull(prior.getRecordId());
+        assertNull(index.lookup(fetched("http://example.org/w", digest(4),
+                70000)));
+    }
+}
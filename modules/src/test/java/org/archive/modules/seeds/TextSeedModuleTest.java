@@ -0,0 +1,135 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.seeds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.spring.ConfigString;
+
+/**
+ * Tests for {@link TextSeedModule}.
+ */
+public class TextSeedModuleTest extends TestCase {
+
+    /** Records notifications, in the order heard. */
+    public static class RecordingListener implements SeedListener {
+        List<String> heard = Collections.synchronizedList(
+                new ArrayList<String>());
+        boolean concluded = false;
+
+        public void addedSeed(CrawlURI curi) {
+            assertTrue(curi.isSeed());
+            heard.add("seed " + curi.getURI());
+        }
+        public boolean nonseedLine(String line) {
+            heard.add("line " + line);
+            return false;
+        }
+        public void concludedSeedBatch() {
+            concluded = true;
+        }
+    }
+
+    public static class RecordingConcurrentListener extends RecordingListener
+    implements ConcurrentSeedListener {
+    }
+
+    protected static String seedList(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            switch (i % 5) {
+            case 0:
+                sb.append("# comment ").append(i).append("\n");
+                break;
+            case 1:
+                sb.append("host").append(i).append(".example.com\n");
+                break;
+            case 2:
+                sb.append("https://example.org/").append(i)
+                        .append(" # trailing comment\n");
+                break;
+            case 3:
+                sb.append("+http://(org,example,").append(i).append("\n");
+                break;
+            default:
+                sb.append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    protected TextSeedModule module(String seeds, int threads,
+            RecordingListener... listeners) {
+        TextSeedModule module = new TextSeedModule();
+        module.setTextSource(new ConfigString(seeds));
+        module.setIngestThreads(threads);
+        module.setIngestBatchSize(7);
+        for (RecordingListener l : listeners) {
+            module.addSeedListener(l);
+        }
+        return module;
+    }
+
+    public void testParallelMatchesSerial() {
+        String seeds = seedList(5000);
+        RecordingListener serial = new RecordingListener();
+        module(seeds, 1, serial).announceSeeds();
+        assertEquals(3000, serial.heard.size());
+        assertEquals("seed http://host1.example.com/", serial.heard.get(0));
+        assertEquals("seed https://example.org/2", serial.heard.get(1));
+        assertEquals("line +http://(org,example,3", serial.heard.get(2));
+
+        RecordingListener ordered = new RecordingListener();
+        RecordingListener concurrent = new RecordingConcurrentListener();
+        TextSeedModule module = module(seeds, 3, ordered, concurrent);
+        module.announceSeeds();
+        assertEquals(serial.heard, ordered.heard);
+        assertEquals(new HashSet<String>(serial.heard),
+                new HashSet<String>(concurrent.heard));
+        assertEquals(serial.heard.size(), concurrent.heard.size());
+        assertTrue(ordered.concluded);
+        assertTrue(concurrent.concluded);
+        assertEquals(2000, module.getSeedsAnnounced());
+        assertEquals(5000, module.getLinesRead());
+    }
+
+    public void testAnnounceInBackground() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        TextSeedModule module = module(seedList(50000), 2, listener);
+        module.setAnnounceInBackground(true);
+        module.announceSeeds();
+        assertFalse(listener.heard.isEmpty());
+        for (int i = 0; i < 1000 && module.isAnnouncing(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(module.isAnnouncing());
+        assertTrue(listener.concluded);
+        assertEquals(30000, listener.heard.size());
+        Set<String> unique = new HashSet<String>(listener.heard);
+        assertEquals(30000, unique.size());
+    }
+}